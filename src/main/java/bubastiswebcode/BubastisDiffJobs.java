@@ -0,0 +1,373 @@
+package bubastiswebcode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import uk.ac.ebi.efo.bubastis.DiffProgress;
+import uk.ac.ebi.efo.bubastis.FetchedDocument;
+import uk.ac.ebi.efo.bubastis.OntologyChangesBean;
+import uk.ac.ebi.efo.bubastis.exceptions.DocumentTooLargeException;
+
+
+/**
+ * Runs diffs as background jobs, so that a diff of two large releases does not hold a request
+ * open until it is done:
+ * <ul>
+ * <li>POST to the servlet with the same form as BubastisDiffResults submits a diff and answers
+ * 202 with the job status, its Location is the job,</li>
+ * <li>GET job-id returns the status of the job as json: its phase and percentage done,</li>
+ * <li>GET job-id/result?format=xml|text|trig|html returns the results of a finished job, html by
+ * default,</li>
+ * <li>DELETE job-id stops the job and discards its results,</li>
+ * <li>GET cache returns the hit and miss counts and the size of the result cache as json.</li>
+ * </ul>
+ * The jobs run on a bounded pool; a diff submitted while jobThreads jobs run and jobQueueDepth
+ * more wait is answered with 503 before its upload is read. Finished jobs are kept for the
+ * jobTimeToLive init parameter in minutes.
+ */
+public class BubastisDiffJobs extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	private static final int DEFAULT_MAX_UPLOAD_SIZE = 1024;
+	private static final int DEFAULT_LOAD_THREADS = 4;
+	private static final int DEFAULT_JOB_THREADS = 2;
+	private static final int DEFAULT_JOB_QUEUE_DEPTH = 16;
+	private static final int DEFAULT_MAX_JOBS = 64;
+	private static final int DEFAULT_JOB_TIME_TO_LIVE = 60;
+	private static final int BUSY_RETRY_AFTER = 60;
+	//shared pool used to parse the two ontologies of a diff at the same time
+	private ExecutorService loadExecutor;
+	private ExecutorService jobExecutor;
+	//one per job thread and queue place, taken before an upload is read and given back by the
+	//job when it has finished or is discarded
+	private Semaphore jobSlots;
+	private DiffJobStore jobs;
+	//results of earlier diffs, shared with BubastisDiffResults
+	private DiffResultCache resultCache;
+	//size in bytes a multipart form with uploaded ontologies may have
+	private int maxUploadSize;
+	//size in bytes an uploaded ontology may have once it is decompressed
+	private long maxDocumentSize;
+
+
+	/**
+	 * set up the pools and the job store from the init parameters ontologyLoadThreads,
+	 * jobThreads, jobQueueDepth, maxJobs, jobTimeToLive, maxUploadSize and maxDecompressionRatio
+	 */
+	public void init() throws ServletException {
+		int jobThreads = Math.max(1, BubastisDiffResults.intInitParameter(this, "jobThreads", DEFAULT_JOB_THREADS));
+		int loadThreads = BubastisDiffResults.intInitParameter(this, "ontologyLoadThreads", DEFAULT_LOAD_THREADS);
+		//each running job loads two ontologies
+		this.loadExecutor = BubastisDiffResults.loadExecutor(loadThreads, 2 * jobThreads);
+		int jobQueueDepth = Math.max(0, BubastisDiffResults.intInitParameter(this, "jobQueueDepth", DEFAULT_JOB_QUEUE_DEPTH));
+		//the slots bound the jobs waiting for a thread, so the pool itself never turns one away
+		this.jobExecutor = Executors.newFixedThreadPool(jobThreads);
+		int maxJobs = Math.max(1, BubastisDiffResults.intInitParameter(this, "maxJobs", DEFAULT_MAX_JOBS));
+		//a job that has not finished holds a slot, so the store always has room for an admitted one
+		this.jobSlots = new Semaphore(Math.min(jobThreads + jobQueueDepth, maxJobs));
+		long timeToLive = BubastisDiffResults.intInitParameter(this, "jobTimeToLive", DEFAULT_JOB_TIME_TO_LIVE);
+		this.jobs = new DiffJobStore(maxJobs, TimeUnit.MINUTES.toMillis(timeToLive));
+		this.resultCache = DiffResultCache.forContext(getServletContext());
+		this.maxUploadSize = BubastisDiffResults.uploadSizeInitParameter(this, "maxUploadSize", DEFAULT_MAX_UPLOAD_SIZE);
+		this.maxDocumentSize = BubastisDiffResults.maxDocumentSize(this, this.maxUploadSize);
+	}
+
+
+	public void destroy() {
+		if (this.jobExecutor != null) {
+			this.jobExecutor.shutdownNow();
+		}
+		if (this.loadExecutor != null) {
+			this.loadExecutor.shutdownNow();
+		}
+		if (this.jobs != null) {
+			this.jobs.clear();
+		}
+	}
+
+
+	/**
+	 * submit a diff, the ontologies are given as ontology1url and ontology2url or, in a
+	 * multipart request, as ontology1file and ontology2file, which may be compressed with gzip or zip
+	 */
+	public void doPost(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+		//turn the job away before its upload is read if every slot is taken
+		if (!this.jobSlots.tryAcquire()) {
+			sendBusy(res);
+			return;
+		}
+		boolean handedOver = false;
+		try {
+			handedOver = this.submit(req, res);
+		}
+		finally {
+			if (!handedOver) {
+				this.jobSlots.release();
+			}
+		}
+	}
+
+
+	/**
+	 * read the form of a diff and submit its job, holding a job slot
+	 *
+	 * @return whether a job was created, which gives the slot back when it has finished or is discarded
+	 */
+	private boolean submit(HttpServletRequest req, HttpServletResponse res) throws IOException {
+		Object ontology1;
+		Object ontology2;
+		String annotationPropertyIRIs;
+		String contentType = req.getContentType() == null ? "" : req.getContentType();
+		if (contentType.startsWith("multipart/form-data")) {
+			//the uploads are decompressed, hashed and written to temporary files while they arrive
+			StreamingUpload upload;
+			try {
+				upload = StreamingUpload.read(req, this.maxUploadSize, this.maxDocumentSize, null);
+			} catch (DocumentTooLargeException e) {
+				sendError(res, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+				return false;
+			}
+			ontology1 = input(upload.getParameter("ontology1url"), upload.removeDocument("ontology1file"));
+			ontology2 = input(upload.getParameter("ontology2url"), upload.removeDocument("ontology2file"));
+			annotationPropertyIRIs = upload.getParameter("annotationPropertyIRIs");
+			upload.close();
+			if (ontology1 == null || ontology2 == null) {
+				//do not keep an upload that cannot be diffed
+				deleteUpload(ontology1);
+				deleteUpload(ontology2);
+			}
+		}
+		else {
+			ontology1 = input(req.getParameter("ontology1url"), null);
+			ontology2 = input(req.getParameter("ontology2url"), null);
+			annotationPropertyIRIs = req.getParameter("annotationPropertyIRIs");
+		}
+		if (ontology1 == null || ontology2 == null) {
+			sendError(res, HttpServletResponse.SC_BAD_REQUEST, "Both ontologies are needed, as a URL or as a file");
+			return false;
+		}
+
+		DiffJob job;
+		try {
+			job = new DiffJob(ontology1, ontology2, BubastisDiffResults.parseIRIs(annotationPropertyIRIs), this.loadExecutor, this.resultCache);
+		} catch (IOException e) {
+			deleteUpload(ontology1);
+			deleteUpload(ontology2);
+			throw e;
+		}
+		job.setOnFinished(this.jobSlots::release);
+		if (!this.jobs.add(job)) {
+			job.discard();
+			sendBusy(res);
+			return true;
+		}
+		try {
+			job.setFuture(this.jobExecutor.submit(job));
+		} catch (RejectedExecutionException e) {
+			//the servlet is being shut down
+			this.jobs.remove(job.getId());
+			sendBusy(res);
+			return true;
+		}
+		System.out.println("Submitted diff job " + job.getId());
+
+		res.setStatus(HttpServletResponse.SC_ACCEPTED);
+		res.setHeader("Location", jobURL(req, job));
+		sendStatus(res, job);
+		return true;
+	}
+
+
+	/**
+	 * the status of a job as json or, under job-id/result, its results
+	 */
+	public void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+		String[] path = path(req);
+		if (path.length == 1 && path[0].equals("cache")) {
+			sendCacheStatistics(res);
+			return;
+		}
+		DiffJob job = path.length == 0 ? null : this.jobs.get(path[0]);
+		if (job == null) {
+			sendError(res, HttpServletResponse.SC_NOT_FOUND, "No such job, it may have expired");
+		}
+		else if (path.length == 1) {
+			sendStatus(res, job);
+		}
+		else if (path.length == 2 && path[1].equals("result")) {
+			sendResult(req, res, job);
+		}
+		else {
+			sendError(res, HttpServletResponse.SC_NOT_FOUND, "Unknown path " + req.getPathInfo());
+		}
+	}
+
+
+	/**
+	 * stop a job and discard its results
+	 */
+	public void doDelete(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+		String[] path = path(req);
+		if (path.length != 1 || this.jobs.remove(path[0]) == null) {
+			sendError(res, HttpServletResponse.SC_NOT_FOUND, "No such job, it may have expired");
+			return;
+		}
+		res.setStatus(HttpServletResponse.SC_NO_CONTENT);
+	}
+
+
+	private void sendResult(HttpServletRequest req, HttpServletResponse res, DiffJob job) throws ServletException, IOException {
+		DiffJob.Format format;
+		try {
+			String formatParameter = req.getParameter("format");
+			format = formatParameter == null ? DiffJob.Format.HTML : DiffJob.Format.valueOf(formatParameter.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			sendError(res, HttpServletResponse.SC_BAD_REQUEST, "Unknown format " + req.getParameter("format") + ", use xml, text, trig or html");
+			return;
+		}
+
+		DiffProgress.Phase phase = job.getProgress().getPhase();
+		if (phase == DiffProgress.Phase.FAILED) {
+			sendError(res, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "The diff failed: " + job.getErrorCause());
+			return;
+		}
+		OntologyChangesBean changeBean = job.getChangeBean();
+		if (changeBean == null) {
+			sendError(res, HttpServletResponse.SC_CONFLICT, "The diff is not done yet");
+			return;
+		}
+
+		if (format == DiffJob.Format.HTML) {
+			BubastisDiffResults.writeDataToBean(req, changeBean);
+			RequestDispatcher dispatcher = getServletContext().getRequestDispatcher("/BubastisResultsPage.jsp");
+			dispatcher.forward(req, res);
+			return;
+		}
+		if (job.getRenderError(format) != null) {
+			sendError(res, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, job.getRenderError(format));
+			return;
+		}
+		//a job deleted while its result is streamed keeps the file until the end of the fetch
+		File resultFile = job.openResult(format);
+		if (resultFile == null) {
+			sendError(res, HttpServletResponse.SC_NOT_FOUND, "No such job, it may have expired");
+			return;
+		}
+		try {
+			res.setContentType(format.contentType);
+			res.setCharacterEncoding("UTF-8");
+			res.setHeader("Content-Disposition", "attachment; filename=\"bubastis-" + job.getId() + "." + format.fileExtension + "\"");
+			res.setContentLength((int) Math.min(Integer.MAX_VALUE, resultFile.length()));
+			try (OutputStream out = res.getOutputStream()) {
+				Files.copy(resultFile.toPath(), out);
+			}
+		}
+		finally {
+			job.closeResult();
+		}
+	}
+
+
+	/**
+	 * @return the URL of the job, for a submit to jobs or to jobs/
+	 */
+	private static String jobURL(HttpServletRequest req, DiffJob job) {
+		String base = req.getRequestURL().toString();
+		return (base.endsWith("/") ? base : base + "/") + job.getId();
+	}
+
+
+	private static void sendStatus(HttpServletResponse res, DiffJob job) throws IOException {
+		DiffProgress progress = job.getProgress();
+		StringBuilder json = new StringBuilder();
+		json.append("{\"id\":\"").append(job.getId()).append('"');
+		json.append(",\"phase\":\"").append(progress.getPhase().name().toLowerCase()).append('"');
+		json.append(",\"percentage\":").append(progress.getPercentage());
+		OntologyChangesBean changeBean = job.getChangeBean();
+		if (changeBean != null) {
+			json.append(",\"numChangedClasses\":").append(changeBean.getNumChangedClasses());
+			json.append(",\"numNewClasses\":").append(changeBean.getNumNewClasses());
+			json.append(",\"numDeletedClasses\":").append(changeBean.getNumDeletedClasses());
+		}
+		if (job.getErrorCause() != null) {
+			json.append(",\"error\":\"").append(StringEscapeUtils.escapeJson(job.getErrorCause())).append('"');
+		}
+		json.append('}');
+		sendJSON(res, json.toString());
+	}
+
+
+	private void sendCacheStatistics(HttpServletResponse res) throws IOException {
+		sendJSON(res, "{\"hits\":" + this.resultCache.getHits()
+				+ ",\"misses\":" + this.resultCache.getMisses()
+				+ ",\"entries\":" + this.resultCache.size()
+				+ ",\"bytes\":" + this.resultCache.getBytes() + "}");
+	}
+
+
+	private static void sendBusy(HttpServletResponse res) throws IOException {
+		res.setHeader("Retry-After", String.valueOf(BUSY_RETRY_AFTER));
+		sendError(res, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The server is busy with other diffs - please try again in a few minutes.");
+	}
+
+
+	static void sendError(HttpServletResponse res, int status, String message) throws IOException {
+		res.setStatus(status);
+		sendJSON(res, "{\"error\":\"" + StringEscapeUtils.escapeJson(message) + "\"}");
+	}
+
+
+	private static void sendJSON(HttpServletResponse res, String json) throws IOException {
+		res.setContentType("application/json");
+		res.setCharacterEncoding("UTF-8");
+		res.setHeader("Cache-Control", "no-cache");
+		res.getWriter().write(json);
+	}
+
+
+	/**
+	 * @return the parts of the path after the servlet, e.g. the job id and "result"
+	 */
+	static String[] path(HttpServletRequest req) {
+		String pathInfo = req.getPathInfo();
+		if (pathInfo == null || pathInfo.equals("/")) {
+			return new String[0];
+		}
+		return pathInfo.substring(1).split("/");
+	}
+
+
+	/**
+	 * @return the uploaded document if there is one, otherwise the URL, or null if there is neither
+	 */
+	private static Object input(String url, FetchedDocument document) {
+		if (document != null) {
+			return document;
+		}
+		if (url != null && !url.trim().isEmpty()) {
+			return url.trim();
+		}
+		return null;
+	}
+
+
+	private static void deleteUpload(Object ontology) throws IOException {
+		if (ontology instanceof FetchedDocument) {
+			((FetchedDocument) ontology).close();
+		}
+	}
+
+}
@@ -9,6 +9,16 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 
@@ -24,11 +34,11 @@ import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 
 
 
-import com.oreilly.servlet.MultipartRequest;
-import com.oreilly.servlet.multipart.DefaultFileRenamePolicy;
 
 import uk.ac.ebi.efo.bubastis.CompareOntologies;
+import uk.ac.ebi.efo.bubastis.FetchedDocument;
 import uk.ac.ebi.efo.bubastis.OntologyChangesBean;
+import uk.ac.ebi.efo.bubastis.exceptions.DocumentTooLargeException;
 import uk.ac.ebi.efo.bubastis.exceptions.Ontology1LoadException;
 import uk.ac.ebi.efo.bubastis.exceptions.Ontology2LoadException;
 
@@ -37,23 +47,171 @@ import uk.ac.ebi.efo.bubastis.exceptions.Ontology2LoadException;
 	 */
 	public class BubastisDiffResults extends HttpServlet {
 		private static final long serialVersionUID = 1L;
-		private static final int MAX_POST_SIZE = 150*1024*1024;
-		OntologyChangesBean changeBean;
+		private static final int DEFAULT_MAX_UPLOAD_SIZE = 1024;
+		private static final int DEFAULT_MAX_DECOMPRESSION_RATIO = 20;
+		private static final int DEFAULT_LOAD_THREADS = 4;
+		private static final int DEFAULT_DIFF_THREADS = 2;
+		private static final int DEFAULT_DIFF_QUEUE_DEPTH = 8;
+		//seconds a client is asked to wait before trying again when all diff slots are taken
+		private static final int BUSY_RETRY_AFTER = 60;
+		//shared pool used to parse the two ontologies of a diff at the same time
+		private ExecutorService loadExecutor;
+		//pool the diffs run on, the diff slots bound how many wait for its threads
+		private ExecutorService diffExecutor;
+		//one per diff thread and queue place, taken before an upload is read or parsed; a request
+		//that finds none free is turned away and holds no documents or ontologies
+		private Semaphore diffSlots;
+		//results of earlier diffs, shared with BubastisDiffJobs
+		private DiffResultCache resultCache;
+		//size in bytes a multipart form with uploaded ontologies may have
+		private int maxUploadSize;
+		//size in bytes an uploaded ontology may have once it is decompressed
+		private long maxDocumentSize;
 		
 
+		/**
+		 * set up the pools used for loading ontologies and for running diffs.
+		 * The size of the load pool can be set with the ontologyLoadThreads init parameter, a value
+		 * of 0 loads the two ontologies one after the other. The diffThreads init parameter sets
+		 * how many diffs run at once and diffQueueDepth how many more wait for a free thread;
+		 * further requests are turned away with 503 before their uploads are read.
+		 * The maxUploadSize init parameter sets the size in MB of a form with uploaded ontologies,
+		 * and maxDecompressionRatio how many times that an uploaded ontology may grow to when it
+		 * is decompressed.
+		 */
+		public void init() throws ServletException {
+			int diffThreads = Math.max(1, intInitParameter(this, "diffThreads", DEFAULT_DIFF_THREADS));
+			int diffQueueDepth = Math.max(0, intInitParameter(this, "diffQueueDepth", DEFAULT_DIFF_QUEUE_DEPTH));
+			int loadThreads = intInitParameter(this, "ontologyLoadThreads", DEFAULT_LOAD_THREADS);
+			//each admitted diff loads two ontologies
+			this.loadExecutor = loadExecutor(loadThreads, 2 * (diffThreads + diffQueueDepth));
+			//the slots are the only admission check, the pool itself never turns an admitted diff away
+			this.diffExecutor = Executors.newFixedThreadPool(diffThreads);
+			this.diffSlots = new Semaphore(diffThreads + diffQueueDepth);
+			this.resultCache = DiffResultCache.forContext(getServletContext());
+			this.maxUploadSize = uploadSizeInitParameter(this, "maxUploadSize", DEFAULT_MAX_UPLOAD_SIZE);
+			this.maxDocumentSize = maxDocumentSize(this, this.maxUploadSize);
+		}
+
+
+		/**
+		 * create the pool the ontologies are loaded on, with a bounded queue; a load that finds
+		 * the queue full runs on the thread that submitted it
+		 * 
+		 * @param threads - number of threads, 0 for no pool
+		 * @param queueCapacity - number of loads that may wait for a thread
+		 * @return the pool, or null to load the ontologies on the diff thread
+		 */
+		static ExecutorService loadExecutor(int threads, int queueCapacity) {
+			if (threads <= 0) {
+				return null;
+			}
+			return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(Math.max(1, queueCapacity)), (load, pool) -> {
+						//a load dropped by a pool that is shut down would never finish
+						if (pool.isShutdown()) {
+							throw new RejectedExecutionException("The load pool has been shut down");
+						}
+						load.run();
+					});
+		}
+
+
+		/**
+		 * read an init parameter of a servlet giving a size in MB
+		 * 
+		 * @return the size in bytes, at most the largest int
+		 */
+		static int uploadSizeInitParameter(HttpServlet servlet, String name, int defaultValue) throws ServletException {
+			return (int) Math.min(Integer.MAX_VALUE, intInitParameter(servlet, name, defaultValue) * 1024L * 1024L);
+		}
+
+
+		/**
+		 * read the maxDecompressionRatio init parameter of a servlet, so that a small compressed
+		 * upload cannot expand to fill the disk
+		 * 
+		 * @param maxUploadSize - size in bytes a form with uploads may have
+		 * @return the size in bytes an uploaded document may have once it is decompressed
+		 */
+		static long maxDocumentSize(HttpServlet servlet, int maxUploadSize) throws ServletException {
+			return maxUploadSize * (long) Math.max(1, intInitParameter(servlet, "maxDecompressionRatio", DEFAULT_MAX_DECOMPRESSION_RATIO));
+		}
+
+
+		/**
+		 * read a numeric init parameter of a servlet
+		 */
+		static int intInitParameter(HttpServlet servlet, String name, int defaultValue) throws ServletException {
+			String value = servlet.getInitParameter(name);
+			if (value == null) {
+				return defaultValue;
+			}
+			try {
+				return Integer.parseInt(value.trim());
+			} catch (NumberFormatException e) {
+				throw new ServletException("Init parameter " + name + " is not a number: " + value, e);
+			}
+		}
+
+
+		public void destroy() {
+			if (this.loadExecutor != null) {
+				this.loadExecutor.shutdownNow();
+			}
+			if (this.diffExecutor != null) {
+				this.diffExecutor.shutdownNow();
+			}
+		}
+
+
+		/**
+		 * run a diff on the diff pool and wait for its result
+		 *
+		 * @param diff - the diff, returning its results
+		 */
+		private OntologyChangesBean runDiff(Callable<OntologyChangesBean> diff) throws Exception {
+			Future<OntologyChangesBean> future = this.diffExecutor.submit(diff);
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				future.cancel(true);
+				Thread.currentThread().interrupt();
+				throw e;
+			} catch (ExecutionException e) {
+				//rethrow what the diff threw so that it is reported as if it had run on this thread
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw e;
+			}
+		}
+
+
 		public void doGet (HttpServletRequest req, HttpServletResponse res)
 	    							throws ServletException, IOException
 	    {				
+			//each request has its own results, requests run at the same time
+			OntologyChangesBean changeBean = new OntologyChangesBean();
+			boolean admitted = false;
 			try{
 			
+			//turn the request away before its upload is read and parsed if every diff slot is taken
+			admitted = this.diffSlots.tryAcquire();
+			if (!admitted) {
+				this.sendBusy(req, res, changeBean);
+				return;
+			}
+			
 			//set proxy
 			System.setProperty("http.proxyHost", "www-proxy.ebi.ac.uk");
 			System.setProperty("http.proxyPort", "3128");
 			
 			res.setContentType("text/html");
 			PrintWriter out = res.getWriter();  
-			//kill any old bean information lying around
-			this.changeBean = new OntologyChangesBean();
 		        
 			//determine the ContentType
 			//if it is URL encoded then load from URLs
@@ -69,21 +227,21 @@ import uk.ac.ebi.efo.bubastis.exceptions.Ontology2LoadException;
 					//if they are both null report it 
 					if (ontology2Location.isEmpty() || ontology2Location == null){
 					System.out.println("the first and second ontology url could not be found: " + ontology1Location);
-					this.changeBean.setErrorCause("Ontology 1 and Ontology 2 could not be found - check the URLs are correct");
+					changeBean.setErrorCause("Ontology 1 and Ontology 2 could not be found - check the URLs are correct");
 					throw new NullPointerException();
 					}
 					//else just the first one is broken report that
 					else{
 						System.out.println("the first ontology url could not be found: " + ontology1Location);
-						this.changeBean.setErrorCause("Ontology 1 could not be found - check the URL is correct");
-						this.changeBean.setOntology2Location("Ontology 2 loading not attempted");
+						changeBean.setErrorCause("Ontology 1 could not be found - check the URL is correct");
+						changeBean.setOntology2Location("Ontology 2 loading not attempted");
 						throw new NullPointerException();
 					}
 				}
 				else if(ontology2Location.isEmpty() || ontology2Location == null){
 					System.out.println("the second ontology url could not be found: " + ontology1Location);
-					this.changeBean.setErrorCause("Ontology 2 could not be found - check the URL is correct");
-					this.changeBean.setOntology1Location("Ontology 1 loading not attempted");
+					changeBean.setErrorCause("Ontology 2 could not be found - check the URL is correct");
+					changeBean.setOntology1Location("Ontology 1 loading not attempted");
 					throw new NullPointerException();
 				}
 				System.out.println("the first ontology location " + ontology1Location);
@@ -91,112 +249,39 @@ import uk.ac.ebi.efo.bubastis.exceptions.Ontology2LoadException;
 				
 				
 				//perform ontology change analysis
-				this.performDiff(ontology1Location, ontology2Location, annotationPropertyIRIs, req, res);
+				changeBean = this.runDiff(() -> this.performDiff(ontology1Location, ontology2Location, annotationPropertyIRIs));
+				writeDataToBean(req, changeBean);
 				
 			}			
 			//otherwise if it is multipart and contains at least one file
 			else if(req.getContentType().startsWith("multipart/form-data")){
-				System.out.println("ContentType: multipart/form-data");			
-				String tempDir = System.getProperty("java.io.tmpdir");
-				
-				System.out.println("Writing loaded files to: " + tempDir);
-				//parse the request object into the multi object
-				MultipartRequest multi = new MultipartRequest(req,tempDir,MAX_POST_SIZE, new DefaultFileRenamePolicy());			
+				System.out.println("ContentType: multipart/form-data");
 				
-				//begin test to see which parameters have been passed
-				//and to determine which combination of URL and file we are dealing with
-				if (multi.getParameter("ontology1url") != null){
-					System.out.println("First ontology is URL");
-					String ontology1URL = multi.getParameter("ontology1url");
-					System.out.println("First ontology location = " + ontology1URL);			
-					
-					//get ontology2 File if it exists
-					File ontologyFile2 = multi.getFile("ontology2file");
-					if (ontologyFile2 != null){
-						System.out.println("length file ontology2: " + ontologyFile2.length());
-						
-						List<IRI> annotationPropertyIRIs = Arrays.stream(req.getParameter("annotationPropertyIRIs").split(" ")).map(iriString -> IRI.create(iriString)).collect(Collectors.toList());
-						//now do the diff
-						this.performDiff(ontology1URL, ontologyFile2, annotationPropertyIRIs, req, res);
-						if(ontologyFile2.exists()){
-							boolean deleted = ontologyFile2.delete();
-							if(deleted) System.out.println("deleted ontologyFile2");
-						}
-					}
-					else {		
-						System.out.println("problem reading file 2");
-						this.changeBean.setErrorCause("Ontology 2 could not be found");
-						throw new NullPointerException();
-					}
-					
-				}
-				else if (multi.getParameter("ontology2url") != null){
-					System.out.println("Second ontology is URL");
-					String ontology2URL = multi.getParameter("ontology2url");
-					System.out.println("Second ontology location = " + ontology2URL);
-					
-					//get ontology1 File if it exists
-					File ontologyFile1 = multi.getFile("ontology1file");
-					if (ontologyFile1 != null){
-						System.out.println("length file ontology1: " + ontologyFile1.length());
-						
-						List<IRI> annotationPropertyIRIs = Arrays.stream(req.getParameter("annotationPropertyIRIs").split(" ")).map(iriString -> IRI.create(iriString)).collect(Collectors.toList());
-						//now do the diff
-						this.performDiff(ontologyFile1, ontology2URL, annotationPropertyIRIs, req, res);
-						if(ontologyFile1.exists()){
-							boolean deleted = ontologyFile1.delete();
-							if(deleted) System.out.println("deleted ontologyFile1");
-						}
-					}
-					else {
-						System.out.println("problem reading file 1");
-						this.changeBean.setErrorCause("File 1 could not be found");
-						throw new NullPointerException();
-					}
-					
-				}
-				//otherwise both ontology 1 and 2 URLs are null so assume the input is two files and attempt to load
-				else{
-					System.out.println("Both inputs are files");
-					
-					//read ontology file 1
-					File ontologyFile1 = multi.getFile("ontology1file");
-														
-					if (ontologyFile1 != null){
-						System.out.println("length ontology1: " + ontologyFile1.length());											
-					}														
-					else {
+				//read the form straight from the request, each uploaded ontology is decompressed, hashed
+				//and written to a temporary file while it arrives; it is only parsed if the results of
+				//the diff are not in the result cache
+				StreamingUpload upload = StreamingUpload.read(req, this.maxUploadSize, this.maxDocumentSize, null);
+				try {
+					//each ontology is either an uploaded file or a URL
+					if (upload.getDocument("ontology1file") == null && isEmpty(upload.getParameter("ontology1url"))){
 						System.out.println("problem reading file 1");
-						this.changeBean.setErrorCause("File 1 could not be found");
+						changeBean.setErrorCause("Ontology 1 could not be found");
 						throw new NullPointerException();
-					}					
-					
-					//read ontolgoy file 2
-					File ontologyFile2 = multi.getFile("ontology2file");
-					
-					if (ontologyFile2 != null){
-						System.out.println("length ontology2: " + ontologyFile2.length());
-
 					}
-					else {
+					if (upload.getDocument("ontology2file") == null && isEmpty(upload.getParameter("ontology2url"))){
 						System.out.println("problem reading file 2");
-						this.changeBean.setErrorCause("File 2 could not be found");
+						changeBean.setErrorCause("Ontology 2 could not be found");
 						throw new NullPointerException();
 					}
 					
-					List<IRI> annotationPropertyIRIs = Arrays.stream(req.getParameter("annotationPropertyIRIs").split(" ")).map(iriString -> IRI.create(iriString)).collect(Collectors.toList());
-					//perform ontology change analysis
-					this.performDiff(ontologyFile1, ontologyFile2, annotationPropertyIRIs, req, res);
-						
-					//clean up the files just read by deleting from temp
-					if(ontologyFile1.exists()){
-						boolean deleted = ontologyFile1.delete();
-						if(deleted) System.out.println("deleted ontologyFile1");
-					}
-					if(ontologyFile2.exists()){
-						boolean deleted = ontologyFile2.delete();
-						if(deleted) System.out.println("deleted ontologyFile2");
-					}
+					List<IRI> annotationPropertyIRIs = parseIRIs(upload.getParameter("annotationPropertyIRIs"));
+					//now do the diff
+					changeBean = this.runDiff(() -> this.performDiff(upload, annotationPropertyIRIs));
+					writeDataToBean(req, changeBean);
+				}
+				finally {
+					//clean up the uploaded files by deleting them from temp
+					upload.close();
 				}
 					
 			}
@@ -208,6 +293,21 @@ import uk.ac.ebi.efo.bubastis.exceptions.Ontology2LoadException;
 	    	RequestDispatcher dispatcher = getServletContext().getRequestDispatcher("/BubastisResultsPage.jsp");
 	       	dispatcher.forward(req,res);
 	       	
+			}
+			catch(DocumentTooLargeException e){
+				System.out.println("An upload is too large: " + e.getMessage());
+				
+				//write the error to the bean for display purposes
+				changeBean.setExceptionDuringDiff(e);
+				changeBean.setErrorCause("An uploaded ontology is too large once it is decompressed: " + e.getMessage());
+				
+				//set changeBean for this request so available to jsp
+				req.setAttribute("changeBean", changeBean);
+				res.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+				
+				//now forward control to the jsp file for displaying error message
+		    	RequestDispatcher dispatcher = getServletContext().getRequestDispatcher("/BubastisErrorPage.jsp");
+		       	dispatcher.forward(req,res);
 			}
 			catch(UnparsableOntologyException e){
 				System.out.println("An error occured trying to parse an ontology: " + e.getMessage());
@@ -295,120 +395,186 @@ import uk.ac.ebi.efo.bubastis.exceptions.Ontology2LoadException;
 		       	dispatcher.forward(req,res);
 				
 			}
+			finally {
+				if (admitted) {
+					this.diffSlots.release();
+				}
+			}
 
 	    }
 		
 
+		/**
+		 * answer a request that found every diff slot taken with 503 and the error page
+		 */
+		private void sendBusy(HttpServletRequest req, HttpServletResponse res, OntologyChangesBean changeBean) throws ServletException, IOException {
+			System.out.println("All diff threads are busy and the queue is full, turning the request away");
+			
+			//write the error to the bean for display purposes
+			changeBean.setErrorCause("The server is busy with other diffs - please try again in a few minutes.");
+			
+			//set changeBean for this request so available to jsp
+			req.setAttribute("changeBean", changeBean);
+			res.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			res.setHeader("Retry-After", String.valueOf(BUSY_RETRY_AFTER));
+			
+			//now forward control to the jsp file for displaying error message
+	    	RequestDispatcher dispatcher = getServletContext().getRequestDispatcher("/BubastisErrorPage.jsp");
+	       	dispatcher.forward(req,res);
+		}
+		
+
 		/**
 		 * perform the diff on two ontologies using the CompareOntologies class
-		 * write the output of this diff to a class level bean, changeBean which enables
-		 * all results to be obtained
+		 * and return the bean holding its results
 		 * 
 		 * @param ontology1Location
 		 * @param ontology2Location
-		 * @param req
-		 * @param res
+		 * @return the results of the diff
 		 * @throws OWLOntologyCreationException 
 		 */
-		private void performDiff(String ontology1Location, String ontology2Location, List<IRI> annotationPropertyIRIs, HttpServletRequest req,
-														 HttpServletResponse res) throws OWLOntologyCreationException {
+		private OntologyChangesBean performDiff(String ontology1Location, String ontology2Location, List<IRI> annotationPropertyIRIs) throws OWLOntologyCreationException {
 			
-			CompareOntologies bubastis = new CompareOntologies();
-
-			bubastis.doFindAllChanges(ontology1Location, ontology2Location, annotationPropertyIRIs);
-				
-			//after diff is done, make all data accessible to the jsp which will display it
-			this.writeDataToBean(req, res, bubastis, ontology1Location, ontology2Location);	
+			CompareOntologies bubastis = this.createCompareOntologies();
+			FetchedDocument[] documents = bubastis.fetchDocuments(ontology1Location, ontology2Location);
 				
-
-
+			return this.performDiff(bubastis, documents[0], documents[1], annotationPropertyIRIs);
 		}
 
 		
 		/**
-		 * perform the diff on two ontologies loaded from local file using the CompareOntologies class
-		 * write the output of this diff to a class level bean, changeBean which enables
-		 * all results to be obtained
+		 * perform the diff on two fetched or uploaded documents, or take its results from the
+		 * result cache if the same documents have been compared before with the same annotation
+		 * properties. The documents are closed afterwards.
 		 * 
-		 * @param ontologyFile1 - the location of the first local ontology file
-		 * @param ontologyFile2 - the location of the second local ontology file
-		 * @param req
-		 * @param res
+		 * @return the results of the diff
 		 * @throws OWLOntologyCreationException 
 		 */
-		private void performDiff(File ontologyFile1, File ontologyFile2, List<IRI> annotationPropertyIRIs, HttpServletRequest req,
-				HttpServletResponse res) throws OWLOntologyCreationException {
-			
-			CompareOntologies bubastis = new CompareOntologies();
-			bubastis.doFindAllChanges(ontologyFile1, ontologyFile2, annotationPropertyIRIs);
-			
-			String ontology1Location = ontologyFile1.getName();
-			String ontology2Location = ontologyFile2.getName();
-			//after diff is done, make all data accessible to the jsp which will display it
-			this.writeDataToBean(req, res, bubastis, ontology1Location, ontology2Location);	
+		private OntologyChangesBean performDiff(CompareOntologies bubastis, FetchedDocument document1, FetchedDocument document2, List<IRI> annotationPropertyIRIs) throws OWLOntologyCreationException {
+			try {
+				return this.cachedDiff(document1, document2, annotationPropertyIRIs, () -> {
+					bubastis.doFindAllChanges(document1, document2, annotationPropertyIRIs);
+					return bubastis.getOntologyChangesBean();
+				});
+			}
+			finally {
+				close(document1);
+				close(document2);
+			}
 		}
 		
 		
 		/**
-		 * perform the diff on two ontologies first from URL and the second loaded from local file 
-		 * using the CompareOntologies class. Write the output of this diff to a class level bean, 
-		 * changeBean which enables all results to be obtained
+		 * perform the diff on a multipart form read by StreamingUpload. An ontology given as a URL
+		 * is fetched now; the documents are only parsed if the results are not in the result cache.
 		 * 
-		 * @param ontology1Location - the location of the first local ontology file
-		 * @param ontologyFile2 - the location of the second local ontology file
-		 * @param req
-		 * @param res
+		 * @param upload - the form, with the uploaded documents
+		 * @return the results of the diff
 		 * @throws OWLOntologyCreationException 
 		 */
-		private void performDiff(String ontology1Location, File ontologyFile2, List<IRI> annotationPropertyIRIs, HttpServletRequest req,
-				HttpServletResponse res) throws OWLOntologyCreationException {
-			
-			CompareOntologies bubastis = new CompareOntologies();
-			bubastis.doFindAllChanges(ontology1Location, ontologyFile2, annotationPropertyIRIs);
+		private OntologyChangesBean performDiff(StreamingUpload upload, List<IRI> annotationPropertyIRIs) throws OWLOntologyCreationException {
+			CompareOntologies bubastis = this.createCompareOntologies();
+			FetchedDocument document1 = uploadedOrFetched(bubastis, upload, 1);
+			FetchedDocument document2 = uploadedOrFetched(bubastis, upload, 2);
 			
-			String ontology2Location = ontologyFile2.getName();
-			//after diff is done, make all data accessible to the jsp which will display it
-			this.writeDataToBean(req, res, bubastis, ontology1Location, ontology2Location);	
+			return this.performDiff(bubastis, document1, document2, annotationPropertyIRIs);
 		}
 		
 		
 		/**
-		 * perform the diff on two ontologies first from from local file, second from URL
-		 * using the CompareOntologies class. Write the output of this diff to a class level bean, 
-		 * changeBean which enables all results to be obtained
+		 * take the results of a diff from the result cache, or perform it and add its results
 		 * 
-		 * @param ontologyFile1 - the location of the first local ontology file
-		 * @param ontologyFile2 - the location of the second local ontology file
-		 * @param req
-		 * @param res
-		 * @throws OWLOntologyCreationException 
+		 * @param diff - performs the diff of the two documents
+		 * @return the results of the diff, with the locations of the documents
 		 */
-		private void performDiff(File ontologyFile1, String ontology2Location, List<IRI> annotationPropertyIRIs, HttpServletRequest req,
-				HttpServletResponse res) throws OWLOntologyCreationException {
-			
+		private OntologyChangesBean cachedDiff(FetchedDocument document1, FetchedDocument document2, List<IRI> annotationPropertyIRIs,
+				DocumentDiff diff) throws OWLOntologyCreationException {
+			String key = DiffResultCache.key(document1.getContentHash(), document2.getContentHash(), annotationPropertyIRIs, DiffResultCache.PAGE_FORMAT);
+			OntologyChangesBean changeBean = this.resultCache.getPage(key);
+			if (changeBean != null) {
+				System.out.println("Results found in the result cache, hits: " + this.resultCache.getHits() + " misses: " + this.resultCache.getMisses());
+			}
+			else {
+				changeBean = diff.perform();
+				if (!this.resultCache.putPage(key, changeBean)) {
+					key = null;
+				}
+			}
+			//the results page fetches the classes of cached results a page at a time, see BubastisResultClasses
+			changeBean.setResultsKey(key);
+			changeBean.setOntology1Location(document1.getLocation());
+			changeBean.setOntology2Location(document2.getLocation());
+			return changeBean;
+		}
+		
+		
+		/**
+		 * a diff of two documents, for cachedDiff
+		 */
+		private interface DocumentDiff {
+			OntologyChangesBean perform() throws OWLOntologyCreationException;
+		}
+		
+		
+		/**
+		 * @return the uploaded document of an ontology or, if it was given as a URL, the fetched
+		 * document, which is deleted with the upload
+		 */
+		private static FetchedDocument uploadedOrFetched(CompareOntologies bubastis, StreamingUpload upload, int ontologyNumber) throws OWLOntologyCreationException {
+			String fileField = "ontology" + ontologyNumber + "file";
+			FetchedDocument document = upload.getDocument(fileField);
+			if (document == null) {
+				String ontologyURL = upload.getParameter("ontology" + ontologyNumber + "url").trim();
+				System.out.println("Ontology " + ontologyNumber + " location = " + ontologyURL);
+				document = bubastis.fetchDocument(ontologyURL, ontologyNumber);
+				upload.addDocument(fileField, document);
+			}
+			return document;
+		}
+		
+		
+		/**
+		 * @return the annotation properties of a space separated list of IRIs, none if there is no list
+		 */
+		static List<IRI> parseIRIs(String iris) {
+			if (isEmpty(iris)) {
+				return new ArrayList<IRI>();
+			}
+			return Arrays.stream(iris.trim().split("\\s+")).map(iriString -> IRI.create(iriString)).collect(Collectors.toList());
+		}
+		
+		
+		private static boolean isEmpty(String value) {
+			return value == null || value.trim().isEmpty();
+		}
+		
+		
+		private CompareOntologies createCompareOntologies() {
 			CompareOntologies bubastis = new CompareOntologies();
-			bubastis.doFindAllChanges(ontologyFile1, ontology2Location, annotationPropertyIRIs);
-			
-			
-			String ontology1Location = ontologyFile1.getName();
-			//after diff is done, make all data accessible to the jsp which will display it
-			this.writeDataToBean(req, res, bubastis, ontology1Location, ontology2Location);	
+			bubastis.setLoadExecutor(this.loadExecutor);
+			//the jsp only needs the results, not the ontologies
+			bubastis.setDetachResults(true);
+			bubastis.setPrintChanges(false);
+			return bubastis;
+		}
+		
+		
+		private static void close(FetchedDocument document) {
+			try {
+				document.close();
+			} catch (IOException e) {
+				System.out.println("Could not delete " + document.getLocation());
+			}
 		}
 		
 		
 		/**
-		 * write all the Bubastis results to class variables so that the
-		 * class can be used as a Bean by the jsp pages
+		 * make the Bubastis results of this request available to the jsp pages
 		 * 
 		 * @param req the HttpServletRequest from the calling webpage
-		 * @param res the HttpServletResponse from the calling webpage
-		 * @param bubastis 
+		 * @param changeBean the results of the diff
 		 */
-		private void writeDataToBean(HttpServletRequest req,
-				HttpServletResponse res, CompareOntologies bubastis, 
-				String ontology1Location, String ontology2Location) {
-			
-			this.changeBean = bubastis.getOntologyChangesBean();
+		static void writeDataToBean(HttpServletRequest req, OntologyChangesBean changeBean) {
 			
 			/*
 			//set the two ontology locations
@@ -436,10 +602,12 @@ import uk.ac.ebi.efo.bubastis.exceptions.Ontology2LoadException;
 			req.setAttribute("changeBean", changeBean);
 			
 
-			//make results set available to jsp page
-			ArrayList<String> resultsSet = changeBean.getClassesWithDifferencesAsXML();
-			ArrayList<String> newClassesSet = changeBean.getNewClassesAsXML();
-			ArrayList<String> deletedClassesSet = changeBean.getDeletedClassesAsXML();
+			//make results set available to jsp page, the page fetches the classes of cached
+			//results a page at a time instead
+			boolean cached = changeBean.getResultsKey() != null;
+			ArrayList<String> resultsSet = cached ? new ArrayList<String>() : changeBean.getClassesWithDifferencesAsXML();
+			ArrayList<String> newClassesSet = cached ? new ArrayList<String>() : changeBean.getNewClassesAsXML();
+			ArrayList<String> deletedClassesSet = cached ? new ArrayList<String>() : changeBean.getDeletedClassesAsXML();
 			
 			//session.setAttribute("resultsSet", resultsSet);	
 			req.setAttribute("resultsSet", resultsSet);
@@ -0,0 +1,282 @@
+package bubastiswebcode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+/**
+ * The changed, new and deleted classes of a diff as json, a page at a time, so that the
+ * results page of a large diff loads the classes as they are looked at instead of rendering
+ * all of them into one page:
+ * <ul>
+ * <li>GET results-key?kind=changed|new|deleted&prefix=&sort=none|iri|label&offset=&limit=
+ * returns the classes of one kind, only those whose IRI starts with the prefix if one is given,
+ * in the order of the diff, by IRI or by label, from offset on and at most limit of them,</li>
+ * </ul>
+ * together with the number of classes that match. The results key is the key of the html page
+ * in the result cache, see OntologyChangesBean.getResultsKey; results that are no longer
+ * cached are answered with 404 and have to be diffed again. The answer is compressed with gzip
+ * if the client accepts it.
+ * <p/>
+ * The classes are read from the cached entry as a stream, from memory or from its file, and
+ * only the classes of the page are kept. To sort them the IRIs of the most recently fetched
+ * results are kept in sorted order, up to the parsedResults init parameter.
+ */
+public class BubastisResultClasses extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	private static final int DEFAULT_PARSED_RESULTS = 8;
+	private static final int DEFAULT_LIMIT = 100;
+	private static final int MAX_LIMIT = 1000;
+	//results of earlier diffs, shared with BubastisDiffResults and BubastisDiffJobs
+	private DiffResultCache resultCache;
+	private int maxSortedResults;
+	//sorted classes by results key, kind and sort, the least recently used first
+	private final LinkedHashMap<String, SortedClasses> sortedResults = new LinkedHashMap<String, SortedClasses>(16, 0.75f, true);
+
+
+	/**
+	 * the IRIs of the classes of one kind of cached results in sorted order, each with the
+	 * position of the class in the cached entry
+	 */
+	private static class SortedClasses {
+		final String[] iris;
+		final int[] positions;
+
+		SortedClasses(int size) {
+			this.iris = new String[size];
+			this.positions = new int[size];
+		}
+	}
+
+
+	/**
+	 * set up the sorted results from the init parameter parsedResults
+	 */
+	public void init() throws ServletException {
+		this.resultCache = DiffResultCache.forContext(getServletContext());
+		this.maxSortedResults = BubastisDiffResults.intInitParameter(this, "parsedResults", DEFAULT_PARSED_RESULTS);
+	}
+
+
+	/**
+	 * a page of the classes of a diff as json
+	 */
+	public void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+		String[] path = BubastisDiffJobs.path(req);
+		if (path.length != 1) {
+			BubastisDiffJobs.sendError(res, HttpServletResponse.SC_NOT_FOUND, "Unknown path " + req.getPathInfo());
+			return;
+		}
+		String kindName = parameter(req, "kind", "changed");
+		ResultClass.Kind kind;
+		try {
+			kind = ResultClass.Kind.valueOf(kindName.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			BubastisDiffJobs.sendError(res, HttpServletResponse.SC_BAD_REQUEST, "Unknown kind " + kindName + ", use changed, new or deleted");
+			return;
+		}
+		ResultClass.Sort sort;
+		try {
+			sort = ResultClass.Sort.valueOf(parameter(req, "sort", "none").toUpperCase());
+		} catch (IllegalArgumentException e) {
+			BubastisDiffJobs.sendError(res, HttpServletResponse.SC_BAD_REQUEST, "Unknown sort " + req.getParameter("sort") + ", use none, iri or label");
+			return;
+		}
+		int offset;
+		int limit;
+		try {
+			offset = Math.max(0, Integer.parseInt(parameter(req, "offset", "0")));
+			limit = Math.min(MAX_LIMIT, Math.max(0, Integer.parseInt(parameter(req, "limit", String.valueOf(DEFAULT_LIMIT)))));
+		} catch (NumberFormatException e) {
+			BubastisDiffJobs.sendError(res, HttpServletResponse.SC_BAD_REQUEST, "Offset and limit have to be numbers");
+			return;
+		}
+
+		String prefix = parameter(req, "prefix", "");
+		StringBuilder json = new StringBuilder();
+		json.append("{\"kind\":\"").append(kind.name().toLowerCase()).append("\",\"offset\":").append(offset).append(",\"limit\":").append(limit);
+		json.append(",\"classes\":[");
+		int total = sort == ResultClass.Sort.NONE ? appendInOrder(path[0], kind, prefix, offset, limit, json)
+				: appendSorted(path[0], kind, sort, prefix, offset, limit, json);
+		if (total < 0) {
+			BubastisDiffJobs.sendError(res, HttpServletResponse.SC_NOT_FOUND, "These results are no longer kept - please diff the ontologies again");
+			return;
+		}
+		json.append("],\"total\":").append(total).append('}');
+		sendJSON(req, res, json.toString());
+	}
+
+
+	private static String parameter(HttpServletRequest req, String name, String defaultValue) {
+		String value = req.getParameter(name);
+		return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+	}
+
+
+	/**
+	 * append the classes of the page in the order of the diff, read in one pass over the
+	 * cached classes
+	 *
+	 * @return the number of classes that match the prefix, or -1 if the results are not in
+	 * the result cache
+	 */
+	private int appendInOrder(String key, ResultClass.Kind kind, String prefix, int offset, int limit, StringBuilder json) throws IOException {
+		try (DiffResultCache.PageClasses classes = this.resultCache.getPageClasses(key, kind)) {
+			if (classes == null) {
+				return -1;
+			}
+			int total = 0;
+			while (classes.hasNext()) {
+				//without a prefix every class matches, the rest need not be read
+				if (prefix.isEmpty() && total >= offset + limit) {
+					return classes.size();
+				}
+				ResultClass resultClass = classes.next();
+				if (!resultClass.getIRI().startsWith(prefix)) {
+					continue;
+				}
+				if (total >= offset && total < offset + limit) {
+					if (total > offset) {
+						json.append(',');
+					}
+					resultClass.appendJSON(json);
+				}
+				total++;
+			}
+			return total;
+		}
+	}
+
+
+	/**
+	 * append the classes of the page in sorted order: the sorted IRIs give the positions of
+	 * the classes of the page, which are then read from the cached classes
+	 *
+	 * @return the number of classes that match the prefix, or -1 if the results are not in
+	 * the result cache
+	 */
+	private int appendSorted(String key, ResultClass.Kind kind, ResultClass.Sort sort, String prefix, int offset, int limit,
+			StringBuilder json) throws IOException {
+		SortedClasses sorted = sortedClasses(key, kind, sort);
+		if (sorted == null) {
+			return -1;
+		}
+		List<Integer> positions = new ArrayList<Integer>();
+		int total = 0;
+		for (int i = 0; i < sorted.iris.length; i++) {
+			if (!sorted.iris[i].startsWith(prefix)) {
+				continue;
+			}
+			if (total >= offset && total < offset + limit) {
+				positions.add(sorted.positions[i]);
+			}
+			total++;
+		}
+		if (positions.isEmpty()) {
+			return total;
+		}
+		Set<Integer> wanted = new HashSet<Integer>(positions);
+		Map<Integer, ResultClass> page = new HashMap<Integer, ResultClass>();
+		try (DiffResultCache.PageClasses classes = this.resultCache.getPageClasses(key, kind)) {
+			if (classes == null) {
+				return -1;
+			}
+			for (int position = 0; page.size() < positions.size() && classes.hasNext(); position++) {
+				ResultClass resultClass = classes.next();
+				if (wanted.contains(position)) {
+					page.put(position, resultClass);
+				}
+			}
+		}
+		for (int i = 0; i < positions.size(); i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			page.get(positions.get(i)).appendJSON(json);
+		}
+		return total;
+	}
+
+
+	/**
+	 * @return the classes of one kind of the cached results in sorted order, or null if the
+	 * results are not in the result cache
+	 */
+	private SortedClasses sortedClasses(String key, ResultClass.Kind kind, ResultClass.Sort sort) throws IOException {
+		String sortedKey = key + "/" + kind + "/" + sort;
+		synchronized (this.sortedResults) {
+			SortedClasses sorted = this.sortedResults.get(sortedKey);
+			if (sorted != null) {
+				return sorted;
+			}
+		}
+		List<ResultClass> classes;
+		try (DiffResultCache.PageClasses page = this.resultCache.getPageClasses(key, kind)) {
+			if (page == null) {
+				return null;
+			}
+			classes = new ArrayList<ResultClass>(page.size());
+			while (page.hasNext()) {
+				//the rows are read again for the classes of a page only
+				classes.add(page.next().withoutRows());
+			}
+		}
+		Integer[] order = new Integer[classes.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Comparator<ResultClass> comparator = ResultClass.comparator(sort);
+		Arrays.sort(order, (a, b) -> comparator.compare(classes.get(a), classes.get(b)));
+		SortedClasses sorted = new SortedClasses(order.length);
+		for (int i = 0; i < order.length; i++) {
+			sorted.iris[i] = classes.get(order[i]).getIRI();
+			sorted.positions[i] = order[i];
+		}
+		synchronized (this.sortedResults) {
+			this.sortedResults.put(sortedKey, sorted);
+			while (this.sortedResults.size() > this.maxSortedResults) {
+				this.sortedResults.remove(this.sortedResults.keySet().iterator().next());
+			}
+		}
+		return sorted;
+	}
+
+
+	/**
+	 * send json, compressed with gzip if the client accepts it
+	 */
+	private static void sendJSON(HttpServletRequest req, HttpServletResponse res, String json) throws IOException {
+		res.setContentType("application/json");
+		res.setCharacterEncoding("UTF-8");
+		res.setHeader("Cache-Control", "no-cache");
+		res.setHeader("Vary", "Accept-Encoding");
+		String acceptEncoding = req.getHeader("Accept-Encoding");
+		OutputStream out = res.getOutputStream();
+		if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			res.setHeader("Content-Encoding", "gzip");
+			out = new GZIPOutputStream(out);
+		}
+		try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+			writer.write(json);
+		}
+	}
+
+}
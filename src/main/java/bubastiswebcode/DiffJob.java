@@ -0,0 +1,397 @@
+package bubastiswebcode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+
+import care.smith.top.terminology.codes.versioning.TopVersionOntologyDiffRDFRenderer;
+import uk.ac.ebi.efo.bubastis.CompareOntologies;
+import uk.ac.ebi.efo.bubastis.DiffProgress;
+import uk.ac.ebi.efo.bubastis.FetchedDocument;
+import uk.ac.ebi.efo.bubastis.OntologyChangesBean;
+import uk.ac.ebi.efo.bubastis.OntologyFileWriter;
+import uk.ac.ebi.efo.bubastis.XMLStreamRenderer;
+
+
+/**
+ * A diff run in the background for BubastisDiffJobs. Each ontology is either a URL, given as a
+ * String, or an uploaded FetchedDocument, which is deleted once the diff is done. When the diff is done
+ * the results are written in every file format into a directory of the job and kept, with the
+ * detached results bean for the html page, until the job is discarded.
+ * <p/>
+ * The results are also added to the result cache, and a job whose documents have been compared
+ * before, with the same annotation properties, takes all its results from the cache instead.
+ */
+class DiffJob implements Runnable {
+
+	/**
+	 * formats a result can be fetched in, all but HTML are written to a file of the job
+	 */
+	enum Format {
+		XML("application/xml", "xml"), TEXT("text/plain", "txt"), TRIG("application/trig", "trig"), HTML("text/html", null);
+
+		//formats written to a file of the job
+		static final Format[] FILE_FORMATS = {XML, TEXT, TRIG};
+
+		final String contentType;
+		final String fileExtension;
+
+		Format(String contentType, String fileExtension) {
+			this.contentType = contentType;
+			this.fileExtension = fileExtension;
+		}
+	}
+
+	private final String id = UUID.randomUUID().toString();
+	private final Object ontology1;
+	private final Object ontology2;
+	private final List<IRI> annotationPropertyIRIs;
+	private final ExecutorService loadExecutor;
+	private final DiffResultCache resultCache;
+	private final DiffProgress progress = new DiffProgress();
+	private final File resultDirectory;
+	//why a format could not be written, e.g. TriG needs the version IRIs of both ontologies
+	private final Map<Format, String> renderErrors = new ConcurrentHashMap<Format, String>();
+	private volatile OntologyChangesBean changeBean;
+	private volatile String errorCause;
+	//when the job finished, 0 while it is waiting or running
+	private volatile long finishedAt;
+	private volatile Future<?> future;
+	//set when the job starts, or when it is discarded before it could start
+	private final AtomicBoolean started = new AtomicBoolean();
+	//called once the job has finished or has been discarded without running
+	private volatile Runnable onFinished;
+	//fetches streaming a result file; the files of a discarded job are deleted by the last of them
+	private int readers;
+	private boolean discarded;
+
+
+	/**
+	 * @param ontology1 - URL as a String or uploaded FetchedDocument of the first ontology
+	 * @param ontology2 - URL as a String or uploaded FetchedDocument of the second ontology
+	 * @param annotationPropertyIRIs - annotation properties to compare
+	 * @param loadExecutor - pool to parse both ontologies at once, null to parse one after the other
+	 * @param resultCache - cache to take the results from and add them to, or null
+	 */
+	DiffJob(Object ontology1, Object ontology2, List<IRI> annotationPropertyIRIs, ExecutorService loadExecutor,
+			DiffResultCache resultCache) throws IOException {
+		this.ontology1 = ontology1;
+		this.ontology2 = ontology2;
+		this.annotationPropertyIRIs = annotationPropertyIRIs;
+		this.loadExecutor = loadExecutor;
+		this.resultCache = resultCache;
+		this.resultDirectory = Files.createTempDirectory("bubastis-job").toFile();
+	}
+
+
+	public void run() {
+		//a job that was discarded while it waited does not run
+		if (!started.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			CompareOntologies bubastis = new CompareOntologies();
+			bubastis.setLoadExecutor(this.loadExecutor);
+			//only the results are kept until the job is discarded
+			bubastis.setDetachResults(true);
+			bubastis.setPrintChanges(false);
+			bubastis.setProgress(this.progress);
+			this.progress.setPhase(DiffProgress.Phase.LOADING_1);
+
+			FetchedDocument[] documents = fetchDocuments(bubastis);
+			try {
+				if (!readFromCache(documents[0], documents[1])) {
+					bubastis.doFindAllChanges(documents[0], documents[1], annotationPropertyIRIs);
+
+					this.progress.setPhase(DiffProgress.Phase.RENDERING);
+					OntologyChangesBean results = bubastis.getOntologyChangesBean();
+					render(results);
+					addToCache(documents[0], documents[1], results);
+					this.changeBean = results;
+				}
+				this.progress.setPhase(DiffProgress.Phase.DONE);
+			}
+			finally {
+				close(documents[0]);
+				close(documents[1]);
+			}
+		}
+		catch (Exception e) {
+			System.out.println("Diff job " + id + " failed: " + e);
+			this.errorCause = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+			this.progress.setPhase(DiffProgress.Phase.FAILED);
+		}
+		finally {
+			deleteUpload(ontology1);
+			deleteUpload(ontology2);
+			this.finishedAt = System.currentTimeMillis();
+			finished();
+		}
+	}
+
+
+	private void finished() {
+		Runnable callback = this.onFinished;
+		if (callback != null) {
+			callback.run();
+		}
+	}
+
+
+	/**
+	 * fetch the ontologies given as URLs, the uploaded ones have been read already
+	 */
+	private FetchedDocument[] fetchDocuments(CompareOntologies bubastis) throws OWLOntologyCreationException {
+		if (!(ontology1 instanceof FetchedDocument) && !(ontology2 instanceof FetchedDocument)) {
+			return bubastis.fetchDocuments(ontology1.toString(), ontology2.toString());
+		}
+		FetchedDocument document1 = ontology1 instanceof FetchedDocument
+				? (FetchedDocument) ontology1 : bubastis.fetchDocument(ontology1.toString(), 1);
+		FetchedDocument document2 = ontology2 instanceof FetchedDocument
+				? (FetchedDocument) ontology2 : bubastis.fetchDocument(ontology2.toString(), 2);
+		return new FetchedDocument[]{document1, document2};
+	}
+
+
+	/**
+	 * take the results from the result cache if it holds the page and every file format
+	 *
+	 * @return whether the results were found
+	 */
+	private boolean readFromCache(FetchedDocument document1, FetchedDocument document2) throws IOException {
+		if (resultCache == null) {
+			return false;
+		}
+		String pageKey = cacheKey(document1, document2, Format.HTML);
+		OntologyChangesBean results = resultCache.getPage(pageKey);
+		if (results == null) {
+			return false;
+		}
+		for (Format format : Format.FILE_FORMATS) {
+			byte[] result = resultCache.get(cacheKey(document1, document2, format));
+			if (result != null) {
+				Files.write(getResultFile(format).toPath(), result);
+				continue;
+			}
+			//a format that could not be written is not written again either
+			byte[] renderError = resultCache.get(renderErrorKey(document1, document2, format));
+			if (renderError == null) {
+				return false;
+			}
+			renderErrors.put(format, new String(renderError, StandardCharsets.UTF_8));
+		}
+		System.out.println("Diff job " + id + " found its results in the result cache");
+		results.setResultsKey(pageKey);
+		results.setOntology1Location(document1.getLocation());
+		results.setOntology2Location(document2.getLocation());
+		this.changeBean = results;
+		return true;
+	}
+
+
+	/**
+	 * add the page and the file formats that could be written to the result cache
+	 */
+	private void addToCache(FetchedDocument document1, FetchedDocument document2, OntologyChangesBean results) throws IOException {
+		if (resultCache == null) {
+			return;
+		}
+		String pageKey = cacheKey(document1, document2, Format.HTML);
+		if (resultCache.putPage(pageKey, results)) {
+			results.setResultsKey(pageKey);
+		}
+		for (Format format : Format.FILE_FORMATS) {
+			File resultFile = getResultFile(format);
+			String renderError = renderErrors.get(format);
+			if (renderError != null) {
+				resultCache.put(renderErrorKey(document1, document2, format), renderError.getBytes(StandardCharsets.UTF_8));
+			}
+			else if (resultCache.canHold(resultFile.length())) {
+				resultCache.put(cacheKey(document1, document2, format), Files.readAllBytes(resultFile.toPath()));
+			}
+		}
+	}
+
+
+	private String cacheKey(FetchedDocument document1, FetchedDocument document2, Format format) {
+		return DiffResultCache.key(document1.getContentHash(), document2.getContentHash(), annotationPropertyIRIs,
+				format.name().toLowerCase());
+	}
+
+
+	private String renderErrorKey(FetchedDocument document1, FetchedDocument document2, Format format) {
+		return DiffResultCache.key(document1.getContentHash(), document2.getContentHash(), annotationPropertyIRIs,
+				format.name().toLowerCase() + "-error");
+	}
+
+
+	private static void close(FetchedDocument document) {
+		try {
+			document.close();
+		} catch (IOException e) {
+			System.out.println("Could not delete " + document.getLocation());
+		}
+	}
+
+
+	/**
+	 * write the results in every file format, a format that fails is reported when it is fetched.
+	 * The xml lines of the html page are built when the page is first shown.
+	 */
+	private void render(OntologyChangesBean results) {
+		try {
+			new XMLStreamRenderer().writeDiffAsXMLFile(getResultFile(Format.XML).getPath(), results, null);
+		} catch (IOException | RuntimeException e) {
+			renderErrors.put(Format.XML, String.valueOf(e.getMessage()));
+		}
+		try {
+			new OntologyFileWriter().writeDiffToFile(getResultFile(Format.TEXT).getPath(), results);
+		} catch (IOException | RuntimeException e) {
+			renderErrors.put(Format.TEXT, String.valueOf(e.getMessage()));
+		}
+		try {
+			new TopVersionOntologyDiffRDFRenderer().streamDiffToFile(getResultFile(Format.TRIG).getPath(), results, RDFFormat.TRIG);
+		} catch (IOException | RuntimeException e) {
+			renderErrors.put(Format.TRIG, "The diff could not be written as TriG: " + e.getMessage());
+		}
+	}
+
+
+	private static void deleteUpload(Object ontology) {
+		if (ontology instanceof FetchedDocument) {
+			close((FetchedDocument) ontology);
+		}
+	}
+
+
+	/**
+	 * stop the job if it is still waiting or running and delete its results
+	 */
+	void discard() {
+		Future<?> running = this.future;
+		if (running != null) {
+			running.cancel(true);
+		}
+		synchronized (this) {
+			discarded = true;
+			if (readers == 0) {
+				deleteResults();
+			}
+		}
+		if (started.compareAndSet(false, true)) {
+			//the job never ran, the uploads are not deleted by run
+			deleteUpload(ontology1);
+			deleteUpload(ontology2);
+			finished();
+		}
+	}
+
+
+	private void deleteResults() {
+		File[] files = resultDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		resultDirectory.delete();
+	}
+
+
+	/**
+	 * start a fetch of a result file, which is not deleted until the fetch is ended by closeResult
+	 *
+	 * @return the file, or null if the job has been discarded
+	 */
+	synchronized File openResult(Format format) {
+		if (discarded) {
+			return null;
+		}
+		readers++;
+		return getResultFile(format);
+	}
+
+
+	/**
+	 * end a fetch started by openResult, deleting the results if the job was discarded meanwhile
+	 */
+	synchronized void closeResult() {
+		readers--;
+		if (discarded && readers == 0) {
+			deleteResults();
+		}
+	}
+
+
+	String getId() {
+		return id;
+	}
+
+
+	DiffProgress getProgress() {
+		return progress;
+	}
+
+
+	boolean isFinished() {
+		return finishedAt != 0;
+	}
+
+
+	long getFinishedAt() {
+		return finishedAt;
+	}
+
+
+	void setFuture(Future<?> future) {
+		this.future = future;
+	}
+
+
+	/**
+	 * @param onFinished - called once, when the job has finished or when it is discarded without
+	 * having run
+	 */
+	void setOnFinished(Runnable onFinished) {
+		this.onFinished = onFinished;
+	}
+
+
+	/**
+	 * @return the detached results, null until the job is done
+	 */
+	OntologyChangesBean getChangeBean() {
+		return changeBean;
+	}
+
+
+	String getErrorCause() {
+		return errorCause;
+	}
+
+
+	File getResultFile(Format format) {
+		return new File(resultDirectory, "diff." + format.fileExtension);
+	}
+
+
+	/**
+	 * @return why the result could not be written in the format, null if it was written
+	 */
+	String getRenderError(Format format) {
+		return renderErrors.get(format);
+	}
+
+}
@@ -0,0 +1,112 @@
+package bubastiswebcode;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+/**
+ * The diff jobs of BubastisDiffJobs by id, bounded in number. A finished job is discarded, with
+ * its results, once it is older than the time to live or when room is needed for a new job, the
+ * job finished first going first. Jobs that are waiting or running are only discarded when
+ * they are removed.
+ */
+class DiffJobStore {
+
+	private final int maxJobs;
+	private final long timeToLiveMillis;
+	//in the order the jobs were added
+	private final LinkedHashMap<String, DiffJob> jobs = new LinkedHashMap<String, DiffJob>();
+
+
+	/**
+	 * @param maxJobs - number of jobs kept at most, waiting, running or finished
+	 * @param timeToLiveMillis - how long the results of a finished job are kept
+	 */
+	DiffJobStore(int maxJobs, long timeToLiveMillis) {
+		this.maxJobs = maxJobs;
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+
+
+	/**
+	 * @return false if the store is full of jobs that have not finished
+	 */
+	synchronized boolean add(DiffJob job) {
+		discardExpired();
+		if (jobs.size() >= maxJobs) {
+			discardOldestFinished();
+		}
+		if (jobs.size() >= maxJobs) {
+			return false;
+		}
+		jobs.put(job.getId(), job);
+		return true;
+	}
+
+
+	/**
+	 * @return the job, or null if there is no job with the id or it has expired
+	 */
+	synchronized DiffJob get(String id) {
+		discardExpired();
+		return jobs.get(id);
+	}
+
+
+	/**
+	 * remove and discard a job
+	 *
+	 * @return the job, or null if there is no job with the id
+	 */
+	synchronized DiffJob remove(String id) {
+		DiffJob job = jobs.remove(id);
+		if (job != null) {
+			job.discard();
+		}
+		return job;
+	}
+
+
+	/**
+	 * discard all jobs
+	 */
+	synchronized void clear() {
+		for (DiffJob job : jobs.values()) {
+			job.discard();
+		}
+		jobs.clear();
+	}
+
+
+	private void discardExpired() {
+		long now = System.currentTimeMillis();
+		Iterator<DiffJob> it = jobs.values().iterator();
+		while (it.hasNext()) {
+			DiffJob job = it.next();
+			if (job.isFinished() && now - job.getFinishedAt() > timeToLiveMillis) {
+				it.remove();
+				job.discard();
+			}
+		}
+	}
+
+
+	private void discardOldestFinished() {
+		DiffJob oldest = null;
+		for (DiffJob job : jobs.values()) {
+			if (job.isFinished() && (oldest == null || job.getFinishedAt() < oldest.getFinishedAt())) {
+				oldest = job;
+			}
+		}
+		if (oldest != null) {
+			jobs.remove(oldest.getId());
+			oldest.discard();
+		}
+	}
+
+
+	synchronized int size() {
+		return jobs.size();
+	}
+
+}
@@ -0,0 +1,545 @@
+package bubastiswebcode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+
+import org.semanticweb.owlapi.model.IRI;
+
+import uk.ac.ebi.efo.bubastis.ContentHash;
+import uk.ac.ebi.efo.bubastis.OWLClassAxiomsInfo;
+import uk.ac.ebi.efo.bubastis.OntologyChangesBean;
+
+
+/**
+ * Results of earlier diffs, so that a pair of documents that is submitted again, e.g. the
+ * current release against the last one, is answered without loading and comparing them. An
+ * entry is keyed by the content hashes of both documents, the annotation properties compared
+ * and the format of the result, and holds the result as bytes: a file format as it was
+ * written, the html page as its counts and classes, see putPage.
+ * <p/>
+ * The entries in memory are bounded by their total size, the least recently used going first.
+ * If a directory is given every entry is also written to it, bounded by a size of its own, so
+ * that the results are kept across restarts; an entry that is no longer in memory is read
+ * back from there. An entry too large for memory is only written to the directory and read
+ * from its file as a stream, see open.
+ * <p/>
+ * One cache is shared by the servlets of the web application, see forContext.
+ */
+class DiffResultCache {
+
+	//format of the entries holding the html page of a diff
+	static final String PAGE_FORMAT = "html";
+
+	private static final String CONTEXT_ATTRIBUTE = DiffResultCache.class.getName();
+	private static final long MB = 1024 * 1024;
+	private static final int DEFAULT_SIZE = 256;
+	private static final int DEFAULT_DISK_SIZE = 2048;
+	private static final String SUFFIX = ".result";
+	//increase when the encoding of a page changes, older pages are then diffed again
+	private static final int PAGE_VERSION = 2;
+
+	private final long maxBytes;
+	private final File directory;
+	private final long maxDiskBytes;
+	//in access order, the least recently used first
+	private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private long totalBytes;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+
+	/**
+	 * writes an entry of the cache
+	 */
+	interface EntryWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * the classes of one kind of a cached page, read one after the other from memory or from
+	 * the file of the page, see getPageClasses
+	 */
+	static class PageClasses implements Closeable {
+		private final DataInputStream in;
+		private final int size;
+		private int read;
+
+		private PageClasses(DataInputStream in, int size) {
+			this.in = in;
+			this.size = size;
+		}
+
+		int size() {
+			return size;
+		}
+
+		boolean hasNext() {
+			return read < size;
+		}
+
+		ResultClass next() throws IOException {
+			read++;
+			return ResultClass.read(in);
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * @param maxBytes - total size the entries in memory may take up
+	 * @param directory - directory the entries are written to, created if missing, or null to keep them in memory only
+	 * @param maxDiskBytes - total size the entries in the directory may take up
+	 */
+	DiffResultCache(long maxBytes, File directory, long maxDiskBytes) throws IOException {
+		this.maxBytes = maxBytes;
+		this.directory = directory;
+		this.maxDiskBytes = maxDiskBytes;
+		if (directory != null) {
+			Files.createDirectories(directory.toPath());
+		}
+	}
+
+
+	/**
+	 * the cache of the web application, created on first use from the context parameters
+	 * resultCacheSize, in MB, resultCacheDirectory and resultCacheDiskSize, in MB. A size of 0
+	 * keeps nothing in memory. Without a directory the results are kept in a temporary one,
+	 * deleted when the server stops, so that results too large for memory are still cached.
+	 */
+	static synchronized DiffResultCache forContext(ServletContext context) throws ServletException {
+		DiffResultCache cache = (DiffResultCache) context.getAttribute(CONTEXT_ATTRIBUTE);
+		if (cache == null) {
+			long size = intContextParameter(context, "resultCacheSize", DEFAULT_SIZE);
+			long diskSize = intContextParameter(context, "resultCacheDiskSize", DEFAULT_DISK_SIZE);
+			String directory = context.getInitParameter("resultCacheDirectory");
+			try {
+				File cacheDirectory;
+				if (directory == null || directory.trim().isEmpty()) {
+					cacheDirectory = Files.createTempDirectory("bubastis-results").toFile();
+					Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteDirectory(cacheDirectory)));
+				} else {
+					cacheDirectory = new File(directory.trim());
+				}
+				cache = new DiffResultCache(size * MB, cacheDirectory, diskSize * MB);
+			} catch (IOException e) {
+				throw new ServletException("Could not create the result cache directory " + directory, e);
+			}
+			context.setAttribute(CONTEXT_ATTRIBUTE, cache);
+		}
+		return cache;
+	}
+
+
+	private static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+
+	private static int intContextParameter(ServletContext context, String name, int defaultValue) throws ServletException {
+		String value = context.getInitParameter(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new ServletException("Context parameter " + name + " is not a number: " + value, e);
+		}
+	}
+
+
+	/**
+	 * @param contentHash1 - content hash of the first document, see ContentHash
+	 * @param contentHash2 - content hash of the second document
+	 * @param annotationPropertyIRIs - annotation properties compared, in any order
+	 * @param format - format of the result
+	 * @return the key of the result
+	 */
+	static String key(String contentHash1, String contentHash2, List<IRI> annotationPropertyIRIs, String format) {
+		StringBuilder key = new StringBuilder();
+		key.append(contentHash1).append('\n').append(contentHash2).append('\n');
+		//the same properties in another order give the same diff
+		for (IRI iri : new TreeSet<IRI>(annotationPropertyIRIs)) {
+			key.append(iri).append(' ');
+		}
+		key.append('\n').append(format);
+		MessageDigest digest = ContentHash.createDigest();
+		return ContentHash.toHex(digest.digest(key.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+
+	/**
+	 * @return the result, or null if it is not in the cache
+	 */
+	byte[] get(String key) {
+		byte[] result;
+		synchronized (this) {
+			result = entries.get(key);
+		}
+		if (result == null && directory != null) {
+			result = read(key);
+			if (result != null) {
+				putInMemory(key, result);
+			}
+		}
+		if (result == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return result;
+	}
+
+
+	/**
+	 * add a result, a result larger than the cache is not kept
+	 *
+	 * @return whether the result was kept, in memory or in the directory
+	 */
+	boolean put(String key, byte[] result) {
+		boolean kept = putInMemory(key, result);
+		if (directory != null && result.length <= maxDiskBytes) {
+			kept |= write(key, out -> out.write(result));
+		}
+		return kept;
+	}
+
+
+	/**
+	 * add a result written by the writer. A result too large for memory is written straight
+	 * to the directory, without being held in memory; one the cache would not keep is not
+	 * written at all.
+	 *
+	 * @param length - number of bytes the writer writes
+	 * @return whether the result was kept, in memory or in the directory
+	 */
+	boolean put(String key, long length, EntryWriter writer) {
+		//an entry in memory is one array
+		if (length <= maxBytes && length <= Integer.MAX_VALUE - 8) {
+			ByteArrayOutputStream result = new ByteArrayOutputStream((int) length);
+			try (DataOutputStream out = new DataOutputStream(result)) {
+				writer.write(out);
+			} catch (IOException e) {
+				//cannot happen when writing to memory
+				throw new IllegalStateException(e);
+			}
+			return put(key, result.toByteArray());
+		}
+		if (directory != null && length <= maxDiskBytes) {
+			//an older result of the key in memory would be found first
+			removeFromMemory(key);
+			return write(key, writer);
+		}
+		return false;
+	}
+
+
+	/**
+	 * @return the result as a stream, read from its file if it is too large for memory, or null
+	 * if it is not in the cache
+	 */
+	DataInputStream open(String key) {
+		if (directory != null) {
+			boolean inMemory;
+			synchronized (this) {
+				inMemory = entries.containsKey(key);
+			}
+			File file = new File(directory, key + SUFFIX);
+			if (!inMemory && file.length() > maxBytes) {
+				try {
+					DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+					//the modification time orders the files for eviction
+					file.setLastModified(System.currentTimeMillis());
+					hits.incrementAndGet();
+					return in;
+				} catch (FileNotFoundException e) {
+					//evicted since, looked up as missing below
+				}
+			}
+		}
+		byte[] result = get(key);
+		return result == null ? null : new DataInputStream(new ByteArrayInputStream(result));
+	}
+
+
+	/**
+	 * @return whether a result of the given size would be kept, in memory or in the directory
+	 */
+	boolean canHold(long length) {
+		return length <= maxBytes || (directory != null && length <= maxDiskBytes);
+	}
+
+
+	private synchronized void removeFromMemory(String key) {
+		byte[] previous = entries.remove(key);
+		if (previous != null) {
+			totalBytes -= previous.length;
+		}
+	}
+
+
+	private synchronized boolean putInMemory(String key, byte[] result) {
+		if (result.length > maxBytes) {
+			return false;
+		}
+		byte[] previous = entries.put(key, result);
+		if (previous != null) {
+			totalBytes -= previous.length;
+		}
+		totalBytes += result.length;
+		Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, byte[]> eldest = it.next();
+			totalBytes -= eldest.getValue().length;
+			it.remove();
+		}
+		return true;
+	}
+
+
+	private byte[] read(String key) {
+		File file = new File(directory, key + SUFFIX);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			byte[] result = Files.readAllBytes(file.toPath());
+			//the modification time orders the files for eviction
+			file.setLastModified(System.currentTimeMillis());
+			return result;
+		} catch (IOException e) {
+			System.out.println("Could not read cached result " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+
+	private boolean write(String key, EntryWriter writer) {
+		File file = new File(directory, key + SUFFIX);
+		try {
+			//written next to it first, so that a result is never read half written
+			File partial = File.createTempFile("result", ".partial", directory);
+			try {
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial)))) {
+					writer.write(out);
+				}
+				Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(partial.toPath());
+			}
+		} catch (IOException e) {
+			System.out.println("Could not write cached result " + file + ": " + e.getMessage());
+			return false;
+		}
+		evictFromDisk(file);
+		return true;
+	}
+
+
+	/**
+	 * delete the least recently used files until the rest fit into the size limit
+	 *
+	 * @param written - file just written, kept
+	 */
+	private synchronized void evictFromDisk(File written) {
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		if (files == null) {
+			return;
+		}
+		long diskBytes = 0;
+		for (File file : files) {
+			diskBytes += file.length();
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (int i = 0; i < files.length && diskBytes > maxDiskBytes; i++) {
+			long length = files[i].length();
+			if (!files[i].equals(written) && files[i].delete()) {
+				diskBytes -= length;
+			}
+		}
+	}
+
+
+	/**
+	 * @return the results for the html page with the counts of the cached diff but without
+	 * locations or classes, read a page at a time with getPageClasses, or null if they are not
+	 * in the cache
+	 */
+	OntologyChangesBean getPage(String key) {
+		DataInputStream in = open(key);
+		if (in == null) {
+			return null;
+		}
+		try (DataInputStream page = in) {
+			if (page.readInt() != PAGE_VERSION) {
+				return null;
+			}
+			OntologyChangesBean changeBean = new OntologyChangesBean();
+			changeBean.setNumChangedClasses(page.readInt());
+			changeBean.setNumNewClasses(page.readInt());
+			changeBean.setNumDeletedClasses(page.readInt());
+			return changeBean;
+		} catch (IOException e) {
+			System.out.println("Could not read cached page " + key + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+
+	/**
+	 * @return the classes of one kind of a cached page, to be closed, or null if the page is not
+	 * in the cache
+	 */
+	PageClasses getPageClasses(String key, ResultClass.Kind kind) {
+		DataInputStream in = open(key);
+		if (in == null) {
+			return null;
+		}
+		try {
+			if (in.readInt() != PAGE_VERSION) {
+				in.close();
+				return null;
+			}
+			//the counts, then the classes of the kinds before
+			skipFully(in, 12);
+			for (int i = 0; i < kind.ordinal(); i++) {
+				skipFully(in, in.readLong());
+			}
+			in.readLong();
+			return new PageClasses(in, in.readInt());
+		} catch (IOException e) {
+			try {
+				in.close();
+			} catch (IOException ignored) {
+			}
+			System.out.println("Could not read cached page " + key + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+
+	private static void skipFully(DataInputStream in, long length) throws IOException {
+		while (length > 0) {
+			long skipped = in.skip(length);
+			if (skipped <= 0) {
+				//skip may stop early, only read tells the end of the stream
+				if (in.read() < 0) {
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+	}
+
+
+	/**
+	 * add the results for the html page: the counts and the classes of the bean, each kind of
+	 * classes after its length so that a page of them is found without reading the others. The
+	 * page is measured first, one the cache would not keep is not written at all.
+	 *
+	 * @return whether the results were kept
+	 */
+	boolean putPage(String key, OntologyChangesBean changeBean) {
+		ResultClass.Kind[] kinds = ResultClass.Kind.values();
+		long[] kindLengths = new long[kinds.length];
+		//the version and the three counts
+		long length = 16;
+		for (int i = 0; i < kinds.length; i++) {
+			List<OWLClassAxiomsInfo> classes = kinds[i].classes(changeBean);
+			OWLClassAxiomsInfo.renderAxiomLabels(classes);
+			//the number of classes, then the classes
+			kindLengths[i] = 4;
+			for (OWLClassAxiomsInfo info : classes) {
+				kindLengths[i] += ResultClass.of(info, kinds[i]).length();
+			}
+			length += 8 + kindLengths[i];
+			if (!canHold(length)) {
+				return false;
+			}
+		}
+		return put(key, length, out -> {
+			out.writeInt(PAGE_VERSION);
+			out.writeInt(changeBean.getNumChangedClasses());
+			out.writeInt(changeBean.getNumNewClasses());
+			out.writeInt(changeBean.getNumDeletedClasses());
+			for (int i = 0; i < kinds.length; i++) {
+				List<OWLClassAxiomsInfo> classes = kinds[i].classes(changeBean);
+				out.writeLong(kindLengths[i]);
+				out.writeInt(classes.size());
+				for (OWLClassAxiomsInfo info : classes) {
+					ResultClass.of(info, kinds[i]).write(out);
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * @return number of lookups that found the result
+	 */
+	long getHits() {
+		return hits.get();
+	}
+
+
+	/**
+	 * @return number of lookups that did not find the result
+	 */
+	long getMisses() {
+		return misses.get();
+	}
+
+
+	/**
+	 * @return number of results in memory
+	 */
+	synchronized int size() {
+		return entries.size();
+	}
+
+
+	/**
+	 * @return total size of the results in memory
+	 */
+	synchronized long getBytes() {
+		return totalBytes;
+	}
+
+}
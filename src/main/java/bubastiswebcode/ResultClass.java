@@ -0,0 +1,284 @@
+package bubastiswebcode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+import uk.ac.ebi.efo.bubastis.OWLClassAxiomsInfo;
+import uk.ac.ebi.efo.bubastis.OntologyChangesBean;
+
+
+/**
+ * One changed, new or deleted class of a diff as the results page shows it: its IRI, its
+ * labels and the lines below them, e.g. the new and deleted axioms. The classes are built from
+ * the results of the diff and kept in the result cache as written by write, so that a page of
+ * them can be read from the cached entry, see DiffResultCache.putPage.
+ */
+class ResultClass {
+
+	/**
+	 * the lists of classes of a diff, in the order they are kept in the result cache
+	 */
+	enum Kind {
+		CHANGED, NEW, DELETED;
+
+		/**
+		 * @return the classes of this kind of the results, none if the results do not hold them
+		 */
+		List<OWLClassAxiomsInfo> classes(OntologyChangesBean changeBean) {
+			List<OWLClassAxiomsInfo> classes;
+			if (this == CHANGED) {
+				classes = changeBean.getClassesWithDifferences();
+			}
+			else if (this == NEW) {
+				classes = changeBean.getNewClasses();
+			}
+			else {
+				classes = changeBean.getDeletedClasses();
+			}
+			return classes == null ? Collections.<OWLClassAxiomsInfo>emptyList() : classes;
+		}
+	}
+
+	/**
+	 * the order the classes of a page of results are returned in
+	 */
+	enum Sort {
+		//the order of the diff
+		NONE,
+		IRI,
+		//by the first label, classes without one by IRI after those with one
+		LABEL
+	}
+
+	/**
+	 * a line of a class, e.g. a new axiom
+	 */
+	static class Row {
+		//kind of line, e.g. newAxiom or deletedAnnotation
+		final String type;
+		final String text;
+
+		Row(String type, String text) {
+			this.type = type;
+			this.text = text;
+		}
+	}
+
+	private static final Comparator<ResultClass> BY_IRI = Comparator.comparing(c -> c.iri);
+	private static final Comparator<ResultClass> BY_LABEL = Comparator
+			.comparing((ResultClass c) -> c.labels.isEmpty())
+			.thenComparing(c -> c.labels.isEmpty() ? "" : c.labels.get(0), String.CASE_INSENSITIVE_ORDER)
+			.thenComparing(BY_IRI);
+
+	private final String iri;
+	private final List<String> labels;
+	private final List<Row> rows;
+
+
+	private ResultClass(String iri, List<String> labels, List<Row> rows) {
+		this.iri = iri;
+		this.labels = labels;
+		this.rows = rows;
+	}
+
+
+	/**
+	 * @param info - a class of the results of a diff, with its axiom labels rendered
+	 * @param kind - the list of the results the class is in
+	 * @return the class as the results page shows it: the deleted and new annotations and axioms
+	 * of a changed class, the axioms of a new class and the axioms a deleted class had. The text
+	 * is kept as it is, the page shows it as text.
+	 */
+	static ResultClass of(OWLClassAxiomsInfo info, Kind kind) {
+		List<Row> rows = new ArrayList<Row>();
+		if (kind == Kind.CHANGED) {
+			addRows(rows, "deletedAnnotation", info.getDeletedAnnotations());
+			addRows(rows, "newAnnotation", info.getNewAnnotations());
+			addRows(rows, "deletedAxiom", info.getDeletedClassAxiomsAsLabels());
+			addRows(rows, "newAxiom", info.getNewClassAxiomsAsLabels());
+		}
+		else {
+			//the axioms of a deleted class are the ones it had in the first ontology
+			addRows(rows, kind == Kind.NEW ? "newAxiom" : "deletedAxiom", info.getNewClassAxiomsAsLabels());
+		}
+		return new ResultClass(info.getIRI().toString(), new ArrayList<String>(info.getLabelsAsString()), rows);
+	}
+
+
+	private static void addRows(List<Row> rows, String type, Collection<String> texts) {
+		if (texts != null) {
+			for (String text : texts) {
+				rows.add(new Row(type, text));
+			}
+		}
+	}
+
+
+	/**
+	 * @return the order of the sort, null to keep the order of the diff
+	 */
+	static Comparator<ResultClass> comparator(Sort sort) {
+		if (sort == Sort.IRI) {
+			return BY_IRI;
+		}
+		if (sort == Sort.LABEL) {
+			return BY_LABEL;
+		}
+		return null;
+	}
+
+
+	String getIRI() {
+		return iri;
+	}
+
+
+	List<String> getLabels() {
+		return labels;
+	}
+
+
+	List<Row> getRows() {
+		return rows;
+	}
+
+
+	/**
+	 * @return the class with its IRI and labels but without its rows, e.g. to sort many classes
+	 */
+	ResultClass withoutRows() {
+		return new ResultClass(iri, labels, Collections.<Row>emptyList());
+	}
+
+
+	/**
+	 * @return the number of bytes write writes
+	 */
+	long length() {
+		long length = stringLength(iri) + 4 + 4;
+		for (String label : labels) {
+			length += stringLength(label);
+		}
+		for (Row row : rows) {
+			length += stringLength(row.type) + stringLength(row.text);
+		}
+		return length;
+	}
+
+
+	void write(DataOutputStream out) throws IOException {
+		writeString(out, iri);
+		out.writeInt(labels.size());
+		for (String label : labels) {
+			writeString(out, label);
+		}
+		out.writeInt(rows.size());
+		for (Row row : rows) {
+			writeString(out, row.type);
+			writeString(out, row.text);
+		}
+	}
+
+
+	/**
+	 * @return a class written by write
+	 */
+	static ResultClass read(DataInputStream in) throws IOException {
+		String iri = readString(in);
+		int numLabels = in.readInt();
+		List<String> labels = new ArrayList<String>(numLabels);
+		for (int i = 0; i < numLabels; i++) {
+			labels.add(readString(in));
+		}
+		int numRows = in.readInt();
+		List<Row> rows = new ArrayList<Row>(numRows);
+		for (int i = 0; i < numRows; i++) {
+			String type = readString(in);
+			rows.add(new Row(type, readString(in)));
+		}
+		return new ResultClass(iri, labels, rows);
+	}
+
+
+	//not writeUTF, an axiom can be longer than it allows
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+
+	private static long stringLength(String value) {
+		return 4 + utf8Length(value);
+	}
+
+
+	/**
+	 * @return the length of a string encoded as UTF-8, without encoding it
+	 */
+	private static long utf8Length(String value) {
+		long length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			}
+			else if (c < 0x800) {
+				length += 2;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				i++;
+			}
+			else if (Character.isSurrogate(c)) {
+				//encoded as ?
+				length += 1;
+			}
+			else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+
+	/**
+	 * append the class as a json object
+	 */
+	void appendJSON(StringBuilder json) {
+		json.append("{\"iri\":\"").append(StringEscapeUtils.escapeJson(iri)).append("\",\"labels\":[");
+		for (int i = 0; i < labels.size(); i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append('"').append(StringEscapeUtils.escapeJson(labels.get(i))).append('"');
+		}
+		json.append("],\"rows\":[");
+		for (int i = 0; i < rows.size(); i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			Row row = rows.get(i);
+			json.append("{\"type\":\"").append(StringEscapeUtils.escapeJson(row.type))
+					.append("\",\"text\":\"").append(StringEscapeUtils.escapeJson(row.text)).append("\"}");
+		}
+		json.append("]}");
+	}
+
+}
@@ -0,0 +1,141 @@
+package bubastiswebcode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.oreilly.servlet.multipart.FilePart;
+import com.oreilly.servlet.multipart.MultipartParser;
+import com.oreilly.servlet.multipart.ParamPart;
+import com.oreilly.servlet.multipart.Part;
+
+import uk.ac.ebi.efo.bubastis.FetchedDocument;
+import uk.ac.ebi.efo.bubastis.exceptions.DocumentTooLargeException;
+
+
+/**
+ * A multipart form read straight from the request. MultipartRequest writes every uploaded file
+ * to disk before the servlet sees any of it, and the file is then read again to hash it. Here
+ * each uploaded ontology is decompressed, hashed and written to its temporary file in one pass
+ * while it arrives, see FetchedDocument.read, and handed to a listener as soon as it is
+ * complete.
+ * <p/>
+ * Closing the upload deletes the documents it still holds.
+ */
+class StreamingUpload implements Closeable {
+
+	/**
+	 * told about each uploaded document as soon as it has been read
+	 */
+	interface DocumentListener {
+		void documentRead(String name, FetchedDocument document);
+	}
+
+	private final Map<String, String> parameters = new HashMap<String, String>();
+	private final Map<String, FetchedDocument> documents = new HashMap<String, FetchedDocument>();
+
+
+	private StreamingUpload() {
+	}
+
+
+	/**
+	 * read a multipart form up to its end
+	 *
+	 * @param req - request with a multipart/form-data body
+	 * @param maxSize - size in bytes the body may have at most
+	 * @param maxDocumentSize - size in bytes each uploaded document may have once it is decompressed
+	 * @param listener - told about each document once it has been read, or null
+	 * @return the form, to be closed once its documents are no longer needed
+	 * @throws DocumentTooLargeException if a decompressed document is larger than maxDocumentSize
+	 */
+	static StreamingUpload read(HttpServletRequest req, int maxSize, long maxDocumentSize, DocumentListener listener) throws IOException {
+		StreamingUpload upload = new StreamingUpload();
+		try {
+			MultipartParser parser = new MultipartParser(req, maxSize);
+			parser.setEncoding("UTF-8");
+			Part part;
+			while ((part = parser.readNextPart()) != null) {
+				if (part.isParam()) {
+					upload.parameters.put(part.getName(), ((ParamPart) part).getStringValue());
+				}
+				else if (part.isFile()) {
+					FilePart filePart = (FilePart) part;
+					//a file field that was left empty has no file name
+					if (filePart.getFileName() == null) {
+						continue;
+					}
+					FetchedDocument document = FetchedDocument.read(filePart.getInputStream(), filePart.getFileName(), maxDocumentSize);
+					upload.addDocument(part.getName(), document);
+					System.out.println("Read upload " + part.getName() + " " + filePart.getFileName() + ": " + document.length() + " bytes");
+					if (listener != null) {
+						listener.documentRead(part.getName(), document);
+					}
+				}
+			}
+			return upload;
+		} catch (IOException | RuntimeException e) {
+			upload.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * @return the value of a form field, or null if the form has no such field
+	 */
+	String getParameter(String name) {
+		return parameters.get(name);
+	}
+
+
+	/**
+	 * @return the document uploaded in a file field, or null if no file was uploaded in it
+	 */
+	synchronized FetchedDocument getDocument(String name) {
+		return documents.get(name);
+	}
+
+
+	/**
+	 * add a document to be deleted with the upload, e.g. one fetched in place of an upload
+	 */
+	synchronized void addDocument(String name, FetchedDocument document) {
+		FetchedDocument previous = documents.put(name, document);
+		if (previous != null) {
+			close(previous);
+		}
+	}
+
+
+	/**
+	 * take a document over, it is then no longer deleted with the upload
+	 *
+	 * @return the document, or null if there is none
+	 */
+	synchronized FetchedDocument removeDocument(String name) {
+		return documents.remove(name);
+	}
+
+
+	@Override
+	public synchronized void close() {
+		for (FetchedDocument document : documents.values()) {
+			close(document);
+		}
+		documents.clear();
+	}
+
+
+	private static void close(FetchedDocument document) {
+		try {
+			document.close();
+		} catch (IOException e) {
+			System.out.println("Could not delete the upload " + document.getLocation());
+		}
+	}
+
+}
@@ -1,21 +1,64 @@
 package care.smith.top.terminology.codes.versioning;
 
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 import org.eclipse.rdf4j.rio.RDFFormat;
+import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
 import org.semanticweb.owlapi.vocab.OWLRDFVocabulary;
 import org.semanticweb.owlapi.vocab.SKOSVocabulary;
 import uk.ac.ebi.efo.bubastis.CompareOntologies;
+import uk.ac.ebi.efo.bubastis.DiffListener;
+import uk.ac.ebi.efo.bubastis.FetchedDocument;
+import uk.ac.ebi.efo.bubastis.OntologyChangesBean;
+import uk.ac.ebi.efo.bubastis.OntologySnapshotCache;
 import uk.ac.ebi.efo.bubastis.exceptions.Ontology1LoadException;
 import uk.ac.ebi.efo.bubastis.exceptions.Ontology2LoadException;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
+ * Diffs each consecutive pair of the (sorted) .owl releases in a directory and writes the changes as
+ * {@code <older>-<newer>.trig} next to them.
+ * <p>
+ * Usage: {@code BubastisRunner [-chain | -parallel [-threads n] [-heap_factor f]] [-force] <directory>}. With
+ * {@code -chain} every release is parsed only once: the newer ontology of a pair, with its indexes, is the older
+ * ontology of the next pair, and the release after it is loaded in the background while the pair is diffed, so at
+ * most three ontologies are held at a time.
+ * <p>
+ * With {@code -parallel} the pairs are diffed independently on a pool of worker threads. A pair is only started
+ * when its estimated heap use, the size of both files times the heap factor, fits into the heap left by the pairs
+ * already running, so many small releases run side by side while a large one may run on its own.
+ * <p>
+ * Finished pairs are recorded in a {@link RunManifest} in the directory. Pairs whose releases and settings have not
+ * changed since and whose output still exists are skipped, unless {@code -force} is given. A release is only hashed
+ * again when the size or modification time of its file differs from the manifest, or with {@code -force}. Pairs of
+ * releases with the same content hash are written as empty diffs without loading them.
+ *
  * @author Ralph Schäfermeier
  */
 public class BubastisRunner {
@@ -27,25 +70,346 @@ public class BubastisRunner {
           SKOSVocabulary.ALTLABEL.getIRI()
   ).collect(Collectors.toList());
   
+  private static final RDFFormat format = RDFFormat.TRIG;
+  
+  // settings that change the output files, a pair made with other settings is diffed again
+  private static final String settings = "annotationProperties=" + annotationProperties + ";format=" + format.getName();
+  
+  private static final String MANIFEST_FILE_NAME = "bubastis-manifest.properties";
+  
+  // heap taken by a loaded and diffed ontology per byte of its file
+  private static final double DEFAULT_HEAP_FACTOR = 10;
+  // share of the maximum heap the parallel pairs may take together
+  private static final double HEAP_SHARE = 0.8;
+  private static final long MB = 1024 * 1024;
+  
+  // snapshots of parsed releases, so that a rerun or an overlapping run does not parse a release again; null for none
+  private static OntologySnapshotCache snapshotCache;
+  
   public static void main(String[] args) {
-    File baseDir = new File(args[0]);
+    Options options = new Options();
+    options.addOption(new Option("chain", false, "parse each release once, reusing it for the next pair"));
+    options.addOption(new Option("parallel", false, "diff several pairs at a time"));
+    options.addOption(new Option("threads", true, "number of pairs diffed at a time with -parallel, defaults to the number of processors"));
+    options.addOption(new Option("heap_factor", true, "estimated heap per byte of ontology file with -parallel, defaults to " + DEFAULT_HEAP_FACTOR));
+    options.addOption(new Option("force", false, "diff every pair, even those the manifest has as done"));
+    options.addOption(new Option("snapshot_cache", true, "directory of snapshots of parsed releases"));
+    
+    CommandLine line;
+    try {
+      line = new GnuParser().parse(options, args);
+      if (line.getArgs().length != 1) {
+        throw new ParseException("Expected the directory holding the releases");
+      }
+      if (line.hasOption("chain") && line.hasOption("parallel")) {
+        throw new ParseException("Use either -chain or -parallel");
+      }
+    } catch (ParseException e) {
+      System.err.println("Parsing failed.  Reason: " + e.getMessage());
+      new HelpFormatter().printHelp("BubastisRunner [options] <directory>", options);
+      return;
+    }
+    File baseDir = new File(line.getArgs()[0]);
+    if (line.hasOption("snapshot_cache")) {
+      try {
+        snapshotCache = new OntologySnapshotCache(new File(line.getOptionValue("snapshot_cache")), OntologySnapshotCache.DEFAULT_MAX_BYTES);
+      } catch (IOException e) {
+        throw new RuntimeException("Could not create the snapshot cache " + line.getOptionValue("snapshot_cache"), e);
+      }
+    }
     
     List<File> files = Arrays.stream(Objects.requireNonNull(baseDir.listFiles(file -> file.isFile() && file.getName().endsWith(".owl")))).sorted().collect(Collectors.toList());
     
-    File older = files.remove(0);
-    while(!files.isEmpty()) {
-      File newer = files.remove(0);
-      System.out.println(older.getName() + "-" + newer.getName());
+    RunManifest manifest;
+    List<Pair> pairs;
+    try {
+      manifest = RunManifest.load(new File(baseDir, MANIFEST_FILE_NAME));
+      pairs = pendingPairs(baseDir, files, manifest, line.hasOption("force"));
+    } catch (IOException e) {
+      throw new RuntimeException("Could not read the releases in " + baseDir, e);
+    }
+    
+    pairs = diffIdenticalPairs(pairs, manifest);
+    if (line.hasOption("chain")) {
+      runChain(pairs, manifest);
+    } else if (line.hasOption("parallel")) {
+      int threads = line.hasOption("threads") ? Integer.parseInt(line.getOptionValue("threads")) : Runtime.getRuntime().availableProcessors();
+      double heapFactor = line.hasOption("heap_factor") ? Double.parseDouble(line.getOptionValue("heap_factor")) : DEFAULT_HEAP_FACTOR;
+      runParallel(baseDir, pairs, manifest, threads, heapFactor);
+    } else {
+      runPairs(pairs, manifest);
+    }
+  }
+  
+  /**
+   * the consecutive pairs of the releases that are not up to date in the manifest, in release order
+   */
+  private static List<Pair> pendingPairs(File baseDir, List<File> files, RunManifest manifest, boolean force) throws IOException {
+    // each release is in two pairs, hash it once, and only if its file changed since the manifest recorded it
+    Map<File, String> hashes = new HashMap<>();
+    for (File file : files) {
+      hashes.put(file, manifest.hashOf(file, force));
+    }
+    
+    List<Pair> pairs = new ArrayList<>();
+    for (int i = 1; i < files.size(); i++) {
+      Pair pair = new Pair(baseDir, files.get(i - 1), files.get(i), hashes.get(files.get(i - 1)), hashes.get(files.get(i)));
+      if (!force && manifest.isUpToDate(pair.name, pair.olderHash, pair.newerHash, settings, pair.output)) {
+        System.out.println(pair.name + " is up to date");
+      } else {
+        pairs.add(pair);
+      }
+    }
+    return pairs;
+  }
+  
+  /**
+   * write the empty diffs of the pairs of releases with the same content, which need no loading
+   *
+   * @return the other pairs, still to be diffed
+   */
+  private static List<Pair> diffIdenticalPairs(List<Pair> pairs, RunManifest manifest) {
+    List<Pair> remaining = new ArrayList<>();
+    for (Pair pair : pairs) {
+      if (pair.olderHash.equals(pair.newerHash)) {
+        System.out.println(pair.name + " has identical releases");
+        diffIdentical(pair);
+        pair.record(manifest);
+      } else {
+        remaining.add(pair);
+      }
+    }
+    return remaining;
+  }
+  
+  private static void runPairs(List<Pair> pairs, RunManifest manifest) {
+    for (Pair pair : pairs) {
+      System.out.println(pair.name);
       try {
-        CompareOntologies bubastis = new CompareOntologies();
-        bubastis.doFindAllChanges(older, newer, annotationProperties);
-//        bubastis.writeDiffAsTextFile(new File(baseDir, older.getName() + "-" + newer.getName() + ".txt").getAbsolutePath());
-        bubastis.writeDiffAsRDFFile(new File(baseDir, older.getName() + "-" + newer.getName() + ".trig").getAbsolutePath(), RDFFormat.TRIG);
-        older = newer;
+        diffPair(pair);
+        pair.record(manifest);
       } catch (Ontology1LoadException | Ontology2LoadException e) {
         throw new RuntimeException(e);
       }
     }
   }
   
+  private static void diffIdentical(Pair pair) {
+    CompareOntologies bubastis = new CompareOntologies();
+    bubastis.addDiffListener(new TopVersionOntologyDiffRDFRenderer(pair.output.getAbsolutePath(), format, true));
+    bubastis.setRetainResults(false);
+    bubastis.reportIdenticalDocuments(pair.older.toString(), pair.newer.toString());
+  }
+  
+  private static CompareOntologies diffPair(Pair pair) throws Ontology1LoadException, Ontology2LoadException {
+    CompareOntologies bubastis = new CompareOntologies();
+    // write the graph from the changes as they are found instead of keeping all of them
+    bubastis.addDiffListener(new TopVersionOntologyDiffRDFRenderer(pair.output.getAbsolutePath(), format, true));
+//    bubastis.addDiffListener(new OntologyFileWriter(new File(baseDir, older.getName() + "-" + newer.getName() + ".txt").getAbsolutePath()));
+    bubastis.setRetainResults(false);
+    bubastis.setDetachResults(true);
+    bubastis.setSnapshotCache(snapshotCache);
+    // the releases have been hashed for the manifest already
+    bubastis.doFindAllChanges(FetchedDocument.of(pair.older, pair.olderHash), FetchedDocument.of(pair.newer, pair.newerHash),
+            annotationProperties);
+    return bubastis;
+  }
+  
+  private static void runParallel(File baseDir, List<Pair> pairs, RunManifest manifest, int threads, double heapFactor) {
+    if (pairs.isEmpty()) {
+      return;
+    }
+    // the heap is handed out to the pairs in MB
+    int heapBudget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() * HEAP_SHARE / MB));
+    Semaphore heap = new Semaphore(heapBudget, true);
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    AtomicInteger finished = new AtomicInteger();
+    List<String> failed = Collections.synchronizedList(new ArrayList<>());
+    
+    try {
+      for (Pair pair : pairs) {
+        // a pair estimated above the budget still runs, once it has the heap to itself
+        int estimate = (int) Math.min(heapBudget, Math.max(1, (pair.older.length() + pair.newer.length()) * heapFactor / MB));
+        heap.acquire(estimate);
+        workers.execute(() -> {
+          long start = System.currentTimeMillis();
+          try {
+            OntologyChangesBean changes = diffPair(pair).getOntologyChangesBean();
+            pair.record(manifest);
+            System.out.println("[" + finished.incrementAndGet() + "/" + pairs.size() + "] " + pair.name + ": "
+                    + changes.getNumChangedClasses() + " changed, " + changes.getNumNewClasses() + " new, "
+                    + changes.getNumDeletedClasses() + " deleted classes in " + (System.currentTimeMillis() - start) + " ms");
+          } catch (Exception | OutOfMemoryError e) {
+            failed.add(pair.name);
+            System.err.println("[" + finished.incrementAndGet() + "/" + pairs.size() + "] " + pair.name + " failed: " + e);
+          } finally {
+            heap.release(estimate);
+          }
+        });
+      }
+      workers.shutdown();
+      workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      workers.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while diffing the releases in " + baseDir, e);
+    }
+    
+    if (!failed.isEmpty()) {
+      throw new RuntimeException(failed.size() + " of " + pairs.size() + " pairs failed: " + failed);
+    }
+  }
+  
+  private static void runChain(List<Pair> pairs, RunManifest manifest) {
+    Preloader preloader = new Preloader();
+    try {
+      CompareOntologies bubastis = new CompareOntologies();
+      bubastis.setRetainResults(false);
+      // the bean must not keep the older release once it has been removed from its manager
+      bubastis.setDetachResults(true);
+      bubastis.setChainIndexes(true);
+      
+      // the newer ontology of the last pair, the older one of the next pair unless pairs were skipped in between;
+      // releases are matched by content so that a run of identical releases keeps the chain going
+      String olderHash = null;
+      OWLOntology older = null;
+      for (int i = 0; i < pairs.size(); i++) {
+        Pair pair = pairs.get(i);
+        if (!pair.olderHash.equals(olderHash)) {
+          release(older);
+          older = preloader.get(pair.older, pair.olderHash);
+          olderHash = pair.olderHash;
+        }
+        OWLOntology newer = preloader.get(pair.newer, pair.newerHash);
+        // parse the next release needed while this pair is diffed and written
+        if (i + 1 < pairs.size()) {
+          Pair next = pairs.get(i + 1);
+          if (next.olderHash.equals(pair.newerHash)) {
+            preloader.preload(next.newer, next.newerHash);
+          } else {
+            preloader.preload(next.older, next.olderHash);
+          }
+        }
+        
+        System.out.println(pair.name);
+        DiffListener renderer = new TopVersionOntologyDiffRDFRenderer(pair.output.getAbsolutePath(), format, true);
+        bubastis.addDiffListener(renderer);
+        try {
+          bubastis.doFindAllChanges(older.getOWLOntologyManager(), newer.getOWLOntologyManager(), older, newer, annotationProperties);
+        } finally {
+          bubastis.removeDiffListener(renderer);
+        }
+        pair.record(manifest);
+        
+        // the older release is not needed any more
+        release(older);
+        older = newer;
+        olderHash = pair.newerHash;
+      }
+    } finally {
+      preloader.shutdown();
+    }
+  }
+  
+  private static void release(OWLOntology ontology) {
+    if (ontology != null) {
+      ontology.getOWLOntologyManager().removeOntology(ontology);
+    }
+  }
+  
+  /**
+   * A pair of consecutive releases with the content hashes they are recorded with in the manifest.
+   */
+  private static class Pair {
+    private final File older;
+    private final File newer;
+    private final String olderHash;
+    private final String newerHash;
+    private final String name;
+    private final File output;
+    
+    private Pair(File baseDir, File older, File newer, String olderHash, String newerHash) {
+      this.older = older;
+      this.newer = newer;
+      this.olderHash = olderHash;
+      this.newerHash = newerHash;
+      this.name = older.getName() + "-" + newer.getName();
+      this.output = new File(baseDir, name + "." + format.getDefaultFileExtension());
+    }
+    
+    private void record(RunManifest manifest) {
+      manifest.record(name, olderHash, newerHash, settings, output);
+    }
+  }
+  
+  /**
+   * Loads releases on one background thread, each with its own manager, one release ahead of the pair being diffed.
+   */
+  private static class Preloader {
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private File file;
+    private Future<OWLOntology> loading;
+    
+    private void preload(File file, String contentHash) {
+      discard();
+      this.file = file;
+      this.loading = loader.submit(loadTask(file, contentHash));
+    }
+    
+    /**
+     * the ontology of the file, waiting for it if it is being preloaded and loading it now otherwise
+     */
+    private OWLOntology get(File file, String contentHash) {
+      if (!file.equals(this.file)) {
+        preload(file, contentHash);
+      }
+      Future<OWLOntology> loaded = loading;
+      this.file = null;
+      this.loading = null;
+      return await(loaded, file);
+    }
+    
+    /**
+     * cancel the preload, or release its ontology if it has been loaded already
+     */
+    private void discard() {
+      if (loading != null && !loading.cancel(true) && !loading.isCancelled()) {
+        try {
+          release(loading.get());
+        } catch (ExecutionException e) {
+          // nothing was loaded
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      this.file = null;
+      this.loading = null;
+    }
+    
+    private void shutdown() {
+      discard();
+      loader.shutdownNow();
+    }
+  }
+  
+  private static Callable<OWLOntology> loadTask(File file, String contentHash) {
+    return () -> load(file, contentHash);
+  }
+  
+  private static OWLOntology load(File file, String contentHash) throws Exception {
+    OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+    return snapshotCache == null ? manager.loadOntologyFromOntologyDocument(file) : snapshotCache.load(manager, file, contentHash);
+  }
+  
+  private static OWLOntology await(Future<OWLOntology> loading, File file) {
+    try {
+      return loading.get();
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Could not load " + file, e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while loading " + file, e);
+    }
+  }
+  
 }
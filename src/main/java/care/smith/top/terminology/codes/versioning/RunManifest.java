@@ -0,0 +1,109 @@
+package care.smith.top.terminology.codes.versioning;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import uk.ac.ebi.efo.bubastis.ContentHash;
+
+/**
+ * Records which pairs of a history run are done: for each pair the content hashes of both releases, the settings
+ * the diff was made with and the output file. A pair whose releases and settings are unchanged and whose output
+ * file still exists does not need to be diffed again, so a run that stopped half way, or a run over a directory
+ * with a few new releases, only diffs the pairs that are missing.
+ * <p>
+ * The content hash of each release is kept with the size and modification time of its file, so a release is only
+ * hashed again when its file has changed.
+ * <p>
+ * The manifest is a properties file, saved after every recorded pair so that it survives a crash.
+ */
+public class RunManifest {
+  
+  private final File file;
+  private final Properties entries = new Properties();
+  
+  private RunManifest(File file) {
+    this.file = file;
+  }
+  
+  /**
+   * read the manifest, an empty manifest if the file does not exist yet
+   */
+  public static RunManifest load(File file) throws IOException {
+    RunManifest manifest = new RunManifest(file);
+    if (file.isFile()) {
+      try (InputStream in = Files.newInputStream(file.toPath())) {
+        manifest.entries.load(in);
+      }
+    }
+    return manifest;
+  }
+  
+  /**
+   * @param release - release file in the directory of the run
+   * @param force   - hash the file even if its size and modification time are those recorded
+   * @return the content hash of the release, the recorded one if the file has the recorded size and modification time
+   */
+  public synchronized String hashOf(File release, boolean force) throws IOException {
+    String key = "release." + release.getName();
+    String size = String.valueOf(release.length());
+    String modified = String.valueOf(release.lastModified());
+    String hash = entries.getProperty(key + ".hash");
+    if (!force && hash != null && size.equals(entries.getProperty(key + ".size")) &&
+            modified.equals(entries.getProperty(key + ".modified"))) {
+      return hash;
+    }
+    hash = ContentHash.of(release);
+    entries.setProperty(key + ".hash", hash);
+    entries.setProperty(key + ".size", size);
+    entries.setProperty(key + ".modified", modified);
+    save();
+    return hash;
+  }
+  
+  /**
+   * @param pair       - name of the pair, {@code <older>-<newer>}
+   * @param olderHash  - content hash of the older release
+   * @param newerHash  - content hash of the newer release
+   * @param settings   - settings that change the output, e.g. annotation properties and format
+   * @param outputFile - file the diff is written to
+   * @return whether the manifest has the pair with the same hashes and settings and the output file exists
+   */
+  public synchronized boolean isUpToDate(String pair, String olderHash, String newerHash, String settings, File outputFile) {
+    return olderHash.equals(entries.getProperty(pair + ".older")) &&
+            newerHash.equals(entries.getProperty(pair + ".newer")) &&
+            settings.equals(entries.getProperty(pair + ".settings")) &&
+            outputFile.getName().equals(entries.getProperty(pair + ".output")) &&
+            outputFile.isFile();
+  }
+  
+  /**
+   * record a finished pair and save the manifest
+   */
+  public synchronized void record(String pair, String olderHash, String newerHash, String settings, File outputFile) {
+    entries.setProperty(pair + ".older", olderHash);
+    entries.setProperty(pair + ".newer", newerHash);
+    entries.setProperty(pair + ".settings", settings);
+    entries.setProperty(pair + ".output", outputFile.getName());
+    try {
+      save();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not save the run manifest " + file, e);
+    }
+  }
+  
+  private void save() throws IOException {
+    // replace the manifest in one step, a crash while writing leaves the old one
+    File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+      entries.store(out, "bubastis history run");
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+  
+}
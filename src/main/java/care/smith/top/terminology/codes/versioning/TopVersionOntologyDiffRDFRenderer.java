@@ -4,29 +4,52 @@ import org.eclipse.rdf4j.model.BNode;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
-import org.eclipse.rdf4j.model.util.ModelBuilder;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandler;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.RDFWriter;
 import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
 import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
 import org.semanticweb.owlapi.model.OWLLiteral;
 import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+import uk.ac.ebi.efo.bubastis.DiffListener;
+import uk.ac.ebi.efo.bubastis.OWLClassAxiomsInfo;
 import uk.ac.ebi.efo.bubastis.OntologyChangesBean;
 
+import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Optional;
 
 /**
  * Renders an ontology change set as an RDF (named) graph using the TOP Ontology Versioning Ontology as the schema.
+ * Either render a finished change set with writeDiffToFile, or register a renderer created with a file path as a
+ * DiffListener; it then only keeps the RDF statements, not the changed classes themselves.
+ * <p>
+ * In streaming mode (streamDiffToFile, or a DiffListener created with streaming set) no model is built at all:
+ * each statement is passed to a Rio RDFWriter on a buffered file channel as soon as the change is visited. The
+ * statements are the same, only their order and the blank node labels in the file differ. If the diff fails, the
+ * partly written file is closed and deleted.
  *
  * @author Ralph Schäfermeier
  */
-public class TopVersionOntologyDiffRDFRenderer {
+public class TopVersionOntologyDiffRDFRenderer implements DiffListener {
   
   private static final SimpleValueFactory valueFactory = SimpleValueFactory.getInstance();
   
@@ -40,134 +63,266 @@ public class TopVersionOntologyDiffRDFRenderer {
   private static final IRI PROPERTY_ANNOATIONPROPERTY = SimpleValueFactory.getInstance().createIRI(NS_CHANGES, "annotationProperty");
   private static final IRI PROPERTY_ANNOATIONVALUE = SimpleValueFactory.getInstance().createIRI(NS_CHANGES, "annotationValue");
   private static final IRI PROPERTY_ANNOATIONDATATYPE = SimpleValueFactory.getInstance().createIRI(NS_CHANGES, "annotationDatatype");
+  private static final IRI PROPERTY_HASSUCCESSORVERSION = SimpleValueFactory.getInstance().createIRI(NS_CHANGES, "hasSuccessorVersion");
+  
+  private static final int BUFFER_SIZE = 64 * 1024;
+  
+  // settings and state when used as a DiffListener
+  private String filePath;
+  private RDFFormat format;
+  private boolean streaming;
+  // receives the statements, either collecting them in the model or writing them out directly
+  private RDFHandler handler;
+  private Model model;
+  private OutputStream out;
+  // graph the change statements go into
+  private Resource graph;
+  
+  public TopVersionOntologyDiffRDFRenderer() {
+  }
+  
+  /**
+   * Constructor for use as a DiffListener, the graph is written to the given file when the diff is complete.
+   */
+  public TopVersionOntologyDiffRDFRenderer(String filePath, RDFFormat format) {
+    this(filePath, format, false);
+  }
+  
+  /**
+   * Constructor for use as a DiffListener. When streaming, the statements are written to the file as the changes
+   * are found (the format needs a streaming writer, e.g. TriG, N-Quads or Turtle), otherwise the graph is written
+   * when the diff is complete.
+   */
+  public TopVersionOntologyDiffRDFRenderer(String filePath, RDFFormat format, boolean streaming) {
+    this.filePath = filePath;
+    this.format = format;
+    this.streaming = streaming;
+  }
   
   public void writeDiffToFile(String filePath, OntologyChangesBean changeBean, RDFFormat format) throws IOException {
-    ModelBuilder mob = new ModelBuilder();
-    mob.
-            setNamespace("change", NS_CHANGES).
-            setNamespace("version1", changeBean.getOntology1().getOntologyID().getVersionIRI().get().toString() + "#").
-            setNamespace("version2", changeBean.getOntology2().getOntologyID().getVersionIRI().get().toString() + "#").
-            defaultGraph().add("version1:", "change:hasSuccessorVersion", "version2:").
-            namedGraph("version2:");
-    
-    Optional.ofNullable(changeBean.getNewClasses()).orElse(new ArrayList<>()).forEach(owlClassAxiomsInfo -> {
-      BNode changeInstance = valueFactory.createBNode();
-      mob.
-              add(valueFactory.createIRI(owlClassAxiomsInfo.getIRIAsString()), PROPERTY_HASCHANGE, changeInstance).
-              add(changeInstance, RDF.TYPE, "change:Addition");
-    });
-    
-    Optional.ofNullable(changeBean.getDeletedClasses()).orElse(new ArrayList<>()).forEach(owlClassAxiomsInfo -> {
-      BNode changeInstance = valueFactory.createBNode();
-      mob.
-              add(valueFactory.createIRI(owlClassAxiomsInfo.getIRIAsString()), PROPERTY_HASCHANGE, changeInstance).
-              add(changeInstance, RDF.TYPE, "change:Deletion");
-    });
-    
-    Optional.ofNullable(changeBean.getClassesWithDifferences()).orElse(new ArrayList<>()).forEach(owlClassAxiomsInfo -> {
+    this.filePath = filePath;
+    this.format = format;
+    this.streaming = false;
+    renderBean(changeBean);
+  }
+  
+  /**
+   * Same as writeDiffToFile, but writes each statement straight to the file instead of building the graph first.
+   */
+  public void streamDiffToFile(String filePath, OntologyChangesBean changeBean, RDFFormat format) throws IOException {
+    this.filePath = filePath;
+    this.format = format;
+    this.streaming = true;
+    renderBean(changeBean);
+  }
+  
+  private void renderBean(OntologyChangesBean changeBean) throws IOException {
+    try {
+      onStart(changeBean);
       
-      IRI currentClassIRI = valueFactory.createIRI(owlClassAxiomsInfo.getIRIAsString());
+      Optional.ofNullable(changeBean.getNewClasses()).orElse(new ArrayList<>()).forEach(this::onNewClass);
       
-      Optional.ofNullable(owlClassAxiomsInfo.getNewAxioms()).orElse(Collections.emptySet()).forEach(axiom -> {
-        if (axiom instanceof OWLSubClassOfAxiom) {
-          OWLSubClassOfAxiom scoa = (OWLSubClassOfAxiom) axiom;
-          if (scoa.getSuperClass().asOWLClass().getIRI().equals(owlClassAxiomsInfo.getIRI())) {
-            // current class is super class in axiom, so it has got a new subclass
-            BNode changeInstance = valueFactory.createBNode();
-            mob.
-                    add(currentClassIRI, PROPERTY_HASCHANGE, changeInstance).
-                    subject(changeInstance).
-                    add(RDF.TYPE, "change:SubTermAddition").
-                    add(PROPERTY_NEWTERM, valueFactory.createIRI(scoa.getSuperClass().asOWLClass().getIRI().toString()));
-          } else if (scoa.getSubClass().asOWLClass().getIRI().equals(owlClassAxiomsInfo.getIRI())) {
-            // current class is subclass in axiom, so it has got a new super class
-            BNode changeInstance = valueFactory.createBNode();
-            mob.
-                    add(currentClassIRI, PROPERTY_HASCHANGE, changeInstance).
-                    subject(changeInstance).
-                    add(RDF.TYPE, "change:SuperTermAddition").
-                    add(PROPERTY_NEWTERM, valueFactory.createIRI(scoa.getSubClass().asOWLClass().getIRI().toString()));
-          } else {
-            System.err.println("Warning: class " + currentClassIRI.getLocalName() + " does not appear in axiom but should: " + axiom);
-          }
-        } else if (axiom instanceof OWLEquivalentClassesAxiom) {
-          OWLEquivalentClassesAxiom eca = (OWLEquivalentClassesAxiom) axiom;
-          eca.getNamedClasses().stream().filter(clazz -> !(clazz.getIRI().toString().equals(currentClassIRI.toString()))).forEach(clazz -> {
-            BNode changeInstance = valueFactory.createBNode();
-            mob.
-                    add(currentClassIRI, PROPERTY_HASCHANGE, changeInstance).
-                    subject(changeInstance).
-                    add(RDF.TYPE, "change:EquivalenceAddition").
-                    add(PROPERTY_NEWTERM, valueFactory.createIRI(clazz.getIRI().toString()));
-          });
-        }
-      });
+      Optional.ofNullable(changeBean.getDeletedClasses()).orElse(new ArrayList<>()).forEach(this::onDeletedClass);
+      
+      Optional.ofNullable(changeBean.getClassesWithDifferences()).orElse(new ArrayList<>()).forEach(this::onChangedClass);
       
-      Optional.ofNullable(owlClassAxiomsInfo.getNewRawAnnotations()).orElse(Collections.emptySet()).forEach(annotation -> {
-        BNode changeInstance = valueFactory.createBNode();
-        mob.
-                add(currentClassIRI, PROPERTY_HASCHANGE, changeInstance).
-                subject(changeInstance).
-                add(RDF.TYPE, "change:LabelAddition").
-                add(PROPERTY_ANNOATIONPROPERTY, valueFactory.createIRI(annotation.getProperty().getIRI().toString()));
+      finish();
+    } catch (IOException | RuntimeException e) {
+      onError(e);
+      if (e instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e).getCause();
+      }
+      if (e instanceof RDFHandlerException) {
+        throw new IOException(e);
+      }
+      throw e;
+    }
+  }
+  
+  @Override
+  public void onStart(OntologyChangesBean changeBean) {
+    if (streaming) {
+      try {
+        out = new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(Paths.get(filePath),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)), BUFFER_SIZE);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not write the diff as RDF to " + filePath, e);
+      }
+      RDFWriter writer = Rio.createWriter(format, out);
+      handler = writer;
+    } else {
+      model = new LinkedHashModel();
+      handler = new AbstractRDFHandler() {
+        @Override
+        public void handleNamespace(String prefix, String uri) {
+          model.setNamespace(prefix, uri);
+        }
         
-        OWLLiteral annotationValue = annotation.getValue().asLiteral().get();
-        String literal = annotationValue.getLiteral();
-        Literal value = annotationValue.hasLang() ? valueFactory.createLiteral(literal, annotationValue.getLang()) : valueFactory.createLiteral(literal, valueFactory.createIRI(annotationValue.getDatatype().getIRI().toString()));
-        mob.add(PROPERTY_ANNOATIONVALUE, value);
-      });
+        @Override
+        public void handleStatement(Statement st) {
+          model.add(st);
+        }
+      };
+    }
+    
+    handler.startRDF();
+    handler.handleNamespace("change", NS_CHANGES);
+    if (changeBean.getOntology1ID() == null || changeBean.getOntology2ID() == null) {
+      // documents with identical content are not loaded, there are no versions and no changes to write
+      graph = null;
+      return;
+    }
+    String version1 = changeBean.getOntology1ID().getVersionIRI().get().toString() + "#";
+    String version2 = changeBean.getOntology2ID().getVersionIRI().get().toString() + "#";
+    handler.handleNamespace("version1", version1);
+    handler.handleNamespace("version2", version2);
+    // the succession of versions goes into the default graph, the changes into the graph of the newer version
+    graph = null;
+    add(valueFactory.createIRI(version1), PROPERTY_HASSUCCESSORVERSION, valueFactory.createIRI(version2));
+    graph = valueFactory.createIRI(version2);
+  }
+  
+  private void add(Resource subject, IRI predicate, Value object) {
+    handler.handleStatement(valueFactory.createStatement(subject, predicate, object, graph));
+  }
+  
+  /**
+   * add a change of the given type to a class
+   *
+   * @return the blank node of the change, for adding its details
+   */
+  private BNode addChange(IRI classIRI, String changeType) {
+    BNode changeInstance = valueFactory.createBNode();
+    add(classIRI, PROPERTY_HASCHANGE, changeInstance);
+    add(changeInstance, RDF.TYPE, valueFactory.createIRI(NS_CHANGES, changeType));
+    return changeInstance;
+  }
+  
+  @Override
+  public void onNewClass(OWLClassAxiomsInfo owlClassAxiomsInfo) {
+    addChange(valueFactory.createIRI(owlClassAxiomsInfo.getIRIAsString()), "Addition");
+  }
+  
+  @Override
+  public void onDeletedClass(OWLClassAxiomsInfo owlClassAxiomsInfo) {
+    addChange(valueFactory.createIRI(owlClassAxiomsInfo.getIRIAsString()), "Deletion");
+  }
+  
+  @Override
+  public void onChangedClass(OWLClassAxiomsInfo owlClassAxiomsInfo) {
+    
+    IRI currentClassIRI = valueFactory.createIRI(owlClassAxiomsInfo.getIRIAsString());
+    
+    Optional.ofNullable(owlClassAxiomsInfo.getNewAxioms()).orElse(Collections.emptySet()).forEach(axiom -> {
+      if (axiom instanceof OWLSubClassOfAxiom) {
+        OWLSubClassOfAxiom scoa = (OWLSubClassOfAxiom) axiom;
+        if (scoa.getSuperClass().asOWLClass().getIRI().equals(owlClassAxiomsInfo.getIRI())) {
+          // current class is super class in axiom, so it has got a new subclass
+          BNode changeInstance = addChange(currentClassIRI, "SubTermAddition");
+          add(changeInstance, PROPERTY_NEWTERM, valueFactory.createIRI(scoa.getSuperClass().asOWLClass().getIRI().toString()));
+        } else if (scoa.getSubClass().asOWLClass().getIRI().equals(owlClassAxiomsInfo.getIRI())) {
+          // current class is subclass in axiom, so it has got a new super class
+          BNode changeInstance = addChange(currentClassIRI, "SuperTermAddition");
+          add(changeInstance, PROPERTY_NEWTERM, valueFactory.createIRI(scoa.getSubClass().asOWLClass().getIRI().toString()));
+        } else {
+          System.err.println("Warning: class " + currentClassIRI.getLocalName() + " does not appear in axiom but should: " + axiom);
+        }
+      } else if (axiom instanceof OWLEquivalentClassesAxiom) {
+        OWLEquivalentClassesAxiom eca = (OWLEquivalentClassesAxiom) axiom;
+        eca.getNamedClasses().stream().filter(clazz -> !(clazz.getIRI().toString().equals(currentClassIRI.toString()))).forEach(clazz -> {
+          BNode changeInstance = addChange(currentClassIRI, "EquivalenceAddition");
+          add(changeInstance, PROPERTY_NEWTERM, valueFactory.createIRI(clazz.getIRI().toString()));
+        });
+      }
+    });
+    
+    Optional.ofNullable(owlClassAxiomsInfo.getNewRawAnnotations()).orElse(Collections.emptySet()).forEach(annotation -> {
+      BNode changeInstance = addChange(currentClassIRI, "LabelAddition");
+      add(changeInstance, PROPERTY_ANNOATIONPROPERTY, valueFactory.createIRI(annotation.getProperty().getIRI().toString()));
       
-      Optional.ofNullable(owlClassAxiomsInfo.getDeletedAxioms()).orElse(Collections.emptySet()).forEach(axiom -> {
-        if (axiom instanceof OWLSubClassOfAxiom) {
-          OWLSubClassOfAxiom scoa = (OWLSubClassOfAxiom) axiom;
-          if (scoa.getSuperClass().asOWLClass().getIRI().equals(owlClassAxiomsInfo.getIRI())) {
-            // current class is super class in axiom, so it has got a subclass removed
-            BNode changeInstance = valueFactory.createBNode();
-            mob.
-                    add(currentClassIRI, PROPERTY_HASCHANGE, changeInstance).
-                    subject(changeInstance).
-                    add(RDF.TYPE, "change:SubTermDeletion").
-                    add(PROPERTY_OLDTERM, valueFactory.createIRI(scoa.getSuperClass().asOWLClass().getIRI().toString()));
-          } else if (scoa.getSubClass().asOWLClass().getIRI().equals(owlClassAxiomsInfo.getIRI())) {
-            // current class is subclass in axiom, so it has got a super class removed
-            BNode changeInstance = valueFactory.createBNode();
-            mob.
-                    add(currentClassIRI, PROPERTY_HASCHANGE, changeInstance).
-                    subject(changeInstance).
-                    add(RDF.TYPE, "change:SuperTermDeletion").
-                    add(PROPERTY_OLDTERM, valueFactory.createIRI(scoa.getSubClass().asOWLClass().getIRI().toString()));
-          } else {
-            System.err.println("Warning: class " + currentClassIRI.getLocalName() + " does not appear in axiom but should: " + axiom);
-          }
-        } else if (axiom instanceof OWLEquivalentClassesAxiom) {
-          OWLEquivalentClassesAxiom eca = (OWLEquivalentClassesAxiom) axiom;
-          eca.getNamedClasses().stream().filter(clazz -> !(clazz.getIRI().toString().equals(currentClassIRI.toString()))).forEach(clazz -> {
-            BNode changeInstance = valueFactory.createBNode();
-            mob.
-                    add(currentClassIRI, PROPERTY_HASCHANGE, changeInstance).
-                    subject(changeInstance).
-                    add(RDF.TYPE, "change:EquivalenceDeletion").
-                    add(PROPERTY_OLDTERM, valueFactory.createIRI(clazz.getIRI().toString()));
-          });
+      OWLLiteral annotationValue = annotation.getValue().asLiteral().get();
+      String literal = annotationValue.getLiteral();
+      Literal value = annotationValue.hasLang() ? valueFactory.createLiteral(literal, annotationValue.getLang()) : valueFactory.createLiteral(literal, valueFactory.createIRI(annotationValue.getDatatype().getIRI().toString()));
+      add(changeInstance, PROPERTY_ANNOATIONVALUE, value);
+    });
+    
+    Optional.ofNullable(owlClassAxiomsInfo.getDeletedAxioms()).orElse(Collections.emptySet()).forEach(axiom -> {
+      if (axiom instanceof OWLSubClassOfAxiom) {
+        OWLSubClassOfAxiom scoa = (OWLSubClassOfAxiom) axiom;
+        if (scoa.getSuperClass().asOWLClass().getIRI().equals(owlClassAxiomsInfo.getIRI())) {
+          // current class is super class in axiom, so it has got a subclass removed
+          BNode changeInstance = addChange(currentClassIRI, "SubTermDeletion");
+          add(changeInstance, PROPERTY_OLDTERM, valueFactory.createIRI(scoa.getSuperClass().asOWLClass().getIRI().toString()));
+        } else if (scoa.getSubClass().asOWLClass().getIRI().equals(owlClassAxiomsInfo.getIRI())) {
+          // current class is subclass in axiom, so it has got a super class removed
+          BNode changeInstance = addChange(currentClassIRI, "SuperTermDeletion");
+          add(changeInstance, PROPERTY_OLDTERM, valueFactory.createIRI(scoa.getSubClass().asOWLClass().getIRI().toString()));
+        } else {
+          System.err.println("Warning: class " + currentClassIRI.getLocalName() + " does not appear in axiom but should: " + axiom);
         }
-      });
+      } else if (axiom instanceof OWLEquivalentClassesAxiom) {
+        OWLEquivalentClassesAxiom eca = (OWLEquivalentClassesAxiom) axiom;
+        eca.getNamedClasses().stream().filter(clazz -> !(clazz.getIRI().toString().equals(currentClassIRI.toString()))).forEach(clazz -> {
+          BNode changeInstance = addChange(currentClassIRI, "EquivalenceDeletion");
+          add(changeInstance, PROPERTY_OLDTERM, valueFactory.createIRI(clazz.getIRI().toString()));
+        });
+      }
+    });
+    
+    Optional.ofNullable(owlClassAxiomsInfo.getDeletedRawAnnotations()).orElse(Collections.emptySet()).forEach(annotation -> {
+      BNode changeInstance = addChange(currentClassIRI, "LabelDeletion");
+      add(changeInstance, PROPERTY_ANNOATIONPROPERTY, valueFactory.createIRI(annotation.getProperty().getIRI().toString()));
       
-      Optional.ofNullable(owlClassAxiomsInfo.getDeletedRawAnnotations()).orElse(Collections.emptySet()).forEach(annotation -> {
-        BNode changeInstance = valueFactory.createBNode();
-        mob.
-                add(currentClassIRI, PROPERTY_HASCHANGE, changeInstance).
-                subject(changeInstance).
-                add(RDF.TYPE, "change:LabelDeletion").
-                add(PROPERTY_ANNOATIONPROPERTY, valueFactory.createIRI(annotation.getProperty().getIRI().toString()));
-        
-        OWLLiteral annotationValue = annotation.getValue().asLiteral().get();
-        String literal = annotationValue.getLiteral();
-        Literal value = annotationValue.hasLang() ? valueFactory.createLiteral(literal, annotationValue.getLang()) : valueFactory.createLiteral(literal, valueFactory.createIRI(annotationValue.getDatatype().getIRI().toString()));
-        mob.add(PROPERTY_ANNOATIONVALUE, value);
-      });
+      OWLLiteral annotationValue = annotation.getValue().asLiteral().get();
+      String literal = annotationValue.getLiteral();
+      Literal value = annotationValue.hasLang() ? valueFactory.createLiteral(literal, annotationValue.getLang()) : valueFactory.createLiteral(literal, valueFactory.createIRI(annotationValue.getDatatype().getIRI().toString()));
+      add(changeInstance, PROPERTY_ANNOATIONVALUE, value);
     });
+  }
+  
+  @Override
+  public void onComplete(OntologyChangesBean changeBean) {
+    try {
+      finish();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write the diff as RDF to " + filePath, e);
+    }
+  }
+  
+  /**
+   * closes the file the statements are streamed to and deletes it, the diff it would hold is incomplete
+   */
+  @Override
+  public void onError(Throwable error) {
+    handler = null;
+    model = null;
+    if (out == null) {
+      return;
+    }
+    try {
+      out.close();
+    } catch (IOException e) {
+      error.addSuppressed(e);
+    }
+    out = null;
+    try {
+      Files.deleteIfExists(Paths.get(filePath));
+    } catch (IOException e) {
+      System.err.println("Could not delete the incomplete diff " + filePath);
+    }
+  }
+  
+  private void finish() throws IOException {
+    handler.endRDF();
+    handler = null;
+    if (streaming) {
+      out.close();
+      out = null;
+      return;
+    }
     
-    Model rdfModel = mob.build();
+    Model rdfModel = model;
+    model = null;
     FileOutputStream out = new FileOutputStream(filePath);
     try {
       Rio.write(rdfModel, out, format);
@@ -0,0 +1,102 @@
+package uk.ac.ebi.efo.bubastis;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+
+/**
+ * The annotation assertions of an ontology indexed by subject IRI and then by annotation
+ * property, built in one pass over the ontology. Replaces repeated EntitySearcher.getAnnotations
+ * lookups, which go through all annotation assertions of the subject every time.
+ * The ontology should not be changed once it has been indexed.
+ */
+public class AnnotationIndex {
+
+    private final Map<IRI, Map<IRI, Set<OWLAnnotation>>> annotationsBySubject = new HashMap<IRI, Map<IRI, Set<OWLAnnotation>>>();
+
+
+    /**
+     * index the values of all annotation properties
+     *
+     * @param ontology - ontology to index
+     */
+    public AnnotationIndex(OWLOntology ontology) {
+        this(ontology, null);
+    }
+
+
+    /**
+     * index the values of the given annotation properties only
+     *
+     * @param ontology     - ontology to index
+     * @param propertyIRIs - annotation properties to index, null for all
+     */
+    public AnnotationIndex(OWLOntology ontology, Collection<IRI> propertyIRIs) {
+        Set<IRI> indexedProperties = propertyIRIs == null ? null : new HashSet<IRI>(propertyIRIs);
+        for (OWLAnnotationAssertionAxiom axiom : ontology.getAxioms(AxiomType.ANNOTATION_ASSERTION)) {
+            if (!(axiom.getSubject() instanceof IRI)) {
+                continue;
+            }
+            IRI propertyIRI = axiom.getProperty().getIRI();
+            if (indexedProperties != null && !indexedProperties.contains(propertyIRI)) {
+                continue;
+            }
+
+            Map<IRI, Set<OWLAnnotation>> annotationsByProperty = annotationsBySubject.get(axiom.getSubject());
+            if (annotationsByProperty == null) {
+                annotationsByProperty = new HashMap<IRI, Set<OWLAnnotation>>();
+                annotationsBySubject.put((IRI) axiom.getSubject(), annotationsByProperty);
+            }
+            Set<OWLAnnotation> annotations = annotationsByProperty.get(propertyIRI);
+            if (annotations == null) {
+                annotations = new HashSet<OWLAnnotation>();
+                annotationsByProperty.put(propertyIRI, annotations);
+            }
+            annotations.add(axiom.getAnnotation());
+        }
+    }
+
+
+    /**
+     * get the values of one annotation property on a subject
+     *
+     * @param subjectIRI  - IRI of the annotated entity
+     * @param propertyIRI - annotation property
+     * @return the annotations, an empty set if there are none; the set must not be changed
+     */
+    public Set<OWLAnnotation> getAnnotations(IRI subjectIRI, IRI propertyIRI) {
+        Map<IRI, Set<OWLAnnotation>> annotationsByProperty = annotationsBySubject.get(subjectIRI);
+        if (annotationsByProperty == null) {
+            return Collections.emptySet();
+        }
+        Set<OWLAnnotation> annotations = annotationsByProperty.get(propertyIRI);
+        return annotations == null ? Collections.<OWLAnnotation>emptySet() : annotations;
+    }
+
+
+    /**
+     * get the values of several annotation properties on a subject
+     *
+     * @param subjectIRI   - IRI of the annotated entity
+     * @param propertyIRIs - annotation properties
+     * @return a new set with the annotations of all the given properties
+     */
+    public Set<OWLAnnotation> getAnnotations(IRI subjectIRI, Collection<IRI> propertyIRIs) {
+        Set<OWLAnnotation> annotations = new HashSet<OWLAnnotation>();
+        for (IRI propertyIRI : propertyIRIs) {
+            annotations.addAll(getAnnotations(subjectIRI, propertyIRI));
+        }
+        return annotations;
+    }
+
+}
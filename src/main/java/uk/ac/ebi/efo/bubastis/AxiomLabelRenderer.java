@@ -0,0 +1,154 @@
+package uk.ac.ebi.efo.bubastis;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.semanticweb.owlapi.io.OWLObjectRenderer;
+import org.semanticweb.owlapi.manchestersyntax.renderer.ManchesterOWLSyntaxOWLObjectRendererImpl;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClassAxiom;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.util.ShortFormProvider;
+
+
+/**
+ * Renders class axioms in Manchester syntax with entity labels in place of IRIs, for all the
+ * axioms of one ontology in a diff. The labels are written by the short form provider as the
+ * renderer reaches each entity, so every axiom is rendered in a single pass. The short form
+ * of each entity is looked up once and kept
+ * in a bounded least recently used cache shared by all classes, and the Manchester syntax
+ * renderers are taken from a pool of the instance, one per rendering thread at a time, so one
+ * instance can be used by the parallel comparison. Nothing is kept per thread, so the
+ * renderer, its annotation index and its cache are freed with the diff that used them.
+ */
+public class AxiomLabelRenderer implements ShortFormProvider {
+
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+
+    private final ShortFormProvider labelProvider;
+    private final Map<OWLEntity, String> shortForms;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    //the Manchester syntax renderer keeps state while rendering, so a renderer is only used by
+    //one thread at a time; not a ThreadLocal, its values would keep this instance alive with
+    //the threads, e.g. the servlet and pool threads
+    private final Queue<OWLObjectRenderer> renderers = new ConcurrentLinkedQueue<OWLObjectRenderer>();
+
+
+    /**
+     * @param annotationIndex  - annotations of the ontology the axioms come from
+     * @param labelPropertyIRI - annotation property holding the labels
+     */
+    public AxiomLabelRenderer(AnnotationIndex annotationIndex, IRI labelPropertyIRI) {
+        this(annotationIndex, labelPropertyIRI, DEFAULT_CACHE_SIZE);
+    }
+
+
+    /**
+     * @param annotationIndex  - annotations of the ontology the axioms come from
+     * @param labelPropertyIRI - annotation property holding the labels
+     * @param cacheSize        - maximum number of entity short forms kept
+     */
+    public AxiomLabelRenderer(AnnotationIndex annotationIndex, IRI labelPropertyIRI, int cacheSize) {
+        this(new LabelShortFormProvider(annotationIndex, labelPropertyIRI), cacheSize);
+    }
+
+
+    /**
+     * @param labelProvider - gives the short form shown for each entity, e.g. a LabelShortFormProvider
+     * @param cacheSize     - maximum number of entity short forms kept
+     */
+    public AxiomLabelRenderer(ShortFormProvider labelProvider, final int cacheSize) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("cache size must be at least 1");
+        }
+        this.labelProvider = labelProvider;
+        this.shortForms = Collections.synchronizedMap(new LinkedHashMap<OWLEntity, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<OWLEntity, String> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+
+    /**
+     * render a set of class axioms, see render(OWLClassAxiom)
+     *
+     * @param classAxioms - axioms to render, may be null
+     * @return the rendered axioms, empty if there are none
+     */
+    public Set<String> render(Set<OWLClassAxiom> classAxioms) {
+        Set<String> axiomsWithLabels = new HashSet<String>();
+        if (classAxioms == null) {
+            System.out.println("-Empty-");
+            return axiomsWithLabels;
+        }
+        for (OWLClassAxiom axiom : classAxioms) {
+            axiomsWithLabels.add(render(axiom));
+        }
+        return axiomsWithLabels;
+    }
+
+
+    /**
+     * render a class axiom in Manchester syntax with the short form of each entity, by default
+     * the quoted label or the IRI for entities without one
+     */
+    public String render(OWLClassAxiom axiom) {
+        OWLObjectRenderer renderer = renderers.poll();
+        if (renderer == null) {
+            renderer = new ManchesterOWLSyntaxOWLObjectRendererImpl();
+            renderer.setShortFormProvider(this);
+        }
+        try {
+            return renderer.render(axiom);
+        } finally {
+            renderers.offer(renderer);
+        }
+    }
+
+
+    @Override
+    public String getShortForm(OWLEntity entity) {
+        String shortForm = shortForms.get(entity);
+        if (shortForm != null) {
+            cacheHits.incrementAndGet();
+            return shortForm;
+        }
+        cacheMisses.incrementAndGet();
+        shortForm = labelProvider.getShortForm(entity);
+        shortForms.put(entity, shortForm);
+        return shortForm;
+    }
+
+
+    @Override
+    public void dispose() {
+        shortForms.clear();
+        renderers.clear();
+    }
+
+
+    /**
+     * @return number of short forms taken from the cache
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+
+    /**
+     * @return number of short forms that had to be looked up
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+}
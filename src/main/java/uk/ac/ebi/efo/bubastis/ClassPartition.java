@@ -0,0 +1,107 @@
+package uk.ac.ebi.efo.bubastis;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+
+/**
+ * The classes of two ontologies matched up by IRI. Both class signatures are sorted by IRI
+ * once and walked together, so every IRI is classified as common to both ontologies, new to
+ * ontology 2 or deleted from ontology 1 in a single pass.
+ */
+class ClassPartition {
+
+    private static final Comparator<OWLClass> BY_IRI = Comparator.comparing(OWLClass::getIRI);
+
+    //all classes of ontology 1 in IRI order, with the positions of those not in ontology 2
+    private final List<OWLClass> ontology1Classes;
+    private final BitSet deletedPositions = new BitSet();
+    private final List<OWLClass> newClasses = new ArrayList<OWLClass>();
+    private final List<OWLClass> deletedClasses = new ArrayList<OWLClass>();
+
+
+    private ClassPartition(List<OWLClass> ontology1Classes) {
+        this.ontology1Classes = ontology1Classes;
+    }
+
+
+    /**
+     * @param ont1 first ontology (the older ontology in most cases)
+     * @param ont2 second ontology (the newer ontology in most cases)
+     */
+    static ClassPartition of(OWLOntology ont1, OWLOntology ont2) {
+        List<OWLClass> ont1Classes = new ArrayList<OWLClass>(ont1.getClassesInSignature());
+        List<OWLClass> ont2Classes = new ArrayList<OWLClass>(ont2.getClassesInSignature());
+        Collections.sort(ont1Classes, BY_IRI);
+        Collections.sort(ont2Classes, BY_IRI);
+
+        ClassPartition partition = new ClassPartition(ont1Classes);
+        int i = 0;
+        int j = 0;
+        while (i < ont1Classes.size() || j < ont2Classes.size()) {
+            int order;
+            if (i == ont1Classes.size()) {
+                order = 1;
+            } else if (j == ont2Classes.size()) {
+                order = -1;
+            } else {
+                order = ont1Classes.get(i).getIRI().compareTo(ont2Classes.get(j).getIRI());
+            }
+
+            if (order == 0) {
+                i++;
+                j++;
+            } else if (order < 0) {
+                //only in ontology 1
+                partition.deletedPositions.set(i);
+                partition.deletedClasses.add(ont1Classes.get(i));
+                i++;
+            } else {
+                //only in ontology 2
+                partition.newClasses.add(ont2Classes.get(j));
+                j++;
+            }
+        }
+        return partition;
+    }
+
+
+    /**
+     * @return every class of ontology 1 in IRI order, those in both ontologies and the deleted ones
+     */
+    List<OWLClass> getOntology1Classes() {
+        return ontology1Classes;
+    }
+
+
+    /**
+     * @param position index into getOntology1Classes
+     * @return true if the class at that position is not in ontology 2
+     */
+    boolean isDeleted(int position) {
+        return deletedPositions.get(position);
+    }
+
+
+    /**
+     * @return classes only in ontology 2, in IRI order
+     */
+    List<OWLClass> getNewClasses() {
+        return newClasses;
+    }
+
+
+    /**
+     * @return classes only in ontology 1, in IRI order
+     */
+    List<OWLClass> getDeletedClasses() {
+        return deletedClasses;
+    }
+
+}
@@ -3,6 +3,14 @@ package uk.ac.ebi.efo.bubastis;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 import java.util.stream.Collectors;
 
 
@@ -10,7 +18,8 @@ import care.smith.top.terminology.codes.versioning.TopVersionOntologyDiffRDFRend
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.*;
-import org.semanticweb.owlapi.search.EntitySearcher;
+import org.semanticweb.owlapi.model.parameters.Imports;
+import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
 
 import uk.ac.ebi.efo.bubastis.exceptions.Ontology1LoadException;
 import uk.ac.ebi.efo.bubastis.exceptions.Ontology2LoadException;
@@ -27,6 +36,10 @@ import uk.ac.ebi.efo.bubastis.exceptions.Ontology2LoadException;
 public class CompareOntologies {
     
     public static final IRI CODE_IRI = IRI.create("https://top.smith.care/ontology/codesystem#code");
+
+    //the kinds of axiom returned by OWLOntology.getAxioms(OWLClass)
+    private static final List<AxiomType<? extends OWLClassAxiom>> CLASS_AXIOM_TYPES = Arrays.<AxiomType<? extends OWLClassAxiom>>asList(
+            AxiomType.SUBCLASS_OF, AxiomType.EQUIVALENT_CLASSES, AxiomType.DISJOINT_CLASSES, AxiomType.DISJOINT_UNION);
     
     private List<IRI> annotationPropertyIRIs;
 
@@ -36,6 +49,48 @@ public class CompareOntologies {
     private ArrayList<OWLClassAxiomsInfo> deletedClasses = new ArrayList<OWLClassAxiomsInfo>();
     private String lineSeparator = System.getProperty("line.separator");
     public OntologyChangesBean changeBean = new OntologyChangesBean();
+    //whether documents with the same content hash are reported as unchanged without loading them
+    private boolean skipIdenticalDocuments = true;
+    //snapshots of parsed documents, loaded instead of parsing a document again, null for none
+    private OntologySnapshotCache snapshotCache;
+    //whether both ontologies are loaded through one InterningDataFactory
+    private boolean shareDataFactory = false;
+    //executor used to parse both ontologies at once, null means one after the other
+    private ExecutorService loadExecutor;
+    //whether the per-class comparison is spread over several threads
+    private boolean parallelDiff = false;
+    private int diffParallelism = Runtime.getRuntime().availableProcessors();
+    private DiffStrategy diffStrategy = DiffStrategy.PER_CLASS;
+    //class fingerprints let the comparison skip classes that have not changed
+    private boolean useFingerprints = false;
+    private OntologyFingerprints fingerprints1;
+    private OntologyFingerprints fingerprints2;
+    //listeners told about each change as it is found
+    private final List<DiffListener> diffListeners = new ArrayList<DiffListener>();
+    //whether changes are also collected in the lists above
+    private boolean retainResults = true;
+    //whether the bean releases the ontologies once the diff is done
+    private boolean detachResults = false;
+    //whether the changed, new and deleted classes are printed with their axioms after the diff
+    private boolean printChanges = true;
+    //phase of the running diff and number of classes compared so far
+    private DiffProgress progress = new DiffProgress();
+    private int numChangedClasses;
+    private int numNewClasses;
+    private int numDeletedClasses;
+    //annotation property whose values are the labels shown for classes and in rendered axioms
+    private IRI labelPropertyIRI = CODE_IRI;
+    private LabelShortFormProvider.MultipleLabelPolicy multipleLabelPolicy = LabelShortFormProvider.MultipleLabelPolicy.FIRST;
+    //renderers of the axiom labels of the last diff, kept for their cache counters
+    private int labelCacheSize = AxiomLabelRenderer.DEFAULT_CACHE_SIZE;
+    private AxiomLabelRenderer labelRenderer1;
+    private AxiomLabelRenderer labelRenderer2;
+    //indexes of ontology 2 of the last diff, reused when it is ontology 1 of the next diff
+    private boolean chainIndexes = false;
+    private OWLOntology chainedOntology;
+    private List<Object> chainedSettings;
+    private AnnotationIndex chainedAnnotationIndex;
+    private AxiomLabelRenderer chainedLabelRenderer;
     
     /**
      * default constructor
@@ -55,195 +110,1138 @@ public class CompareOntologies {
         //Create 2 OWLOntologyManager which manages a set of ontologies
         //An ontology is unique within an ontology manager.
         //To load multiple copies of an ontology, multiple managers are required.
-        OWLOntologyManager manager1 = OWLManager.createOWLOntologyManager();
-        OWLOntologyManager manager2 = OWLManager.createOWLOntologyManager();
-        OWLOntology ontology1;
-        OWLOntology ontology2;
+        OWLOntologyManager[] managers = createManagers();
+        OWLOntologyManager manager1 = managers[0];
+        OWLOntologyManager manager2 = managers[1];
+
+        //attempt to create IRIs
+        IRI ontology1IRI = IRI.create(ontology1Location);
+        IRI ontology2IRI = IRI.create(ontology2Location);
+
+        FetchedDocument[] documents = new FetchedDocument[2];
+        try {
+            //fetch both documents before parsing to see whether there is anything to compare, or
+            //to know their content hashes for the fingerprints
+            if (skipIdenticalDocuments || useFingerprints) {
+                documents = fetchDocuments(ontology1Location, ontology2Location);
+                if (skipIdenticalDocuments && documents[0].getContentHash().equals(documents[1].getContentHash())) {
+                    reportIdenticalDocuments(ontology1Location, ontology2Location);
+                    return;
+                }
+            }
+
+            //load both ontologies from URL using the OntologyLoader class
+            //can also load file in form for example: "file:/H://experimentalfactors.owl"
+            OWLOntology[] ontologies = loadOntologies(
+                    urlLoadTask(manager1, ontology1IRI, documents[0]), ontology1Location,
+                    urlLoadTask(manager2, ontology2IRI, documents[1]), ontology2Location);
+
+            //now chain to findAllChanges with new parameters
+            this.findAllChanges(manager1, manager2,
+                    ontologies[0], ontologies[1], annotationPropertyIRIs, contentHashOf(documents[0]), contentHashOf(documents[1]));
+        } finally {
+            close(documents[0]);
+            close(documents[1]);
+        }
+
+    }
+
+
+    /**
+     * Perform diff on two ontologies passed as files
+     *
+     * @param ontologyFile1 - first ontology to be read from file
+     * @param ontologyFile2 - second ontology to be read from file
+     * @throws Ontology2LoadException
+     * @throws Ontology1LoadException
+     * @throws OWLOntologyCreationException
+     */
+    public void doFindAllChanges(File ontologyFile1, File ontologyFile2, List<IRI> annotationPropertyIRIs) throws Ontology1LoadException, Ontology2LoadException {
+        //Create 2 OWLOntologyManager which manages a set of ontologies
+        //An ontology is unique within an ontology manager.
+        //To load multiple copies of an ontology, multiple managers are required.
+        OWLOntologyManager[] managers = createManagers();
+        OWLOntologyManager manager1 = managers[0];
+        OWLOntologyManager manager2 = managers[1];
+
+        //each file is hashed once, for the check for identical documents, the fingerprints and the snapshots
+        boolean sameLength = ontologyFile1.length() == ontologyFile2.length();
+        String contentHash1 = contentHashOf(ontologyFile1, sameLength);
+        String contentHash2 = contentHashOf(ontologyFile2, sameLength);
+        if (skipIdenticalDocuments && sameLength && contentHash1 != null && contentHash1.equals(contentHash2)) {
+            reportIdenticalDocuments(ontologyFile1.toString(), ontologyFile2.toString());
+            return;
+        }
+
+        System.out.println("trying load now");
+
+        //load both ontologies from file
+        OWLOntology[] ontologies = loadOntologies(
+                fileLoadTask(manager1, ontologyFile1, contentHash1), ontologyFile1.toString(),
+                fileLoadTask(manager2, ontologyFile2, contentHash2), ontologyFile2.toString());
+
+        //now chain to findAllChanges with new parameters
+        this.findAllChanges(manager1, manager2,
+                ontologies[0], ontologies[1], annotationPropertyIRIs, contentHash1, contentHash2);
+
+    }
+
+
+    /**
+     * Perform diff on two ontologies, first passed as a URL, second as a file
+     *
+     * @param ontology1Location - first ontology to be read from URL
+     * @param ontologyFile2     - second ontology to be read from file
+     * @throws OWLOntologyCreationException
+     */
+    public void doFindAllChanges(String ontology1Location, File ontologyFile2, List<IRI> annotationPropertyIRIs) throws OWLOntologyCreationException {
+        //set locations of ontologies for later displaying
+        changeBean.setOntology1Location(ontology1Location);
+        changeBean.setOntology2Location(ontologyFile2.toString());
+
+        //Create 2 OWLOntologyManager which manages a set of ontologies
+        //An ontology is unique within an ontology manager.
+        //To load multiple copies of an ontology, multiple managers are required.
+        OWLOntologyManager[] managers = createManagers();
+        OWLOntologyManager manager1 = managers[0];
+        OWLOntologyManager manager2 = managers[1];
+
+
+        System.out.println("trying load now");
+
 
         //load ontology1 from URL using the OntologyLoader class
         //can also load file in form for example: "file:/H://experimentalfactors.owl"
-        //attempt to create IRIs
+        //attempt to create IRI
         IRI ontology1IRI = IRI.create(ontology1Location);
+
+        FetchedDocument document1 = null;
+        try {
+            String contentHash2 = null;
+            if (skipIdenticalDocuments || useFingerprints) {
+                document1 = fetchDocument(ontology1Location, 1);
+                contentHash2 = contentHashOf(ontologyFile2, document1.length() == ontologyFile2.length());
+                if (skipIdenticalDocuments && document1.getContentHash().equals(contentHash2)) {
+                    reportIdenticalDocuments(ontology1Location, ontologyFile2.toString());
+                    return;
+                }
+            }
+
+            //load ontology 1 from URL and ontology 2 from file
+            OWLOntology[] ontologies = loadOntologies(
+                    urlLoadTask(manager1, ontology1IRI, document1), ontology1Location,
+                    fileLoadTask(manager2, ontologyFile2, contentHash2), ontologyFile2.toString());
+
+            //now chain to findAllChanges with new parameters
+            this.findAllChanges(manager1, manager2,
+                    ontologies[0], ontologies[1], annotationPropertyIRIs, contentHashOf(document1), contentHash2);
+        } finally {
+            close(document1);
+        }
+
+
+    }
+
+
+    /**
+     * Perform diff on two ontologies, first passed as a URL, second as a file
+     *
+     * @param ontologyFile1     - first ontology to be read from file
+     * @param ontology2Location - second ontology to be read from URL
+     * @throws OWLOntologyCreationException
+     */
+    public void doFindAllChanges(File ontologyFile1, String ontology2Location, List<IRI> annotationPropertyIRIs) throws OWLOntologyCreationException {
+        //set locations of ontologies for later displaying
+        changeBean.setOntology1Location(ontologyFile1.toString());
+        changeBean.setOntology2Location(ontology2Location);
+
+        //Create 2 OWLOntologyManager which manages a set of ontologies
+        //An ontology is unique within an ontology manager.
+        //To load multiple copies of an ontology, multiple managers are required.
+        OWLOntologyManager[] managers = createManagers();
+        OWLOntologyManager manager1 = managers[0];
+        OWLOntologyManager manager2 = managers[1];
+
+        System.out.println("trying load now");
+
+
+        //load ontology2 from URL using the OntologyLoader class
+        //can also load file in form for example: "file:/H://experimentalfactors.owl"
+        //attempt to create IRI
         IRI ontology2IRI = IRI.create(ontology2Location);
 
-        //load ontology 1
+        FetchedDocument document2 = null;
         try {
-            OntologyLoader loader1 = new OntologyLoader(manager1, ontology1IRI);
-            ontology1 = loader1.loadOntology();
+            String contentHash1 = null;
+            if (skipIdenticalDocuments || useFingerprints) {
+                document2 = fetchDocument(ontology2Location, 2);
+                contentHash1 = contentHashOf(ontologyFile1, document2.length() == ontologyFile1.length());
+                if (skipIdenticalDocuments && document2.getContentHash().equals(contentHash1)) {
+                    reportIdenticalDocuments(ontologyFile1.toString(), ontology2Location);
+                    return;
+                }
+            }
+
+            //load ontology 1 from file and ontology 2 from URL
+            OWLOntology[] ontologies = loadOntologies(
+                    fileLoadTask(manager1, ontologyFile1, contentHash1), ontologyFile1.toString(),
+                    urlLoadTask(manager2, ontology2IRI, document2), ontology2Location);
+
+            //now chain to findAllChanges with new parameters
+            this.findAllChanges(manager1, manager2,
+                    ontologies[0], ontologies[1], annotationPropertyIRIs, contentHash1, contentHashOf(document2));
+        } finally {
+            close(document2);
+        }
+
+    }
+
+
+    /**
+     * Perform diff on two documents that have already been fetched or hashed, e.g. by a caller
+     * that looks up earlier results by the content hashes first. The documents are not closed.
+     *
+     * @param document1 - document of the first ontology, see FetchedDocument.fetch and FetchedDocument.of
+     * @param document2 - document of the second ontology
+     * @throws Ontology1LoadException
+     * @throws Ontology2LoadException
+     */
+    public void doFindAllChanges(FetchedDocument document1, FetchedDocument document2, List<IRI> annotationPropertyIRIs) throws Ontology1LoadException, Ontology2LoadException {
+        OWLOntologyManager[] managers = createManagers();
+        OWLOntologyManager manager1 = managers[0];
+        OWLOntologyManager manager2 = managers[1];
+
+        if (skipIdenticalDocuments && document1.getContentHash().equals(document2.getContentHash())) {
+            reportIdenticalDocuments(document1.getLocation(), document2.getLocation());
+            return;
+        }
+
+        OWLOntology[] ontologies = loadOntologies(
+                urlLoadTask(manager1, null, document1), document1.getLocation(),
+                urlLoadTask(manager2, null, document2), document2.getLocation());
+
+        this.findAllChanges(manager1, manager2,
+                ontologies[0], ontologies[1], annotationPropertyIRIs, document1.getContentHash(), document2.getContentHash());
+    }
+
+
+    /**
+     * Perform diff on two release indexes written with ReleaseIndex.write, by a merge join of
+     * their records, which are sorted by IRI, without loading either release. The result has
+     * the same changed, new and deleted classes as the diff of the two ontologies, with the
+     * annotation and label properties the indexes were written with. The changed axioms are
+     * only held as labels, so the result can be written as text or xml but not as RDF, and the
+     * bean holds no ontologies.
+     * <p/>
+     * Only the records of the classes that differ are kept during the join, and only the labels
+     * needed to show those classes are read afterwards, so the memory used depends on the size
+     * of the changes rather than the size of the releases.
+     *
+     * @param index1 - index of the first release - the older release in most cases
+     * @param index2 - index of the second release - the newer release in most cases
+     */
+    public void doFindAllChangesFromIndexes(File index1, File index2) throws IOException {
+        List<ReleaseIndex.Record[]> changedRecords = new ArrayList<ReleaseIndex.Record[]>();
+        List<ReleaseIndex.Record> newRecords = new ArrayList<ReleaseIndex.Record>();
+        List<ReleaseIndex.Record> deletedRecords = new ArrayList<ReleaseIndex.Record>();
+        //entities whose labels are needed from each release
+        Set<String> entityIRIs1 = new HashSet<String>();
+        Set<String> entityIRIs2 = new HashSet<String>();
+        ReleaseIndex.Labels labels1;
+        ReleaseIndex.Labels labels2;
+
+        try (ReleaseIndex.Reader reader1 = new ReleaseIndex.Reader(index1);
+             ReleaseIndex.Reader reader2 = new ReleaseIndex.Reader(index2)) {
+            if (!reader1.getLabelPropertyIRI().equals(reader2.getLabelPropertyIRI())
+                    || !new HashSet<IRI>(reader1.getAnnotationPropertyIRIs()).equals(new HashSet<IRI>(reader2.getAnnotationPropertyIRIs()))) {
+                throw new IllegalArgumentException("The release indexes were written with different annotation or label properties");
+            }
+            this.annotationPropertyIRIs = reader1.getAnnotationPropertyIRIs();
+            this.labelPropertyIRI = reader1.getLabelPropertyIRI();
+
+            joinRecords(reader1, reader2, (record1, record2) -> {
+                boolean isClass1 = record1 != null && record1.isClass();
+                boolean isClass2 = record2 != null && record2.isClass();
+                if (isClass1 && differs(record1, record2)) {
+                    //both are shown with the labels of release 1
+                    changedRecords.add(new ReleaseIndex.Record[]{record1, record2});
+                    record1.collectEntityIRIs(entityIRIs1);
+                    if (record2 != null) {
+                        record2.collectEntityIRIs(entityIRIs1);
+                    }
+                }
+                if (isClass1 && !isClass2) {
+                    deletedRecords.add(record1);
+                    record1.collectEntityIRIs(entityIRIs1);
+                } else if (isClass2 && !isClass1) {
+                    newRecords.add(record2);
+                    record2.collectEntityIRIs(entityIRIs2);
+                }
+            });
+            labels1 = reader1.readLabels(entityIRIs1, multipleLabelPolicy);
+            labels2 = reader2.readLabels(entityIRIs2, multipleLabelPolicy);
+        }
+
+        this.classesWithDifferences = new ArrayList<OWLClassAxiomsInfo>();
+        this.newClasses = new ArrayList<OWLClassAxiomsInfo>();
+        this.deletedClasses = new ArrayList<OWLClassAxiomsInfo>();
+        this.numChangedClasses = 0;
+        this.numNewClasses = 0;
+        this.numDeletedClasses = 0;
+        changeBean.setOntology1Location(index1.toString());
+        changeBean.setOntology2Location(index2.toString());
+        changeBean.setOntology1(null);
+        changeBean.setOntology2(null);
+        try {
+            for (DiffListener diffListener : diffListeners) {
+                diffListener.onStart(changeBean);
+            }
+
+            //annotations are created without a manager, only to hold and show the values
+            OWLDataFactory df = new OWLDataFactoryImpl();
+            List<OWLAnnotationProperty> annotationProperties = annotationPropertyIRIs.stream().map(df::getOWLAnnotationProperty).collect(Collectors.toList());
+            for (ReleaseIndex.Record[] records : changedRecords) {
+                compareIndexedClass(records[0], records[1], labels1, df, annotationProperties);
+            }
+            for (ReleaseIndex.Record record : newRecords) {
+                reportNewClass(createIndexedClassInfo(record, labels2, df));
+            }
+            for (ReleaseIndex.Record record : deletedRecords) {
+                reportDeletedClass(createIndexedClassInfo(record, labels1, df));
+            }
+
+            System.out.println("@Number of classes changed: " + numChangedClasses);
+            System.out.println("@Number of classes added: " + numNewClasses);
+            System.out.println("@Number of classes deleted: " + numDeletedClasses);
+            writeDataToBean();
+            for (DiffListener diffListener : diffListeners) {
+                diffListener.onComplete(changeBean);
+            }
+        } catch (RuntimeException | Error e) {
+            reportError(e);
+            throw e;
+        }
+    }
+
+
+    /**
+     * walk the records of two indexes together in IRI order, passing each IRI's records to the
+     * consumer, null for a release without a record for the IRI
+     */
+    private static void joinRecords(ReleaseIndex.Reader reader1, ReleaseIndex.Reader reader2,
+                                    BiConsumer<ReleaseIndex.Record, ReleaseIndex.Record> recordPairs) throws IOException {
+        ReleaseIndex.Record record1 = reader1.next();
+        ReleaseIndex.Record record2 = reader2.next();
+        while (record1 != null || record2 != null) {
+            int order;
+            if (record1 == null) {
+                order = 1;
+            } else if (record2 == null) {
+                order = -1;
+            } else {
+                order = record1.getIRI().compareTo(record2.getIRI());
+            }
+
+            if (order == 0) {
+                recordPairs.accept(record1, record2);
+                record1 = reader1.next();
+                record2 = reader2.next();
+            } else if (order < 0) {
+                recordPairs.accept(record1, null);
+                record1 = reader1.next();
+            } else {
+                recordPairs.accept(null, record2);
+                record2 = reader2.next();
+            }
+        }
+    }
+
+
+    /**
+     * whether compareIndexedClass reports anything for a class of release 1
+     */
+    private static boolean differs(ReleaseIndex.Record record1, ReleaseIndex.Record record2) {
+        if (record2 == null) {
+            return false;
+        }
+        //both lists are sorted, so they are equal when the sets are
+        boolean annotationsDiffer = !record2.getAnnotations().isEmpty() && !record1.getAnnotations().equals(record2.getAnnotations());
+        boolean axiomsDiffer = record2.isClass() && !record2.getAxioms().isEmpty() && !record1.getAxioms().equals(record2.getAxioms());
+        return annotationsDiffer || axiomsDiffer;
+    }
+
+
+    /**
+     * compare a class of release 1 with the record of the same IRI in release 2 as compareClass
+     * does, reporting an entry if the annotations differ and one if the axioms differ
+     */
+    private void compareIndexedClass(ReleaseIndex.Record record1, ReleaseIndex.Record record2, ReleaseIndex.Labels labels1,
+                                     OWLDataFactory df, List<OWLAnnotationProperty> annotationProperties) {
+        IRI classIRI = record1.getIRI();
+        List<String> annotations1 = record1.getAnnotations();
+        List<String> annotations2 = record2.getAnnotations();
+        if (!annotations2.isEmpty() && !annotations1.equals(annotations2)) {
+            OWLClassAxiomsInfo annotationDiffs = new OWLClassAxiomsInfo(classIRI,
+                    decodeAnnotations(difference(annotations2, annotations1), df),
+                    decodeAnnotations(difference(annotations1, annotations2), df), annotationProperties);
+            annotationDiffs.setClassLabels(decodeAnnotations(labels1.getLabels(classIRI.toString()), df));
+            reportChangedClass(annotationDiffs);
+        }
+
+        if (!record2.isClass() || record2.getAxioms().isEmpty()
+                || record1.getAxioms().equals(record2.getAxioms())) {
+            return;
+        }
+        List<ReleaseIndex.IndexedAxiom> newAxioms = difference(record2.getAxioms(), record1.getAxioms());
+        List<ReleaseIndex.IndexedAxiom> deletedAxioms = difference(record1.getAxioms(), record2.getAxioms());
+        //as in createAxiomDiffs both are shown with the labels of release 1
+        OWLClassAxiomsInfo axiomDiffs = OWLClassAxiomsInfo.withAxiomLabels(classIRI, labels1.render(newAxioms), newAxioms.size(),
+                labels1.render(deletedAxioms), deletedAxioms.size());
+        axiomDiffs.setClassLabels(decodeAnnotations(labels1.getLabels(classIRI.toString()), df));
+        reportChangedClass(axiomDiffs);
+    }
+
+
+    /**
+     * create the information for a class only in one release from its record, as createNewClassInfo does
+     */
+    private static OWLClassAxiomsInfo createIndexedClassInfo(ReleaseIndex.Record record, ReleaseIndex.Labels labels, OWLDataFactory df) {
+        OWLClassAxiomsInfo classInfo = OWLClassAxiomsInfo.withAxiomLabels(record.getIRI(), labels.render(record.getAxioms()),
+                record.getAxioms().size(), null, 0);
+        classInfo.setClassLabels(decodeAnnotations(labels.getLabels(record.getIRI().toString()), df));
+        return classInfo;
+    }
+
+
+    private static <T> List<T> difference(List<T> values, List<T> removed) {
+        List<T> difference = new ArrayList<T>(values);
+        difference.removeAll(new HashSet<T>(removed));
+        return difference;
+    }
+
+
+    private static Set<OWLAnnotation> decodeAnnotations(List<String> encodedAnnotations, OWLDataFactory df) {
+        Set<OWLAnnotation> annotations = new HashSet<OWLAnnotation>();
+        for (String encoded : encodedAnnotations) {
+            annotations.add(ReleaseIndex.decode(encoded, df));
+        }
+        return annotations;
+    }
+
+
+    /**
+     * Load the two ontologies, either one after the other or, if a load executor has been set,
+     * side by side on that executor. Failures are reported as Ontology1LoadException or
+     * Ontology2LoadException carrying the location that could not be loaded, and the locations
+     * and ontologies are written to the changeBean once loaded.
+     *
+     * @param loadTask1 - task which loads the first ontology
+     * @param location1 - location of the first ontology, used for reporting
+     * @param loadTask2 - task which loads the second ontology
+     * @param location2 - location of the second ontology, used for reporting
+     * @return the two loaded ontologies, ontology 1 first
+     */
+    private OWLOntology[] loadOntologies(Callable<OWLOntology> loadTask1, String location1,
+                                         Callable<OWLOntology> loadTask2, String location2) throws Ontology1LoadException, Ontology2LoadException {
+        OWLOntology ontology1;
+        OWLOntology ontology2;
+
+        progress.setPhase(DiffProgress.Phase.LOADING_1);
+        if (loadExecutor == null) {
+            ontology1 = callLoadTask(loadTask1, location1, 1);
+            progress.setPhase(DiffProgress.Phase.LOADING_2);
+            ontology2 = callLoadTask(loadTask2, location2, 2);
+        } else {
+            //parse both documents at the same time, each on its own manager
+            LoadTask<OWLOntology> future1 = submitLoadTask(loadTask1, CompareOntologies::remove);
+            LoadTask<OWLOntology> future2 = submitLoadTask(loadTask2, CompareOntologies::remove);
+            try {
+                ontology1 = awaitLoadTask(future1, location1, 1);
+            } catch (Ontology1LoadException e) {
+                //no point waiting for the second ontology if the first one failed
+                future2.discard();
+                throw e;
+            }
+            progress.setPhase(DiffProgress.Phase.LOADING_2);
+            ontology2 = awaitLoadTask(future2, location2, 2);
+        }
+
+        System.out.println("loading ontology 1 complete");
+        //set locations of ontologies for later displaying
+        changeBean.setOntology1Location(location1);
+        changeBean.setOntology1(ontology1);
+
+        System.out.println("loading ontology 2 complete");
+        changeBean.setOntology2Location(location2);
+        changeBean.setOntology2(ontology2);
+
+        return new OWLOntology[]{ontology1, ontology2};
+    }
+
+
+    private <T> T callLoadTask(Callable<T> loadTask, String location, int ontologyNumber) throws Ontology1LoadException, Ontology2LoadException {
+        try {
+            return loadTask.call();
         } catch (Exception e) {
+            throwLoadException(location, ontologyNumber, e);
+            return null;
+        }
+    }
+
+
+    private <T> T awaitLoadTask(LoadTask<T> future, String location, int ontologyNumber) throws Ontology1LoadException, Ontology2LoadException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throwLoadException(location, ontologyNumber, e.getCause());
+        } catch (InterruptedException e) {
+            future.discard();
+            Thread.currentThread().interrupt();
+            throwLoadException(location, ontologyNumber, e);
+        }
+        return null;
+    }
+
+
+    /**
+     * create the managers of the two ontologies, which share an InterningDataFactory if
+     * shareDataFactory is set
+     */
+    private OWLOntologyManager[] createManagers() {
+        if (!shareDataFactory) {
+            return new OWLOntologyManager[]{OWLManager.createOWLOntologyManager(), OWLManager.createOWLOntologyManager()};
+        }
+        OWLDataFactory dataFactory = InterningDataFactory.create();
+        return new OWLOntologyManager[]{InterningDataFactory.createOWLOntologyManager(dataFactory),
+                InterningDataFactory.createOWLOntologyManager(dataFactory)};
+    }
+
+
+    /**
+     * task loading an ontology from a file, from its snapshot if a snapshot cache has been set
+     *
+     * @param contentHash - hash of the file if it is already known, or null
+     */
+    private Callable<OWLOntology> fileLoadTask(OWLOntologyManager manager, File file, String contentHash) {
+        final OntologySnapshotCache cache = snapshotCache;
+        if (cache == null) {
+            return () -> manager.loadOntologyFromOntologyDocument(file);
+        }
+        return () -> cache.load(manager, file, contentHash);
+    }
+
+
+    /**
+     * task loading an ontology from a URL, from the already fetched document if there is one
+     * and otherwise with the OntologyLoader
+     */
+    private Callable<OWLOntology> urlLoadTask(OWLOntologyManager manager, IRI ontologyIRI, FetchedDocument document) {
+        final OntologySnapshotCache cache = snapshotCache;
+        if (document == null) {
+            return () -> new OntologyLoader(manager, ontologyIRI, cache).loadOntology();
+        }
+        if (cache == null) {
+            return () -> manager.loadOntologyFromOntologyDocument(document.getDocumentSource());
+        }
+        return () -> cache.load(manager, document);
+    }
+
+
+    /**
+     * fetch the document at a URL to a temporary file, hashing it as it is read
+     *
+     * @param location       - URL of the document
+     * @param ontologyNumber - 1 or 2, which load exception to throw if it cannot be fetched
+     * @return the document, to be closed by the caller
+     */
+    public FetchedDocument fetchDocument(String location, int ontologyNumber) throws Ontology1LoadException, Ontology2LoadException {
+        return callLoadTask(() -> FetchedDocument.fetch(location), location, ontologyNumber);
+    }
+
+
+    /**
+     * fetch the documents at two URLs, side by side if a load executor has been set
+     *
+     * @return the two documents, to be closed by the caller
+     */
+    public FetchedDocument[] fetchDocuments(String location1, String location2) throws Ontology1LoadException, Ontology2LoadException {
+        if (loadExecutor == null) {
+            FetchedDocument document1 = fetchDocument(location1, 1);
+            try {
+                return new FetchedDocument[]{document1, fetchDocument(location2, 2)};
+            } catch (Ontology2LoadException e) {
+                close(document1);
+                throw e;
+            }
+        }
+
+        LoadTask<FetchedDocument> future1 = submitLoadTask(() -> FetchedDocument.fetch(location1), CompareOntologies::close);
+        LoadTask<FetchedDocument> future2 = submitLoadTask(() -> FetchedDocument.fetch(location2), CompareOntologies::close);
+        FetchedDocument document1;
+        try {
+            document1 = awaitLoadTask(future1, location1, 1);
+        } catch (Ontology1LoadException e) {
+            future2.discard();
+            throw e;
+        }
+        try {
+            return new FetchedDocument[]{document1, awaitLoadTask(future2, location2, 2)};
+        } catch (Ontology2LoadException e) {
+            close(document1);
+            throw e;
+        }
+    }
+
+
+    private static void remove(OWLOntology ontology) {
+        ontology.getOWLOntologyManager().removeOntology(ontology);
+    }
+
+
+    private <T> LoadTask<T> submitLoadTask(Callable<T> callable, Consumer<T> release) {
+        LoadTask<T> task = new LoadTask<T>(callable, release);
+        loadExecutor.execute(task);
+        return task;
+    }
+
+
+    /**
+     * task run on the load executor whose result is released when it is no longer wanted,
+     * whether the task had already finished or only finishes after it has been cancelled
+     */
+    private static class LoadTask<T> extends FutureTask<T> {
+        private final Consumer<T> release;
+
+        LoadTask(Callable<T> callable, Consumer<T> release) {
+            super(callable);
+            this.release = release;
+        }
+
+        @Override
+        protected void set(T result) {
+            super.set(result);
+            //cancelled while running, nobody takes the result
+            if (isCancelled()) {
+                release.accept(result);
+            }
+        }
+
+        /**
+         * cancel the task, releasing its result if it has one
+         */
+        void discard() {
+            if (!cancel(true) && !isCancelled()) {
+                try {
+                    release.accept(get());
+                } catch (ExecutionException | InterruptedException e) {
+                    //failed, nothing to release
+                }
+            }
+        }
+    }
+
+
+    private static void close(FetchedDocument document) {
+        if (document == null) {
+            return;
+        }
+        try {
+            document.close();
+        } catch (IOException e) {
+            System.out.println("Could not delete the fetched copy of " + document.getLocation());
+        }
+    }
+
+
+    /**
+     * @param sameLength - whether the other document has the same size, only then is the hash
+     *                   needed to find identical documents
+     * @return the content hash of a file if it is needed, to find identical documents, to use
+     * saved fingerprints only for the same content or to find the snapshot of the file; null
+     * otherwise or if the file cannot be read, loading it will report the problem
+     */
+    private String contentHashOf(File file, boolean sameLength) {
+        if (!(skipIdenticalDocuments && sameLength) && !useFingerprints && snapshotCache == null) {
+            return null;
+        }
+        try {
+            return ContentHash.of(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+
+    private static String contentHashOf(FetchedDocument document) {
+        return document == null ? null : document.getContentHash();
+    }
+
+
+    /**
+     * Report the diff of two documents known to have the same content, without loading them.
+     * The result has no changes and the given locations; the bean holds no ontologies. Listeners
+     * are started and completed as for any other diff.
+     *
+     * @param ontology1Location - location of the first document
+     * @param ontology2Location - location of the second document
+     */
+    public void reportIdenticalDocuments(String ontology1Location, String ontology2Location) {
+        this.classesWithDifferences = new ArrayList<OWLClassAxiomsInfo>();
+        this.newClasses = new ArrayList<OWLClassAxiomsInfo>();
+        this.deletedClasses = new ArrayList<OWLClassAxiomsInfo>();
+        this.numChangedClasses = 0;
+        this.numNewClasses = 0;
+        this.numDeletedClasses = 0;
+        changeBean.setOntology1Location(ontology1Location);
+        changeBean.setOntology2Location(ontology2Location);
+        changeBean.setOntology1(null);
+        changeBean.setOntology2(null);
+        for (DiffListener diffListener : diffListeners) {
+            diffListener.onStart(changeBean);
+        }
+
+        System.out.println("ontology documents are identical, no differences");
+        writeDataToBean();
+        for (DiffListener diffListener : diffListeners) {
+            diffListener.onComplete(changeBean);
+        }
+    }
+
+
+    /**
+     * Compare the content hashes of the two documents before parsing them and report an empty
+     * diff straight away if they are the same, which is the default. URL documents are then
+     * fetched to a temporary file, hashed as they are read, and parsed from there.
+     *
+     * @param skipIdenticalDocuments - false to always load and compare both ontologies
+     */
+    public void setSkipIdenticalDocuments(boolean skipIdenticalDocuments) {
+        this.skipIdenticalDocuments = skipIdenticalDocuments;
+    }
+
+
+    public boolean isSkipIdenticalDocuments() {
+        return skipIdenticalDocuments;
+    }
+
+
+    /**
+     * Load documents through a snapshot cache: a document that has been parsed before is
+     * rebuilt from its snapshot, found by content hash, and otherwise parsed and snapshotted.
+     *
+     * @param snapshotCache - cache to load through, or null to always parse the documents
+     */
+    public void setSnapshotCache(OntologySnapshotCache snapshotCache) {
+        this.snapshotCache = snapshotCache;
+    }
+
+
+    public OntologySnapshotCache getSnapshotCache() {
+        return snapshotCache;
+    }
+
+
+    /**
+     * Load both ontologies through one InterningDataFactory, so that the axioms the ontologies
+     * have in common are held once and compared by reference. Applies to the doFindAllChanges
+     * methods that load the ontologies themselves.
+     *
+     * @param shareDataFactory - true to share an interning factory, false for a factory per ontology
+     */
+    public void setShareDataFactory(boolean shareDataFactory) {
+        this.shareDataFactory = shareDataFactory;
+    }
+
+
+    public boolean isShareDataFactory() {
+        return shareDataFactory;
+    }
+
+
+    /**
+     * report that one of the two ontologies could not be loaded, using the exception type
+     * the callers of doFindAllChanges expect for that ontology
+     */
+    private static void throwLoadException(String location, int ontologyNumber, Throwable cause) throws Ontology1LoadException, Ontology2LoadException {
+        if (ontologyNumber == 1) {
             Ontology1LoadException loadException = new Ontology1LoadException();
-            loadException.setOntologyLocation(ontology1Location);
+            loadException.setOntologyLocation(location);
+            loadException.initCause(cause);
             throw loadException;
         }
-        System.out.println("loading ontology 1 complete");
-        changeBean.setOntology1Location(ontology1Location);
-        changeBean.setOntology1(ontology1);
+        Ontology2LoadException loadException = new Ontology2LoadException();
+        loadException.setOntologyLocation(location);
+        loadException.initCause(cause);
+        throw loadException;
+    }
+
+
+    /**
+     * Load ontology 1 and ontology 2 in parallel on the given executor instead of one after
+     * the other. Each ontology is still parsed by its own OWLOntologyManager. The executor
+     * is not shut down by this class; pass null to go back to sequential loading.
+     *
+     * @param loadExecutor - executor with at least two threads, or null
+     */
+    public void setLoadExecutor(ExecutorService loadExecutor) {
+        this.loadExecutor = loadExecutor;
+    }
+
+
+    public ExecutorService getLoadExecutor() {
+        return loadExecutor;
+    }
+
+
+    /**
+     * Switch between comparing the classes one after the other (the default) and comparing them
+     * on a fork/join pool. Both modes report the same changes in the same order.
+     *
+     * @param parallelDiff - true to compare classes in parallel
+     */
+    public void setParallelDiff(boolean parallelDiff) {
+        this.parallelDiff = parallelDiff;
+    }
+
+
+    public boolean isParallelDiff() {
+        return parallelDiff;
+    }
+
+
+    /**
+     * Set the number of threads used when comparing classes in parallel,
+     * defaults to the number of available processors
+     *
+     * @param diffParallelism - number of worker threads, at least 1
+     */
+    public void setDiffParallelism(int diffParallelism) {
+        if (diffParallelism < 1) {
+            throw new IllegalArgumentException("diff parallelism must be at least 1 but was " + diffParallelism);
+        }
+        this.diffParallelism = diffParallelism;
+    }
+
+
+    public int getDiffParallelism() {
+        return diffParallelism;
+    }
+
+
+    /**
+     * Choose how the classes with changed axioms or annotations are found, see DiffStrategy.
+     * The parallel setting only applies to the per-class strategy.
+     *
+     * @param diffStrategy - strategy to use, PER_CLASS by default
+     */
+    public void setDiffStrategy(DiffStrategy diffStrategy) {
+        this.diffStrategy = diffStrategy;
+    }
+
+
+    public DiffStrategy getDiffStrategy() {
+        return diffStrategy;
+    }
+
+
+    /**
+     * Fingerprint every class of both ontologies before comparing them, see OntologyFingerprints.
+     * Classes with matching fingerprints are not compared any further and if the root hashes of
+     * the two ontologies match the diff finishes straight away.
+     *
+     * @param useFingerprints - true to compare fingerprints first
+     */
+    public void setUseFingerprints(boolean useFingerprints) {
+        this.useFingerprints = useFingerprints;
+    }
+
+
+    public boolean isUseFingerprints() {
+        return useFingerprints;
+    }
+
+
+    /**
+     * Supply previously saved fingerprints of ontology 1, implies setUseFingerprints(true).
+     * They are recalculated if they do not fit the loaded ontology or the annotation properties.
+     *
+     * @param fingerprints1 - fingerprints of ontology 1, or null to calculate them
+     */
+    public void setFingerprints1(OntologyFingerprints fingerprints1) {
+        this.fingerprints1 = fingerprints1;
+        this.useFingerprints = true;
+    }
+
+
+    /**
+     * @return the fingerprints of ontology 1 used by the last diff, null if fingerprints were not used
+     */
+    public OntologyFingerprints getFingerprints1() {
+        return fingerprints1;
+    }
+
+
+    /**
+     * Supply previously saved fingerprints of ontology 2, implies setUseFingerprints(true).
+     * They are recalculated if they do not fit the loaded ontology or the annotation properties.
+     *
+     * @param fingerprints2 - fingerprints of ontology 2, or null to calculate them
+     */
+    public void setFingerprints2(OntologyFingerprints fingerprints2) {
+        this.fingerprints2 = fingerprints2;
+        this.useFingerprints = true;
+    }
+
+
+    /**
+     * @return the fingerprints of ontology 2 used by the last diff, null if fingerprints were not used
+     */
+    public OntologyFingerprints getFingerprints2() {
+        return fingerprints2;
+    }
+
+
+    /**
+     * return the given fingerprints if they can be used with the ontology, otherwise calculate them
+     */
+    private OntologyFingerprints fingerprintsFor(OntologyFingerprints fingerprints, OWLOntology ontology,
+                                                 AnnotationIndex annotationIndex, String contentHash) {
+        if (fingerprints != null && fingerprints.isCompatible(ontology, annotationPropertyIRIs, contentHash)) {
+            return fingerprints;
+        }
+        return OntologyFingerprints.compute(ontology, annotationPropertyIRIs, annotationIndex, contentHash);
+    }
+
+
+    /**
+     * Set the annotation property whose values are shown as the labels of classes and used in
+     * place of entity IRIs when rendering axioms. Defaults to CODE_IRI.
+     *
+     * @param labelPropertyIRI - IRI of the label annotation property, e.g. rdfs:label
+     */
+    public void setLabelPropertyIRI(IRI labelPropertyIRI) {
+        this.labelPropertyIRI = labelPropertyIRI;
+    }
+
+    public IRI getLabelPropertyIRI() {
+        return labelPropertyIRI;
+    }
+
+
+    /**
+     * Set how many entity labels are cached for rendering the axioms of each ontology
+     *
+     * @param labelCacheSize - maximum number of cached short forms per ontology, at least 1
+     */
+    public void setLabelCacheSize(int labelCacheSize) {
+        if (labelCacheSize < 1) {
+            throw new IllegalArgumentException("labelCacheSize must be at least 1");
+        }
+        this.labelCacheSize = labelCacheSize;
+    }
+
+    public int getLabelCacheSize() {
+        return labelCacheSize;
+    }
+
+
+    /**
+     * @return number of entity labels the last diff took from the label caches
+     */
+    public long getLabelCacheHits() {
+        return (labelRenderer1 == null ? 0 : labelRenderer1.getCacheHits())
+                + (labelRenderer2 == null ? 0 : labelRenderer2.getCacheHits());
+    }
+
+
+    /**
+     * @return number of entity labels the last diff had to look up
+     */
+    public long getLabelCacheMisses() {
+        return (labelRenderer1 == null ? 0 : labelRenderer1.getCacheMisses())
+                + (labelRenderer2 == null ? 0 : labelRenderer2.getCacheMisses());
+    }
+
+
+    /**
+     * Set what is shown in rendered axioms for entities with more than one label, by default
+     * the label that sorts first
+     */
+    public void setMultipleLabelPolicy(LabelShortFormProvider.MultipleLabelPolicy multipleLabelPolicy) {
+        this.multipleLabelPolicy = multipleLabelPolicy;
+    }
+
+    public LabelShortFormProvider.MultipleLabelPolicy getMultipleLabelPolicy() {
+        return multipleLabelPolicy;
+    }
+
+
+    private AxiomLabelRenderer createLabelRenderer(AnnotationIndex annotationIndex) {
+        return new AxiomLabelRenderer(new LabelShortFormProvider(annotationIndex, labelPropertyIRI, multipleLabelPolicy, true),
+                labelCacheSize);
+    }
+
 
-        //now load ontology2 from URL using the OntologyLoader class
-        //can also load file in form for example: "file:/H://ontologyname.owl"
-        try {
-            OntologyLoader loader2 = new OntologyLoader(manager2, ontology2IRI);
-            ontology2 = loader2.loadOntology();
-        } catch (Exception e) {
-            Ontology2LoadException loadException = new Ontology2LoadException();
-            loadException.setOntologyLocation(ontology2Location);
-            throw loadException;
+    /**
+     * index the annotations of an ontology needed for one diff, the compared annotation
+     * properties and the label property
+     */
+    private AnnotationIndex indexAnnotations(OWLOntology ontology) {
+        List<IRI> propertyIRIs = new ArrayList<IRI>();
+        if (annotationPropertyIRIs != null) {
+            propertyIRIs.addAll(annotationPropertyIRIs);
         }
-        changeBean.setOntology2Location(ontology2Location);
-        System.out.println("loading ontology 2 complete");
-        changeBean.setOntology2(ontology2);
+        propertyIRIs.add(labelPropertyIRI);
+        return new AnnotationIndex(ontology, propertyIRIs);
+    }
 
-        //now chain to doFindAllChanges with new parameters
-        this.doFindAllChanges(manager1, manager2,
-                ontology1, ontology2, annotationPropertyIRIs);
 
+    /**
+     * the settings the annotation index and label renderer of an ontology are built from
+     */
+    private List<Object> indexSettings() {
+        List<IRI> propertyIRIs = annotationPropertyIRIs == null ? new ArrayList<IRI>() : new ArrayList<IRI>(annotationPropertyIRIs);
+        return Arrays.<Object>asList(propertyIRIs, labelPropertyIRI, multipleLabelPolicy, labelCacheSize);
     }
 
 
     /**
-     * Perform diff on two ontologies passed as files
+     * Keep the annotation index, label renderer and fingerprints of ontology 2 after each diff,
+     * so that a following diff whose ontology 1 is the same OWLOntology object reuses them
+     * instead of building them again. Meant for diffing a chain of releases, where each newer
+     * release becomes the older one of the next pair. Switching it off drops the kept indexes.
      *
-     * @param ontologyFile1 - first ontology to be read from file
-     * @param ontologyFile2 - second ontology to be read from file
-     * @throws Ontology2LoadException
-     * @throws Ontology1LoadException
-     * @throws OWLOntologyCreationException
+     * @param chainIndexes - true to reuse the indexes of the last ontology 2
      */
-    public void doFindAllChanges(File ontologyFile1, File ontologyFile2, List<IRI> annotationPropertyIRIs) throws Ontology1LoadException, Ontology2LoadException {
-        //Create 2 OWLOntologyManager which manages a set of ontologies
-        //An ontology is unique within an ontology manager.
-        //To load multiple copies of an ontology, multiple managers are required.
-        OWLOntologyManager manager1 = OWLManager.createOWLOntologyManager();
-        OWLOntologyManager manager2 = OWLManager.createOWLOntologyManager();
-        OWLOntology ontology1;
-        OWLOntology ontology2;
+    public void setChainIndexes(boolean chainIndexes) {
+        this.chainIndexes = chainIndexes;
+        if (!chainIndexes) {
+            chainedOntology = null;
+            chainedSettings = null;
+            chainedAnnotationIndex = null;
+            chainedLabelRenderer = null;
+        }
+    }
 
-        System.out.println("trying load now");
 
-        //load ontology 1 from file
-        try {
-            ontology1 = manager1.loadOntologyFromOntologyDocument(ontologyFile1);
-        } catch (Exception e) {
-            Ontology1LoadException loadException = new Ontology1LoadException();
-            loadException.setOntologyLocation(ontologyFile1.toString());
-            throw loadException;
-        }
-        System.out.println("loading ontology 1 complete");
-        //set locations of ontologies for later displaying
-        changeBean.setOntology1Location(ontologyFile1.toString());
-        changeBean.setOntology1(ontology1);
+    public boolean isChainIndexes() {
+        return chainIndexes;
+    }
 
-        //load ontology 2 from file
-        try {
-            ontology2 = manager2.loadOntologyFromOntologyDocument(ontologyFile2);
-        } catch (Exception e) {
-            Ontology2LoadException loadException = new Ontology2LoadException();
-            loadException.setOntologyLocation(ontologyFile2.toString());
-            throw loadException;
-        }
-        System.out.println("loading ontology 2 complete");
-        //set locations of ontologies for later displaying
-        changeBean.setOntology2Location(ontologyFile2.toString());
-        changeBean.setOntology2(ontology2);
 
-        //now chain to doFindAllChanges with new parameters
-        this.doFindAllChanges(manager1, manager2,
-                ontology1, ontology2, annotationPropertyIRIs);
+    /**
+     * Have each changed, new and deleted class passed to the listener as soon as it is found
+     *
+     * @param diffListener - listener to add
+     */
+    public void addDiffListener(DiffListener diffListener) {
+        diffListeners.add(diffListener);
+    }
+
 
+    public void removeDiffListener(DiffListener diffListener) {
+        diffListeners.remove(diffListener);
     }
 
 
     /**
-     * Perform diff on two ontologies, first passed as a URL, second as a file
+     * Choose whether the changed, new and deleted classes are kept in this class and the
+     * OntologyChangesBean once they have been passed to the listeners. Switch this off when the
+     * results are only written out by listeners, only the counts are kept then.
      *
-     * @param ontology1Location - first ontology to be read from URL
-     * @param ontologyFile2     - second ontology to be read from file
-     * @throws OWLOntologyCreationException
+     * @param retainResults - false to keep only the number of changed, new and deleted classes
      */
-    public void doFindAllChanges(String ontology1Location, File ontologyFile2, List<IRI> annotationPropertyIRIs) throws OWLOntologyCreationException {
-        //set locations of ontologies for later displaying
-        changeBean.setOntology1Location(ontology1Location);
-        changeBean.setOntology2Location(ontologyFile2.toString());
+    public void setRetainResults(boolean retainResults) {
+        this.retainResults = retainResults;
+    }
 
-        //Create 2 OWLOntologyManager which manages a set of ontologies
-        //An ontology is unique within an ontology manager.
-        //To load multiple copies of an ontology, multiple managers are required.
-        OWLOntologyManager manager1 = OWLManager.createOWLOntologyManager();
-        OWLOntologyManager manager2 = OWLManager.createOWLOntologyManager();
 
+    public boolean isRetainResults() {
+        return retainResults;
+    }
 
-        System.out.println("trying load now");
 
+    /**
+     * Choose whether the summary printed after the diff lists the changed, new and deleted
+     * classes with their axioms. This renders the labels of every changed axiom; callers that
+     * only need the number of classes, e.g. when the changes are written to a file, turn it off.
+     *
+     * @param printChanges - true to print every class with its axioms as labels
+     */
+    public void setPrintChanges(boolean printChanges) {
+        this.printChanges = printChanges;
+    }
 
-        //load ontology1 from URL using the OntologyLoader class
-        //can also load file in form for example: "file:/H://experimentalfactors.owl"
-        //attempt to create IRI
-        IRI ontology1IRI = IRI.create(ontology1Location);
 
-        //load ontology 1
-        OntologyLoader loader = new OntologyLoader(manager1, ontology1IRI);
-        OWLOntology ontology1 = loader.loadOntology();
-        System.out.println("loading ontology 1 complete");
-        changeBean.setOntology1Location(ontology1Location);
-        changeBean.setOntology1(ontology1);
+    public boolean isPrintChanges() {
+        return printChanges;
+    }
 
-        //load ontology 2 from file
-        OWLOntology ontology2 = manager2.loadOntologyFromOntologyDocument(ontologyFile2);
-        System.out.println("loading ontology 2 complete");
-        changeBean.setOntology2Location(ontologyFile2.toString());
-        changeBean.setOntology2(ontology2);
 
-        //now chain to doFindAllChanges with new parameters
-        this.doFindAllChanges(manager1, manager2,
-                ontology1, ontology2, annotationPropertyIRIs);
+    /**
+     * Choose whether the OntologyChangesBean releases the two ontologies once the diff is done
+     * and the listeners have been told, see OntologyChangesBean.detach. The results and the
+     * ontology and version IRIs stay available, the ontologies and their managers can be
+     * garbage collected. Use this when the bean outlives the diff, e.g. to render it later.
+     *
+     * @param detachResults - true to release the ontologies after the diff
+     */
+    public void setDetachResults(boolean detachResults) {
+        this.detachResults = detachResults;
+    }
 
 
+    public boolean isDetachResults() {
+        return detachResults;
     }
 
 
     /**
-     * Perform diff on two ontologies, first passed as a URL, second as a file
+     * Report the progress of the next diffs to the given object, e.g. to show it while the
+     * diff runs in the background.
      *
-     * @param ontologyFile1     - first ontology to be read from file
-     * @param ontology2Location - second ontology to be read from URL
-     * @throws OWLOntologyCreationException
+     * @param progress - progress to update
      */
-    public void doFindAllChanges(File ontologyFile1, String ontology2Location, List<IRI> annotationPropertyIRIs) throws OWLOntologyCreationException {
-        //set locations of ontologies for later displaying
-        changeBean.setOntology1Location(ontologyFile1.toString());
-        changeBean.setOntology2Location(ontology2Location);
+    public void setProgress(DiffProgress progress) {
+        this.progress = progress;
+    }
 
-        //Create 2 OWLOntologyManager which manages a set of ontologies
-        //An ontology is unique within an ontology manager.
-        //To load multiple copies of an ontology, multiple managers are required.
-        OWLOntologyManager manager1 = OWLManager.createOWLOntologyManager();
-        OWLOntologyManager manager2 = OWLManager.createOWLOntologyManager();
 
-        System.out.println("trying load now");
+    public DiffProgress getProgress() {
+        return progress;
+    }
 
 
-        //load ontology 1 from file
-        OWLOntology ontology1 = manager1.loadOntologyFromOntologyDocument(ontologyFile1);
-        System.out.println("loading ontology 1 complete");
-        changeBean.setOntology1Location(ontologyFile1.toString());
-        changeBean.setOntology1(ontology1);
+    private void reportChangedClass(OWLClassAxiomsInfo changedClass) {
+        numChangedClasses++;
+        if (retainResults) {
+            classesWithDifferences.add(changedClass);
+        }
+        for (DiffListener diffListener : diffListeners) {
+            diffListener.onChangedClass(changedClass);
+        }
+    }
 
-        //load ontology2 from URL using the OntologyLoader class
-        //can also load file in form for example: "file:/H://experimentalfactors.owl"
-        //attempt to create IRI
-        IRI ontology2IRI = IRI.create(ontology2Location);
 
-        //load ontology 2
-        OntologyLoader loader = new OntologyLoader(manager2, ontology2IRI);
-        OWLOntology ontology2 = loader.loadOntology();
-        System.out.println("loading ontology 2 complete");
-        changeBean.setOntology2Location(ontology2Location);
-        changeBean.setOntology2(ontology2);
+    private void reportNewClass(OWLClassAxiomsInfo newClass) {
+        numNewClasses++;
+        if (retainResults) {
+            newClasses.add(newClass);
+        }
+        for (DiffListener diffListener : diffListeners) {
+            diffListener.onNewClass(newClass);
+        }
+    }
 
-        //now chain to doFindAllChanges with new parameters
-        this.doFindAllChanges(manager1, manager2,
-                ontology1, ontology2, annotationPropertyIRIs);
 
+    private void reportDeletedClass(OWLClassAxiomsInfo deletedClass) {
+        numDeletedClasses++;
+        if (retainResults) {
+            deletedClasses.add(deletedClass);
+        }
+        for (DiffListener diffListener : diffListeners) {
+            diffListener.onDeletedClass(deletedClass);
+        }
     }
 
 
@@ -258,14 +1256,120 @@ public class CompareOntologies {
      */
     public void doFindAllChanges(OWLOntologyManager manager1, OWLOntologyManager manager2,
                                  OWLOntology ont1, OWLOntology ont2, List<IRI> annotationPropertyIRIs) {
+        //the documents are not known, so saved fingerprints are calculated again
+        findAllChanges(manager1, manager2, ont1, ont2, annotationPropertyIRIs, null, null);
+    }
+
+
+    /**
+     * see doFindAllChanges, with the content hashes of the documents the ontologies were loaded
+     * from, saved fingerprints are only used for a document with the same content hash
+     */
+    private void findAllChanges(OWLOntologyManager manager1, OWLOntologyManager manager2,
+                                OWLOntology ont1, OWLOntology ont2, List<IRI> annotationPropertyIRIs,
+                                String contentHash1, String contentHash2) {
+        try {
+            compareOntologies(manager1, manager2, ont1, ont2, annotationPropertyIRIs, contentHash1, contentHash2);
+        } catch (RuntimeException | Error e) {
+            reportError(e);
+            throw e;
+        }
+    }
+
+
+    /**
+     * tell the listeners that the diff failed, so that they can close what they opened in onStart
+     */
+    private void reportError(Throwable error) {
+        for (DiffListener diffListener : diffListeners) {
+            try {
+                diffListener.onError(error);
+            } catch (RuntimeException e) {
+                error.addSuppressed(e);
+            }
+        }
+    }
+
+
+    private void compareOntologies(OWLOntologyManager manager1, OWLOntologyManager manager2,
+                                   OWLOntology ont1, OWLOntology ont2, List<IRI> annotationPropertyIRIs,
+                                   String contentHash1, String contentHash2) {
 
       this.annotationPropertyIRIs = annotationPropertyIRIs;
-    	this.classesWithDifferences = compareAllClassAxioms(manager1, ont1, manager2, ont2);
-        this.newClasses = findNewClasses(manager1, ont1, manager2, ont2);
-        this.setDeletedClasses(findDeletedClasses(manager1, ont1, manager2, ont2));
+        this.classesWithDifferences = new ArrayList<OWLClassAxiomsInfo>();
+        this.newClasses = new ArrayList<OWLClassAxiomsInfo>();
+        this.deletedClasses = new ArrayList<OWLClassAxiomsInfo>();
+        this.numChangedClasses = 0;
+        this.numNewClasses = 0;
+        this.numDeletedClasses = 0;
+        changeBean.setOntology1(ont1);
+        changeBean.setOntology2(ont2);
+        for (DiffListener diffListener : diffListeners) {
+            diffListener.onStart(changeBean);
+        }
+
+        //one pass over the annotation assertions of each ontology instead of a search per class
+        AnnotationIndex annotationIndex1;
+        boolean chainedFingerprints = false;
+        List<Object> settings = indexSettings();
+        if (chainIndexes && ont1 == chainedOntology && settings.equals(chainedSettings)) {
+            //ontology 1 was ontology 2 of the last diff, its indexes and rendered labels still hold
+            annotationIndex1 = chainedAnnotationIndex;
+            labelRenderer1 = chainedLabelRenderer;
+            //the same loaded ontology, so its fingerprints still hold whatever its document
+            if (useFingerprints && fingerprints2 != null && fingerprints2.coversAnnotationProperties(annotationPropertyIRIs)) {
+                fingerprints1 = fingerprints2;
+                chainedFingerprints = true;
+            }
+        } else {
+            annotationIndex1 = indexAnnotations(ont1);
+            //one renderer per ontology so entity labels are looked up once for all axioms
+            labelRenderer1 = createLabelRenderer(annotationIndex1);
+        }
+        AnnotationIndex annotationIndex2 = indexAnnotations(ont2);
+        labelRenderer2 = createLabelRenderer(annotationIndex2);
+        if (chainIndexes) {
+            chainedOntology = ont2;
+            chainedSettings = settings;
+            chainedAnnotationIndex = annotationIndex2;
+            chainedLabelRenderer = labelRenderer2;
+        }
+
+        if (useFingerprints) {
+            if (!chainedFingerprints) {
+                fingerprints1 = fingerprintsFor(fingerprints1, ont1, annotationIndex1, contentHash1);
+            }
+            fingerprints2 = fingerprintsFor(fingerprints2, ont2, annotationIndex2, contentHash2);
+        }
+
+        if (useFingerprints && fingerprints1.rootMatches(fingerprints2)) {
+            //same classes with the same axioms and annotations, nothing left to compare
+            System.out.println("ontology fingerprints match, no differences");
+        } else {
+            //one walk over both class signatures finds the common, new and deleted classes
+            ClassPartition partition = ClassPartition.of(ont1, ont2);
+            progress.startDiffing(partition.getOntology1Classes().size() + partition.getNewClasses().size());
+            compareAllClassAxioms(manager1, ont1, manager2, ont2, partition, annotationIndex1, annotationIndex2,
+                    labelRenderer1, useFingerprints ? fingerprints1 : null, useFingerprints ? fingerprints2 : null,
+                    this::reportChangedClass);
+            for (OWLClass newClass : partition.getNewClasses()) {
+                reportNewClass(createNewClassInfo(newClass, ont2, annotationIndex2, labelRenderer2));
+                progress.classCompared();
+            }
+            //deleted classes are the classes new to ontology 1 with respect to ontology 2
+            for (OWLClass deletedClass : partition.getDeletedClasses()) {
+                reportDeletedClass(createNewClassInfo(deletedClass, ont1, annotationIndex1, labelRenderer1));
+            }
+        }
 
         outputSummaryToConsole(ont1, ont2);
         writeDataToBean();
+        for (DiffListener diffListener : diffListeners) {
+            diffListener.onComplete(changeBean);
+        }
+        if (detachResults) {
+            changeBean.detach();
+        }
 
     }
 
@@ -284,87 +1388,328 @@ public class CompareOntologies {
     public ArrayList<OWLClassAxiomsInfo> compareAllClassAxioms(OWLOntologyManager manager1,
                                                                OWLOntology ont1, OWLOntologyManager manager2, OWLOntology ont2) {
 
+        ArrayList<OWLClassAxiomsInfo> classDifferences = new ArrayList<OWLClassAxiomsInfo>();
+        AnnotationIndex annotationIndex1 = indexAnnotations(ont1);
+        //no fingerprints, those of the last diff belong to other ontologies
+        compareAllClassAxioms(manager1, ont1, manager2, ont2, ClassPartition.of(ont1, ont2), annotationIndex1,
+                indexAnnotations(ont2), createLabelRenderer(annotationIndex1), null, null, classDifferences::add);
+        return classDifferences;
+    }
+
+
+    /**
+     * compare all class axioms as above, passing each class with differences to the given
+     * consumer as soon as it is found; classes whose fingerprints match are skipped if the
+     * fingerprints of both ontologies are given
+     */
+    private void compareAllClassAxioms(OWLOntologyManager manager1, OWLOntology ont1, OWLOntologyManager manager2,
+                                       OWLOntology ont2, ClassPartition partition, AnnotationIndex annotationIndex1,
+                                       AnnotationIndex annotationIndex2, AxiomLabelRenderer labelRenderer1,
+                                       OntologyFingerprints fingerprints1, OntologyFingerprints fingerprints2,
+                                       Consumer<OWLClassAxiomsInfo> classDifferences) {
+
+        if (diffStrategy == DiffStrategy.AXIOM_HASH_JOIN) {
+            compareAllClassAxiomsByAxiomJoin(manager1, ont1, manager2, ont2, partition, annotationIndex1, annotationIndex2,
+                    labelRenderer1, classDifferences);
+            return;
+        }
         
     	OWLDataFactory df = manager1.getOWLDataFactory();
       List<OWLAnnotationProperty> annotationProperties = annotationPropertyIRIs.stream().map(df::getOWLAnnotationProperty).collect(Collectors.toList());
 
-    	ArrayList<OWLClassAxiomsInfo> classDifferences = new ArrayList<OWLClassAxiomsInfo>();
-        //get all classes from first ontology and walk through them
-        for (OWLClass ont1Class : ont1.getClassesInSignature()) {
-
-            //try to find the same class from the 2nd ontology
-            OWLClass ont2Class = manager2.getOWLDataFactory().getOWLClass(ont1Class.getIRI());
-
-            //get all the axioms from this 1st ontology class
-            Set<OWLClassAxiom> ont1ClassAxiomsSet = ont1.getAxioms(ont1Class);
-            //get all the axioms from this 2nd ontology class
-            Set<OWLClassAxiom> ont2ClassAxiomsSet = ont2.getAxioms(ont2Class);
-            
-            HashSet<OWLAnnotation> ont1ClassAnnotationPropertiesSet = new HashSet<>();
-            HashSet<OWLAnnotation> ont2ClassAnnotationPropertiesSet = new HashSet<>();
-            annotationProperties.forEach(annotationProperty -> {
-                ont1ClassAnnotationPropertiesSet.addAll(EntitySearcher.getAnnotations(ont1Class.getIRI(), ont1, annotationProperty));
-                ont2ClassAnnotationPropertiesSet.addAll(EntitySearcher.getAnnotations(ont1Class.getIRI(), ont2, annotationProperty));
-            });
-            
-            if (ont2ClassAnnotationPropertiesSet.size() != 0) {
-            	if (!ont1ClassAnnotationPropertiesSet.equals(ont2ClassAnnotationPropertiesSet)) {
-            		Set<OWLAnnotation> newAnnotations =
-                			new HashSet<OWLAnnotation>(ont2ClassAnnotationPropertiesSet);
-                	newAnnotations.removeAll(ont1ClassAnnotationPropertiesSet);
-                	Set<OWLAnnotation> deletedAnnotations =
-                			new HashSet<OWLAnnotation>(ont1ClassAnnotationPropertiesSet);
-                	deletedAnnotations.removeAll(ont2ClassAnnotationPropertiesSet);
-                	OWLClassAxiomsInfo tempDiffs = new OWLClassAxiomsInfo(ont1Class.getIRI(), newAnnotations, 
-                			deletedAnnotations, annotationProperties);
-                	OWLAnnotationProperty label =
-                			df.getOWLAnnotationProperty(CODE_IRI);
-                	Set<OWLAnnotation> classLabels =
-                			new HashSet<>(EntitySearcher.getAnnotations(ont1Class, ont1, label));
-                	tempDiffs.setClassLabels(classLabels);
-                	classDifferences.add(tempDiffs);
-            	}
-            }
-            
-            //not sure why these are here? JM
-            //OWLClass o = new OWLClassImpl();
-            //o.getObjectPropertiesInSignature();
-            
-            if (ont2ClassAxiomsSet.size() != 0) {
-            	//now compare the two sets of axioms to see if they are different
-                boolean setEqual = ont1ClassAxiomsSet.equals(ont2ClassAxiomsSet);
-
-                //if they ARE different then calculate the changes
-                if (!setEqual) {
-                    //calculate new axioms added to ontology 2 with respect to ontology 1
-                    //i.e. those axioms which appear in ontology 2  but not ontology 1
-                    Set<OWLClassAxiom> newAxioms = new HashSet<OWLClassAxiom>(ont2ClassAxiomsSet);
-                    newAxioms.removeAll(ont1ClassAxiomsSet);
-                    //calculate axioms that have been deleted from ontology 1 with respect to ontology 2
-                    //i.e. those axioms which appear in ontology 1 but not ontology 2
-                    Set<OWLClassAxiom> deletedAxioms = new HashSet<OWLClassAxiom>(ont1ClassAxiomsSet);
-                    deletedAxioms.removeAll(ont2ClassAxiomsSet);
-
-                    //create information for the new class
-                    OWLClassAxiomsInfo tempDiffs = new OWLClassAxiomsInfo(ont1Class.getIRI(), newAxioms, deletedAxioms, ont1);
-
-                    //get the rdfs label(s) of the class in question, first create IRI for rdfs label
-                    //and create the corresponding OWLAnnotationProperty
-                    //OWLDataFactory df = manager1.getOWLDataFactory();
-                    OWLAnnotationProperty label = df.getOWLAnnotationProperty(CODE_IRI);
-
-                    Set<OWLAnnotation> classLabels = new HashSet<>(EntitySearcher.getAnnotations(ont1Class,ont1,label));
-                    //add rdfs labels info to the class information
-                    tempDiffs.setClassLabels(classLabels);
-
-                    classDifferences.add(tempDiffs);
-                }
+        //all classes from first ontology in IRI order; the deleted ones can only differ in their annotations
+        List<OWLClass> ont1Classes = partition.getOntology1Classes();
+
+        if (!parallelDiff) {
+            for (int i = 0; i < ont1Classes.size(); i++) {
+                compareClass(ont1Classes.get(i), !partition.isDeleted(i), ont1, manager2, ont2, annotationIndex1, annotationIndex2, labelRenderer1, annotationProperties, fingerprints1, fingerprints2).forEach(classDifferences);
             }
+            return;
+        }
+
+        //split the classes across a fork/join pool, the ordered stream keeps the results
+        //in the same order as the sequential walk above
+        ForkJoinPool diffPool = new ForkJoinPool(diffParallelism);
+        try {
+            diffPool.submit(() -> IntStream.range(0, ont1Classes.size()).parallel()
+                    .mapToObj(i -> compareClass(ont1Classes.get(i), !partition.isDeleted(i), ont1, manager2, ont2, annotationIndex1, annotationIndex2, labelRenderer1, annotationProperties, fingerprints1, fingerprints2))
+                    .flatMap(List::stream)
+                    .forEachOrdered(classDifferences)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while comparing class axioms", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("An error occurred while comparing class axioms", e.getCause());
+        } finally {
+            diffPool.shutdown();
         }
-        return classDifferences;
     }//end method compareAllClassAxioms
 
 
+    /**
+     * Compare a single class of the first ontology with the class having the same IRI in the
+     * second ontology. Returns one entry if the configured annotations differ and one entry if
+     * the class axioms differ, so the list holds between zero and two entries.
+     *
+     * @param ont1Class class from the first ontology
+     * @param inOnt2    whether the class is in the signature of the second ontology, if not it
+     *                  has no class axioms there and only the annotations are compared
+     * @param ont1      first ontology to be compared (the older ontology in most cases)
+     * @param manager2  ontology manager with the second ontology (ont2) loaded
+     * @param ont2      second ontology to compare to ont1 (the newer ontology in most cases)
+     * @param annotationIndex1 annotations of the first ontology
+     * @param annotationIndex2 annotations of the second ontology
+     * @param labelRenderer1 renders the changed axioms with the labels of the first ontology
+     * @param annotationProperties annotation properties whose values are compared
+     * @param fingerprints1 fingerprints of the first ontology, or null to compare every class
+     * @param fingerprints2 fingerprints of the second ontology, or null to compare every class
+     */
+    private List<OWLClassAxiomsInfo> compareClass(OWLClass ont1Class, boolean inOnt2, OWLOntology ont1, OWLOntologyManager manager2,
+                                                  OWLOntology ont2, AnnotationIndex annotationIndex1, AnnotationIndex annotationIndex2,
+                                                  AxiomLabelRenderer labelRenderer1, List<OWLAnnotationProperty> annotationProperties,
+                                                  OntologyFingerprints fingerprints1, OntologyFingerprints fingerprints2) {
+
+        List<OWLClassAxiomsInfo> classDifferences = new ArrayList<OWLClassAxiomsInfo>(2);
+        progress.classCompared();
+
+        //matching fingerprints mean the annotations are the same and there is nothing to report
+        boolean fingerprinted = fingerprints1 != null && fingerprints2 != null;
+        if (!fingerprinted || !fingerprints1.annotationsMatch(ont1Class.getIRI(), fingerprints2)) {
+            OWLClassAxiomsInfo annotationDiffs = compareClassAnnotations(ont1Class, annotationIndex1, annotationIndex2, annotationProperties);
+            if (annotationDiffs != null) {
+                classDifferences.add(annotationDiffs);
+            }
+        }
+
+        //likewise for the axioms
+        if (!inOnt2 || (fingerprinted && fingerprints1.axiomsMatch(ont1Class.getIRI(), fingerprints2))) {
+            return classDifferences;
+        }
+
+        //try to find the same class from the 2nd ontology
+        OWLClass ont2Class = manager2.getOWLDataFactory().getOWLClass(ont1Class.getIRI());
+
+        //get all the axioms from this 1st ontology class
+        Set<OWLClassAxiom> ont1ClassAxiomsSet = ont1.getAxioms(ont1Class);
+        //get all the axioms from this 2nd ontology class
+        Set<OWLClassAxiom> ont2ClassAxiomsSet = ont2.getAxioms(ont2Class);
+
+        //not sure why these are here? JM
+        //OWLClass o = new OWLClassImpl();
+        //o.getObjectPropertiesInSignature();
+        
+        if (ont2ClassAxiomsSet.size() != 0) {
+        	//now compare the two sets of axioms to see if they are different
+            boolean setEqual = ont1ClassAxiomsSet.equals(ont2ClassAxiomsSet);
+
+            //if they ARE different then calculate the changes
+            if (!setEqual) {
+                //calculate new axioms added to ontology 2 with respect to ontology 1
+                //i.e. those axioms which appear in ontology 2  but not ontology 1
+                Set<OWLClassAxiom> newAxioms = new HashSet<OWLClassAxiom>(ont2ClassAxiomsSet);
+                newAxioms.removeAll(ont1ClassAxiomsSet);
+                //calculate axioms that have been deleted from ontology 1 with respect to ontology 2
+                //i.e. those axioms which appear in ontology 1 but not ontology 2
+                Set<OWLClassAxiom> deletedAxioms = new HashSet<OWLClassAxiom>(ont1ClassAxiomsSet);
+                deletedAxioms.removeAll(ont2ClassAxiomsSet);
+
+                classDifferences.add(createAxiomDiffs(ont1Class, newAxioms, deletedAxioms, annotationIndex1, labelRenderer1));
+            }
+        }
+        return classDifferences;
+    }//end method compareClass
+
+
+    /**
+     * Compare the values of the configured annotation properties on a class of the first
+     * ontology with those on the same IRI in the second ontology
+     *
+     * @return the annotation changes for the class, or null if there are none
+     */
+    private OWLClassAxiomsInfo compareClassAnnotations(OWLClass ont1Class, AnnotationIndex annotationIndex1,
+                                                       AnnotationIndex annotationIndex2, List<OWLAnnotationProperty> annotationProperties) {
+
+        Set<OWLAnnotation> ont1ClassAnnotationPropertiesSet = annotationIndex1.getAnnotations(ont1Class.getIRI(), annotationPropertyIRIs);
+        Set<OWLAnnotation> ont2ClassAnnotationPropertiesSet = annotationIndex2.getAnnotations(ont1Class.getIRI(), annotationPropertyIRIs);
+        
+        if (ont2ClassAnnotationPropertiesSet.size() != 0) {
+        	if (!ont1ClassAnnotationPropertiesSet.equals(ont2ClassAnnotationPropertiesSet)) {
+        		Set<OWLAnnotation> newAnnotations =
+            			new HashSet<OWLAnnotation>(ont2ClassAnnotationPropertiesSet);
+            	newAnnotations.removeAll(ont1ClassAnnotationPropertiesSet);
+            	Set<OWLAnnotation> deletedAnnotations =
+            			new HashSet<OWLAnnotation>(ont1ClassAnnotationPropertiesSet);
+            	deletedAnnotations.removeAll(ont2ClassAnnotationPropertiesSet);
+            	OWLClassAxiomsInfo tempDiffs = new OWLClassAxiomsInfo(ont1Class.getIRI(), newAnnotations, 
+            			deletedAnnotations, annotationProperties);
+            	Set<OWLAnnotation> classLabels =
+            			new HashSet<>(annotationIndex1.getAnnotations(ont1Class.getIRI(), labelPropertyIRI));
+            	tempDiffs.setClassLabels(classLabels);
+            	return tempDiffs;
+        	}
+        }
+        return null;
+    }
+
+
+    /**
+     * create the information for a class whose axioms have changed, together with its labels
+     */
+    private OWLClassAxiomsInfo createAxiomDiffs(OWLClass ont1Class, Set<OWLClassAxiom> newAxioms, Set<OWLClassAxiom> deletedAxioms,
+                                                AnnotationIndex annotationIndex1, AxiomLabelRenderer labelRenderer1) {
+        //create information for the new class
+        OWLClassAxiomsInfo tempDiffs = new OWLClassAxiomsInfo(ont1Class.getIRI(), newAxioms, deletedAxioms, labelRenderer1);
+
+        //get the label(s) of the class in question
+        Set<OWLAnnotation> classLabels = new HashSet<>(annotationIndex1.getAnnotations(ont1Class.getIRI(), labelPropertyIRI));
+        //add rdfs labels info to the class information
+        tempDiffs.setClassLabels(classLabels);
+        return tempDiffs;
+    }
+
+
+    /**
+     * Alternative to walking every class: work out once which class axioms and which
+     * annotation assertions are only in one of the two ontologies (a hash join of each
+     * ontology's axioms against the other's axiom index) and attribute those to the classes
+     * in their signature the same way OWLOntology.getAxioms(OWLClass) indexes them. Only the
+     * classes touched by a difference are then looked at, giving the same result as the
+     * per-class comparison.
+     *
+     * @param manager1 ontology manager with the first ontology (ont1) loaded
+     * @param ont1     first ontology to be compared (the older ontology in most cases)
+     * @param manager2 ontology manager with the second ontology (ont2) loaded
+     * @param ont2     second ontology to compare to ont1 (the newer ontology in most cases)
+     */
+    public ArrayList<OWLClassAxiomsInfo> compareAllClassAxiomsByAxiomJoin(OWLOntologyManager manager1,
+                                                                          OWLOntology ont1, OWLOntologyManager manager2, OWLOntology ont2) {
+
+        ArrayList<OWLClassAxiomsInfo> classDifferences = new ArrayList<OWLClassAxiomsInfo>();
+        AnnotationIndex annotationIndex1 = indexAnnotations(ont1);
+        compareAllClassAxiomsByAxiomJoin(manager1, ont1, manager2, ont2, ClassPartition.of(ont1, ont2), annotationIndex1,
+                indexAnnotations(ont2), createLabelRenderer(annotationIndex1), classDifferences::add);
+        return classDifferences;
+    }
+
+
+    private void compareAllClassAxiomsByAxiomJoin(OWLOntologyManager manager1, OWLOntology ont1, OWLOntologyManager manager2,
+                                                  OWLOntology ont2, ClassPartition partition, AnnotationIndex annotationIndex1,
+                                                  AnnotationIndex annotationIndex2, AxiomLabelRenderer labelRenderer1,
+                                                  Consumer<OWLClassAxiomsInfo> classDifferences) {
+
+        OWLDataFactory df = manager1.getOWLDataFactory();
+        List<OWLAnnotationProperty> annotationProperties = annotationPropertyIRIs.stream().map(df::getOWLAnnotationProperty).collect(Collectors.toList());
+
+        //class axioms only present in one of the two ontologies, grouped by the class they belong to
+        Map<IRI, Set<OWLClassAxiom>> newAxiomsByClass = new HashMap<IRI, Set<OWLClassAxiom>>();
+        Map<IRI, Set<OWLClassAxiom>> deletedAxiomsByClass = new HashMap<IRI, Set<OWLClassAxiom>>();
+        for (AxiomType<? extends OWLClassAxiom> axiomType : CLASS_AXIOM_TYPES) {
+            for (OWLClassAxiom axiom : ont2.getAxioms(axiomType)) {
+                if (!ont1.containsAxiom(axiom)) {
+                    attributeToClasses(axiom, newAxiomsByClass);
+                }
+            }
+            for (OWLClassAxiom axiom : ont1.getAxioms(axiomType)) {
+                if (!ont2.containsAxiom(axiom)) {
+                    attributeToClasses(axiom, deletedAxiomsByClass);
+                }
+            }
+        }
+
+        //subjects of annotation assertions, for the compared properties, only present in one ontology
+        Set<IRI> annotationCandidates = new HashSet<IRI>();
+        collectChangedAnnotationSubjects(ont2, ont1, annotationProperties, annotationCandidates);
+        collectChangedAnnotationSubjects(ont1, ont2, annotationProperties, annotationCandidates);
+        //the joins have compared every class of ontology 1
+        progress.classesCompared(partition.getOntology1Classes().size());
+
+        //report the affected classes of ontology 1 in the order the per-class comparison would, by IRI
+        SortedSet<IRI> affectedIRIs = new TreeSet<IRI>(annotationCandidates);
+        affectedIRIs.addAll(newAxiomsByClass.keySet());
+        affectedIRIs.addAll(deletedAxiomsByClass.keySet());
+        for (IRI classIRI : affectedIRIs) {
+            if (!ont1.containsClassInSignature(classIRI, Imports.EXCLUDED)) {
+                continue;
+            }
+            OWLClass ont1Class = df.getOWLClass(classIRI);
+            if (annotationCandidates.contains(classIRI)) {
+                OWLClassAxiomsInfo annotationDiffs = compareClassAnnotations(ont1Class, annotationIndex1, annotationIndex2, annotationProperties);
+                if (annotationDiffs != null) {
+                    classDifferences.accept(annotationDiffs);
+                }
+            }
+
+            Set<OWLClassAxiom> newAxioms = newAxiomsByClass.get(classIRI);
+            Set<OWLClassAxiom> deletedAxioms = deletedAxiomsByClass.get(classIRI);
+            if (newAxioms == null && deletedAxioms == null) {
+                continue;
+            }
+            //as in the per-class comparison, classes without axioms in ontology 2 are not reported here
+            OWLClass ont2Class = manager2.getOWLDataFactory().getOWLClass(classIRI);
+            if (ont2.getAxioms(ont2Class).isEmpty()) {
+                continue;
+            }
+            classDifferences.accept(createAxiomDiffs(ont1Class,
+                    newAxioms == null ? new HashSet<OWLClassAxiom>() : newAxioms,
+                    deletedAxioms == null ? new HashSet<OWLClassAxiom>() : deletedAxioms,
+                    annotationIndex1, labelRenderer1));
+        }
+    }//end method compareAllClassAxiomsByAxiomJoin
+
+
+    /**
+     * add an axiom to the set of every named class it would be indexed under by
+     * OWLOntology.getAxioms(OWLClass)
+     */
+    private static void attributeToClasses(OWLClassAxiom axiom, Map<IRI, Set<OWLClassAxiom>> axiomsByClass) {
+        if (axiom instanceof OWLSubClassOfAxiom) {
+            OWLClassExpression subClass = ((OWLSubClassOfAxiom) axiom).getSubClass();
+            if (!subClass.isAnonymous()) {
+                addToClass(subClass.asOWLClass().getIRI(), axiom, axiomsByClass);
+            }
+        } else if (axiom instanceof OWLEquivalentClassesAxiom) {
+            for (OWLClass namedClass : ((OWLEquivalentClassesAxiom) axiom).getNamedClasses()) {
+                addToClass(namedClass.getIRI(), axiom, axiomsByClass);
+            }
+        } else if (axiom instanceof OWLDisjointClassesAxiom) {
+            for (OWLClassExpression classExpression : ((OWLDisjointClassesAxiom) axiom).getClassExpressions()) {
+                if (!classExpression.isAnonymous()) {
+                    addToClass(classExpression.asOWLClass().getIRI(), axiom, axiomsByClass);
+                }
+            }
+        } else if (axiom instanceof OWLDisjointUnionAxiom) {
+            addToClass(((OWLDisjointUnionAxiom) axiom).getOWLClass().getIRI(), axiom, axiomsByClass);
+        }
+    }
+
+
+    private static void addToClass(IRI classIRI, OWLClassAxiom axiom, Map<IRI, Set<OWLClassAxiom>> axiomsByClass) {
+        Set<OWLClassAxiom> axioms = axiomsByClass.get(classIRI);
+        if (axioms == null) {
+            axioms = new HashSet<OWLClassAxiom>();
+            axiomsByClass.put(classIRI, axioms);
+        }
+        axioms.add(axiom);
+    }
+
+
+    /**
+     * collect the IRIs which have an annotation assertion, for one of the given properties,
+     * in the ontology but not in the other ontology
+     */
+    private static void collectChangedAnnotationSubjects(OWLOntology ontology, OWLOntology otherOntology,
+                                                         List<OWLAnnotationProperty> annotationProperties, Set<IRI> subjects) {
+        Set<OWLAnnotationProperty> properties = new HashSet<OWLAnnotationProperty>(annotationProperties);
+        for (OWLAnnotationAssertionAxiom axiom : ontology.getAxioms(AxiomType.ANNOTATION_ASSERTION)) {
+            if (axiom.getSubject() instanceof IRI && properties.contains(axiom.getProperty())
+                    && !otherOntology.containsAxiom(axiom)) {
+                subjects.add((IRI) axiom.getSubject());
+            }
+        }
+    }
+
+
+
     /**
      * method to find classes that have been deleted, that is classes that appear
      * in ontology 1 but not in ontology 2. It chains to the findNewClasses and
@@ -399,38 +1744,40 @@ public class CompareOntologies {
                                                         OWLOntology ont1, OWLOntologyManager manager2, OWLOntology ont2) {
 
         ArrayList<OWLClassAxiomsInfo> newClasses = new ArrayList<OWLClassAxiomsInfo>();
-        //get all classes from 2nd ontology and walk through them
-        for (OWLClass ont2Class : ont2.getClassesInSignature()) {
-            //if there is no reference in ontology 1 to the class in ontoloy 2 then it's new
-            if (!ont1.containsClassInSignature(ont2Class.getIRI())) {
-                Set<OWLClassAxiom> newClassAxiomsSet = ont2.getAxioms(ont2Class);
-
-                //create information for the new class
-                OWLClassAxiomsInfo tempNewClass = new OWLClassAxiomsInfo(ont2Class.getIRI(), newClassAxiomsSet, ont2);
-
-                //get the rdfs label(s) of the class in question, first create IRI for rdfs label
-                //and create the corresponding OWLAnnotationProperty
-                OWLDataFactory df = manager1.getOWLDataFactory();
-                OWLAnnotationProperty label = df.getOWLAnnotationProperty(CODE_IRI);
-
-                Set<OWLAnnotation> classLabels = new HashSet<>(EntitySearcher.getAnnotations(ont2Class,ont2,label));
-
-                //add rdfs labels info to the class information
-                tempNewClass.setClassLabels(classLabels);
-
-                newClasses.add(tempNewClass);
-                //System.out.println("!!New class!!: " + ont2Class);
-                //tempNewClass.displayClassInfo();
-            }
+        AnnotationIndex annotationIndex2 = indexAnnotations(ont2);
+        AxiomLabelRenderer labelRenderer2 = createLabelRenderer(annotationIndex2);
+        //get the classes only in the 2nd ontology from a walk over both class signatures
+        for (OWLClass ont2Class : ClassPartition.of(ont1, ont2).getNewClasses()) {
+            newClasses.add(createNewClassInfo(ont2Class, ont2, annotationIndex2, labelRenderer2));
         }
         return newClasses;
+    }
+    //end method findNewClasses
 
 
+    /**
+     * create the information for a class that only appears in one of the two ontologies
+     *
+     * @param ont2Class class only in ont2
+     * @param ont2      the ontology the class appears in
+     * @param annotationIndex2 annotations of ont2
+     * @param labelRenderer2 renders the axioms with the labels of ont2
+     */
+    private OWLClassAxiomsInfo createNewClassInfo(OWLClass ont2Class, OWLOntology ont2, AnnotationIndex annotationIndex2,
+                                                  AxiomLabelRenderer labelRenderer2) {
+        Set<OWLClassAxiom> newClassAxiomsSet = ont2.getAxioms(ont2Class);
+
+        //create information for the new class
+        OWLClassAxiomsInfo tempNewClass = new OWLClassAxiomsInfo(ont2Class.getIRI(), newClassAxiomsSet, labelRenderer2);
 
+        //get the label(s) of the class in question
+        Set<OWLAnnotation> classLabels = new HashSet<>(annotationIndex2.getAnnotations(ont2Class.getIRI(), labelPropertyIRI));
 
+        //add rdfs labels info to the class information
+        tempNewClass.setClassLabels(classLabels);
 
+        return tempNewClass;
     }
-    //end method findNewClasses
 
 
     /**
@@ -448,8 +1795,8 @@ public class CompareOntologies {
         }
 
         try {
-            //iterate through list, writing to file
-            XMLRenderer xmlRenderer = new XMLRenderer();
+            //stream the classes straight to the file
+            XMLStreamRenderer xmlRenderer = new XMLStreamRenderer();
             xmlRenderer.writeDiffAsXMLFile(filePath, this.changeBean, pathToXSLT);
 
         } catch (IOException e) {
@@ -469,9 +1816,9 @@ public class CompareOntologies {
 
 
         try {
-            //iterate through list, writing to file
-            XMLRenderer xmlRenderer = new XMLRenderer();
-            xmlRenderer.writeDiffAsXMLFile(filePath, this.changeBean);
+            //stream the classes straight to the file
+            XMLStreamRenderer xmlRenderer = new XMLStreamRenderer();
+            xmlRenderer.writeDiffAsXMLFile(filePath, this.changeBean, null);
 
         } catch (IOException e) {
             System.out.println("An error occurred when attempt to write the diff as XML to a file at: " + filePath);
@@ -546,6 +1893,7 @@ public class CompareOntologies {
      */
     public void setClassesWithDifferences(ArrayList<OWLClassAxiomsInfo> changedClasses) {
         this.classesWithDifferences = changedClasses;
+        this.numChangedClasses = changedClasses.size();
     }
 
 
@@ -566,6 +1914,7 @@ public class CompareOntologies {
      */
     public void setNewClasses(ArrayList<OWLClassAxiomsInfo> newClasses) {
         this.newClasses = newClasses;
+        this.numNewClasses = newClasses.size();
     }
 
 
@@ -581,9 +1930,12 @@ public class CompareOntologies {
         System.out.println("@Ontology Change Summary");
         System.out.println("@First ontology IRI: " + ont1.getOntologyID().getOntologyIRI().toString());
         System.out.println("@Second ontology IRI: " + ont2.getOntologyID().getOntologyIRI().toString());
-        System.out.println("@Number of classes changed: " + classesWithDifferences.size());
-        System.out.println("@Number of classes added: " + newClasses.size());
-        System.out.println("@Number of classes deleted: " + deletedClasses.size());
+        System.out.println("@Number of classes changed: " + getSizeChangedClasses());
+        System.out.println("@Number of classes added: " + getSizeNewClasses());
+        System.out.println("@Number of classes deleted: " + getSizeDeletedClasses());
+        if (!printChanges) {
+            return;
+        }
 
         if (!classesWithDifferences.isEmpty()) {
             System.out.println("\n@Classes modified from previous" + lineSeparator);
@@ -640,6 +1992,7 @@ public class CompareOntologies {
      */
     public void setDeletedClasses(ArrayList<OWLClassAxiomsInfo> deletedClasses) {
         this.deletedClasses = deletedClasses;
+        this.numDeletedClasses = deletedClasses.size();
     }
 
 
@@ -659,7 +2012,7 @@ public class CompareOntologies {
      * @return the number of classes added between versions
      */
     public int getSizeChangedClasses() {
-        return classesWithDifferences.size();
+        return numChangedClasses;
     }
 
 
@@ -669,7 +2022,7 @@ public class CompareOntologies {
      * @return the number of classes new to the second ontology
      */
     public int getSizeNewClasses() {
-        return newClasses.size();
+        return numNewClasses;
     }
 
 
@@ -679,7 +2032,7 @@ public class CompareOntologies {
      * @return number of classes deleted between versions
      */
     public int getSizeDeletedClasses() {
-        return deletedClasses.size();
+        return numDeletedClasses;
     }
 
 
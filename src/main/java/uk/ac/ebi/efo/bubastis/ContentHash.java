@@ -0,0 +1,77 @@
+package uk.ac.ebi.efo.bubastis;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * SHA-256 hashes of ontology documents, read in blocks so that documents of any size can be
+ * hashed without holding them in memory. Two documents with the same hash have the same
+ * content, which lets a diff or a run skip work for documents it has already seen.
+ */
+public final class ContentHash {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+
+    private ContentHash() {
+    }
+
+
+    /**
+     * @param file - document to hash
+     * @return the SHA-256 hash of the file content as 64 hex digits
+     */
+    public static String of(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return of(in);
+        }
+    }
+
+
+    /**
+     * hash a stream up to its end, the stream is not closed
+     *
+     * @param in - content to hash
+     * @return the SHA-256 hash of the content as 64 hex digits
+     */
+    public static String of(InputStream in) throws IOException {
+        MessageDigest digest = createDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return toHex(digest.digest());
+    }
+
+
+    /**
+     * @return a new SHA-256 digest, e.g. for a DigestInputStream
+     */
+    public static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+
+    /**
+     * @param hash - digest bytes
+     * @return the bytes as lower case hex digits
+     */
+    public static String toHex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+}
@@ -0,0 +1,54 @@
+package uk.ac.ebi.efo.bubastis;
+
+
+/**
+ * Receives the results of a diff from CompareOntologies as they are found, so that they can be
+ * written out without holding the whole change set in memory. Changed classes are reported
+ * first, then new classes, then deleted classes, each in the order the comparison finds them.
+ * The calls for one diff never overlap but may come from a worker thread of the comparison.
+ * <p/>
+ * Register listeners with CompareOntologies.addDiffListener and use
+ * CompareOntologies.setRetainResults(false) to stop the results being collected as well.
+ */
+public interface DiffListener {
+
+    /**
+     * called once both ontologies are loaded, before any class is compared
+     *
+     * @param changeBean - bean with the locations of the two ontologies and the ontologies themselves
+     */
+    void onStart(OntologyChangesBean changeBean);
+
+    /**
+     * @param changedClass - axiom or annotation changes of a class present in both ontologies
+     */
+    void onChangedClass(OWLClassAxiomsInfo changedClass);
+
+    /**
+     * @param newClass - a class only present in the second ontology, with its axioms
+     */
+    void onNewClass(OWLClassAxiomsInfo newClass);
+
+    /**
+     * @param deletedClass - a class only present in the first ontology, with its axioms
+     */
+    void onDeletedClass(OWLClassAxiomsInfo deletedClass);
+
+    /**
+     * called after the last class has been reported
+     *
+     * @param changeBean - the same bean as passed to onStart, now holding the number of changed,
+     *                   new and deleted classes
+     */
+    void onComplete(OntologyChangesBean changeBean);
+
+    /**
+     * called instead of onComplete when the diff fails after onStart, e.g. to close and remove a
+     * partly written file; also called after onComplete if another listener fails to complete
+     *
+     * @param error - what the diff failed with, thrown on once the listeners have been told
+     */
+    default void onError(Throwable error) {
+    }
+
+}
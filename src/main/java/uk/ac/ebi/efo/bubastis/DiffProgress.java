@@ -0,0 +1,87 @@
+package uk.ac.ebi.efo.bubastis;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Progress of a diff, for showing to someone waiting for it. CompareOntologies moves it on to
+ * loading ontology 2 and to diffing and counts the classes it has compared, the caller running
+ * the diff sets the other phases. It may be read from any thread while the diff runs.
+ * <p/>
+ * The percentage is a rough estimate: the phases are given fixed shares of the whole and only
+ * the comparison of the classes moves on within its share.
+ */
+public class DiffProgress {
+
+    public enum Phase {
+        QUEUED(0), LOADING_1(0), LOADING_2(35), DIFFING(70), RENDERING(95), DONE(100), FAILED(100);
+
+        //percentage reached when the phase starts
+        private final int startPercentage;
+
+        Phase(int startPercentage) {
+            this.startPercentage = startPercentage;
+        }
+    }
+
+    private volatile Phase phase = Phase.QUEUED;
+    private volatile int percentageBeforeFailure;
+    private volatile int classesToCompare;
+    private final AtomicInteger classesCompared = new AtomicInteger();
+
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+
+    public void setPhase(Phase phase) {
+        if (phase == Phase.FAILED) {
+            //a failed diff keeps the percentage it got to
+            this.percentageBeforeFailure = getPercentage();
+        }
+        this.phase = phase;
+    }
+
+
+    /**
+     * start the comparison of the classes
+     *
+     * @param classesToCompare - number of classes that will be counted with classCompared
+     */
+    void startDiffing(int classesToCompare) {
+        this.classesToCompare = classesToCompare;
+        this.classesCompared.set(0);
+        setPhase(Phase.DIFFING);
+    }
+
+
+    void classCompared() {
+        classesCompared.incrementAndGet();
+    }
+
+
+    /**
+     * @param count - number of classes compared at once, e.g. by a join over all axioms
+     */
+    void classesCompared(int count) {
+        classesCompared.addAndGet(count);
+    }
+
+
+    /**
+     * @return estimate of how much of the diff is done, from 0 to 100
+     */
+    public int getPercentage() {
+        Phase current = phase;
+        if (current == Phase.FAILED) {
+            return percentageBeforeFailure;
+        }
+        if (current != Phase.DIFFING || classesToCompare == 0) {
+            return current.startPercentage;
+        }
+        int share = Phase.RENDERING.startPercentage - Phase.DIFFING.startPercentage;
+        return current.startPercentage + (int) Math.min(share, (long) share * classesCompared.get() / classesToCompare);
+    }
+
+}
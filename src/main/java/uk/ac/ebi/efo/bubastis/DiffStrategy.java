@@ -0,0 +1,21 @@
+package uk.ac.ebi.efo.bubastis;
+
+/**
+ * The ways CompareOntologies can find the classes whose axioms or annotations differ
+ * between the two ontologies. All strategies report the same changes.
+ */
+public enum DiffStrategy {
+
+    /**
+     * look up and compare the axioms and annotations of every class of the first ontology,
+     * cost grows with the size of the ontologies
+     */
+    PER_CLASS,
+
+    /**
+     * find the axioms and annotation assertions present in only one of the two ontologies
+     * and only look at the classes they belong to, cost grows with the size of the change
+     */
+    AXIOM_HASH_JOIN
+
+}
@@ -3,13 +3,18 @@ package uk.ac.ebi.efo.bubastis;
 
 import org.apache.commons.cli.*;
 import org.apache.commons.validator.routines.UrlValidator;
+import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
 import org.semanticweb.owlapi.vocab.OWLRDFVocabulary;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 
@@ -31,15 +36,27 @@ class Driver {
         //create options
         Options options = new Options();
 
-        //locations of the two ontologies are required
+        //locations of the two ontologies are required, only ontology 1 when writing an index
         Option ontology1 = new Option("ontology1", true, "ontology 1 location");
         ontology1.setRequired(true);
         Option ontology2 = new Option("ontology2", true, "ontology 2 location");
-        ontology2.setRequired(true);
         Option outputFile = new Option("output", true, "output file location");
         Option annotationProperties = new Option("annotation_properties", true, "property used for annotation properties");
         Option outputFormat = new Option("format", true, "output format");
         Option xsltPath = new Option("xslt", true, "location of xslt for xml output");
+        Option concurrentLoad = new Option("concurrent_load", false, "load both ontologies at the same time");
+        Option parallelDiff = new Option("parallel_diff", false, "compare classes on all available processors");
+        Option diffStrategy = new Option("diff_strategy", true, "per_class (default) or axiom_hash_join");
+        Option fingerprints = new Option("fingerprints", false, "skip classes whose fingerprints match");
+        Option fingerprints1 = new Option("fingerprints1", true, "fingerprint file of ontology 1, created if missing");
+        Option fingerprints2 = new Option("fingerprints2", true, "fingerprint file of ontology 2, created if missing");
+        Option stream = new Option("stream", false, "write each class to the output as it is found");
+        Option labelProperty = new Option("label_property", true, "annotation property holding the class labels");
+        Option snapshotCache = new Option("snapshot_cache", true, "directory of snapshots of parsed ontologies");
+        Option snapshotCacheSize = new Option("snapshot_cache_size", true, "size limit of the snapshot cache in MB");
+        Option index = new Option("index", false, "write a release index of ontology 1 to the output file");
+        Option fromIndexes = new Option("from_indexes", false, "ontology 1 and ontology 2 are release indexes");
+        Option shareDataFactory = new Option("share_data_factory", false, "hold the axioms both ontologies have in common once");
 
 
         options.addOption(ontology1);
@@ -48,6 +65,19 @@ class Driver {
         options.addOption(annotationProperties);
         options.addOption(outputFormat);
         options.addOption(xsltPath);
+        options.addOption(concurrentLoad);
+        options.addOption(parallelDiff);
+        options.addOption(diffStrategy);
+        options.addOption(fingerprints);
+        options.addOption(fingerprints1);
+        options.addOption(fingerprints2);
+        options.addOption(stream);
+        options.addOption(labelProperty);
+        options.addOption(snapshotCache);
+        options.addOption(snapshotCacheSize);
+        options.addOption(index);
+        options.addOption(fromIndexes);
+        options.addOption(shareDataFactory);
 
 
         // if entityExpansionLimit hasn't already been set, set it
@@ -66,6 +96,9 @@ class Driver {
 
             // parse the command line arguments
             CommandLine line = parser.parse( options, args );
+            if ( !line.hasOption( "ontology2" ) && !line.hasOption( "index" ) ) {
+                throw new ParseException("Missing required option: ontology2");
+            }
 
             //for ontology 1 work out if this is a file or a url
             if( line.hasOption( "ontology1" ) ) {
@@ -118,35 +151,126 @@ class Driver {
         
         //do diff
         CompareOntologies comparer = new CompareOntologies();
-        if (ontologyObject1 instanceof String){
-            System.out.println("Ontology1 is a string");
-            if (ontologyObject2 instanceof String){
-                //do diff with strings
-                comparer.doFindAllChanges(ontologyObject1.toString(), ontologyObject2.toString(), annotation_properties);
+        //without an output file the changes are only shown on the console
+        comparer.setPrintChanges(!line.hasOption( "output" ));
+
+        //parse the two ontologies side by side if asked to
+        ExecutorService loadExecutor = null;
+        if ( line.hasOption( "concurrent_load" ) ) {
+            loadExecutor = Executors.newFixedThreadPool(2);
+            comparer.setLoadExecutor(loadExecutor);
+        }
+        comparer.setParallelDiff(line.hasOption( "parallel_diff" ));
+        comparer.setShareDataFactory(line.hasOption( "share_data_factory" ));
+        if ( line.hasOption( "label_property" ) ) {
+            comparer.setLabelPropertyIRI(IRI.create(line.getOptionValue("label_property")));
+        }
+        if ( line.hasOption( "diff_strategy" ) ) {
+            try {
+                comparer.setDiffStrategy(DiffStrategy.valueOf(line.getOptionValue("diff_strategy").toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("Unknown diff strategy " + line.getOptionValue("diff_strategy"));
             }
-            else{
-               //do diff with second ontology as file
-                comparer.doFindAllChanges(ontologyObject1.toString(), new File(ontologyObject2.toString()), annotation_properties);
+        }
+        if ( line.hasOption( "snapshot_cache" ) ) {
+            long maxBytes = OntologySnapshotCache.DEFAULT_MAX_BYTES;
+            if ( line.hasOption( "snapshot_cache_size" ) ) {
+                try {
+                    maxBytes = Long.parseLong(line.getOptionValue("snapshot_cache_size")) * 1024 * 1024;
+                } catch (NumberFormatException e) {
+                    throw new ParseException("Invalid snapshot cache size " + line.getOptionValue("snapshot_cache_size"));
+                }
+            }
+            comparer.setSnapshotCache(new OntologySnapshotCache(new File(line.getOptionValue("snapshot_cache")), maxBytes));
+        }
+        comparer.setUseFingerprints(line.hasOption( "fingerprints" ));
+        //reuse saved fingerprints where they exist
+        OntologyFingerprints savedFingerprints1 = null;
+        OntologyFingerprints savedFingerprints2 = null;
+        if ( line.hasOption( "fingerprints1" ) ) {
+            File fingerprintFile = new File(line.getOptionValue("fingerprints1"));
+            savedFingerprints1 = fingerprintFile.exists() ? OntologyFingerprints.load(fingerprintFile) : null;
+            comparer.setFingerprints1(savedFingerprints1);
+        }
+        if ( line.hasOption( "fingerprints2" ) ) {
+            File fingerprintFile = new File(line.getOptionValue("fingerprints2"));
+            savedFingerprints2 = fingerprintFile.exists() ? OntologyFingerprints.load(fingerprintFile) : null;
+            comparer.setFingerprints2(savedFingerprints2);
+        }
+
+        //when streaming, the output is written during the diff and the changes are not kept
+        boolean streamOutput = line.hasOption( "stream" ) && line.hasOption( "output" );
+        if (streamOutput) {
+            String outputLocation = line.getOptionValue("output");
+            if ( line.hasOption( "format" ) && line.getOptionValue("format").toLowerCase().matches("xml") ) {
+                comparer.addDiffListener(new XMLStreamRenderer(outputLocation, line.getOptionValue("xslt")));
             }
+            else if ( !line.hasOption( "format" ) ) {
+                comparer.addDiffListener(new OntologyFileWriter(outputLocation));
+            }
+            comparer.setRetainResults(false);
         }
-        //ontology 1 is a file
-        else{
 
-            if (ontologyObject2 instanceof String){
-                //do diff with ontology 1 as file, ontology 2 as url
-                comparer.doFindAllChanges(new File(ontologyObject1.toString()), ontologyObject2.toString(), annotation_properties);
+        try {
+            if ( line.hasOption( "index" ) ) {
+                if ( !line.hasOption( "output" ) ) {
+                    throw new ParseException("-index needs an -output file for the index");
+                }
+                writeIndex(ontologyObject1, annotation_properties, comparer, new File(line.getOptionValue("output")));
+                return;
+            }
+            if ( line.hasOption( "from_indexes" ) ) {
+                if ( !(ontologyObject1 instanceof File) || !(ontologyObject2 instanceof File) ) {
+                    throw new ParseException("-from_indexes needs two index files");
+                }
+                //the annotation and label properties are those the indexes were written with
+                comparer.doFindAllChangesFromIndexes((File) ontologyObject1, (File) ontologyObject2);
+            }
+            else if (ontologyObject1 instanceof String){
+                System.out.println("Ontology1 is a string");
+                if (ontologyObject2 instanceof String){
+                    //do diff with strings
+                    comparer.doFindAllChanges(ontologyObject1.toString(), ontologyObject2.toString(), annotation_properties);
+                }
+                else{
+                   //do diff with second ontology as file
+                    comparer.doFindAllChanges(ontologyObject1.toString(), new File(ontologyObject2.toString()), annotation_properties);
+                }
             }
+            //ontology 1 is a file
             else{
-                //do diff with both files
-                comparer.doFindAllChanges(new File(ontologyObject1.toString()), new File(ontologyObject2.toString()), annotation_properties);
+
+                if (ontologyObject2 instanceof String){
+                    //do diff with ontology 1 as file, ontology 2 as url
+                    comparer.doFindAllChanges(new File(ontologyObject1.toString()), ontologyObject2.toString(), annotation_properties);
+                }
+                else{
+                    //do diff with both files
+                    comparer.doFindAllChanges(new File(ontologyObject1.toString()), new File(ontologyObject2.toString()), annotation_properties);
 
 
+                }
+            }
+        }
+        finally {
+            if (loadExecutor != null) {
+                loadExecutor.shutdownNow();
             }
         }
 
+        //save fingerprints that had to be calculated for later comparisons
+        if ( line.hasOption( "fingerprints1" ) && comparer.getFingerprints1() != null
+                && comparer.getFingerprints1() != savedFingerprints1 ) {
+            comparer.getFingerprints1().save(new File(line.getOptionValue("fingerprints1")));
+        }
+        if ( line.hasOption( "fingerprints2" ) && comparer.getFingerprints2() != null
+                && comparer.getFingerprints2() != savedFingerprints2 ) {
+            comparer.getFingerprints2().save(new File(line.getOptionValue("fingerprints2")));
+        }
+
 
         //write results if a save file location was provided
-        if( line.hasOption( "output" ) ) {
+        if( line.hasOption( "output" ) && !streamOutput ) {
             String outputLocation = line.getOptionValue("output");
 
             //if a format was provided
@@ -191,6 +315,23 @@ class Driver {
     }
 
 
+    /**
+     * load an ontology from a file or URL and write its release index
+     */
+    private static void writeIndex(Object ontologyObject, List<IRI> annotationProperties, CompareOntologies comparer,
+                                   File indexFile) throws Exception {
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        OWLOntology ontology;
+        if (ontologyObject instanceof File) {
+            File file = (File) ontologyObject;
+            ontology = comparer.getSnapshotCache() == null ? manager.loadOntologyFromOntologyDocument(file)
+                    : comparer.getSnapshotCache().load(manager, file);
+        } else {
+            ontology = new OntologyLoader(manager, IRI.create(ontologyObject.toString()), comparer.getSnapshotCache()).loadOntology();
+        }
+        ReleaseIndex.write(ontology, annotationProperties, comparer.getLabelPropertyIRI(), indexFile);
+        System.out.println("release index written to " + indexFile);
+    }
 
 
 }
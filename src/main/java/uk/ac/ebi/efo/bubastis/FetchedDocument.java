@@ -0,0 +1,298 @@
+package uk.ac.ebi.efo.bubastis;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.semanticweb.owlapi.io.FileDocumentSource;
+import org.semanticweb.owlapi.io.OWLOntologyDocumentSource;
+import org.semanticweb.owlapi.model.IRI;
+import uk.ac.ebi.efo.bubastis.exceptions.DocumentTooLargeException;
+
+
+/**
+ * An ontology document fetched from a URL into a temporary file and hashed while it is read,
+ * so that its content hash is known before it is parsed. The ontology is then parsed from the
+ * temporary file, still with the URL as its document IRI. Closing the document deletes the file.
+ * A file: URL of an uncompressed document is hashed and read in place instead of being copied.
+ * <p/>
+ * A local file can be wrapped in the same way with of, so that code holding two documents need
+ * not care where each came from; closing such a document leaves the file alone. An upload can
+ * be read straight from the request with read. Documents fetched or read that are compressed with gzip or zip are
+ * decompressed on the way, their content hash is the hash of the decompressed document.
+ */
+public class FetchedDocument implements Closeable {
+
+    //same preferences as the OWL API uses when it fetches a document itself
+    private static final String ACCEPT = "application/rdf+xml, application/xml; q=0.7, text/xml; q=0.6, "
+            + "text/plain; q=0.1, */*; q=0.09";
+    private static final int MAX_REDIRECTS = 5;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String location;
+    private final IRI documentIRI;
+    private final File file;
+    private final String contentHash;
+    //whether the file is a copy made for the document, which is deleted when it is closed
+    private final boolean temporary;
+
+
+    private FetchedDocument(String location, IRI documentIRI, File file, String contentHash, boolean temporary) {
+        this.location = location;
+        this.documentIRI = documentIRI;
+        this.file = file;
+        this.contentHash = contentHash;
+        this.temporary = temporary;
+    }
+
+
+    /**
+     * fetch a document, following redirects, also from http to https
+     *
+     * @param location - URL of the document
+     * @return the fetched document, to be closed once it has been parsed
+     */
+    public static FetchedDocument fetch(String location) throws IOException {
+        File local = localFile(location);
+        if (local != null && !isCompressed(local)) {
+            return new FetchedDocument(location, IRI.create(location), local, ContentHash.of(local), false);
+        }
+        File file = File.createTempFile("bubastis", ".owl");
+        try (InputStream in = open(location)) {
+            return copy(in, location, IRI.create(location), file, Long.MAX_VALUE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file.toPath());
+            throw e;
+        }
+    }
+
+
+    /**
+     * read a document from a stream, e.g. an upload while it is still arriving, up to its end
+     *
+     * @param in       - content of the document, closed once it has been read
+     * @param location - where the document came from, e.g. the name of the uploaded file
+     * @return the document, to be closed once it has been parsed
+     */
+    public static FetchedDocument read(InputStream in, String location) throws IOException {
+        return read(in, location, Long.MAX_VALUE);
+    }
+
+
+    /**
+     * read a document from a stream up to its end, e.g. an upload from an untrusted client
+     *
+     * @param in        - content of the document, closed once it has been read
+     * @param location  - where the document came from, e.g. the name of the uploaded file
+     * @param maxLength - size in bytes the document may have once it is decompressed
+     * @return the document, to be closed once it has been parsed
+     * @throws DocumentTooLargeException if the decompressed document is larger, nothing is kept of it then
+     */
+    public static FetchedDocument read(InputStream in, String location, long maxLength) throws IOException {
+        File file = File.createTempFile("bubastis", ".owl");
+        try {
+            return copy(in, location, IRI.create(file), file, maxLength);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file.toPath());
+            throw e;
+        }
+    }
+
+
+    /**
+     * copy a document to the file in one pass, decompressing and hashing it on the way, and
+     * stop once the decompressed document grows beyond maxLength
+     */
+    private static FetchedDocument copy(InputStream in, String location, IRI documentIRI, File file, long maxLength) throws IOException {
+        MessageDigest digest = ContentHash.createDigest();
+        try (InputStream content = new DigestInputStream(decompress(in), digest);
+             OutputStream out = Files.newOutputStream(file.toPath())) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long length = 0;
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                length += read;
+                if (length > maxLength) {
+                    throw new DocumentTooLargeException(location, maxLength);
+                }
+                out.write(buffer, 0, read);
+            }
+        }
+        return new FetchedDocument(location, documentIRI, file, ContentHash.toHex(digest.digest()), true);
+    }
+
+
+    /**
+     * unpack a document compressed with gzip, or the first file of a zip archive, recognised by
+     * their leading bytes; other documents are passed on as they are
+     */
+    private static InputStream decompress(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        byte[] magic = new byte[4];
+        buffered.mark(magic.length);
+        int length = 0;
+        int read;
+        while (length < magic.length && (read = buffered.read(magic, length, magic.length - length)) != -1) {
+            length += read;
+        }
+        buffered.reset();
+
+        if (isGzip(magic, length)) {
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        }
+        if (isZip(magic, length)) {
+            ZipInputStream zip = new ZipInputStream(buffered);
+            ZipEntry entry = zip.getNextEntry();
+            while (entry != null && entry.isDirectory()) {
+                entry = zip.getNextEntry();
+            }
+            if (entry == null) {
+                zip.close();
+                throw new IOException("The zip archive holds no document");
+            }
+            return zip;
+        }
+        return buffered;
+    }
+
+
+    private static boolean isGzip(byte[] magic, int length) {
+        return length >= 2 && magic[0] == (byte) 0x1f && magic[1] == (byte) 0x8b;
+    }
+
+
+    private static boolean isZip(byte[] magic, int length) {
+        return length == 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4;
+    }
+
+
+    private static boolean isCompressed(File file) throws IOException {
+        byte[] magic = new byte[4];
+        int length = 0;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while (length < magic.length && (read = in.read(magic, length, magic.length - length)) != -1) {
+                length += read;
+            }
+        }
+        return isGzip(magic, length) || isZip(magic, length);
+    }
+
+
+    /**
+     * @return the file of a file: URL, or null for other URLs and file: URLs that do not name a local file
+     */
+    private static File localFile(String location) {
+        try {
+            URI uri = new URI(location);
+            if (!"file".equalsIgnoreCase(uri.getScheme())) {
+                return null;
+            }
+            File file = new File(uri);
+            return file.isFile() ? file : null;
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * hash a local file, which is read in place and left as it is when the document is closed
+     *
+     * @param file - ontology document
+     * @return the document, with the file as its location
+     */
+    public static FetchedDocument of(File file) throws IOException {
+        return of(file, ContentHash.of(file));
+    }
+
+
+    /**
+     * wrap a local file whose content hash is already known, e.g. from a manifest of releases,
+     * without reading it
+     *
+     * @param file        - ontology document
+     * @param contentHash - hash of the file, see ContentHash
+     * @return the document, with the file as its location
+     */
+    public static FetchedDocument of(File file, String contentHash) {
+        return new FetchedDocument(file.toString(), IRI.create(file), file, contentHash, false);
+    }
+
+
+    private static InputStream open(String location) throws IOException {
+        URL url = new URL(location);
+        for (int redirects = 0; ; redirects++) {
+            URLConnection connection = url.openConnection();
+            connection.setRequestProperty("Accept", ACCEPT);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (connection instanceof HttpURLConnection) {
+                HttpURLConnection http = (HttpURLConnection) connection;
+                int status = http.getResponseCode();
+                String redirect = http.getHeaderField("Location");
+                if (status >= 300 && status < 400 && redirect != null && redirects < MAX_REDIRECTS) {
+                    http.disconnect();
+                    url = new URL(url, redirect);
+                    continue;
+                }
+            }
+            InputStream in = connection.getInputStream();
+            return "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(in) : in;
+        }
+    }
+
+
+    /**
+     * @return a source for parsing the document from the temporary file with the URL as document IRI
+     */
+    public OWLOntologyDocumentSource getDocumentSource() {
+        final IRI documentIRI = this.documentIRI;
+        return new FileDocumentSource(file) {
+            @Override
+            public IRI getDocumentIRI() {
+                return documentIRI;
+            }
+        };
+    }
+
+
+    public String getLocation() {
+        return location;
+    }
+
+
+    /**
+     * @return the SHA-256 hash of the document content, see ContentHash
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+
+    public long length() {
+        return file.length();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        if (temporary) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+}
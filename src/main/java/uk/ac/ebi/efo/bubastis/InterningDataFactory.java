@@ -0,0 +1,89 @@
+package uk.ac.ebi.efo.bubastis;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
+import uk.ac.manchester.cs.owl.owlapi.OWLOntologyManagerImpl;
+import uk.ac.manchester.cs.owl.owlapi.concurrent.NoOpReadWriteLock;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+
+/**
+ * An OWLDataFactory that returns one instance for all equal axioms, class expressions,
+ * annotations and literals it creates, and ontology managers that share such a factory.
+ * <p/>
+ * The two releases of a diff are loaded by separate managers, each with a factory of its own,
+ * so everything the releases have in common, usually nearly all of them, is held twice. When
+ * both managers share an interning factory, an axiom that is in both releases is one object
+ * in both ontologies, which roughly halves the memory the loaded releases take, and comparing
+ * it with the axiom of the other release is a reference comparison instead of a comparison of
+ * its structure.
+ * <p/>
+ * The interner holds its objects weakly, so objects the parsers create and drop again are not
+ * kept. It is thread safe, so both releases can be parsed at once.
+ */
+public final class InterningDataFactory {
+
+    private InterningDataFactory() {
+    }
+
+
+    /**
+     * @return a new factory that interns the objects it creates
+     */
+    public static OWLDataFactory create() {
+        return (OWLDataFactory) Proxy.newProxyInstance(OWLDataFactory.class.getClassLoader(),
+                new Class<?>[]{OWLDataFactory.class}, new InterningHandler());
+    }
+
+
+    /**
+     * create a manager with the parsers, storers and ontology factories of a default manager
+     * that creates its objects with the given factory
+     *
+     * @param dataFactory - factory shared with other managers
+     */
+    public static OWLOntologyManager createOWLOntologyManager(OWLDataFactory dataFactory) {
+        OWLOntologyManager defaults = OWLManager.createOWLOntologyManager();
+        //not a concurrent manager, like the default managers
+        OWLOntologyManager manager = new OWLOntologyManagerImpl(dataFactory, new NoOpReadWriteLock());
+        manager.getOntologyFactories().set(defaults.getOntologyFactories());
+        manager.getOntologyParsers().set(defaults.getOntologyParsers());
+        manager.getOntologyStorers().set(defaults.getOntologyStorers());
+        manager.getIRIMappers().set(defaults.getIRIMappers());
+        return manager;
+    }
+
+
+    private static class InterningHandler implements InvocationHandler {
+
+        //the factory caches entities, which need not be interned again
+        private final OWLDataFactory delegate = new OWLDataFactoryImpl();
+        private final Interner<Object> interner = Interners.newWeakInterner();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result;
+            try {
+                result = method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof OWLObject && !(result instanceof OWLEntity)) {
+                return interner.intern(result);
+            }
+            return result;
+        }
+    }
+
+}
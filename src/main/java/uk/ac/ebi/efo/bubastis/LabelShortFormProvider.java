@@ -0,0 +1,114 @@
+package uk.ac.ebi.efo.bubastis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.util.ShortFormProvider;
+
+
+/**
+ * Short form provider giving the label of an entity, taken from an AnnotationIndex, so that a
+ * renderer puts labels in place of IRIs as it writes each entity. Labels are quoted by default,
+ * entities without a label are shown as their full IRI.
+ */
+public class LabelShortFormProvider implements ShortFormProvider {
+
+    /**
+     * what to show for an entity with more than one label
+     */
+    public enum MultipleLabelPolicy {
+        /** only the label that sorts first, so the choice does not depend on set order */
+        FIRST,
+        /** every label in sorted order, separated by " / " */
+        ALL
+    }
+
+    private final AnnotationIndex annotationIndex;
+    private final IRI labelPropertyIRI;
+    private final MultipleLabelPolicy multipleLabelPolicy;
+    private final boolean quoteLabels;
+
+
+    /**
+     * @param annotationIndex  - annotations of the ontology the entities come from
+     * @param labelPropertyIRI - annotation property holding the labels
+     */
+    public LabelShortFormProvider(AnnotationIndex annotationIndex, IRI labelPropertyIRI) {
+        this(annotationIndex, labelPropertyIRI, MultipleLabelPolicy.FIRST, true);
+    }
+
+
+    /**
+     * @param annotationIndex     - annotations of the ontology the entities come from
+     * @param labelPropertyIRI    - annotation property holding the labels
+     * @param multipleLabelPolicy - what to show for entities with several labels
+     * @param quoteLabels         - whether labels are put in single quotes
+     */
+    public LabelShortFormProvider(AnnotationIndex annotationIndex, IRI labelPropertyIRI,
+                                  MultipleLabelPolicy multipleLabelPolicy, boolean quoteLabels) {
+        this.annotationIndex = annotationIndex;
+        this.labelPropertyIRI = labelPropertyIRI;
+        this.multipleLabelPolicy = multipleLabelPolicy;
+        this.quoteLabels = quoteLabels;
+    }
+
+
+    @Override
+    public String getShortForm(OWLEntity entity) {
+        Set<OWLAnnotation> entityLabels = annotationIndex.getAnnotations(entity.getIRI(), labelPropertyIRI);
+        List<String> labels = new ArrayList<String>(entityLabels.size());
+        for (OWLAnnotation annotation : entityLabels) {
+            if (annotation.getValue() instanceof OWLLiteral) {
+                labels.add(((OWLLiteral) annotation.getValue()).getLiteral());
+            }
+        }
+        return shortForm(entity.getIRI(), labels, multipleLabelPolicy, quoteLabels);
+    }
+
+
+    /**
+     * the short form for an entity with the given labels, shared with the rendering of axioms
+     * read from a ReleaseIndex
+     *
+     * @param labels - literal values of the labels, sorted in place
+     */
+    static String shortForm(IRI entityIRI, List<String> labels, MultipleLabelPolicy multipleLabelPolicy, boolean quoteLabels) {
+        //default for entities without labels is their IRI
+        if (labels.isEmpty()) {
+            return entityIRI.toString();
+        }
+        if (labels.size() == 1) {
+            return quote(labels.get(0), quoteLabels);
+        }
+
+        Collections.sort(labels);
+        if (multipleLabelPolicy == MultipleLabelPolicy.FIRST) {
+            return quote(labels.get(0), quoteLabels);
+        }
+        StringBuilder shortForm = new StringBuilder();
+        for (String label : labels) {
+            if (shortForm.length() > 0) {
+                shortForm.append(" / ");
+            }
+            shortForm.append(quote(label, quoteLabels));
+        }
+        return shortForm.toString();
+    }
+
+
+    private static String quote(String label, boolean quoteLabels) {
+        return quoteLabels ? "'" + label + "'" : label;
+    }
+
+
+    @Override
+    public void dispose() {
+    }
+
+}
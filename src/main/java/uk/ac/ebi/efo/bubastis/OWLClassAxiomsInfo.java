@@ -1,17 +1,16 @@
 package uk.ac.ebi.efo.bubastis;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
-import org.semanticweb.owlapi.apibinding.OWLManager;
-import org.semanticweb.owlapi.io.OWLObjectRenderer;
-import org.semanticweb.owlapi.manchestersyntax.renderer.ManchesterOWLSyntaxOWLObjectRendererImpl;
 import org.semanticweb.owlapi.model.*;
-import org.semanticweb.owlapi.search.EntitySearcher;
-import org.semanticweb.owlapi.util.ShortFormProvider;
 
 
 
@@ -37,6 +36,13 @@ public class OWLClassAxiomsInfo implements Serializable{
 	private Set<OWLAnnotation> deletedAnnotationsSet;
 	
 	private List<OWLAnnotationProperty> annotationProperties;
+	//number of new and deleted axioms when only their labels are held, see withAxiomLabels
+	private int numNewAxioms;
+	private int numDeletedAxioms;
+	
+	//renders the axiom labels on first use, null once they have been rendered
+	private transient AxiomLabelRenderer labelRenderer;
+	private transient boolean renderDeletedAxioms;
 	
 	
 	//constructor
@@ -77,31 +83,103 @@ public class OWLClassAxiomsInfo implements Serializable{
 		this.deletedAnnotationsSet = deletedAnnotationsSet;
 	}
 	
-	//constructor
+	//constructor, indexes the CompareOntologies.CODE_IRI labels of the ontology for rendering the axioms
 	public OWLClassAxiomsInfo(IRI classIRI, Set<OWLClassAxiom> newClassAxiomsSet, OWLOntology ontology) {
+		this(classIRI, newClassAxiomsSet, labelRenderer(ontology));
+	}
+	
+	
+	//constructor, the axioms are rendered by the given renderer which can be shared between classes
+	//the label view of the axioms is only created when it is first asked for
+	public OWLClassAxiomsInfo(IRI classIRI, Set<OWLClassAxiom> newClassAxiomsSet, AxiomLabelRenderer labelRenderer) {
 		this.classIRI = classIRI;
 		this.newClassAxiomsSet = newClassAxiomsSet;
-		//create the label view of these axioms
-		this.newClassAxiomsAsLabels = getAxiomLabels(newClassAxiomsSet, ontology);
+		this.labelRenderer = labelRenderer;
 		
 	}
 	
 	
 	
-	//constructor
+	//constructor, indexes the CompareOntologies.CODE_IRI labels of the ontology for rendering the axioms
 	public OWLClassAxiomsInfo(IRI classIRI, Set<OWLClassAxiom> newClassAxiomsSet, 
 							  Set<OWLClassAxiom> deletedClassAxiomsSet, OWLOntology ontology) {
+		this(classIRI, newClassAxiomsSet, deletedClassAxiomsSet, labelRenderer(ontology));
+	}
+	
+	
+	//constructor, the axioms are rendered by the given renderer which can be shared between classes
+	//the label view of the axioms is only created when it is first asked for
+	public OWLClassAxiomsInfo(IRI classIRI, Set<OWLClassAxiom> newClassAxiomsSet, 
+							  Set<OWLClassAxiom> deletedClassAxiomsSet, AxiomLabelRenderer labelRenderer) {
 		this.classIRI = classIRI;
 		this.newClassAxiomsSet = newClassAxiomsSet;
 		this.deletedClassAxiomsSet = deletedClassAxiomsSet;
+		this.labelRenderer = labelRenderer;
+		this.renderDeletedAxioms = true;
 
-        //create shortFormRenderer
-        //SimpleLabelProvider renderer = new SimpleLabelProvider();
-
-		//create the label view of these axioms
-		this.newClassAxiomsAsLabels = getAxiomLabels(newClassAxiomsSet, ontology);
-		this.deletedClassAxiomsAsLabels = getAxiomLabels(deletedClassAxiomsSet, ontology);
-
+	}
+	
+	
+	/**
+	 * create the information for a class from axioms that have already been rendered, e.g. read
+	 * from a ReleaseIndex, without the axioms themselves
+	 * 
+	 * @param newAxiomLabels     rendered new axioms
+	 * @param numNewAxioms       number of new axioms, which may render to fewer labels
+	 * @param deletedAxiomLabels rendered deleted axioms, null for a new or deleted class
+	 * @param numDeletedAxioms   number of deleted axioms
+	 */
+	public static OWLClassAxiomsInfo withAxiomLabels(IRI classIRI, Set<String> newAxiomLabels, int numNewAxioms,
+													 Set<String> deletedAxiomLabels, int numDeletedAxioms) {
+		OWLClassAxiomsInfo info = new OWLClassAxiomsInfo(classIRI, null);
+		info.newClassAxiomsAsLabels = newAxiomLabels;
+		info.numNewAxioms = numNewAxioms;
+		info.deletedClassAxiomsAsLabels = deletedAxiomLabels;
+		info.numDeletedAxioms = numDeletedAxioms;
+		return info;
+	}
+	
+	
+	private static AnnotationIndex labelIndex(OWLOntology ontology) {
+		return new AnnotationIndex(ontology, Collections.singleton(CompareOntologies.CODE_IRI));
+	}
+	
+	
+	private static AxiomLabelRenderer labelRenderer(OWLOntology ontology) {
+		return new AxiomLabelRenderer(labelIndex(ontology), CompareOntologies.CODE_IRI);
+	}
+	
+	
+	/**
+	 * create the label view of the new and deleted axioms if it has not been created yet,
+	 * this happens on the first call of getNewClassAxiomsAsLabels or getDeletedClassAxiomsAsLabels
+	 */
+	public synchronized void renderAxiomLabels(){
+		if (labelRenderer != null){
+			this.newClassAxiomsAsLabels = labelRenderer.render(newClassAxiomsSet);
+			if (renderDeletedAxioms){
+				this.deletedClassAxiomsAsLabels = labelRenderer.render(deletedClassAxiomsSet);
+			}
+			labelRenderer = null;
+		}
+	}
+	
+	
+	/**
+	 * create the label view of the axioms of several classes in parallel, e.g. for the classes
+	 * about to be written out
+	 * 
+	 * @param classes the classes whose axioms are rendered
+	 */
+	public static void renderAxiomLabels(Collection<OWLClassAxiomsInfo> classes){
+		classes.parallelStream().forEach(OWLClassAxiomsInfo::renderAxiomLabels);
+	}
+	
+	
+	//render the labels before writing so they are not lost with the transient renderer
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		renderAxiomLabels();
+		out.defaultWriteObject();
 	}
 	
 	
@@ -135,8 +213,14 @@ public class OWLClassAxiomsInfo implements Serializable{
 		return newClassAxiomsSet;
 	}
 		
+	//number of new class axioms, also if only their labels are held
+	public int getNumNewAxioms(){
+		return newClassAxiomsSet != null ? newClassAxiomsSet.size() : numNewAxioms;
+	}
+		
 	//get method to return the new class axioms with labels
 	public Set<String> getNewClassAxiomsAsLabels(){
+		renderAxiomLabels();
 		return newClassAxiomsAsLabels;
 	}
 	
@@ -145,8 +229,14 @@ public class OWLClassAxiomsInfo implements Serializable{
 		return deletedClassAxiomsSet;
 	}
 	
+	//number of deleted class axioms, also if only their labels are held
+	public int getNumDeletedAxioms(){
+		return deletedClassAxiomsSet != null ? deletedClassAxiomsSet.size() : numDeletedAxioms;
+	}
+	
 	//get method to return the deleted class axioms with labels
 	public Set<String> getDeletedClassAxiomsAsLabels(){
+		renderAxiomLabels();
 		return deletedClassAxiomsAsLabels;
 	}
 	
@@ -177,6 +267,7 @@ public class OWLClassAxiomsInfo implements Serializable{
 	public void displayClassInfoAsLabels(){
 		System.out.println("IRI "+ this.classIRI);
 		rdfsLabelWalkthrough(this.classLabels);
+		renderAxiomLabels();
 		
 		//display the added class axioms if there are any
 		if (newClassAxiomsAsLabels != null){
@@ -198,6 +289,7 @@ public class OWLClassAxiomsInfo implements Serializable{
 	public void displayAllClassInfo(){
 		System.out.println("Class ID  "+ this.classIRI);
 		rdfsLabelWalkthrough(this.classLabels);
+		renderAxiomLabels();
 		
 		if (newAnnotationsSet != null){
 			if(!newAnnotationsSet.isEmpty()){
@@ -334,121 +426,39 @@ public class OWLClassAxiomsInfo implements Serializable{
      * @return
      */
 	public Set<String> getAxiomLabels(Set<OWLClassAxiom> classAxioms, OWLOntology ontology){
+		return labelRenderer(ontology).render(classAxioms);
+	}
 
-		Set<String> axiomsWithLabels = new HashSet<String>();
-		// Create iterator to walk through the elements in the set unless there are none
-	    if (classAxioms == null){
-	    	System.out.println("-Empty-");
-	    }
-	    else{
-	    	Iterator<OWLClassAxiom> it = classAxioms.iterator();
-	    	while (it.hasNext()) {
-	    		// Get axiom for which we require labels
-	    		OWLClassAxiom axiom = it.next();
-
-                SimpleLabelProvider labelProvider = new SimpleLabelProvider(ontology);
-
-                //render it as manchester syntax
-				OWLObjectRenderer renManchester = new ManchesterOWLSyntaxOWLObjectRendererImpl();
-				renManchester.setShortFormProvider(labelProvider);
-
-                String axiomWithLabels = renManchester.render(axiom);
-
-                //store as a string for doing some regex later
-	    		//String axiomWithLabels = axiom.toString();
-	    		Set<OWLEntity> refEntities = axiom.getSignature();
-	    		
-	    		//go through each referenced entity and get label for each of the entities
-	    		//referenced in the axiom
-	    		Iterator<OWLEntity> it2 = refEntities.iterator();
-		    	while (it2.hasNext()) {
-		    		//get the OWL entity which is the class ID
-		    		OWLEntity e = it2.next();
-		    		//get the rdfs label(s) of the class in question, first create IRI for rdfs label
-		    		//and create the corresponding OWLAnnotationProperty
-		    		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
-		    		OWLDataFactory df = manager.getOWLDataFactory(); 
-					OWLAnnotationProperty label = df.getOWLAnnotationProperty(CompareOntologies.CODE_IRI);
-					
-		    		Set<OWLAnnotation> entityLabels = new HashSet<>(EntitySearcher.getAnnotations(e,ontology,label));
-		    		
-		    		//loop through the labels (there could be more than 1)
-		    		if (entityLabels != null){
-		    			Iterator<OWLAnnotation> it3 = entityLabels.iterator();
-		    			while (it3.hasNext()) {
-		    				// Get annotations for the class ID
-		    				OWLAnnotation annotation = it3.next();
-
-		    				OWLLiteral val = (OWLLiteral) annotation.getValue();
-
-		    				//swap the class ID with the label
-		    				String classAsLabel = new String("'" + val.getLiteral() + "'");
-		    				axiomWithLabels = axiomWithLabels.replace(e.toString(), classAsLabel);
 
-		    			}
-		    			//output the new axiom with labels
-			    	}	    		
-		    	}
-		    	//at this point the pairing would be "axiom" contains the axiom with class IDs
-		    	//and axiomWithLables contains the corresponding axiom but with rdfs labels
-				//System.out.println("Axiom with labels: " + axiomWithLabels);	
-				//add the axiom with labels to the set which will eventually be returned
-		    	axiomsWithLabels.add(axiomWithLabels);
-	    	}
-	    }//end if/else	
-	    return axiomsWithLabels;
-	    
+    /**
+     * Method to turn a set of class axioms stored as URIs into more readable version
+     *
+     * @param classAxioms      Set of axioms to turn into readable labels
+     * @param annotationIndex  annotations of the ontology from which axioms came
+     * @param labelPropertyIRI annotation property holding the labels
+     * @return
+     */
+	public Set<String> getAxiomLabels(Set<OWLClassAxiom> classAxioms, AnnotationIndex annotationIndex, IRI labelPropertyIRI){
+		return new AxiomLabelRenderer(annotationIndex, labelPropertyIRI).render(classAxioms);
 	}//end method
 	
 
 
 
-    public class SimpleLabelProvider implements ShortFormProvider{
-
-        //class fields
-        OWLOntology ontology;
+    /**
+     * label short form provider using the labels of one ontology, with the default quoting and
+     * multiple label policy of LabelShortFormProvider
+     */
+    public static class SimpleLabelProvider extends LabelShortFormProvider{
 
-        //constructor
+        //constructor, using the CompareOntologies.CODE_IRI labels of the ontology
         public SimpleLabelProvider(OWLOntology ontology){
-            this.ontology = ontology;
+            this(labelIndex(ontology), CompareOntologies.CODE_IRI);
         }
 
-        @Override
-        public String getShortForm(OWLEntity entity) {
-
-            //default for classes without labels is their URI
-            String classAsLabel = entity.getIRI().toString();
-
-            OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
-            OWLDataFactory df = manager.getOWLDataFactory();
-            OWLAnnotationProperty label = df.getOWLAnnotationProperty(CompareOntologies.CODE_IRI);
-
-            Set<OWLAnnotation> entityLabels = new HashSet<>(EntitySearcher.getAnnotations(entity,ontology,label));
-
-            //loop through the labels (there could be more than 1)
-            if (entityLabels != null){
-                Iterator<OWLAnnotation> it = entityLabels.iterator();
-                while (it.hasNext()) {
-                    // Get annotations for the class ID
-                    OWLAnnotation annotation = it.next();
-
-                    OWLLiteral val = (OWLLiteral) annotation.getValue();
-
-                    //swap the class ID with the label
-                    classAsLabel = new String("'" + val.getLiteral() + "'");
-
-
-                }
-                //output the new axiom with labels
-            }
-
-            return classAsLabel;
-
-        }
-
-        @Override
-        public void dispose() {
-            //To change body of implemented methods use File | Settings | File Templates.
+        //constructor
+        public SimpleLabelProvider(AnnotationIndex annotationIndex, IRI labelPropertyIRI){
+            super(annotationIndex, labelPropertyIRI);
         }
     }
 
@@ -6,10 +6,12 @@ import org.semanticweb.owlapi.model.IRI;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyID;
 
 
 public class OntologyChangesBean {
@@ -19,18 +21,23 @@ public class OntologyChangesBean {
 	
 	private OWLOntology ontology1;
 	private OWLOntology ontology2;
+	//ontology and version IRIs of the two ontologies, kept when the ontologies are released by detach
+	private OWLOntologyID ontology1ID;
+	private OWLOntologyID ontology2ID;
 	
 	private ArrayList<OWLClassAxiomsInfo> classesWithDifferences = new ArrayList<OWLClassAxiomsInfo>();
 	private ArrayList<OWLClassAxiomsInfo> newClasses = new ArrayList<OWLClassAxiomsInfo>(); 
 	private ArrayList<OWLClassAxiomsInfo> deletedClasses = new ArrayList<OWLClassAxiomsInfo>();
-	private ArrayList<String> classesWithDifferencesAsXML = new ArrayList<String>();
-	private ArrayList<String> newClassesAsXML = new ArrayList<String>();
-	private ArrayList<String> deletedClassesAsXML = new ArrayList<String>();
+	//xml lines for display, only built when first asked for
+	private ArrayList<String> classesWithDifferencesAsXML;
+	private ArrayList<String> newClassesAsXML;
+	private ArrayList<String> deletedClassesAsXML;
 	private int numChangedClasses;
 	private int numNewClasses;
 	private int numDeletedClasses;
 	private Exception exceptionDuringDiff;
 	private String errorCause;
+	private String resultsKey;
 	
 	
 	public void setOntology1Location(String ont1){
@@ -48,6 +55,7 @@ public class OntologyChangesBean {
 	
 	public void setOntology1(OWLOntology ontology1) {
 		this.ontology1 = ontology1;
+		this.ontology1ID = ontology1 == null ? null : ontology1.getOntologyID();
 	}
 	
 	public OWLOntology getOntology2() {
@@ -56,6 +64,37 @@ public class OntologyChangesBean {
 	
 	public void setOntology2(OWLOntology ontology2) {
 		this.ontology2 = ontology2;
+		this.ontology2ID = ontology2 == null ? null : ontology2.getOntologyID();
+	}
+	
+	/**
+	 * @return the ontology and version IRI of ontology 1, also after detach, or null if it was not loaded
+	 */
+	public OWLOntologyID getOntology1ID() {
+		return ontology1ID;
+	}
+	
+	/**
+	 * @return the ontology and version IRI of ontology 2, also after detach, or null if it was not loaded
+	 */
+	public OWLOntologyID getOntology2ID() {
+		return ontology2ID;
+	}
+	
+	
+	/**
+	 * release the two ontologies, keeping only what the renderers need: the locations, the
+	 * ontology and version IRIs, the counts and the changed classes with their axioms rendered
+	 * as labels. The ontologies and their managers can then be garbage collected while the
+	 * bean is still in use, getOntology1 and getOntology2 return null afterwards.
+	 */
+	public void detach() {
+		//the labels are rendered from label indexes of the ontologies, which are dropped once rendered
+		OWLClassAxiomsInfo.renderAxiomLabels(this.classesWithDifferences);
+		OWLClassAxiomsInfo.renderAxiomLabels(this.newClasses);
+		OWLClassAxiomsInfo.renderAxiomLabels(this.deletedClasses);
+		this.ontology1 = null;
+		this.ontology2 = null;
 	}
 	
 	public String getOntology1Location(){
@@ -81,18 +120,43 @@ public class OntologyChangesBean {
 	
 	
 	public ArrayList<String> getClassesWithDifferencesAsXML(){
+		if (this.classesWithDifferencesAsXML == null) {
+			this.createClassChangesAsXML();
+		}
 		return this.classesWithDifferencesAsXML;			
 	}
 		
 	public ArrayList<String> getNewClassesAsXML(){
+		if (this.newClassesAsXML == null) {
+			this.createNewClassesAsXML();
+		}
 		return this.newClassesAsXML;			
 	}
 
 	public ArrayList<String> getDeletedClassesAsXML(){
+		if (this.deletedClassesAsXML == null) {
+			this.createDeletedClassesAsXML();
+		}
 		return this.deletedClassesAsXML;	
 		
 	}
 	
+	/**
+	 * set the xml lines for display directly, e.g. when the results are restored from a cache
+	 * without the changed classes they were built from
+	 */
+	public void setClassesWithDifferencesAsXML(ArrayList<String> classesWithDifferencesAsXML){
+		this.classesWithDifferencesAsXML = classesWithDifferencesAsXML;
+	}
+	
+	public void setNewClassesAsXML(ArrayList<String> newClassesAsXML){
+		this.newClassesAsXML = newClassesAsXML;
+	}
+	
+	public void setDeletedClassesAsXML(ArrayList<String> deletedClassesAsXML){
+		this.deletedClassesAsXML = deletedClassesAsXML;
+	}
+	
 	
 	
 	/**set the classes with differences variable
@@ -101,7 +165,8 @@ public class OntologyChangesBean {
 	 */
 	public void setClassesWithDifferences(ArrayList<OWLClassAxiomsInfo> classesWithDifferences) {
 		this.classesWithDifferences = classesWithDifferences;
-		this.createClassChangesAsXML();
+		//the xml lines are built again when next asked for
+		this.classesWithDifferencesAsXML = null;
 	}
 
 	
@@ -112,129 +177,143 @@ public class OntologyChangesBean {
 	public void createClassChangesAsXML(){
 		
 		//add open xml tag for this type of  change
+		this.classesWithDifferencesAsXML = new ArrayList<String>();
 		this.classesWithDifferencesAsXML.add("<changedClasses>");
 		
+		//render the axiom labels of all the classes at once
+		OWLClassAxiomsInfo.renderAxiomLabels(this.classesWithDifferences);
+		
 		//create the classes with difference as strings which is useful for displaying purposes
 		//first loop through each OWLClassAxiomsInfo object which represents a single class and its changes 
-		for(int i=0; i < this.classesWithDifferences.size(); i++){
-			OWLClassAxiomsInfo singleChangedClass = this.classesWithDifferences.get(i);
-			
-			//add open xml tag for this change
-			this.classesWithDifferencesAsXML.add("<changedClass>");
-						
-			//first get the class URI
-			IRI classIRI = singleChangedClass.getIRI();
-			
-			//add class URI
-			String changesIRIXML = ("<classIRI>" + classIRI.toString() + "</classIRI>");
-			//add to list
-			this.classesWithDifferencesAsXML.add(changesIRIXML);
-			
-			//add labels
-			Set<String> classLabels = new HashSet<String>();			
-			classLabels  = singleChangedClass.getLabelsAsString();
-			
-			if(!classLabels.isEmpty() && classLabels != null){
-				Iterator<String> it = classLabels.iterator();
-				while(it.hasNext()){
-					String label = it.next();
-					//strip out any chevrons that owl-api spits out 
-					//when there is only a uri as this breaks the xml
-					label = label.replaceAll("<", "");
-					label = label.replaceAll(">", "");
+		for (OWLClassAxiomsInfo singleChangedClass : this.classesWithDifferences) {
+			addChangedClassAsXML(singleChangedClass, this.classesWithDifferencesAsXML);
+		}
+		
+		//add open xml tag for this type of  change
+		this.classesWithDifferencesAsXML.add("</changedClasses>");
+	}
+
+
+	/**
+	 * format the changes of a single class as xml lines, one element per line
+	 *
+	 * @param singleChangedClass the class to format
+	 * @param xml list the xml lines are added to
+	 */
+	static void addChangedClassAsXML(OWLClassAxiomsInfo singleChangedClass, List<String> xml) {
+		
+		//add open xml tag for this change
+		xml.add("<changedClass>");
+					
+		//first get the class URI
+		IRI classIRI = singleChangedClass.getIRI();
+		
+		//add class URI
+		String changesIRIXML = ("<classIRI>" + classIRI.toString() + "</classIRI>");
+		//add to list
+		xml.add(changesIRIXML);
+		
+		//add labels
+		Set<String> classLabels = new HashSet<String>();			
+		classLabels  = singleChangedClass.getLabelsAsString();
+		
+		if(!classLabels.isEmpty() && classLabels != null){
+			Iterator<String> it = classLabels.iterator();
+			while(it.hasNext()){
+				String label = it.next();
+				//strip out any chevrons that owl-api spits out 
+				//when there is only a uri as this breaks the xml
+				label = label.replaceAll("<", "");
+				label = label.replaceAll(">", "");
 
                     //check the label for any reserved xml characters and replace them with correct encoding
                     String finalLabel = checkForReservedXMLCharacter(label);
 
-					String labelXML = ("<classLabel>" + finalLabel + "</classLabel>");
-					//add to list
-					this.classesWithDifferencesAsXML.add(labelXML);
-				}
+				String labelXML = ("<classLabel>" + finalLabel + "</classLabel>");
+				//add to list
+				xml.add(labelXML);
 			}
-			
-
-		    // add deleted annotations
-		    Set<String> deletedAnnotations = singleChangedClass.getDeletedAnnotations();
-		    if (deletedAnnotations != null) {
-		    	Iterator<String> it = deletedAnnotations.iterator();
-		        while (it.hasNext()) {
-		          String label = it.next();
-		          // strip out any chevrons that owl-api spits out
-		          // when there is only a uri as this breaks the xml
-		          label = label.replaceAll("<", "");
-		          label = label.replaceAll(">", "");
-
-		          // check the label for any reserved xml characters and replace them with correct encoding
-		          String finalLabel = checkForReservedXMLCharacter(label);
-
-		          String annotationXML = ("<deletedAnnotation>" + finalLabel + "</deletedAnnotation>");
-		          this.classesWithDifferencesAsXML.add(annotationXML);
-		        }
-		    }
-
-		    // add new annotations
-		    Set<String> newAnnotations = singleChangedClass.getNewAnnotations();
-		      if (newAnnotations != null) {
-		        Iterator<String> it = newAnnotations.iterator();
-		        while (it.hasNext()) {
-		          String label = it.next();
-		          // strip out any chevrons that owl-api spits out
-		          // when there is only a uri as this breaks the xml
-		          label = label.replaceAll("<", "");
-		          label = label.replaceAll(">", "");
-
-		          // check the label for any reserved xml characters and replace them with correct encoding
-		          String finalLabel = checkForReservedXMLCharacter(label);
-
-		          String annotationXML = ("<newAnnotation>" + finalLabel + "</newAnnotation>");
-		          this.classesWithDifferencesAsXML.add(annotationXML);
-		        }
-		      }
-			
-			//add deleted axioms
-			Set<String> deletedAxioms  = singleChangedClass.getDeletedClassAxiomsAsLabels();
-			if(deletedAxioms != null){
-				Iterator<String> it = deletedAxioms.iterator();
-				while(it.hasNext()){
-					String label = it.next();
-					//strip out any chevrons that owl-api spits out 
-					//when there is only a uri as this breaks the xml
-					label = label.replaceAll("<", "");
-					label = label.replaceAll(">", "");
+		}
+		
+
+	    // add deleted annotations
+	    Set<String> deletedAnnotations = singleChangedClass.getDeletedAnnotations();
+	    if (deletedAnnotations != null) {
+	    	Iterator<String> it = deletedAnnotations.iterator();
+	        while (it.hasNext()) {
+	          String label = it.next();
+	          // strip out any chevrons that owl-api spits out
+	          // when there is only a uri as this breaks the xml
+	          label = label.replaceAll("<", "");
+	          label = label.replaceAll(">", "");
+
+	          // check the label for any reserved xml characters and replace them with correct encoding
+	          String finalLabel = checkForReservedXMLCharacter(label);
+
+	          String annotationXML = ("<deletedAnnotation>" + finalLabel + "</deletedAnnotation>");
+	          xml.add(annotationXML);
+	        }
+	    }
+
+	    // add new annotations
+	    Set<String> newAnnotations = singleChangedClass.getNewAnnotations();
+	      if (newAnnotations != null) {
+	        Iterator<String> it = newAnnotations.iterator();
+	        while (it.hasNext()) {
+	          String label = it.next();
+	          // strip out any chevrons that owl-api spits out
+	          // when there is only a uri as this breaks the xml
+	          label = label.replaceAll("<", "");
+	          label = label.replaceAll(">", "");
+
+	          // check the label for any reserved xml characters and replace them with correct encoding
+	          String finalLabel = checkForReservedXMLCharacter(label);
+
+	          String annotationXML = ("<newAnnotation>" + finalLabel + "</newAnnotation>");
+	          xml.add(annotationXML);
+	        }
+	      }
+		
+		//add deleted axioms
+		Set<String> deletedAxioms  = singleChangedClass.getDeletedClassAxiomsAsLabels();
+		if(deletedAxioms != null){
+			Iterator<String> it = deletedAxioms.iterator();
+			while(it.hasNext()){
+				String label = it.next();
+				//strip out any chevrons that owl-api spits out 
+				//when there is only a uri as this breaks the xml
+				label = label.replaceAll("<", "");
+				label = label.replaceAll(">", "");
 
                     //check the label for any reserved xml characters and replace them with correct encoding
                     String finalLabel = checkForReservedXMLCharacter(label);
-					
-					String axiomXML = ("<deletedAxiom>" + finalLabel + "</deletedAxiom>");
-					this.classesWithDifferencesAsXML.add(axiomXML);
-				}
+				
+				String axiomXML = ("<deletedAxiom>" + finalLabel + "</deletedAxiom>");
+				xml.add(axiomXML);
 			}
-			
-
-			//add new axioms
-			Set<String> newAxioms  = singleChangedClass.getNewClassAxiomsAsLabels();
-			if(newAxioms != null){
-				Iterator<String> it = newAxioms.iterator();
-				while(it.hasNext()){
-					String label = it.next();
-					//strip out any chevrons that owl-api spits out 
-					//when there is only a uri as this breaks the xml
-					label = label.replaceAll("<", "");
-					label = label.replaceAll(">", "");
+		}
+		
+
+		//add new axioms
+		Set<String> newAxioms  = singleChangedClass.getNewClassAxiomsAsLabels();
+		if(newAxioms != null){
+			Iterator<String> it = newAxioms.iterator();
+			while(it.hasNext()){
+				String label = it.next();
+				//strip out any chevrons that owl-api spits out 
+				//when there is only a uri as this breaks the xml
+				label = label.replaceAll("<", "");
+				label = label.replaceAll(">", "");
 
                     //check the label for any reserved xml characters and replace them with correct encoding
                     String finalLabel = checkForReservedXMLCharacter(label);
-									
-					String axiomXML = ("<newAxiom>" + finalLabel + "</newAxiom>");
-					this.classesWithDifferencesAsXML.add(axiomXML);
-				}
-			}		
-			//close xml tag for this change
-			this.classesWithDifferencesAsXML.add("</changedClass>");
-		}//end for loop going through each class
-		
-		//add open xml tag for this type of  change
-		this.classesWithDifferencesAsXML.add("</changedClasses>");
+								
+				String axiomXML = ("<newAxiom>" + finalLabel + "</newAxiom>");
+				xml.add(axiomXML);
+			}
+		}		
+		//close xml tag for this change
+		xml.add("</changedClass>");
 	}
 
     /**
@@ -243,7 +322,7 @@ public class OntologyChangesBean {
      * @param unformattedXml
      * @return formattedXml formatted for xml
      */
-    private String checkForReservedXMLCharacter(String unformattedXml) {
+    private static String checkForReservedXMLCharacter(String unformattedXml) {
         String formattedXml = StringEscapeUtils.escapeXml(unformattedXml);
 
         return formattedXml;
@@ -256,7 +335,7 @@ public class OntologyChangesBean {
 	 */
 	public void setNewClasses(ArrayList<OWLClassAxiomsInfo> newClasses) {
 		this.newClasses = newClasses;
-		this.createNewClassesAsXML();
+		this.newClassesAsXML = null;
 	}
 	
 	
@@ -266,45 +345,62 @@ public class OntologyChangesBean {
 	public void createNewClassesAsXML(){
 		
 		//add open xml tag for this type of change
+		this.newClassesAsXML = new ArrayList<String>();
 		this.newClassesAsXML.add("<newClasses>");
 		
+		OWLClassAxiomsInfo.renderAxiomLabels(this.newClasses);
+		
 		//create the new classes as strings which is useful for displaying purposes
 		//first loop through each OWLClassAxiomsInfo object which represents a single class and its changes 
-		for(int i=0; i < this.newClasses.size(); i++){
-			OWLClassAxiomsInfo singleClass = this.newClasses.get(i);
-			
-			//add open xml tag for this change
-			this.newClassesAsXML.add("<newClass>");
-			
-			//first get the class URI
-			IRI classIRI = singleClass.getIRI();
-			
-			//add class IRI
-			String changesIRIXML = ("<classIRI>" + classIRI.toString() + "</classIRI>");
-			//add to list
-			this.newClassesAsXML.add(changesIRIXML);
-			
-			//add labels
-			Set<String> classLabels = new HashSet<String>();
-			classLabels  = singleClass.getLabelsAsString();
-			if(!classLabels.isEmpty() && classLabels != null){
-				Iterator<String> it = classLabels.iterator();
-				while(it.hasNext()){
-					String label = it.next();
-					//strip out any chevrons that owl-api spits out 
-					//when there is only a uri as this breaks the xml
-					label = label.replaceAll("<", "");
-					label = label.replaceAll(">", "");
-					
-					String labelXML = ("<classLabel>" + label + "</classLabel>");
-					//add to list
-					this.newClassesAsXML.add(labelXML);
-				}
+		for (OWLClassAxiomsInfo singleClass : this.newClasses) {
+			addNewClassAsXML(singleClass, this.newClassesAsXML);
+		}
+		
+		//add closing xml tag for this type of change
+		this.newClassesAsXML.add("</newClasses>");
+	}
+
+
+	/**
+	 * format a single new class as xml lines, one element per line
+	 *
+	 * @param singleClass the class to format
+	 * @param xml list the xml lines are added to
+	 */
+	static void addNewClassAsXML(OWLClassAxiomsInfo singleClass, List<String> xml) {
+		
+		//add open xml tag for this change
+		xml.add("<newClass>");
+		
+		//first get the class URI
+		IRI classIRI = singleClass.getIRI();
+		
+		//add class IRI
+		String changesIRIXML = ("<classIRI>" + classIRI.toString() + "</classIRI>");
+		//add to list
+		xml.add(changesIRIXML);
+		
+		//add labels
+		Set<String> classLabels = new HashSet<String>();
+		classLabels  = singleClass.getLabelsAsString();
+		if(!classLabels.isEmpty() && classLabels != null){
+			Iterator<String> it = classLabels.iterator();
+			while(it.hasNext()){
+				String label = it.next();
+				//strip out any chevrons that owl-api spits out 
+				//when there is only a uri as this breaks the xml
+				label = label.replaceAll("<", "");
+				label = label.replaceAll(">", "");
+				
+				String labelXML = ("<classLabel>" + label + "</classLabel>");
+				//add to list
+				xml.add(labelXML);
 			}
-			
-			
-			
-			//add deleted axioms
+		}
+		
+		
+		
+		//add deleted axioms
 //			Set<String> deletedAxioms  = singleClass.getDeletedClassAxiomsAsLabels();
 //			if(deletedAxioms != null){
 //				Iterator<String> it = deletedAxioms.iterator();
@@ -316,32 +412,28 @@ public class OntologyChangesBean {
 //					label = label.replaceAll(">", "");
 //					
 //					String axiomXML = ("<deletedAxiom>" + label + "</deletedAxiom>");
-//					this.newClassesAsXML.add(axiomXML);
+//					xml.add(axiomXML);
 //				}
 //			}
-			
-
-			//add new axioms
-			Set<String> newAxioms  = singleClass.getNewClassAxiomsAsLabels();
-			if(newAxioms != null){
-				Iterator<String> it = newAxioms.iterator();
-				while(it.hasNext()){
-					String label = it.next();
-					//strip out any chevrons that owl-api spits out 
-					//when there is only a uri as this breaks the xml
-					label = label.replaceAll("<", "");
-					label = label.replaceAll(">", "");
-					
-					String axiomXML = ("<newAxiom>" + label + "</newAxiom>");
-					this.newClassesAsXML.add(axiomXML);
-				}
-			}
-			//close xml tag for this new class
-			this.newClassesAsXML.add("</newClass>");
-		}//end for loop going through each class
 		
-		//add closing xml tag for this type of change
-		this.newClassesAsXML.add("</newClasses>");
+
+		//add new axioms
+		Set<String> newAxioms  = singleClass.getNewClassAxiomsAsLabels();
+		if(newAxioms != null){
+			Iterator<String> it = newAxioms.iterator();
+			while(it.hasNext()){
+				String label = it.next();
+				//strip out any chevrons that owl-api spits out 
+				//when there is only a uri as this breaks the xml
+				label = label.replaceAll("<", "");
+				label = label.replaceAll(">", "");
+				
+				String axiomXML = ("<newAxiom>" + label + "</newAxiom>");
+				xml.add(axiomXML);
+			}
+		}
+		//close xml tag for this new class
+		xml.add("</newClass>");
 	}
 	
 	
@@ -353,7 +445,7 @@ public class OntologyChangesBean {
 	public void setDeletedClasses(
 			ArrayList<OWLClassAxiomsInfo> deletedClasses) {
 		this.deletedClasses = deletedClasses;
-		this.createDeletedClassesAsXML();
+		this.deletedClassesAsXML = null;
 	}
 	
 	
@@ -363,45 +455,61 @@ public class OntologyChangesBean {
 	public void createDeletedClassesAsXML(){
 		
 		//add open xml tag for this type of change
+		this.deletedClassesAsXML = new ArrayList<String>();
 		this.deletedClassesAsXML.add("<deletedClasses>");
 		
+		OWLClassAxiomsInfo.renderAxiomLabels(this.deletedClasses);
+		
 		//create the new classes as strings which is useful for displaying purposes
 		//first loop through each OWLClassAxiomsInfo object which represents a single class and its changes 
-		for(int i=0; i < this.deletedClasses.size(); i++){
-			OWLClassAxiomsInfo singleClass = this.deletedClasses.get(i);
-			
-			//add open xml tag for this change
-			this.deletedClassesAsXML.add("<deletedClass>");
-			
-			//first get the class URI
-			IRI classIRI = singleClass.getIRI();
-			
-			//add class IRI
-			String changesIRIXML = ("<classIRI>" + classIRI.toString() + "</classIRI>");
-			//add to list
-			this.deletedClassesAsXML.add(changesIRIXML);
-			
-			//add labels
-			Set<String> classLabels  = singleClass.getLabelsAsString();
-			if(classLabels != null){
-				Iterator<String> it = classLabels.iterator();
-				while(it.hasNext()){
-					String label = it.next();
-					//strip out any chevrons that owl-api spits out 
-					//when there is only a uri as this breaks the xml
-					label = label.replaceAll("<", "");
-					label = label.replaceAll(">", "");
-					
-			        // check the label for any reserved xml characters and replace them with correct encoding
-			        String finalLabel = checkForReservedXMLCharacter(label);					
-					
-					String labelXML = ("<classLabel>" + finalLabel + "</classLabel>");
-					//add to list
-					this.deletedClassesAsXML.add(labelXML);
-				}
+		for (OWLClassAxiomsInfo singleClass : this.deletedClasses) {
+			addDeletedClassAsXML(singleClass, this.deletedClassesAsXML);
+		}
+		//add open xml tag for this type of change
+		this.deletedClassesAsXML.add("</deletedClasses>");
+	}
+
+
+	/**
+	 * format a single deleted class as xml lines, one element per line
+	 *
+	 * @param singleClass the class to format
+	 * @param xml list the xml lines are added to
+	 */
+	static void addDeletedClassAsXML(OWLClassAxiomsInfo singleClass, List<String> xml) {
+		
+		//add open xml tag for this change
+		xml.add("<deletedClass>");
+		
+		//first get the class URI
+		IRI classIRI = singleClass.getIRI();
+		
+		//add class IRI
+		String changesIRIXML = ("<classIRI>" + classIRI.toString() + "</classIRI>");
+		//add to list
+		xml.add(changesIRIXML);
+		
+		//add labels
+		Set<String> classLabels  = singleClass.getLabelsAsString();
+		if(classLabels != null){
+			Iterator<String> it = classLabels.iterator();
+			while(it.hasNext()){
+				String label = it.next();
+				//strip out any chevrons that owl-api spits out 
+				//when there is only a uri as this breaks the xml
+				label = label.replaceAll("<", "");
+				label = label.replaceAll(">", "");
+				
+		        // check the label for any reserved xml characters and replace them with correct encoding
+		        String finalLabel = checkForReservedXMLCharacter(label);					
+				
+				String labelXML = ("<classLabel>" + finalLabel + "</classLabel>");
+				//add to list
+				xml.add(labelXML);
 			}
-			
-			//add deleted axioms
+		}
+		
+		//add deleted axioms
 //			Set<String> deletedAxioms  = singleClass.getDeletedClassAxiomsAsLabels();
 //			if(deletedAxioms != null){
 //				Iterator<String> it = deletedAxioms.iterator();
@@ -413,36 +521,32 @@ public class OntologyChangesBean {
 //					label = label.replaceAll(">", "");
 //					
 //					String axiomXML = ("<deletedAxiom>" + label + "</deletedAxiom>");
-//					this.deletedClassesAsXML.add(axiomXML);
+//					xml.add(axiomXML);
 //				}
 //			}
-			
-
-			//add new axioms
-			Set<String> newAxioms  = singleClass.getNewClassAxiomsAsLabels();
-			if(newAxioms != null){
-				Iterator<String> it = newAxioms.iterator();
-				while(it.hasNext()){
-					String label = it.next();
-					//strip out any chevrons that owl-api spits out 
-					//when there is only a uri as this breaks the xml
-					label = label.replaceAll("<", "");
-					label = label.replaceAll(">", "");
-					
-					// check the label for any reserved xml characters and replace them with correct encoding
-			        String finalLabel = checkForReservedXMLCharacter(label);
-					
-			        // new axioms in onto2 are deleted ones in onto1
-					String axiomXML = ("<deletedAxiom>" + finalLabel + "</deletedAxiom>");
-					this.deletedClassesAsXML.add(axiomXML);
-				}
+		
+
+		//add new axioms
+		Set<String> newAxioms  = singleClass.getNewClassAxiomsAsLabels();
+		if(newAxioms != null){
+			Iterator<String> it = newAxioms.iterator();
+			while(it.hasNext()){
+				String label = it.next();
+				//strip out any chevrons that owl-api spits out 
+				//when there is only a uri as this breaks the xml
+				label = label.replaceAll("<", "");
+				label = label.replaceAll(">", "");
+				
+				// check the label for any reserved xml characters and replace them with correct encoding
+		        String finalLabel = checkForReservedXMLCharacter(label);
+				
+		        // new axioms in onto2 are deleted ones in onto1
+				String axiomXML = ("<deletedAxiom>" + finalLabel + "</deletedAxiom>");
+				xml.add(axiomXML);
 			}
-			//close xml tag for this change
-			this.deletedClassesAsXML.add("</deletedClass>");
-			
-		}//end for loop going through each class
-		//add open xml tag for this type of change
-		this.deletedClassesAsXML.add("</deletedClasses>");
+		}
+		//close xml tag for this change
+		xml.add("</deletedClass>");
 	}
 	
 	
@@ -507,5 +611,23 @@ public class OntologyChangesBean {
 		return errorCause;
 	}
 
+
+	/**
+	 * @param resultsKey - key under which the web application keeps these results, so that
+	 * the results page can fetch their classes a page at a time
+	 */
+	public void setResultsKey(String resultsKey) {
+		this.resultsKey = resultsKey;
+	}
+
+
+	/**
+	 * @return key under which the web application keeps these results, or null if it does not
+	 * keep them
+	 */
+	public String getResultsKey() {
+		return resultsKey;
+	}
+
 	
 }
@@ -1,8 +1,13 @@
 package uk.ac.ebi.efo.bubastis;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -13,11 +18,28 @@ import java.util.*;
  * Date: 28/11/13
  * Time: 12:07
  * To change this template use File | Settings | File Templates.
+ * <p/>
+ * Writes the diff results as plain text. Either write a finished OntologyChangesBean with
+ * writeDiffToFile, or register an OntologyFileWriter created with a file path as a
+ * DiffListener to write each class as it is found.
  */
-public class OntologyFileWriter {
+public class OntologyFileWriter implements DiffListener {
+
+    private static final String CHANGED_CLASSES_HEADER = "@Classes modified from previous";
+    private static final String NEW_CLASSES_HEADER = "@Classes new to this version";
+    private static final String DELETED_CLASSES_HEADER = "@Classes deleted from this version";
 
     String filePath;
 
+    //state when streaming as a DiffListener
+    private File bodyFile;
+    private Writer body;
+    private String currentHeader;
+    private int newAxiomCount;
+    private int deletedAxiomCount;
+    private int newAnnotationCount;
+    private int deletedAnnotationCount;
+
 
     //default constructor
     public OntologyFileWriter() {
@@ -25,12 +47,118 @@ public class OntologyFileWriter {
     }
 
 
-    //constructor
+    //constructor, needed when used as a DiffListener
     public OntologyFileWriter(String filePath) {
         this.filePath = filePath;
     }
 
 
+    /**
+     * The header holds the number of changes, which are only known at the end, so the classes
+     * are written to a temporary file next to the output file first and copied in after the header.
+     */
+    @Override
+    public void onStart(OntologyChangesBean changeBean) {
+        try {
+            File file = new File(filePath).getAbsoluteFile();
+            this.bodyFile = File.createTempFile(file.getName(), ".part", file.getParentFile());
+            this.body = new BufferedWriter(new FileWriter(bodyFile, false));
+            this.currentHeader = null;
+            this.newAxiomCount = 0;
+            this.deletedAxiomCount = 0;
+            this.newAnnotationCount = 0;
+            this.deletedAnnotationCount = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start writing the diff as text to " + filePath, e);
+        }
+    }
+
+
+    @Override
+    public void onChangedClass(OWLClassAxiomsInfo changedClass) {
+        newAnnotationCount += sizeOf(changedClass.getNewRawAnnotations());
+        deletedAnnotationCount += sizeOf(changedClass.getDeletedRawAnnotations());
+        newAxiomCount += changedClass.getNumNewAxioms();
+        deletedAxiomCount += changedClass.getNumDeletedAxioms();
+        writeToSection(CHANGED_CLASSES_HEADER, changedClass);
+    }
+
+
+    @Override
+    public void onNewClass(OWLClassAxiomsInfo newClass) {
+        writeToSection(NEW_CLASSES_HEADER, newClass);
+    }
+
+
+    @Override
+    public void onDeletedClass(OWLClassAxiomsInfo deletedClass) {
+        writeToSection(DELETED_CLASSES_HEADER, deletedClass);
+    }
+
+
+    @Override
+    public void onComplete(OntologyChangesBean changeBean) {
+        try {
+            this.body.close();
+
+            Writer fstream = new BufferedWriter(new FileWriter(new File(filePath), false));
+            try {
+                this.writeHeader(fstream, changeBean, newAxiomCount, deletedAxiomCount, newAnnotationCount, deletedAnnotationCount);
+                try (Reader bodyReader = new FileReader(bodyFile)) {
+                    char[] buffer = new char[8192];
+                    int read;
+                    while ((read = bodyReader.read(buffer)) != -1) {
+                        fstream.write(buffer, 0, read);
+                    }
+                }
+            } finally {
+                fstream.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the diff as text to " + filePath, e);
+        } finally {
+            bodyFile.delete();
+        }
+    }
+
+
+    /**
+     * the output file is not written, only the temporary file of the classes is closed and deleted
+     */
+    @Override
+    public void onError(Throwable error) {
+        if (bodyFile == null) {
+            return;
+        }
+        try {
+            if (this.body != null) {
+                this.body.close();
+            }
+        } catch (IOException e) {
+            error.addSuppressed(e);
+        }
+        bodyFile.delete();
+    }
+
+
+    private void writeToSection(String header, OWLClassAxiomsInfo classChangeInfo) {
+        try {
+            if (!header.equals(currentHeader)) {
+                this.body.write("\n" + "################" + "\n" + header + "\n\n");
+                currentHeader = header;
+            }
+            this.writeClassToFile(this.body, classChangeInfo);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the diff as text to " + filePath, e);
+        }
+    }
+
+
+    private static int sizeOf(Set<?> set) {
+        return set == null ? 0 : set.size();
+    }
+
+
     public void writeDiffToFile(String filePath, OntologyChangesBean changeBean) throws IOException {
 
 
@@ -43,15 +171,15 @@ public class OntologyFileWriter {
 
         //write changed classes as xml
         ArrayList<OWLClassAxiomsInfo> changedClasses = changeBean.getClassesWithDifferences();
-        this.writeListToFile(fstream, changedClasses, "@Classes modified from previous");
+        this.writeListToFile(fstream, changedClasses, CHANGED_CLASSES_HEADER);
 
         //write new classes as xml
         ArrayList<OWLClassAxiomsInfo> newClasses = changeBean.getNewClasses();
-        this.writeListToFile(fstream, newClasses, "@Classes new to this version");
+        this.writeListToFile(fstream, newClasses, NEW_CLASSES_HEADER);
 
         //write deleted classes as xml
         ArrayList<OWLClassAxiomsInfo> deletedClasses = changeBean.getDeletedClasses();
-        this.writeListToFile(fstream, deletedClasses, "@Classes deleted from this version");
+        this.writeListToFile(fstream, deletedClasses, DELETED_CLASSES_HEADER);
 
         //Close the output stream
         fstream.close();
@@ -64,41 +192,68 @@ public class OntologyFileWriter {
         if (!classesWithDifferences.isEmpty()) {
             fstream.write("\n" + "################" + "\n" + header + "\n\n");
 
+            //render the axiom labels of the whole list at once
+            OWLClassAxiomsInfo.renderAxiomLabels(classesWithDifferences);
+
             //iterate through and display to screen
             Iterator<OWLClassAxiomsInfo> i = classesWithDifferences.iterator();
             while (i.hasNext()) {
                 OWLClassAxiomsInfo classChangeInfo = i.next();
+                this.writeClassToFile(fstream, classChangeInfo);
+            }
+        }
 
-                fstream.write("Class: " + classChangeInfo.getIRI().toString() + "\n");
-                fstream.write("Label(s): ");
-                Set<String> labels = classChangeInfo.getLabelsAsString();
-                for (String label : labels) {
-                    fstream.write(label + " ");
 
-                }
-                fstream.write("\n");
+    }
 
-                if (classChangeInfo.getDeletedClassAxiomsAsLabels() != null) {
-                    for (String axiom : classChangeInfo.getDeletedClassAxiomsAsLabels()) {
-                        fstream.write("- " + axiom + "\n");
-                    }
-                }
-                if (classChangeInfo.getNewClassAxiomsAsLabels() != null){
-                    for (String axiom : classChangeInfo.getNewClassAxiomsAsLabels()) {
-                        fstream.write("+ " + axiom + "\n");
-                    }
-                }
 
-                fstream.write("\n");
-            }
+    private void writeClassToFile(Writer fstream, OWLClassAxiomsInfo classChangeInfo) throws IOException {
+
+        fstream.write("Class: " + classChangeInfo.getIRI().toString() + "\n");
+        fstream.write("Label(s): ");
+        Set<String> labels = classChangeInfo.getLabelsAsString();
+        for (String label : labels) {
+            fstream.write(label + " ");
+
         }
+        fstream.write("\n");
 
+        if (classChangeInfo.getDeletedClassAxiomsAsLabels() != null) {
+            for (String axiom : classChangeInfo.getDeletedClassAxiomsAsLabels()) {
+                fstream.write("- " + axiom + "\n");
+            }
+        }
+        if (classChangeInfo.getNewClassAxiomsAsLabels() != null){
+            for (String axiom : classChangeInfo.getNewClassAxiomsAsLabels()) {
+                fstream.write("+ " + axiom + "\n");
+            }
+        }
 
+        fstream.write("\n");
     }
 
 
     public void writeHeader(FileWriter fs, OntologyChangesBean changeBean) throws IOException {
 
+        int newAxiomCount = 0;
+        int deletedAxiomCount = 0;
+        int newAnnotationCount = 0;
+        int deletedAnnotationCount = 0;
+        
+        for (OWLClassAxiomsInfo classInfo : changeBean.getClassesWithDifferences()) {
+            newAnnotationCount += Optional.ofNullable(classInfo.getNewRawAnnotations()).orElse(Collections.emptySet()).size();
+            deletedAnnotationCount += Optional.ofNullable(classInfo.getDeletedRawAnnotations()).orElse(Collections.emptySet()).size();
+            newAxiomCount += classInfo.getNumNewAxioms();
+            deletedAxiomCount += classInfo.getNumDeletedAxioms();
+        }
+
+        this.writeHeader(fs, changeBean, newAxiomCount, deletedAxiomCount, newAnnotationCount, deletedAnnotationCount);
+    }
+
+
+    private void writeHeader(Writer fs, OntologyChangesBean changeBean, int newAxiomCount, int deletedAxiomCount,
+                             int newAnnotationCount, int deletedAnnotationCount) throws IOException {
+
         DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
         Date date = new Date();
 
@@ -111,18 +266,6 @@ public class OntologyFileWriter {
         fs.write("Number of classes added: " + changeBean.getNumNewClasses() + "\n");
         fs.write("Number of classes deleted: " + changeBean.getNumDeletedClasses() + "\n \n");
         
-        int newAxiomCount = 0;
-        int deletedAxiomCount = 0;
-        int newAnnotationCount = 0;
-        int deletedAnnotationCount = 0;
-        
-        for (OWLClassAxiomsInfo classInfo : changeBean.getClassesWithDifferences()) {
-            newAnnotationCount += Optional.ofNullable(classInfo.getNewRawAnnotations()).orElse(Collections.emptySet()).size();
-            deletedAnnotationCount += Optional.ofNullable(classInfo.getDeletedRawAnnotations()).orElse(Collections.emptySet()).size();
-            newAxiomCount += Optional.ofNullable(classInfo.getNewAxioms()).orElse(Collections.emptySet()).size();
-            deletedAxiomCount += Optional.ofNullable(classInfo.getDeletedAxioms()).orElse(Collections.emptySet()).size();
-        }
-        
         fs.write("Number of class axioms added: " + newAxiomCount + "\n \n");
         fs.write("Number of class axioms deleted: " + deletedAxiomCount + "\n \n");
         fs.write("Number of annotations added: " + newAnnotationCount + "\n \n");
@@ -0,0 +1,336 @@
+package uk.ac.ebi.efo.bubastis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+
+/**
+ * 128 bit fingerprints of the classes of an ontology. Each class gets one hash over the
+ * axioms returned by OWLOntology.getAxioms(OWLClass) and one over the values of the compared
+ * annotation properties, and the ontology gets a root hash over all of its classes. Two
+ * classes with the same fingerprint have the same axioms (or annotations), so CompareOntologies
+ * only needs to work out the actual differences where the fingerprints differ, and two
+ * ontologies with the same root hash have no differences at all.
+ * <p/>
+ * Fingerprints can be saved to a file and loaded again so that the fingerprints of a release
+ * are only calculated once. They hold the content hash of the document they were calculated
+ * from, see ContentHash, and are only used again for a document with the same hash.
+ */
+public class OntologyFingerprints {
+
+    private static final int FILE_MAGIC = 0x42554246;
+    private static final int FILE_VERSION = 2;
+
+    //per class: axiom hash high and low bits, annotation hash high and low bits
+    private final Map<IRI, long[]> classFingerprints;
+    private final List<IRI> annotationPropertyIRIs;
+    private final long rootHigh;
+    private final long rootLow;
+    //used to notice when saved fingerprints do not belong to the ontology they are used with
+    private final String ontologyIRI;
+    private final String versionIRI;
+    private final int axiomCount;
+    //content hash of the document, empty if it is not known
+    private final String contentHash;
+
+
+    private OntologyFingerprints(Map<IRI, long[]> classFingerprints, List<IRI> annotationPropertyIRIs,
+                                 long rootHigh, long rootLow, String ontologyIRI, String versionIRI, int axiomCount,
+                                 String contentHash) {
+        this.classFingerprints = classFingerprints;
+        this.annotationPropertyIRIs = annotationPropertyIRIs;
+        this.rootHigh = rootHigh;
+        this.rootLow = rootLow;
+        this.ontologyIRI = ontologyIRI;
+        this.versionIRI = versionIRI;
+        this.axiomCount = axiomCount;
+        this.contentHash = contentHash;
+    }
+
+
+    /**
+     * calculate the fingerprints of all classes in the signature of an ontology
+     *
+     * @param ontology               - ontology to fingerprint
+     * @param annotationPropertyIRIs - annotation properties whose values are part of the fingerprints
+     */
+    public static OntologyFingerprints compute(OWLOntology ontology, List<IRI> annotationPropertyIRIs) {
+        return compute(ontology, annotationPropertyIRIs, new AnnotationIndex(ontology, annotationPropertyIRIs));
+    }
+
+
+    /**
+     * calculate the fingerprints of all classes in the signature of an ontology
+     *
+     * @param ontology               - ontology to fingerprint
+     * @param annotationPropertyIRIs - annotation properties whose values are part of the fingerprints
+     * @param annotationIndex        - annotations of the ontology, covering at least annotationPropertyIRIs
+     */
+    public static OntologyFingerprints compute(OWLOntology ontology, List<IRI> annotationPropertyIRIs,
+                                               AnnotationIndex annotationIndex) {
+        return compute(ontology, annotationPropertyIRIs, annotationIndex, null);
+    }
+
+
+    /**
+     * calculate the fingerprints of all classes in the signature of an ontology
+     *
+     * @param ontology               - ontology to fingerprint
+     * @param annotationPropertyIRIs - annotation properties whose values are part of the fingerprints
+     * @param annotationIndex        - annotations of the ontology, covering at least annotationPropertyIRIs
+     * @param contentHash            - content hash of the document the ontology was loaded from, or
+     *                               null if it is not known, the fingerprints are then never used again
+     */
+    public static OntologyFingerprints compute(OWLOntology ontology, List<IRI> annotationPropertyIRIs,
+                                               AnnotationIndex annotationIndex, String contentHash) {
+        MessageDigest digest = createDigest();
+
+        Map<IRI, long[]> classFingerprints = new HashMap<IRI, long[]>();
+        for (OWLClass owlClass : ontology.getClassesInSignature()) {
+            long[] fingerprint = new long[4];
+
+            //sum the hashes of the members so the order of the set does not matter
+            for (OWLClassAxiom axiom : ontology.getAxioms(owlClass)) {
+                addHash(digest, axiom.toString(), fingerprint, 0);
+            }
+
+            for (OWLAnnotation annotation : annotationIndex.getAnnotations(owlClass.getIRI(), annotationPropertyIRIs)) {
+                addHash(digest, annotation.toString(), fingerprint, 2);
+            }
+
+            classFingerprints.put(owlClass.getIRI(), fingerprint);
+        }
+
+        long[] root = rootHash(digest, classFingerprints);
+        return new OntologyFingerprints(classFingerprints, new ArrayList<IRI>(annotationPropertyIRIs), root[0], root[1],
+                ontologyIRIOf(ontology), versionIRIOf(ontology), ontology.getAxiomCount(),
+                contentHash == null ? "" : contentHash);
+    }
+
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+
+    private static void addHash(MessageDigest digest, String rendering, long[] fingerprint, int offset) {
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest(rendering.getBytes(StandardCharsets.UTF_8)));
+        fingerprint[offset] += hash.getLong();
+        fingerprint[offset + 1] += hash.getLong();
+    }
+
+
+    /**
+     * hash the class IRIs in sorted order together with their fingerprints, so any added,
+     * removed or changed class changes the root hash
+     */
+    private static long[] rootHash(MessageDigest digest, Map<IRI, long[]> classFingerprints) {
+        List<IRI> classIRIs = new ArrayList<IRI>(classFingerprints.keySet());
+        Collections.sort(classIRIs);
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        for (IRI classIRI : classIRIs) {
+            digest.update(classIRI.toString().getBytes(StandardCharsets.UTF_8));
+            buffer.clear();
+            for (long value : classFingerprints.get(classIRI)) {
+                buffer.putLong(value);
+            }
+            digest.update(buffer.array());
+        }
+        ByteBuffer root = ByteBuffer.wrap(digest.digest());
+        return new long[]{root.getLong(), root.getLong()};
+    }
+
+
+    private static String ontologyIRIOf(OWLOntology ontology) {
+        return ontology.getOntologyID().getOntologyIRI().isPresent()
+                ? ontology.getOntologyID().getOntologyIRI().get().toString() : "";
+    }
+
+
+    private static String versionIRIOf(OWLOntology ontology) {
+        return ontology.getOntologyID().getVersionIRI().isPresent()
+                ? ontology.getOntologyID().getVersionIRI().get().toString() : "";
+    }
+
+
+    /**
+     * @return true if both ontologies have the same classes with the same fingerprints
+     */
+    public boolean rootMatches(OntologyFingerprints other) {
+        return rootHigh == other.rootHigh && rootLow == other.rootLow;
+    }
+
+
+    /**
+     * @return true if the class has the same axioms in both fingerprinted ontologies
+     */
+    public boolean axiomsMatch(IRI classIRI, OntologyFingerprints other) {
+        return partMatches(classIRI, other, 0);
+    }
+
+
+    /**
+     * @return true if the class has the same annotation values in both fingerprinted ontologies
+     */
+    public boolean annotationsMatch(IRI classIRI, OntologyFingerprints other) {
+        return partMatches(classIRI, other, 2);
+    }
+
+
+    private boolean partMatches(IRI classIRI, OntologyFingerprints other, int offset) {
+        long[] fingerprint = classFingerprints.get(classIRI);
+        long[] otherFingerprint = other.classFingerprints.get(classIRI);
+        if (fingerprint == null || otherFingerprint == null) {
+            return false;
+        }
+        return fingerprint[offset] == otherFingerprint[offset] && fingerprint[offset + 1] == otherFingerprint[offset + 1];
+    }
+
+
+    /**
+     * Check whether these fingerprints can be used for the given ontology: they must have been
+     * calculated from a document with the given content hash, cover the same annotation
+     * properties, and the ontology IRI, version IRI and number of axioms must be the same as
+     * when they were calculated. Fingerprints without a content hash are never used again, an
+     * edit that keeps the size of an ontology would go unnoticed otherwise.
+     *
+     * @param ontology               - ontology the fingerprints are going to be used with
+     * @param annotationPropertyIRIs - annotation properties that are going to be compared
+     * @param contentHash            - content hash of the document the ontology was loaded from, or null if it is not known
+     */
+    public boolean isCompatible(OWLOntology ontology, List<IRI> annotationPropertyIRIs, String contentHash) {
+        return contentHash != null && !this.contentHash.isEmpty() && this.contentHash.equals(contentHash)
+                && coversAnnotationProperties(annotationPropertyIRIs)
+                && ontologyIRI.equals(ontologyIRIOf(ontology))
+                && versionIRI.equals(versionIRIOf(ontology))
+                && axiomCount == ontology.getAxiomCount();
+    }
+
+
+    /**
+     * @return true if the fingerprints cover the given annotation properties, in any order
+     */
+    public boolean coversAnnotationProperties(List<IRI> annotationPropertyIRIs) {
+        return new HashSet<IRI>(this.annotationPropertyIRIs).equals(new HashSet<IRI>(annotationPropertyIRIs));
+    }
+
+
+    /**
+     * @return content hash of the document the fingerprints were calculated from, empty if it is not known
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+
+    /**
+     * @return the root hash as 32 hex digits
+     */
+    public String getRootHash() {
+        return String.format("%016x%016x", rootHigh, rootLow);
+    }
+
+
+    public int getNumberOfClasses() {
+        return classFingerprints.size();
+    }
+
+
+    /**
+     * write the fingerprints to a file so they can be loaded again with load
+     *
+     * @param file - file to write to, overwritten if it exists
+     */
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(ontologyIRI);
+            out.writeUTF(versionIRI);
+            out.writeInt(axiomCount);
+            out.writeUTF(contentHash);
+            out.writeInt(annotationPropertyIRIs.size());
+            for (IRI propertyIRI : annotationPropertyIRIs) {
+                out.writeUTF(propertyIRI.toString());
+            }
+            out.writeLong(rootHigh);
+            out.writeLong(rootLow);
+            out.writeInt(classFingerprints.size());
+            for (Map.Entry<IRI, long[]> entry : classFingerprints.entrySet()) {
+                out.writeUTF(entry.getKey().toString());
+                for (long value : entry.getValue()) {
+                    out.writeLong(value);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * read fingerprints previously written with save
+     *
+     * @param file - fingerprint file
+     */
+    public static OntologyFingerprints load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException(file + " is not a bubastis fingerprint file");
+            }
+            int version = in.readInt();
+            if (version < 1 || version > FILE_VERSION) {
+                throw new IOException(file + " is not a bubastis fingerprint file");
+            }
+            String ontologyIRI = in.readUTF();
+            String versionIRI = in.readUTF();
+            int axiomCount = in.readInt();
+            //files of version 1 have no content hash, their fingerprints are calculated again
+            String contentHash = version >= 2 ? in.readUTF() : "";
+            int numberOfProperties = in.readInt();
+            List<IRI> annotationPropertyIRIs = new ArrayList<IRI>(numberOfProperties);
+            for (int i = 0; i < numberOfProperties; i++) {
+                annotationPropertyIRIs.add(IRI.create(in.readUTF()));
+            }
+            long rootHigh = in.readLong();
+            long rootLow = in.readLong();
+            int numberOfClasses = in.readInt();
+            Map<IRI, long[]> classFingerprints = new HashMap<IRI, long[]>(numberOfClasses * 2);
+            for (int i = 0; i < numberOfClasses; i++) {
+                IRI classIRI = IRI.create(in.readUTF());
+                long[] fingerprint = new long[4];
+                for (int j = 0; j < fingerprint.length; j++) {
+                    fingerprint[j] = in.readLong();
+                }
+                classFingerprints.put(classIRI, fingerprint);
+            }
+            return new OntologyFingerprints(classFingerprints, annotationPropertyIRIs, rootHigh, rootLow,
+                    ontologyIRI, versionIRI, axiomCount, contentHash);
+        }
+    }
+
+}
@@ -8,10 +8,11 @@ package uk.ac.ebi.efo.bubastis;
 
 
 
-import org.semanticweb.owlapi.search.EntitySearcher;
+import org.semanticweb.owlapi.io.OWLOntologyCreationIOException;
 import org.semanticweb.owlapi.model.*;
 
-import java.util.HashSet;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Set;
 
 
@@ -20,6 +21,7 @@ public class OntologyLoader {
 	//class fields--------------------------------------------------
 	private OWLOntologyManager manager;
 	private IRI physicalIRI;
+	private OntologySnapshotCache snapshotCache;
 	
 	//constructor method-------------------------------------------
     public OntologyLoader(OWLOntologyManager manager, IRI loadIRI){
@@ -27,10 +29,30 @@ public class OntologyLoader {
         this.physicalIRI = loadIRI;
     }
 
+    /**
+     * constructor for loading through a snapshot cache, the document is then fetched and
+     * hashed first and only parsed if the cache has no snapshot of it
+     *
+     * @param snapshotCache - cache to load through, or null to load the IRI directly
+     */
+    public OntologyLoader(OWLOntologyManager manager, IRI loadIRI, OntologySnapshotCache snapshotCache){
+        this(manager, loadIRI);
+        this.snapshotCache = snapshotCache;
+    }
+
     public OWLOntology loadOntology () throws OWLOntologyCreationException{
         //Now ask the manager to load the ontology
         System.out.println("physical IRI " + this.physicalIRI);
-        OWLOntology ontology = this.manager.loadOntology(this.physicalIRI);
+        OWLOntology ontology;
+        if (this.snapshotCache == null) {
+            ontology = this.manager.loadOntology(this.physicalIRI);
+        } else {
+            try (FetchedDocument document = FetchedDocument.fetch(this.physicalIRI.toString())) {
+                ontology = this.snapshotCache.load(this.manager, document);
+            } catch (IOException e) {
+                throw new OWLOntologyCreationIOException(e);
+            }
+        }
 
         //       loadOntologyFromOntologyDocument(this.physicalIRI);
         System.out.println("loaded ontology 1 in loader ");
@@ -41,16 +63,13 @@ public class OntologyLoader {
 	//Method to print out to console all of the classes which are referenced in the ontology
 	public void printAllClassNames(OWLOntology ontology){
 		int i = 0; 
+		//index the labels once rather than searching the annotations of every class
+		AnnotationIndex annotationIndex = new AnnotationIndex(ontology, Collections.singleton(CompareOntologies.CODE_IRI));
 		for(OWLClass cls : ontology.getClassesInSignature()) {
 			System.out.println("Class Name: " + cls);
 			
-			//print out rdfs label for the class too
-			//Firstly, create data factory from the manager then get the IRI for rdfs:label 
-			OWLDataFactory df = this.manager.getOWLDataFactory(); 
-			OWLAnnotationProperty label = df.getOWLAnnotationProperty(CompareOntologies.CODE_IRI);
-			
-			//now get all annotations that are rdfs:labels on the class
-			for(OWLAnnotation annotation : new HashSet<>(EntitySearcher.getAnnotations(cls,ontology,label))) {
+			//print out the labels for the class too
+			for(OWLAnnotation annotation : annotationIndex.getAnnotations(cls.getIRI(), CompareOntologies.CODE_IRI)) {
 				OWLLiteral val = (OWLLiteral) annotation.getValue();
 				System.out.println(val.getLiteral());
 			}
@@ -72,17 +91,12 @@ public class OntologyLoader {
 	 */
 	public void checkAnnotationProperty(OWLOntology ontology, IRI propertyType){
 			
+		AnnotationIndex annotationIndex = new AnnotationIndex(ontology, Collections.singleton(propertyType));
 		//for every class that exists in the ontology
 		for(OWLClass cls : ontology.getClassesInSignature()) {
-			
-			//print out rdfs label for the class too
-			//Firstly, create data factory from the manager then get the IRI for rdfs:label 
-			OWLDataFactory df = this.manager.getOWLDataFactory(); 
-			OWLAnnotationProperty property = df.getOWLAnnotationProperty(propertyType); 
-		
 
 			//try to get property for the class
-			Set<OWLAnnotation> annot = new HashSet<>(EntitySearcher.getAnnotations(cls,ontology,property));;
+			Set<OWLAnnotation> annot = annotationIndex.getAnnotations(cls.getIRI(), propertyType);
 			//if the class does not have this property display warning
 			if(annot.size() == 0){		
 				System.out.println("Warning: class '" + cls + "' has no property type " + propertyType);
@@ -0,0 +1,261 @@
+package uk.ac.ebi.efo.bubastis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.formats.FunctionalSyntaxDocumentFormat;
+import org.semanticweb.owlapi.io.FileDocumentSource;
+import org.semanticweb.owlapi.io.OWLOntologyDocumentSource;
+import org.semanticweb.owlapi.io.StreamDocumentSource;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.OWLOntologyStorageException;
+import org.semanticweb.owlapi.model.OWLRuntimeException;
+import org.semanticweb.owlapi.model.SetOntologyID;
+
+import com.google.common.base.Optional;
+
+
+/**
+ * A directory of snapshots of parsed ontologies, keyed by the content hash of the document
+ * they were parsed from. A snapshot holds only what a diff reads: a versioned header with the
+ * ontology and version IRI, followed by a declaration of every class in the signature, the
+ * class axioms and the annotation assertions in OWL functional syntax. Loading a document
+ * whose snapshot exists rebuilds the ontology from the snapshot instead of parsing the whole
+ * document, which for a large release that is compared again and again, e.g. against each new
+ * release, saves most of the load time. Imports are not loaded. A snapshot holds no Java
+ * objects, so a damaged or foreign file in the directory is at worst parsed as a document.
+ * <p/>
+ * A rebuilt ontology has fewer axioms than the parsed one, so saved OntologyFingerprints of
+ * the parsed ontology do not match it and are calculated again.
+ * <p/>
+ * The cache is bounded by size: after a snapshot is written the least recently used
+ * snapshots are deleted until the directory is within the limit.
+ */
+public class OntologySnapshotCache {
+
+    public static final long DEFAULT_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+
+    private static final String SUFFIX = ".snapshot";
+    private static final int FILE_MAGIC = 0x42425353;
+    //increase when the content of a snapshot changes, older snapshots are then parsed again
+    private static final int FILE_VERSION = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final long maxBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     * @param directory - directory holding the snapshots, created if missing
+     * @param maxBytes  - total size the snapshots may take up
+     */
+    public OntologySnapshotCache(File directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory.toPath());
+    }
+
+
+    /**
+     * load an ontology from a file, from its snapshot if there is one
+     *
+     * @param manager - manager to create the ontology in
+     * @param file    - ontology document
+     */
+    public OWLOntology load(OWLOntologyManager manager, File file) throws OWLOntologyCreationException, IOException {
+        return load(manager, file, null);
+    }
+
+
+    /**
+     * load an ontology from a file whose content hash may already be known, from its snapshot
+     * if there is one
+     *
+     * @param manager     - manager to create the ontology in
+     * @param file        - ontology document
+     * @param contentHash - hash of the file, or null to hash it now
+     */
+    public OWLOntology load(OWLOntologyManager manager, File file, String contentHash) throws OWLOntologyCreationException, IOException {
+        return load(manager, contentHash == null ? ContentHash.of(file) : contentHash, new FileDocumentSource(file));
+    }
+
+
+    /**
+     * load an ontology from a fetched document, from its snapshot if there is one
+     *
+     * @param manager  - manager to create the ontology in
+     * @param document - document fetched from a URL
+     */
+    public OWLOntology load(OWLOntologyManager manager, FetchedDocument document) throws OWLOntologyCreationException, IOException {
+        return load(manager, document.getContentHash(), document.getDocumentSource());
+    }
+
+
+    private OWLOntology load(OWLOntologyManager manager, String contentHash, OWLOntologyDocumentSource source)
+            throws OWLOntologyCreationException, IOException {
+        File snapshot = new File(directory, contentHash + SUFFIX);
+        if (snapshot.isFile()) {
+            try {
+                OWLOntology ontology = read(manager, snapshot, source.getDocumentIRI());
+                //the modification time orders the snapshots for eviction
+                snapshot.setLastModified(System.currentTimeMillis());
+                hits.incrementAndGet();
+                return ontology;
+            } catch (IOException | OWLOntologyCreationException | OWLRuntimeException e) {
+                //written by another version or damaged, parse the document and write it again
+                System.out.println("Could not read snapshot " + snapshot + ", parsing the document");
+                Files.deleteIfExists(snapshot.toPath());
+            }
+        }
+
+        misses.incrementAndGet();
+        OWLOntology ontology = manager.loadOntologyFromOntologyDocument(source);
+        write(ontology, snapshot);
+        evict(snapshot);
+        return ontology;
+    }
+
+
+    private static OWLOntology read(OWLOntologyManager manager, File snapshot, IRI documentIRI)
+            throws IOException, OWLOntologyCreationException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(snapshot.toPath()), BUFFER_SIZE))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException(snapshot + " is not a bubastis snapshot of this version");
+            }
+            OWLOntologyID ontologyID = new OWLOntologyID(optionalIRI(in.readUTF()), optionalIRI(in.readUTF()));
+
+            //the axioms are parsed by the manager, so with its data factory, interning or not
+            OWLOntology ontology = manager.loadOntologyFromOntologyDocument(
+                    new StreamDocumentSource(in, documentIRI, new FunctionalSyntaxDocumentFormat(), null));
+            manager.applyChange(new SetOntologyID(ontology, ontologyID));
+            return ontology;
+        }
+    }
+
+
+    /**
+     * write the snapshot to a temporary file first and move it into place, so that a snapshot
+     * being written is never read
+     */
+    private void write(OWLOntology ontology, File snapshot) throws IOException {
+        OWLDataFactory dataFactory = ontology.getOWLOntologyManager().getOWLDataFactory();
+        ArrayList<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+        for (OWLClass cls : ontology.getClassesInSignature()) {
+            axioms.add(dataFactory.getOWLDeclarationAxiom(cls));
+        }
+        for (AxiomType<?> axiomType : Arrays.<AxiomType<?>>asList(AxiomType.SUBCLASS_OF, AxiomType.EQUIVALENT_CLASSES,
+                AxiomType.DISJOINT_CLASSES, AxiomType.DISJOINT_UNION, AxiomType.ANNOTATION_ASSERTION)) {
+            axioms.addAll(ontology.getAxioms(axiomType));
+        }
+
+        File temp = File.createTempFile(snapshot.getName(), ".part", directory);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp.toPath()), BUFFER_SIZE))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeUTF(iriOf(ontology.getOntologyID().getOntologyIRI()));
+                out.writeUTF(iriOf(ontology.getOntologyID().getVersionIRI()));
+                writeAxioms(axioms, out);
+            }
+            Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+
+    /**
+     * write the axioms as an anonymous ontology in functional syntax, with full IRIs
+     */
+    private static void writeAxioms(List<OWLAxiom> axioms, OutputStream out) throws IOException {
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        try {
+            OWLOntology axiomOntology = manager.createOntology(new HashSet<OWLAxiom>(axioms));
+            manager.saveOntology(axiomOntology, new FunctionalSyntaxDocumentFormat(), out);
+        } catch (OWLOntologyCreationException | OWLOntologyStorageException e) {
+            throw new IOException("Could not write the axioms of the snapshot", e);
+        }
+    }
+
+
+    /**
+     * delete the least recently used snapshots until the rest fit into the size limit
+     *
+     * @param written - snapshot just written, kept even if it does not fit on its own
+     */
+    private synchronized void evict(File written) {
+        File[] snapshots = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (snapshots == null) {
+            return;
+        }
+        long totalBytes = 0;
+        for (File snapshot : snapshots) {
+            totalBytes += snapshot.length();
+        }
+        Arrays.sort(snapshots, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < snapshots.length && totalBytes > maxBytes; i++) {
+            long length = snapshots[i].length();
+            if (!snapshots[i].equals(written) && snapshots[i].delete()) {
+                totalBytes -= length;
+            }
+        }
+    }
+
+
+    private static String iriOf(Optional<IRI> iri) {
+        return iri.isPresent() ? iri.get().toString() : "";
+    }
+
+
+    private static Optional<IRI> optionalIRI(String iri) {
+        return iri.isEmpty() ? Optional.<IRI>absent() : Optional.of(IRI.create(iri));
+    }
+
+
+    public File getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * @return number of loads served from a snapshot
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+
+    /**
+     * @return number of loads that parsed the document
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+}
@@ -0,0 +1,573 @@
+package uk.ac.ebi.efo.bubastis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.semanticweb.owlapi.manchestersyntax.renderer.ManchesterOWLSyntaxOWLObjectRendererImpl;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLAnnotationValue;
+import org.semanticweb.owlapi.model.OWLAnonymousIndividual;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.util.ShortFormProvider;
+
+
+/**
+ * A compact snapshot of what a diff reads from one release, written once per release so that
+ * two releases can be compared later without loading either of them. The index holds
+ * <ul>
+ * <li>the ontology and version IRI, the label property and the compared annotation properties,</li>
+ * <li>one record per class, and per other subject of a compared annotation, sorted by IRI in
+ * the same order as ClassPartition, holding the compared annotations and the class axioms,</li>
+ * <li>the label annotations of every entity, to render axioms and class labels.</li>
+ * </ul>
+ * Each class axiom is kept as a 128 bit hash of its full form, including axiom annotations,
+ * which decides whether two axioms are the same, and as canonical text: its Manchester syntax
+ * rendering with the IRIs of the entities left open, so that it can be rendered later with the
+ * labels of either release. The records are read one at a time, so two indexes are compared by
+ * a merge join, see CompareOntologies.doFindAllChangesFromIndexes, after which only the labels
+ * of the classes that differ need to be kept.
+ * <p/>
+ * The file is a gzip compressed stream of DataOutputStream values.
+ */
+public class ReleaseIndex {
+
+    private static final int FILE_MAGIC = 0x42425249;
+    private static final int FILE_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //separates the parts of an encoded annotation, NUL cannot occur in an XML or OWL document
+    private static final char SEPARATOR = '\u0000';
+    //stands in for an entity while rendering the canonical text of an axiom
+    private static final String ENTITY_MARKER = "\u0000";
+
+
+    private ReleaseIndex() {
+    }
+
+
+    /**
+     * write the index of a loaded ontology
+     *
+     * @param ontology               - release to index
+     * @param annotationPropertyIRIs - annotation properties that are going to be compared
+     * @param labelPropertyIRI       - annotation property holding the labels
+     * @param file                   - index file to write
+     */
+    public static void write(OWLOntology ontology, List<IRI> annotationPropertyIRIs, IRI labelPropertyIRI, File file) throws IOException {
+        AnnotationIndex annotationIndex = new AnnotationIndex(ontology, annotationPropertyIRIs);
+        Set<IRI> comparedProperties = new HashSet<IRI>(annotationPropertyIRIs);
+
+        //classes and the other subjects of compared annotations, which a class of the other release may have
+        Set<IRI> classIRIs = new HashSet<IRI>();
+        for (OWLClass cls : ontology.getClassesInSignature()) {
+            classIRIs.add(cls.getIRI());
+        }
+        Set<IRI> subjectIRIs = new HashSet<IRI>(classIRIs);
+        //labels of all entities, the axioms may refer to any of them
+        Map<IRI, Set<String>> labels = new HashMap<IRI, Set<String>>();
+        for (OWLAnnotationAssertionAxiom axiom : ontology.getAxioms(AxiomType.ANNOTATION_ASSERTION)) {
+            if (!(axiom.getSubject() instanceof IRI)) {
+                continue;
+            }
+            IRI subjectIRI = (IRI) axiom.getSubject();
+            if (comparedProperties.contains(axiom.getProperty().getIRI())) {
+                subjectIRIs.add(subjectIRI);
+            }
+            if (axiom.getProperty().getIRI().equals(labelPropertyIRI)) {
+                Set<String> subjectLabels = labels.get(subjectIRI);
+                if (subjectLabels == null) {
+                    subjectLabels = new LinkedHashSet<String>(2);
+                    labels.put(subjectIRI, subjectLabels);
+                }
+                subjectLabels.add(encode(axiom.getAnnotation()));
+            }
+        }
+        List<IRI> sortedIRIs = new ArrayList<IRI>(subjectIRIs);
+        Collections.sort(sortedIRIs);
+
+        TemplateRenderer templateRenderer = new TemplateRenderer();
+        MessageDigest digest = createDigest();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(file.toPath()), BUFFER_SIZE), BUFFER_SIZE))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            writeString(out, ontology.getOntologyID().getOntologyIRI().isPresent()
+                    ? ontology.getOntologyID().getOntologyIRI().get().toString() : "");
+            writeString(out, ontology.getOntologyID().getVersionIRI().isPresent()
+                    ? ontology.getOntologyID().getVersionIRI().get().toString() : "");
+            writeString(out, labelPropertyIRI.toString());
+            out.writeInt(annotationPropertyIRIs.size());
+            for (IRI propertyIRI : annotationPropertyIRIs) {
+                writeString(out, propertyIRI.toString());
+            }
+
+            out.writeInt(sortedIRIs.size());
+            for (IRI subjectIRI : sortedIRIs) {
+                boolean isClass = classIRIs.contains(subjectIRI);
+                writeString(out, subjectIRI.toString());
+                out.writeBoolean(isClass);
+
+                List<String> annotations = new ArrayList<String>();
+                for (OWLAnnotation annotation : annotationIndex.getAnnotations(subjectIRI, annotationPropertyIRIs)) {
+                    annotations.add(encode(annotation));
+                }
+                Collections.sort(annotations);
+                writeStrings(out, annotations);
+
+                if (!isClass) {
+                    out.writeInt(0);
+                    continue;
+                }
+                Set<OWLClassAxiom> axioms = ontology.getAxioms(ontology.getOWLOntologyManager().getOWLDataFactory().getOWLClass(subjectIRI));
+                List<IndexedAxiom> indexedAxioms = new ArrayList<IndexedAxiom>(axioms.size());
+                for (OWLClassAxiom axiom : axioms) {
+                    byte[] hash = digest.digest(axiom.toString().getBytes(StandardCharsets.UTF_8));
+                    ByteBuffer hashBuffer = ByteBuffer.wrap(hash);
+                    indexedAxioms.add(new IndexedAxiom(hashBuffer.getLong(), hashBuffer.getLong(), templateRenderer.render(axiom)));
+                }
+                Collections.sort(indexedAxioms, IndexedAxiom.BY_HASH);
+                out.writeInt(indexedAxioms.size());
+                for (IndexedAxiom axiom : indexedAxioms) {
+                    out.writeLong(axiom.hashHigh);
+                    out.writeLong(axiom.hashLow);
+                    out.writeInt(axiom.template.length);
+                    for (String part : axiom.template) {
+                        writeString(out, part);
+                    }
+                }
+            }
+
+            //the labels come last, a diff only reads those of the entities in the classes that differ
+            out.writeInt(labels.size());
+            for (Map.Entry<IRI, Set<String>> entry : labels.entrySet()) {
+                writeString(out, entry.getKey().toString());
+                writeStrings(out, new ArrayList<String>(entry.getValue()));
+            }
+        }
+    }
+
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+
+    /**
+     * an annotation as the property IRI, the kind of value and the value, which is equal for
+     * equal annotations and sorts them by property first
+     */
+    static String encode(OWLAnnotation annotation) {
+        OWLAnnotationValue value = annotation.getValue();
+        StringBuilder encoded = new StringBuilder(annotation.getProperty().getIRI().toString()).append(SEPARATOR);
+        if (value instanceof OWLLiteral) {
+            OWLLiteral literal = (OWLLiteral) value;
+            encoded.append('L').append(SEPARATOR).append(literal.getLiteral())
+                    .append(SEPARATOR).append(literal.getDatatype().getIRI())
+                    .append(SEPARATOR).append(literal.getLang());
+        } else if (value instanceof IRI) {
+            encoded.append('I').append(SEPARATOR).append(value);
+        } else {
+            encoded.append('A').append(SEPARATOR).append(((OWLAnonymousIndividual) value).getID());
+        }
+        return encoded.toString();
+    }
+
+
+    /**
+     * the annotation of an encoded annotation, created with the given data factory
+     */
+    static OWLAnnotation decode(String encoded, OWLDataFactory dataFactory) {
+        String[] parts = encoded.split(String.valueOf(SEPARATOR), -1);
+        OWLAnnotationValue value;
+        if (parts[1].equals("L")) {
+            value = parts[4].isEmpty()
+                    ? dataFactory.getOWLLiteral(parts[2], dataFactory.getOWLDatatype(IRI.create(parts[3])))
+                    : dataFactory.getOWLLiteral(parts[2], parts[4]);
+        } else if (parts[1].equals("I")) {
+            value = IRI.create(parts[2]);
+        } else {
+            value = dataFactory.getOWLAnonymousIndividual(parts[2]);
+        }
+        return dataFactory.getOWLAnnotation(dataFactory.getOWLAnnotationProperty(IRI.create(parts[0])), value);
+    }
+
+
+    /**
+     * @return the literal value of an encoded annotation, null if the value is not a literal
+     */
+    static String literalOf(String encoded) {
+        String[] parts = encoded.split(String.valueOf(SEPARATOR), -1);
+        return parts[1].equals("L") ? parts[2] : null;
+    }
+
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+
+    //writeUTF is limited to 64KB, a rendered axiom can be longer
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> values = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Renders axioms in Manchester syntax as AxiomLabelRenderer does, but puts a marker in
+     * place of each entity and keeps the entities, giving the canonical text of the axiom as
+     * text parts with the entity IRIs in between.
+     */
+    private static class TemplateRenderer implements ShortFormProvider {
+
+        private final ManchesterOWLSyntaxOWLObjectRendererImpl renderer = new ManchesterOWLSyntaxOWLObjectRendererImpl();
+        private final List<String> entityIRIs = new ArrayList<String>();
+
+        private TemplateRenderer() {
+            renderer.setShortFormProvider(this);
+        }
+
+        /**
+         * @return the text parts at even positions and the entity IRIs at odd positions
+         */
+        private String[] render(OWLClassAxiom axiom) {
+            entityIRIs.clear();
+            String[] texts = renderer.render(axiom).split(ENTITY_MARKER, -1);
+            String[] template = new String[texts.length + entityIRIs.size()];
+            for (int i = 0; i < texts.length; i++) {
+                template[2 * i] = texts[i];
+                if (i < entityIRIs.size()) {
+                    template[2 * i + 1] = entityIRIs.get(i);
+                }
+            }
+            return template;
+        }
+
+        @Override
+        public String getShortForm(OWLEntity entity) {
+            entityIRIs.add(entity.getIRI().toString());
+            return ENTITY_MARKER;
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+
+
+    /**
+     * a class axiom as held in the index
+     */
+    static class IndexedAxiom {
+
+        private static final Comparator<IndexedAxiom> BY_HASH = new Comparator<IndexedAxiom>() {
+            @Override
+            public int compare(IndexedAxiom axiom1, IndexedAxiom axiom2) {
+                int order = Long.compare(axiom1.hashHigh, axiom2.hashHigh);
+                return order != 0 ? order : Long.compare(axiom1.hashLow, axiom2.hashLow);
+            }
+        };
+
+        private final long hashHigh;
+        private final long hashLow;
+        private final String[] template;
+
+        private IndexedAxiom(long hashHigh, long hashLow, String[] template) {
+            this.hashHigh = hashHigh;
+            this.hashLow = hashLow;
+            this.template = template;
+        }
+
+        /**
+         * render the axiom with the given short forms of its entities
+         */
+        String render(Labels labels) {
+            StringBuilder rendered = new StringBuilder();
+            for (int i = 0; i < template.length; i++) {
+                rendered.append(i % 2 == 0 ? template[i] : labels.getShortForm(template[i]));
+            }
+            return rendered.toString();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof IndexedAxiom && ((IndexedAxiom) other).hashHigh == hashHigh
+                    && ((IndexedAxiom) other).hashLow == hashLow;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hashHigh ^ (hashHigh >>> 32));
+        }
+    }
+
+
+    /**
+     * the record of one class, or of another subject of the compared annotations
+     */
+    static class Record {
+
+        private final IRI iri;
+        private final boolean isClass;
+        private final List<String> annotations;
+        private final List<IndexedAxiom> axioms;
+
+        private Record(IRI iri, boolean isClass, List<String> annotations, List<IndexedAxiom> axioms) {
+            this.iri = iri;
+            this.isClass = isClass;
+            this.annotations = annotations;
+            this.axioms = axioms;
+        }
+
+        IRI getIRI() {
+            return iri;
+        }
+
+        boolean isClass() {
+            return isClass;
+        }
+
+        /**
+         * @return the encoded compared annotations, sorted
+         */
+        List<String> getAnnotations() {
+            return annotations;
+        }
+
+        /**
+         * @return the class axioms sorted by hash
+         */
+        List<IndexedAxiom> getAxioms() {
+            return axioms;
+        }
+
+        /**
+         * add the IRIs whose labels are needed to show this record: its own and those of the
+         * entities in its axioms
+         */
+        void collectEntityIRIs(Set<String> entityIRIs) {
+            entityIRIs.add(iri.toString());
+            for (IndexedAxiom axiom : axioms) {
+                for (int i = 1; i < axiom.template.length; i += 2) {
+                    entityIRIs.add(axiom.template[i]);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * the labels of the entities of one release, giving the same short forms as LabelShortFormProvider
+     */
+    static class Labels {
+
+        private final Map<String, List<String>> labels;
+        private final LabelShortFormProvider.MultipleLabelPolicy multipleLabelPolicy;
+        private final Map<String, String> shortForms = new HashMap<String, String>();
+
+        private Labels(Map<String, List<String>> labels, LabelShortFormProvider.MultipleLabelPolicy multipleLabelPolicy) {
+            this.labels = labels;
+            this.multipleLabelPolicy = multipleLabelPolicy;
+        }
+
+        /**
+         * @return the encoded label annotations of an entity, empty if it has none
+         */
+        List<String> getLabels(String entityIRI) {
+            List<String> entityLabels = labels.get(entityIRI);
+            return entityLabels == null ? Collections.<String>emptyList() : entityLabels;
+        }
+
+        String getShortForm(String entityIRI) {
+            String shortForm = shortForms.get(entityIRI);
+            if (shortForm == null) {
+                List<String> literals = new ArrayList<String>();
+                for (String label : getLabels(entityIRI)) {
+                    String literal = literalOf(label);
+                    if (literal != null) {
+                        literals.add(literal);
+                    }
+                }
+                shortForm = LabelShortFormProvider.shortForm(IRI.create(entityIRI), literals, multipleLabelPolicy, true);
+                shortForms.put(entityIRI, shortForm);
+            }
+            return shortForm;
+        }
+
+        /**
+         * render axioms with these labels, as AxiomLabelRenderer.render does
+         */
+        Set<String> render(List<IndexedAxiom> axioms) {
+            Set<String> rendered = new HashSet<String>();
+            for (IndexedAxiom axiom : axioms) {
+                rendered.add(axiom.render(this));
+            }
+            return rendered;
+        }
+    }
+
+
+    /**
+     * Reads an index record by record, then the labels. The header is read when it is opened.
+     */
+    static class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private final String ontologyIRI;
+        private final String versionIRI;
+        private final IRI labelPropertyIRI;
+        private final List<IRI> annotationPropertyIRIs = new ArrayList<IRI>();
+        private int remainingRecords;
+
+        /**
+         * @param file - index file
+         */
+        Reader(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE), BUFFER_SIZE));
+            try {
+                if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                    throw new IOException(file + " is not a bubastis release index of this version");
+                }
+                this.ontologyIRI = readString(in);
+                this.versionIRI = readString(in);
+                this.labelPropertyIRI = IRI.create(readString(in));
+                int numberOfProperties = in.readInt();
+                for (int i = 0; i < numberOfProperties; i++) {
+                    annotationPropertyIRIs.add(IRI.create(readString(in)));
+                }
+                this.remainingRecords = in.readInt();
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the next record in IRI order, null after the last one
+         */
+        Record next() throws IOException {
+            if (remainingRecords == 0) {
+                return null;
+            }
+            remainingRecords--;
+            try {
+                String iri = readString(in);
+                boolean isClass = in.readBoolean();
+                List<String> annotations = readStrings(in);
+                int numberOfAxioms = in.readInt();
+                List<IndexedAxiom> axioms = new ArrayList<IndexedAxiom>(numberOfAxioms);
+                for (int i = 0; i < numberOfAxioms; i++) {
+                    long hashHigh = in.readLong();
+                    long hashLow = in.readLong();
+                    String[] template = new String[in.readInt()];
+                    for (int j = 0; j < template.length; j++) {
+                        template[j] = readString(in);
+                    }
+                    axioms.add(new IndexedAxiom(hashHigh, hashLow, template));
+                }
+                return new Record(IRI.create(iri), isClass, annotations, axioms);
+            } catch (EOFException e) {
+                throw new IOException("The release index ends before its last record", e);
+            }
+        }
+
+        String getOntologyIRI() {
+            return ontologyIRI;
+        }
+
+        String getVersionIRI() {
+            return versionIRI;
+        }
+
+        IRI getLabelPropertyIRI() {
+            return labelPropertyIRI;
+        }
+
+        List<IRI> getAnnotationPropertyIRIs() {
+            return annotationPropertyIRIs;
+        }
+
+        /**
+         * read the labels of some of the entities, skipping any records that have not been read
+         *
+         * @param entityIRIs          - entities whose labels are kept
+         * @param multipleLabelPolicy - what to show for entities with several labels
+         */
+        Labels readLabels(Set<String> entityIRIs, LabelShortFormProvider.MultipleLabelPolicy multipleLabelPolicy) throws IOException {
+            while (next() != null) {
+                //skip to the labels
+            }
+            Map<String, List<String>> labels = new HashMap<String, List<String>>();
+            int numberOfLabelled = in.readInt();
+            for (int i = 0; i < numberOfLabelled; i++) {
+                String entityIRI = readString(in);
+                List<String> entityLabels = readStrings(in);
+                if (entityIRIs.contains(entityIRI)) {
+                    labels.put(entityIRI, entityLabels);
+                }
+            }
+            return new Labels(labels, multipleLabelPolicy);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+package uk.ac.ebi.efo.bubastis;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+
+/**
+ * Writes the diff results as xml with an XMLStreamWriter, straight from the OWLClassAxiomsInfo
+ * objects to a buffered file channel, escaping the text as it goes. Gives the same diffReport
+ * document as XMLRenderer, one element per line, so bubastis_style_info.xslt works on either,
+ * without building the xml lines of OntologyChangesBean first.
+ * <p/>
+ * Either write a finished OntologyChangesBean with writeDiffAsXMLFile, or register an
+ * XMLStreamRenderer created with a file path as a DiffListener to write each class as it is found.
+ */
+public class XMLStreamRenderer implements DiffListener {
+
+    private static final String[] SECTION_TAGS = {"changedClasses", "newClasses", "deletedClasses"};
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    //settings and state when streaming as a DiffListener
+    private String filePath;
+    private String pathToXSLT;
+    private Path bodyFile;
+    private OutputStream bodyStream;
+    private XMLStreamWriter body;
+    //index into SECTION_TAGS of the section currently open, -1 before the first
+    private int section = -1;
+
+
+    /**
+     * default constructor
+     */
+    public XMLStreamRenderer() {
+
+    }
+
+
+    /**
+     * constructor for use as a DiffListener which writes the diff to the given file
+     *
+     * @param filePath   - path of file to write XML to
+     * @param pathToXSLT - location of the xslt to reference in the header, or null for none
+     */
+    public XMLStreamRenderer(String filePath, String pathToXSLT) {
+        this.filePath = filePath;
+        this.pathToXSLT = pathToXSLT;
+    }
+
+
+    /**
+     * write the diff results held by the bean to a file
+     *
+     * @param filePath   - path of file to write XML to
+     * @param changeBean - the bean which holds information on the diff results
+     * @param pathToXSLT - location of the xslt to reference in the header, or null for none
+     */
+    public void writeDiffAsXMLFile(String filePath, OntologyChangesBean changeBean, String pathToXSLT) throws IOException {
+        try (OutputStream out = openBuffered(new File(filePath).toPath())) {
+            XMLStreamWriter xml = createWriter(out);
+            writeHeader(xml, changeBean, pathToXSLT);
+            writeSection(xml, 0, changeBean.getClassesWithDifferences());
+            writeSection(xml, 1, changeBean.getNewClasses());
+            writeSection(xml, 2, changeBean.getDeletedClasses());
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not write the diff as XML to " + filePath, e);
+        }
+    }
+
+
+    /**
+     * The header holds the number of changes, which are only known at the end, so the classes
+     * are written to a temporary file next to the output file first and copied in after the header.
+     */
+    @Override
+    public void onStart(OntologyChangesBean changeBean) {
+        try {
+            File file = new File(filePath).getAbsoluteFile();
+            this.bodyFile = File.createTempFile(file.getName(), ".part", file.getParentFile()).toPath();
+            this.bodyStream = openBuffered(bodyFile);
+            this.body = createWriter(bodyStream);
+            this.section = -1;
+        } catch (IOException | XMLStreamException e) {
+            throw new IllegalStateException("Could not start writing the diff as XML to " + filePath, e);
+        }
+    }
+
+    @Override
+    public void onChangedClass(OWLClassAxiomsInfo changedClass) {
+        try {
+            moveToSection(0);
+            writeChangedClass(body, changedClass);
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Could not write the diff as XML to " + filePath, e);
+        }
+    }
+
+    @Override
+    public void onNewClass(OWLClassAxiomsInfo newClass) {
+        try {
+            moveToSection(1);
+            writeNewClass(body, newClass);
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Could not write the diff as XML to " + filePath, e);
+        }
+    }
+
+    @Override
+    public void onDeletedClass(OWLClassAxiomsInfo deletedClass) {
+        try {
+            moveToSection(2);
+            writeDeletedClass(body, deletedClass);
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Could not write the diff as XML to " + filePath, e);
+        }
+    }
+
+    @Override
+    public void onComplete(OntologyChangesBean changeBean) {
+        try {
+            //every section is written, even if empty
+            moveToSection(SECTION_TAGS.length - 1);
+            endLine(body);
+            body.close();
+            bodyStream.close();
+
+            try (OutputStream out = openBuffered(new File(filePath).toPath())) {
+                XMLStreamWriter xml = createWriter(out);
+                writeHeader(xml, changeBean, pathToXSLT);
+                xml.flush();
+                Files.copy(bodyFile, out);
+                xml.writeEndElement();
+                xml.writeEndDocument();
+                xml.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the diff as XML to " + filePath, e);
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Could not write the diff as XML to " + filePath, e);
+        } finally {
+            try {
+                Files.deleteIfExists(bodyFile);
+            } catch (IOException e) {
+                System.out.println("Could not delete " + bodyFile);
+            }
+        }
+    }
+
+    /**
+     * the output file is not written, only the temporary file of the classes is closed and deleted
+     */
+    @Override
+    public void onError(Throwable error) {
+        if (bodyFile == null) {
+            return;
+        }
+        try {
+            if (bodyStream != null) {
+                bodyStream.close();
+            }
+            Files.deleteIfExists(bodyFile);
+        } catch (IOException e) {
+            System.out.println("Could not delete " + bodyFile);
+        }
+    }
+
+
+    /**
+     * close the open section and open the following ones up to the given section
+     */
+    private void moveToSection(int targetSection) throws XMLStreamException {
+        while (section < targetSection) {
+            if (section >= 0) {
+                endLine(body);
+            }
+            section++;
+            startLine(body, SECTION_TAGS[section]);
+        }
+    }
+
+
+    private static OutputStream openBuffered(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+    }
+
+
+    private static XMLStreamWriter createWriter(OutputStream out) throws XMLStreamException {
+        return XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+    }
+
+
+    /**
+     * write the xml declaration, the optional stylesheet and the summary, leaving diffReport open
+     */
+    private static void writeHeader(XMLStreamWriter xml, OntologyChangesBean changeBean, String pathToXSLT) throws XMLStreamException {
+        xml.writeStartDocument("1.0");
+        if (pathToXSLT != null) {
+            xml.writeProcessingInstruction("xml-stylesheet", "type=\"text/xsl\" href=\"" + pathToXSLT + "\"");
+            xml.writeCharacters("\n");
+        }
+        xml.writeCharacters("\n");
+        startLine(xml, "diffReport");
+        startLine(xml, "diffSummary");
+        writeCount(xml, "numberChangedClasses", changeBean.getNumChangedClasses());
+        writeCount(xml, "numberNewClasses", changeBean.getNumNewClasses());
+        writeCount(xml, "numberDeletedClasses", changeBean.getNumDeletedClasses());
+        endLine(xml);
+    }
+
+
+    private static void writeCount(XMLStreamWriter xml, String element, int count) throws XMLStreamException {
+        xml.writeStartElement(element);
+        xml.writeCharacters("\n" + count + "\n");
+        endLine(xml);
+    }
+
+
+    private static void writeSection(XMLStreamWriter xml, int section, List<OWLClassAxiomsInfo> classes) throws XMLStreamException {
+        startLine(xml, SECTION_TAGS[section]);
+        //render the axiom labels of the whole section at once
+        OWLClassAxiomsInfo.renderAxiomLabels(classes);
+        for (OWLClassAxiomsInfo info : classes) {
+            if (section == 0) {
+                writeChangedClass(xml, info);
+            } else if (section == 1) {
+                writeNewClass(xml, info);
+            } else {
+                writeDeletedClass(xml, info);
+            }
+        }
+        endLine(xml);
+    }
+
+
+    /**
+     * write a class present in both ontologies with its label, annotation and axiom changes
+     */
+    static void writeChangedClass(XMLStreamWriter xml, OWLClassAxiomsInfo info) throws XMLStreamException {
+        startLine(xml, "changedClass");
+        writeElement(xml, "classIRI", info.getIRI().toString());
+        writeElements(xml, "classLabel", info.getLabelsAsString());
+        writeElements(xml, "deletedAnnotation", info.getDeletedAnnotations());
+        writeElements(xml, "newAnnotation", info.getNewAnnotations());
+        writeElements(xml, "deletedAxiom", info.getDeletedClassAxiomsAsLabels());
+        writeElements(xml, "newAxiom", info.getNewClassAxiomsAsLabels());
+        endLine(xml);
+    }
+
+
+    /**
+     * write a class only present in the second ontology with its axioms
+     */
+    static void writeNewClass(XMLStreamWriter xml, OWLClassAxiomsInfo info) throws XMLStreamException {
+        startLine(xml, "newClass");
+        writeElement(xml, "classIRI", info.getIRI().toString());
+        writeElements(xml, "classLabel", info.getLabelsAsString());
+        writeElements(xml, "newAxiom", info.getNewClassAxiomsAsLabels());
+        endLine(xml);
+    }
+
+
+    /**
+     * write a class only present in the first ontology, its axioms were found as the "new"
+     * axioms of the first ontology and are written as deleted axioms
+     */
+    static void writeDeletedClass(XMLStreamWriter xml, OWLClassAxiomsInfo info) throws XMLStreamException {
+        startLine(xml, "deletedClass");
+        writeElement(xml, "classIRI", info.getIRI().toString());
+        writeElements(xml, "classLabel", info.getLabelsAsString());
+        writeElements(xml, "deletedAxiom", info.getNewClassAxiomsAsLabels());
+        endLine(xml);
+    }
+
+
+    private static void writeElements(XMLStreamWriter xml, String element, Set<String> values) throws XMLStreamException {
+        if (values == null) {
+            return;
+        }
+        for (String value : values) {
+            //strip out any chevrons that owl-api spits out when there is only a uri
+            writeElement(xml, element, value.replace("<", "").replace(">", ""));
+        }
+    }
+
+
+    private static void writeElement(XMLStreamWriter xml, String element, String text) throws XMLStreamException {
+        xml.writeStartElement(element);
+        xml.writeCharacters(text);
+        endLine(xml);
+    }
+
+
+    private static void startLine(XMLStreamWriter xml, String element) throws XMLStreamException {
+        xml.writeStartElement(element);
+        xml.writeCharacters("\n");
+    }
+
+
+    private static void endLine(XMLStreamWriter xml) throws XMLStreamException {
+        xml.writeEndElement();
+        xml.writeCharacters("\n");
+    }
+
+}
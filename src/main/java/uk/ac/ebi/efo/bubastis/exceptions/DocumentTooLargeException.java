@@ -0,0 +1,26 @@
+package uk.ac.ebi.efo.bubastis.exceptions;
+
+import java.io.IOException;
+
+/**
+ * A document read from an untrusted source is larger than allowed once it has been
+ * decompressed, e.g. a small gzip upload that expands to fill the disk.
+ */
+public class DocumentTooLargeException extends IOException {
+
+	private static final long serialVersionUID = 6385028571043729711L;
+	private final long maxLength;
+
+	public DocumentTooLargeException(String location, long maxLength) {
+		super(location + " is larger than " + maxLength + " bytes when decompressed");
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * @return size in bytes the decompressed document may have at most
+	 */
+	public long getMaxLength() {
+		return maxLength;
+	}
+
+}
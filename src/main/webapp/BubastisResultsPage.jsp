@@ -217,6 +217,9 @@ Experimental factor ontology" /><!-- 3 to 10 keywords about the content of this
 				<table id="resultsheader" width="700">
 
 					<jsp:useBean id="changeBean" type="uk.ac.ebi.efo.bubastis.OntologyChangesBean" scope="request"/>
+					<%	//cached results are loaded a page at a time by scripts/bubastisresults.js instead of being rendered here
+						String resultsKey = changeBean.getResultsKey();
+					%>
 					<tr class="line"><td>&nbsp;
 						Ontology 1: "<jsp:getProperty name="changeBean" property="ontology1Location"/>"
 					</td>
@@ -242,6 +245,14 @@ Experimental factor ontology" /><!-- 3 to 10 keywords about the content of this
 						<a href="#"><font color="#0099FF"><img class="swapImage {src: './images/bubastis_xml_on_button.gif'}" src="./images/bubastis_xml_off_button.gif" alt="Export results as XML" border="0"></img></font></a>&nbsp;
 						<a href="#"><font color="#0099FF"><img class="swapImage {src: './images/bubastis_text_on_button.gif'}" src="./images/bubastis_text_off_button.gif" alt="Export results as text" border="0"></img></font></a>&nbsp;
 					</td></tr>
+					<%	if (resultsKey != null){
+							out.println("<tr class=\"line\" id=\"resultsfilter\" data-results-url=\"" + request.getContextPath() + "/results/" + resultsKey + "\"><td>&nbsp;");
+							out.println("IRI starts with: <input type=\"text\" id=\"resultsprefix\" size=\"40\"/>");
+							out.println("Sort by: <select id=\"resultssort\"><option value=\"none\">diff</option><option value=\"iri\">IRI</option><option value=\"label\">label</option></select>");
+							out.println("<input type=\"button\" id=\"resultsfilterbutton\" value=\"Show\"/>");
+							out.println("</td></tr>");
+						}
+					%>
 				</table>
 
 				<table width="700">
@@ -257,7 +268,10 @@ Experimental factor ontology" /><!-- 3 to 10 keywords about the content of this
 					<%	//code to populate the table with results
 						ArrayList<String> changedClassesList = (ArrayList<String>)request.getAttribute("resultsSet");
 
-						if (!changedClassesList.isEmpty()){
+						if (resultsKey != null){
+							out.println("<tbody class=\"resultclasses\" data-kind=\"changed\" data-none=\"No changes\"></tbody>");
+						}
+						else if (!changedClassesList.isEmpty()){
 							Iterator i = changedClassesList.iterator();
 							while (i.hasNext()) {
 
@@ -304,7 +318,10 @@ Experimental factor ontology" /><!-- 3 to 10 keywords about the content of this
 				<table id="bubastisresults" width="700">
 					<%	//code to populate the table with results
 						ArrayList<String> newClassesList = (ArrayList<String>)request.getAttribute("newClassesSet");
-						if (!newClassesList.isEmpty()){
+						if (resultsKey != null){
+							out.println("<tbody class=\"resultclasses\" data-kind=\"new\" data-none=\"-None-\"></tbody>");
+						}
+						else if (!newClassesList.isEmpty()){
 							Iterator i = newClassesList.iterator();
 							while (i.hasNext()) {
 
@@ -353,7 +370,10 @@ Experimental factor ontology" /><!-- 3 to 10 keywords about the content of this
 					<%	//code to populate the table with results
 						ArrayList<String> deletedClassesList = (ArrayList<String>)request.getAttribute("deletedClassesSet");
 
-						if (!newClassesList.isEmpty()){
+						if (resultsKey != null){
+							out.println("<tbody class=\"resultclasses\" data-kind=\"deleted\" data-none=\"-None-\"></tbody>");
+						}
+						else if (!newClassesList.isEmpty()){
 							Iterator i = deletedClassesList.iterator();
 							while (i.hasNext()) {
 
@@ -429,6 +449,7 @@ Experimental factor ontology" /><!-- 3 to 10 keywords about the content of this
 <script src="//ebi.emblstatic.net/web_guidelines/EBI-Framework/v1.3/js/foundationExtendEBI.js"></script>
 <script type="text/JavaScript">$(document).foundation();</script>
 <script type="text/JavaScript">$(document).foundationExtendEBI();</script>
+<script type="text/javascript" src="<%= request.getContextPath() %>/scripts/bubastisresults.js"></script>
 
 <!-- Google Analytics details... -->
 <!-- Change UA-XXXXX-X to be your site's ID -->
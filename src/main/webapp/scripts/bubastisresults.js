@@ -0,0 +1,106 @@
+/*!
+ * Bubastis results page javascript
+ * Loads the changed, new and deleted classes of cached results a page at a time from the
+ * results servlet, so that the page of a large diff does not hold every class at once
+ */
+
+
+var resultClassesPageSize = 100;
+
+
+$(function() {
+    if ($("#resultsfilter").length == 0) {
+        // results that are not cached are rendered into the page
+        return;
+    }
+    $("#resultsfilterbutton").click(loadAllResultClasses);
+    $("#resultsprefix").keypress(function(event) {
+        if (event.which == 13) {
+            loadAllResultClasses();
+        }
+    });
+    loadAllResultClasses();
+});
+
+
+function loadAllResultClasses() {
+    $("tbody.resultclasses").each(function() {
+        loadResultClasses($(this), 0);
+    });
+}
+
+
+function loadResultClasses(tbody, offset) {
+    tbody.find("tr.more").remove();
+    $.ajax({
+        url: $("#resultsfilter").attr("data-results-url"),
+        dataType: "json",
+        cache: false,
+        data: {
+            kind: tbody.attr("data-kind"),
+            prefix: $("#resultsprefix").val(),
+            sort: $("#resultssort").val(),
+            offset: offset,
+            limit: resultClassesPageSize
+        },
+        success: function(data) {
+            if (offset == 0) {
+                tbody.empty();
+            }
+            showResultClasses(tbody, data);
+        },
+        error: function(request) {
+            var message = "The results could not be loaded";
+            try {
+                message = $.parseJSON(request.responseText).error;
+            } catch (e) {
+            }
+            tbody.empty();
+            tbody.append(resultRow(null, message));
+        }
+    });
+}
+
+
+function showResultClasses(tbody, data) {
+    if (data.total == 0) {
+        tbody.append(resultRow(null, tbody.attr("data-none")));
+        return;
+    }
+    $.each(data.classes, function(index, resultClass) {
+        // insert space between last class and this one
+        tbody.append(resultRow(null, " "));
+        tbody.append(resultRow("header", "Class: " + resultClass.iri));
+        $.each(resultClass.labels, function(index, label) {
+            tbody.append(resultRow("header", "Label: " + label));
+        });
+        $.each(resultClass.rows, function(index, row) {
+            if (row.type == "newAxiom") {
+                tbody.append(resultRow("new", "+   " + row.text));
+            }
+            else if (row.type == "deletedAxiom") {
+                tbody.append(resultRow("deleted", "-   " + row.text));
+            }
+        });
+    });
+
+    var shown = data.offset + data.classes.length;
+    if (shown < data.total) {
+        var more = $("<a href=\"#\"></a>").text("Show more (" + shown + " of " + data.total + " classes shown)");
+        more.click(function() {
+            loadResultClasses(tbody, shown);
+            return false;
+        });
+        tbody.append($("<tr class=\"more\"></tr>").append($("<td></td>").append(more)));
+    }
+}
+
+
+function resultRow(rowClass, text) {
+    // text, not html, the axioms may hold anything
+    var row = $("<tr></tr>").append($("<td></td>").text(text));
+    if (rowClass != null) {
+        row.addClass(rowClass);
+    }
+    return row;
+}
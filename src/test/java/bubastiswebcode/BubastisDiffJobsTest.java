@@ -0,0 +1,163 @@
+package bubastiswebcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * Submits and polls diff jobs whose ontologies come from a server that answers when told to.
+ */
+public class BubastisDiffJobsTest {
+
+	private final BubastisDiffJobs servlet = new BubastisDiffJobs();
+
+
+	@After
+	public void tearDown() {
+		servlet.destroy();
+	}
+
+
+	private ServletMocks.Response submit(String ontologyURL) throws Exception {
+		ServletMocks.Request request = new ServletMocks.Request();
+		request.contentType = "application/x-www-form-urlencoded";
+		request.parameters.put("ontology1url", ontologyURL);
+		request.parameters.put("ontology2url", ontologyURL);
+		request.parameters.put("annotationPropertyIRIs", "http://www.w3.org/2000/01/rdf-schema#label");
+		ServletMocks.Response response = new ServletMocks.Response();
+		servlet.doPost(request.proxy(), response.proxy());
+		return response;
+	}
+
+
+	private String jobId(ServletMocks.Response submitted) {
+		String location = submitted.headers.get("Location");
+		return location.substring(location.lastIndexOf('/') + 1);
+	}
+
+
+	private ServletMocks.Response get(String pathInfo) throws Exception {
+		ServletMocks.Request request = new ServletMocks.Request();
+		request.pathInfo = pathInfo;
+		ServletMocks.Response response = new ServletMocks.Response();
+		servlet.doGet(request.proxy(), response.proxy());
+		return response;
+	}
+
+
+	@Test
+	public void testJobIsTurnedAwayWhenThePoolIsFull() throws Exception {
+		Map<String, String> initParameters = new HashMap<String, String>();
+		initParameters.put("jobThreads", "1");
+		initParameters.put("jobQueueDepth", "0");
+		servlet.init(ServletMocks.config(new ServletMocks.Context(), initParameters));
+
+		String id;
+		try (ServerSocket server = new ServerSocket(0)) {
+			String ontologyURL = "http://127.0.0.1:" + server.getLocalPort() + "/ontology.owl";
+			ServletMocks.Response submitted = submit(ontologyURL);
+			assertEquals(HttpServletResponse.SC_ACCEPTED, submitted.status);
+			String location = submitted.headers.get("Location");
+			id = location.substring(location.lastIndexOf('/') + 1);
+			assertEquals("http://localhost/bubastis/jobs/" + id, location);
+
+			//the job holds the only thread while it waits for its ontology
+			try (Socket fetch = server.accept()) {
+				ServletMocks.Response busy = submit(ontologyURL);
+				assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, busy.status);
+				assertEquals("60", busy.headers.get("Retry-After"));
+				assertTrue(get("/" + id).body.toString().contains("\"phase\":\"loading_1\""));
+
+				fetch.getOutputStream().write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+						.getBytes(StandardCharsets.US_ASCII));
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + 60000;
+		while (!get("/" + id).body.toString().contains("\"phase\":\"failed\"") && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		ServletMocks.Response result = get("/" + id + "/result");
+		assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, result.status);
+		assertTrue(result.body.toString().contains("The diff failed"));
+		assertEquals(HttpServletResponse.SC_NOT_FOUND, get("/unknown").status);
+	}
+
+
+
+	@Test
+	public void testUploadIsNotReadWhenEverySlotIsTaken() throws Exception {
+		Map<String, String> initParameters = new HashMap<String, String>();
+		initParameters.put("jobThreads", "1");
+		initParameters.put("jobQueueDepth", "1");
+		servlet.init(ServletMocks.config(new ServletMocks.Context(), initParameters));
+
+		try (ServerSocket server = new ServerSocket(0)) {
+			String ontologyURL = "http://127.0.0.1:" + server.getLocalPort() + "/ontology.owl";
+			//one job holds the thread while it waits for its ontology, the other waits for the thread
+			assertEquals(HttpServletResponse.SC_ACCEPTED, submit(ontologyURL).status);
+			ServletMocks.Response waiting = submit(ontologyURL);
+			assertEquals(HttpServletResponse.SC_ACCEPTED, waiting.status);
+
+			ServletMocks.Request upload = new ServletMocks.Request();
+			upload.contentType = "multipart/form-data; boundary=upload";
+			upload.body = "--upload\r\nContent-Disposition: form-data; name=\"ontology1url\"\r\n\r\nx\r\n--upload--\r\n"
+					.getBytes(StandardCharsets.US_ASCII);
+			ServletMocks.Response busy = new ServletMocks.Response();
+			servlet.doPost(upload.proxy(), busy.proxy());
+			assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, busy.status);
+			assertFalse(upload.bodyRead);
+
+			//deleting the waiting job gives its slot back
+			ServletMocks.Request delete = new ServletMocks.Request();
+			delete.pathInfo = "/" + jobId(waiting);
+			ServletMocks.Response deleted = new ServletMocks.Response();
+			servlet.doDelete(delete.proxy(), deleted.proxy());
+			assertEquals(HttpServletResponse.SC_NO_CONTENT, deleted.status);
+			assertEquals(HttpServletResponse.SC_ACCEPTED, submit(ontologyURL).status);
+			assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, submit(ontologyURL).status);
+		}
+	}
+
+
+
+	@Test
+	public void testFinishedJobSendsItsResultAsXML() throws Exception {
+		servlet.init(ServletMocks.config(new ServletMocks.Context(), new HashMap<String, String>()));
+		String ontology1 = new File(getClass().getResource("/ontology_v1.ofn").toURI()).toURI().toString();
+		String ontology2 = new File(getClass().getResource("/ontology_v2.ofn").toURI()).toURI().toString();
+		ServletMocks.Request request = new ServletMocks.Request();
+		request.contentType = "application/x-www-form-urlencoded";
+		request.parameters.put("ontology1url", ontology1);
+		request.parameters.put("ontology2url", ontology2);
+		ServletMocks.Response submitted = new ServletMocks.Response();
+		servlet.doPost(request.proxy(), submitted.proxy());
+		String id = jobId(submitted);
+
+		long deadline = System.currentTimeMillis() + 60000;
+		while (!get("/" + id).body.toString().contains("\"phase\":\"done\"") && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		ServletMocks.Request fetch = new ServletMocks.Request();
+		fetch.pathInfo = "/" + id + "/result";
+		fetch.parameters.put("format", "xml");
+		ServletMocks.Response result = new ServletMocks.Response();
+		servlet.doGet(fetch.proxy(), result.proxy());
+		assertEquals(HttpServletResponse.SC_OK, result.status);
+		assertTrue(new String(result.bytes.toByteArray(), StandardCharsets.UTF_8).contains("<changedClasses"));
+	}
+
+}
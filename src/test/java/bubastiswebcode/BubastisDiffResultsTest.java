@@ -0,0 +1,229 @@
+package bubastiswebcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Test;
+import org.semanticweb.owlapi.model.IRI;
+
+import uk.ac.ebi.efo.bubastis.ContentHash;
+import uk.ac.ebi.efo.bubastis.OntologyChangesBean;
+
+
+/**
+ * Turns diffs away with 503 while the diff pool is taken by a diff that is fetching its ontology
+ * from a server that does not answer.
+ */
+public class BubastisDiffResultsTest {
+
+	private final BubastisDiffResults servlet = new BubastisDiffResults();
+
+
+	@After
+	public void tearDown() {
+		servlet.destroy();
+		//set by every diff request
+		System.clearProperty("http.proxyHost");
+		System.clearProperty("http.proxyPort");
+	}
+
+
+	private ServletMocks.Request diffRequest(String ontology1url, String ontology2url) {
+		ServletMocks.Request request = new ServletMocks.Request();
+		request.contentType = "application/x-www-form-urlencoded";
+		request.parameters.put("ontology1url", ontology1url);
+		request.parameters.put("ontology2url", ontology2url);
+		request.parameters.put("annotationPropertyIRIs", "http://www.w3.org/2000/01/rdf-schema#label");
+		return request;
+	}
+
+
+	private static ServletMocks.Request uploadRequest(byte[] ontology1, byte[] ontology2) throws Exception {
+		String boundary = "----bubastisboundary";
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (int i = 1; i <= 2; i++) {
+			body.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"ontology" + i + "file\"; filename=\"v" + i
+					+ ".ofn\"\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+			body.write(i == 1 ? ontology1 : ontology2);
+			body.write("\r\n".getBytes(StandardCharsets.UTF_8));
+		}
+		body.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+		ServletMocks.Request request = new ServletMocks.Request();
+		request.contentType = "multipart/form-data; boundary=" + boundary;
+		request.body = body.toByteArray();
+		return request;
+	}
+
+
+	@Test
+	public void testDiffIsTurnedAwayWhenThePoolIsFull() throws Exception {
+		ServletMocks.Context context = new ServletMocks.Context();
+		Map<String, String> initParameters = new HashMap<String, String>();
+		initParameters.put("diffThreads", "1");
+		initParameters.put("diffQueueDepth", "0");
+		servlet.init(ServletMocks.config(context, initParameters));
+
+		try (ServerSocket server = new ServerSocket(0)) {
+			String silent = "http://127.0.0.1:" + server.getLocalPort() + "/ontology.owl";
+			ServletMocks.Response first = new ServletMocks.Response();
+			Thread firstDiff = new Thread(() -> {
+				try {
+					servlet.doGet(diffRequest(silent, silent).proxy(), first.proxy());
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			firstDiff.start();
+
+			//the first diff holds the only slot while it waits for its ontologies
+			try (Socket fetch1 = server.accept(); Socket fetch2 = server.accept()) {
+				ServletMocks.Response busy = new ServletMocks.Response();
+				servlet.doGet(diffRequest(silent, silent).proxy(), busy.proxy());
+				assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, busy.status);
+				assertEquals("60", busy.headers.get("Retry-After"));
+				assertEquals("/BubastisErrorPage.jsp", context.forwardedTo);
+
+				//the fetches fail once the server answers, which frees the slot
+				for (Socket fetch : new Socket[] {fetch1, fetch2}) {
+					fetch.getOutputStream().write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+							.getBytes(StandardCharsets.US_ASCII));
+				}
+			}
+			firstDiff.join(60000);
+			assertFalse(firstDiff.isAlive());
+			assertEquals(HttpServletResponse.SC_OK, first.status);
+		}
+
+		//admitted again, and turned down for the missing ontology instead
+		ServletMocks.Response next = new ServletMocks.Response();
+		context.forwardedTo = null;
+		servlet.doGet(diffRequest("", "").proxy(), next.proxy());
+		assertEquals(HttpServletResponse.SC_OK, next.status);
+		assertNull(next.headers.get("Retry-After"));
+		assertEquals("/BubastisErrorPage.jsp", context.forwardedTo);
+	}
+
+
+
+	@Test
+	public void testDiffsOneAfterTheOtherAreAllAdmitted() throws Exception {
+		ServletMocks.Context context = new ServletMocks.Context();
+		Map<String, String> initParameters = new HashMap<String, String>();
+		initParameters.put("diffThreads", "1");
+		initParameters.put("diffQueueDepth", "0");
+		servlet.init(ServletMocks.config(context, initParameters));
+		String ontology1 = new File(getClass().getResource("/ontology_v1.ofn").toURI()).toURI().toString();
+		String ontology2 = new File(getClass().getResource("/ontology_v2.ofn").toURI()).toURI().toString();
+
+		//each diff frees its slot before the next one is submitted, none of them is turned away
+		for (int i = 0; i < 50; i++) {
+			ServletMocks.Response response = new ServletMocks.Response();
+			servlet.doGet(diffRequest(ontology1, ontology2).proxy(), response.proxy());
+			assertEquals("diff " + i, HttpServletResponse.SC_OK, response.status);
+			assertEquals("/BubastisResultsPage.jsp", context.forwardedTo);
+		}
+	}
+
+
+	@Test
+	public void testLoadFindingTheQueueFullRunsOnTheCaller() throws Exception {
+		ExecutorService loadExecutor = BubastisDiffResults.loadExecutor(1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			loadExecutor.execute(() -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			loadExecutor.execute(() -> { });
+			AtomicReference<Thread> ranOn = new AtomicReference<Thread>();
+			loadExecutor.execute(() -> ranOn.set(Thread.currentThread()));
+			assertSame(Thread.currentThread(), ranOn.get());
+		}
+		finally {
+			release.countDown();
+			loadExecutor.shutdownNow();
+		}
+		try {
+			loadExecutor.execute(() -> { });
+			fail("a load submitted to a pool that is shut down would never run");
+		} catch (RejectedExecutionException e) {
+			//expected
+		}
+	}
+
+
+
+	@Test
+	public void testUploadsWhoseResultsAreCachedAreNotParsed() throws Exception {
+		ServletMocks.Context context = new ServletMocks.Context();
+		servlet.init(ServletMocks.config(context, new HashMap<String, String>()));
+
+		try (ServerSocket server = new ServerSocket(0)) {
+			//parsing either upload would fetch its import from the server
+			byte[] ontology1 = ("Prefix(:=<http://x.org/o#>)\nOntology(<http://x.org/o>\nImport(<http://127.0.0.1:" + server.getLocalPort()
+					+ "/imported.owl>)\nDeclaration(Class(:A))\n)\n").getBytes(StandardCharsets.UTF_8);
+			byte[] ontology2 = ("Prefix(:=<http://x.org/o#>)\nOntology(<http://x.org/o>\nImport(<http://127.0.0.1:" + server.getLocalPort()
+					+ "/imported.owl>)\nDeclaration(Class(:B))\n)\n").getBytes(StandardCharsets.UTF_8);
+			OntologyChangesBean cached = new OntologyChangesBean();
+			cached.setNumChangedClasses(7);
+			DiffResultCache.forContext(context.proxy()).putPage(DiffResultCache.key(ContentHash.of(new ByteArrayInputStream(ontology1)),
+					ContentHash.of(new ByteArrayInputStream(ontology2)), Collections.<IRI>emptyList(), DiffResultCache.PAGE_FORMAT), cached);
+
+			ServletMocks.Request request = uploadRequest(ontology1, ontology2);
+			ServletMocks.Response response = new ServletMocks.Response();
+			servlet.doGet(request.proxy(), response.proxy());
+
+			assertEquals("/BubastisResultsPage.jsp", context.forwardedTo);
+			assertEquals(7, ((OntologyChangesBean) request.attributes.get("changeBean")).getNumChangedClasses());
+			server.setSoTimeout(1000);
+			try (Socket fetch = server.accept()) {
+				fail("an upload whose results were cached was parsed");
+			} catch (SocketTimeoutException e) {
+				//expected
+			}
+		}
+	}
+
+
+
+	@Test
+	public void testUploadsAreParsedWhenTheirResultsAreNotCached() throws Exception {
+		ServletMocks.Context context = new ServletMocks.Context();
+		servlet.init(ServletMocks.config(context, new HashMap<String, String>()));
+		ServletMocks.Request request = uploadRequest(
+				Files.readAllBytes(new File(getClass().getResource("/ontology_v1.ofn").toURI()).toPath()),
+				Files.readAllBytes(new File(getClass().getResource("/ontology_v2.ofn").toURI()).toPath()));
+		servlet.doGet(request.proxy(), new ServletMocks.Response().proxy());
+
+		assertEquals("/BubastisResultsPage.jsp", context.forwardedTo);
+		OntologyChangesBean changeBean = (OntologyChangesBean) request.attributes.get("changeBean");
+		assertTrue(changeBean.getNumChangedClasses() + changeBean.getNumNewClasses() + changeBean.getNumDeletedClasses() > 0);
+	}
+
+}
@@ -0,0 +1,137 @@
+package bubastiswebcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.ebi.efo.bubastis.OntologyChangesBean;
+
+
+/**
+ * Pages through the changed classes of a cached results page as json.
+ */
+public class BubastisResultClassesTest {
+
+	private static final String KEY = "results-key";
+	private static final String CLASS_C = "{\"iri\":\"http:\\/\\/x.org\\/o#C\",\"labels\":[\"gamma\"],"
+			+ "\"rows\":[{\"type\":\"newAxiom\",\"text\":\"C SubClassOf B\"}]}";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private BubastisResultClasses servlet;
+
+
+	@Before
+	public void setUp() throws Exception {
+		servlet = servlet(new DiffResultCache(1024 * 1024, null, 0));
+	}
+
+
+	/**
+	 * @return the servlet paging through a page with the changed classes of ResultClassTest in the cache
+	 */
+	private static BubastisResultClasses servlet(DiffResultCache cache) throws Exception {
+		OntologyChangesBean page = new OntologyChangesBean();
+		page.setNumChangedClasses(4);
+		page.setClassesWithDifferences(ResultClassTest.changedClasses());
+		assertTrue(cache.putPage(KEY, page));
+
+		ServletMocks.Context context = new ServletMocks.Context();
+		context.attributes.put(DiffResultCache.class.getName(), cache);
+		BubastisResultClasses servlet = new BubastisResultClasses();
+		servlet.init(ServletMocks.config(context, Collections.<String, String>emptyMap()));
+		return servlet;
+	}
+
+
+	private ServletMocks.Response get(String key, String... parameters) throws Exception {
+		ServletMocks.Request request = new ServletMocks.Request();
+		request.pathInfo = "/" + key;
+		for (int i = 0; i < parameters.length; i += 2) {
+			request.parameters.put(parameters[i], parameters[i + 1]);
+		}
+		if (request.parameters.containsKey("Accept-Encoding")) {
+			request.headers.put("Accept-Encoding", request.parameters.remove("Accept-Encoding"));
+		}
+		ServletMocks.Response response = new ServletMocks.Response();
+		servlet.doGet(request.proxy(), response.proxy());
+		return response;
+	}
+
+
+	private static String read(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+
+	@Test
+	public void testPageOfFilteredAndSortedClasses() throws Exception {
+		ServletMocks.Response response = get(KEY, "kind", "changed", "prefix", "http://x.org/o#", "sort", "iri", "offset", "1", "limit", "1");
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		assertNull(response.headers.get("Content-Encoding"));
+		String json = new String(response.bytes.toByteArray(), StandardCharsets.UTF_8);
+		//the second of the three classes under the prefix, by IRI
+		assertEquals("{\"kind\":\"changed\",\"offset\":1,\"limit\":1,\"classes\":[" + CLASS_C + "],\"total\":3}", json);
+
+		//the whole list by label, compressed
+		ServletMocks.Response compressed = get(KEY, "sort", "label", "limit", "2", "Accept-Encoding", "gzip, deflate");
+		assertEquals("gzip", compressed.headers.get("Content-Encoding"));
+		String all = read(new GZIPInputStream(new ByteArrayInputStream(compressed.bytes.toByteArray())));
+		assertTrue(all.startsWith("{\"kind\":\"changed\",\"offset\":0,\"limit\":2,\"classes\":[{\"iri\":\"http:\\/\\/x.org\\/o#D\""));
+		assertTrue(all.endsWith("],\"total\":4}"));
+
+		ServletMocks.Response none = get(KEY, "kind", "new");
+		assertEquals("{\"kind\":\"new\",\"offset\":0,\"limit\":100,\"classes\":[],\"total\":0}",
+				new String(none.bytes.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+
+	@Test
+	public void testResultsTooLargeForMemoryArePagedFromTheirFile() throws Exception {
+		DiffResultCache cache = new DiffResultCache(0, temporaryFolder.getRoot(), 1024 * 1024);
+		servlet = servlet(cache);
+		assertEquals(0, cache.size());
+
+		ServletMocks.Response response = get(KEY, "kind", "changed", "prefix", "http://x.org/o#", "sort", "iri", "offset", "1", "limit", "1");
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		assertEquals("{\"kind\":\"changed\",\"offset\":1,\"limit\":1,\"classes\":[" + CLASS_C + "],\"total\":3}",
+				new String(response.bytes.toByteArray(), StandardCharsets.UTF_8));
+		//in the order of the diff
+		ServletMocks.Response first = get(KEY, "limit", "1");
+		assertEquals("{\"kind\":\"changed\",\"offset\":0,\"limit\":1,\"classes\":[" + CLASS_C + "],\"total\":4}",
+				new String(first.bytes.toByteArray(), StandardCharsets.UTF_8));
+		//the page was never held in memory
+		assertEquals(0, cache.size());
+	}
+
+
+	@Test
+	public void testUnknownResultsAndParametersAreRefused() throws Exception {
+		assertEquals(HttpServletResponse.SC_NOT_FOUND, get("expired-key").status);
+		assertEquals(HttpServletResponse.SC_BAD_REQUEST, get(KEY, "kind", "renamed").status);
+		assertEquals(HttpServletResponse.SC_BAD_REQUEST, get(KEY, "sort", "size").status);
+		assertEquals(HttpServletResponse.SC_BAD_REQUEST, get(KEY, "offset", "first").status);
+	}
+
+}
@@ -0,0 +1,86 @@
+package bubastiswebcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.owlapi.model.IRI;
+
+/**
+ * Keeps diff jobs that fail straight away, as their ontologies do not exist, and jobs that never run.
+ */
+public class DiffJobStoreTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+
+	private DiffJob job() throws Exception {
+		String missing = new File(temporaryFolder.getRoot(), "missing.owl").toURI().toString();
+		return new DiffJob(missing, missing, Collections.<IRI>emptyList(), null, null);
+	}
+
+
+	private DiffJob finishedJob() throws Exception {
+		DiffJob job = job();
+		job.run();
+		assertTrue(job.isFinished());
+		return job;
+	}
+
+
+	@Test
+	public void testFinishedJobExpires() throws Exception {
+		DiffJobStore store = new DiffJobStore(10, 50);
+		DiffJob waiting = job();
+		DiffJob finished = finishedJob();
+		assertTrue(store.add(waiting));
+		assertTrue(store.add(finished));
+		assertSame(finished, store.get(finished.getId()));
+
+		Thread.sleep(100);
+		assertNull(store.get(finished.getId()));
+		//a job that has not finished is kept however long it waits
+		assertSame(waiting, store.get(waiting.getId()));
+		assertEquals(1, store.size());
+		store.clear();
+	}
+
+
+	@Test
+	public void testOldestFinishedJobMakesRoom() throws Exception {
+		DiffJobStore store = new DiffJobStore(3, 60000);
+		DiffJob waiting = job();
+		DiffJob finishedFirst = finishedJob();
+		Thread.sleep(5);
+		DiffJob finishedLast = finishedJob();
+		assertTrue(store.add(finishedLast));
+		assertTrue(store.add(waiting));
+		assertTrue(store.add(finishedFirst));
+
+		//the job finished first goes, whatever order the jobs were added in
+		assertTrue(store.add(job()));
+		assertNull(store.get(finishedFirst.getId()));
+		assertSame(finishedLast, store.get(finishedLast.getId()));
+		assertTrue(store.add(job()));
+		assertNull(store.get(finishedLast.getId()));
+
+		//only jobs that have not finished are left, a new one is refused
+		DiffJob refused = job();
+		assertFalse(store.add(refused));
+		refused.discard();
+		assertEquals(3, store.size());
+		assertSame(waiting, store.get(waiting.getId()));
+		store.clear();
+		assertEquals(0, store.size());
+	}
+
+}
@@ -0,0 +1,66 @@
+package bubastiswebcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.model.IRI;
+
+import uk.ac.ebi.efo.bubastis.DiffProgress;
+
+
+/**
+ * Runs a diff job on the two versions of the test ontology and fetches its results.
+ */
+public class DiffJobTest {
+
+	private static String resource(String name) throws Exception {
+		return new File(DiffJobTest.class.getResource("/" + name).toURI()).toURI().toString();
+	}
+
+
+	private static DiffJob finishedJob() throws Exception {
+		DiffJob job = new DiffJob(resource("ontology_v1.ofn"), resource("ontology_v2.ofn"),
+				Collections.singletonList(IRI.create("http://www.w3.org/2000/01/rdf-schema#label")), null, null);
+		job.run();
+		assertEquals(DiffProgress.Phase.DONE, job.getProgress().getPhase());
+		return job;
+	}
+
+
+	@Test
+	public void testResultIsKeptUntilItsFetchEnds() throws Exception {
+		DiffJob job = finishedJob();
+		File xml = job.openResult(DiffJob.Format.XML);
+		assertTrue(new String(Files.readAllBytes(xml.toPath()), StandardCharsets.UTF_8).contains("<changedClasses"));
+
+		//the job is deleted while its result is being fetched
+		job.discard();
+		assertTrue(xml.exists());
+		assertNull(job.openResult(DiffJob.Format.TEXT));
+
+		job.closeResult();
+		assertFalse(xml.exists());
+		assertFalse(xml.getParentFile().exists());
+	}
+
+
+	@Test
+	public void testDiscardDeletesResultsThatAreNotBeingFetched() throws Exception {
+		DiffJob job = finishedJob();
+		File text = job.openResult(DiffJob.Format.TEXT);
+		job.closeResult();
+		assertTrue(text.exists());
+
+		job.discard();
+		assertFalse(text.exists());
+	}
+
+}
@@ -0,0 +1,170 @@
+package bubastiswebcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.vocab.OWLRDFVocabulary;
+
+import uk.ac.ebi.efo.bubastis.CompareOntologies;
+import uk.ac.ebi.efo.bubastis.OWLClassAxiomsInfo;
+import uk.ac.ebi.efo.bubastis.OntologyChangesBean;
+
+/**
+ * Keys and evicts the results of diffs in memory and in a temporary directory.
+ */
+public class DiffResultCacheTest {
+
+	private static final IRI LABEL = OWLRDFVocabulary.RDFS_LABEL.getIRI();
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+
+	@Test
+	public void testKeyIgnoresOrderOfAnnotationProperties() {
+		String key = DiffResultCache.key("hash1", "hash2", Arrays.asList(LABEL, CompareOntologies.CODE_IRI), "xml");
+		assertEquals(key, DiffResultCache.key("hash1", "hash2", Arrays.asList(CompareOntologies.CODE_IRI, LABEL), "xml"));
+		assertNotEquals(key, DiffResultCache.key("hash1", "hash2", Arrays.asList(LABEL), "xml"));
+		assertNotEquals(key, DiffResultCache.key("hash2", "hash1", Arrays.asList(LABEL, CompareOntologies.CODE_IRI), "xml"));
+		assertNotEquals(key, DiffResultCache.key("hash1", "hash2", Arrays.asList(LABEL, CompareOntologies.CODE_IRI), "txt"));
+	}
+
+
+
+	@Test
+	public void testLeastRecentlyUsedResultIsEvictedFromMemory() throws Exception {
+		DiffResultCache cache = new DiffResultCache(30, null, 0);
+		assertTrue(cache.put("a", new byte[10]));
+		assertTrue(cache.put("b", new byte[10]));
+		assertTrue(cache.put("c", new byte[10]));
+		//a is used again, so b is the least recently used when d needs the room
+		cache.get("a");
+		assertTrue(cache.put("d", new byte[10]));
+		assertEquals(3, cache.size());
+		assertEquals(30, cache.getBytes());
+		assertNull(cache.get("b"));
+		assertArrayEquals(new byte[10], cache.get("a"));
+
+		//a result larger than the cache is not kept and evicts nothing
+		assertFalse(cache.put("e", new byte[31]));
+		assertFalse(cache.canHold(31));
+		assertEquals(3, cache.size());
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+
+	@Test
+	public void testLeastRecentlyUsedFileIsEvictedFromDisk() throws Exception {
+		File directory = temporaryFolder.newFolder("results");
+		DiffResultCache cache = new DiffResultCache(0, directory, 25);
+		assertTrue(cache.canHold(25));
+		assertTrue(cache.put("a", new byte[] {1}));
+		new File(directory, "a.result").setLastModified(System.currentTimeMillis() - 20000);
+		assertTrue(cache.put("b", new byte[10]));
+		new File(directory, "b.result").setLastModified(System.currentTimeMillis() - 10000);
+		//reading a refreshes its file, so b is evicted when c needs the room
+		assertArrayEquals(new byte[] {1}, cache.get("a"));
+		assertTrue(cache.put("c", new byte[20]));
+		assertTrue(new File(directory, "a.result").isFile());
+		assertFalse(new File(directory, "b.result").exists());
+		assertNull(cache.get("b"));
+
+		//the files outlive the cache
+		DiffResultCache restarted = new DiffResultCache(100, directory, 25);
+		assertArrayEquals(new byte[20], restarted.get("c"));
+		assertEquals(1, restarted.size());
+	}
+
+
+
+	/**
+	 * classes that count how often they are gone through
+	 */
+	private static class CountedClasses extends ArrayList<OWLClassAxiomsInfo> {
+		private static final long serialVersionUID = 1L;
+		int iterations;
+
+		CountedClasses(List<OWLClassAxiomsInfo> classes) {
+			super(classes);
+		}
+
+		@Override
+		public Iterator<OWLClassAxiomsInfo> iterator() {
+			iterations++;
+			return super.iterator();
+		}
+	}
+
+
+	private static OntologyChangesBean page(CountedClasses changedClasses) {
+		OntologyChangesBean changeBean = new OntologyChangesBean();
+		changeBean.setNumChangedClasses(changedClasses.size());
+		changeBean.setClassesWithDifferences(changedClasses);
+		return changeBean;
+	}
+
+
+	@Test
+	public void testPageTooLargeToKeepIsNotWritten() throws Exception {
+		CountedClasses classes = new CountedClasses(ResultClassTest.changedClasses());
+		DiffResultCache measured = new DiffResultCache(1024 * 1024, null, 0);
+		assertTrue(measured.putPage("page", page(classes)));
+		long length = measured.getBytes();
+		classes.iterations = 0;
+
+		DiffResultCache small = new DiffResultCache(length - 1, null, 0);
+		assertFalse(small.putPage("page", page(classes)));
+		//the classes were only measured
+		assertEquals(1, classes.iterations);
+		assertEquals(0, small.size());
+
+		DiffResultCache cache = new DiffResultCache(length, null, 0);
+		assertTrue(cache.putPage("page", page(classes)));
+		assertEquals(length, cache.getBytes());
+		assertEquals(4, cache.getPage("page").getNumChangedClasses());
+	}
+
+
+	@Test
+	public void testPageTooLargeForMemoryIsReadFromItsFile() throws Exception {
+		CountedClasses classes = new CountedClasses(ResultClassTest.changedClasses());
+		OntologyChangesBean page = page(classes);
+		page.setNumNewClasses(1);
+		page.setNewClasses(new ArrayList<OWLClassAxiomsInfo>(classes.subList(0, 1)));
+		DiffResultCache cache = new DiffResultCache(16, temporaryFolder.newFolder(), 1024 * 1024);
+		assertTrue(cache.putPage("page", page));
+		//measured and written straight to the file
+		assertEquals(2, classes.iterations);
+		assertEquals(0, cache.size());
+
+		assertEquals(4, cache.getPage("page").getNumChangedClasses());
+		assertEquals(0, cache.size());
+		try (DiffResultCache.PageClasses changed = cache.getPageClasses("page", ResultClass.Kind.CHANGED)) {
+			assertEquals(4, changed.size());
+			assertEquals("http://x.org/o#C", changed.next().getIRI());
+			assertEquals("http://x.org/o#A", changed.next().getIRI());
+		}
+		//the classes of the kinds before are skipped
+		try (DiffResultCache.PageClasses deleted = cache.getPageClasses("page", ResultClass.Kind.DELETED)) {
+			assertEquals(0, deleted.size());
+			assertFalse(deleted.hasNext());
+		}
+		assertNull(cache.getPageClasses("missing", ResultClass.Kind.NEW));
+	}
+
+}
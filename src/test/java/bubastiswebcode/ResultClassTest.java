@@ -0,0 +1,139 @@
+package bubastiswebcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+
+import uk.ac.ebi.efo.bubastis.OWLClassAxiomsInfo;
+
+
+/**
+ * Builds the classes of the results page from the classes of a diff, writes them for the result
+ * cache and orders them.
+ */
+public class ResultClassTest {
+
+	private static final OWLDataFactory FACTORY = OWLManager.getOWLDataFactory();
+
+
+	private static Set<OWLAnnotation> labels(String... labels) {
+		Set<OWLAnnotation> annotations = new HashSet<OWLAnnotation>();
+		for (String label : labels) {
+			annotations.add(FACTORY.getOWLAnnotation(FACTORY.getRDFSLabel(), FACTORY.getOWLLiteral(label)));
+		}
+		return annotations;
+	}
+
+
+	private static OWLClassAxiomsInfo withAxioms(String iri, String label, String... newAxioms) {
+		OWLClassAxiomsInfo info = OWLClassAxiomsInfo.withAxiomLabels(IRI.create(iri), new HashSet<String>(Arrays.asList(newAxioms)),
+				newAxioms.length, null, 0);
+		info.setClassLabels(label == null ? null : labels(label));
+		return info;
+	}
+
+
+	/**
+	 * @return changed classes of a diff, one with a label that looks like markup
+	 */
+	static ArrayList<OWLClassAxiomsInfo> changedClasses() {
+		OWLClassAxiomsInfo a = new OWLClassAxiomsInfo(IRI.create("http://x.org/o#A"), null, labels("alpha"),
+				Collections.singletonList(FACTORY.getRDFSLabel()));
+		a.setClassLabels(labels("Zeta &amp; <z>"));
+		return new ArrayList<OWLClassAxiomsInfo>(Arrays.asList(
+				withAxioms("http://x.org/o#C", "gamma", "C SubClassOf B"),
+				a,
+				withAxioms("http://x.org/other#B", null),
+				withAxioms("http://x.org/o#D", "Beta")));
+	}
+
+
+	private static List<String> iris(List<ResultClass> classes) {
+		List<String> iris = new ArrayList<String>();
+		for (ResultClass resultClass : classes) {
+			iris.add(resultClass.getIRI());
+		}
+		return iris;
+	}
+
+
+	private static String json(ResultClass resultClass) {
+		StringBuilder json = new StringBuilder();
+		resultClass.appendJSON(json);
+		return json.toString();
+	}
+
+
+	@Test
+	public void testClassKeepsItsTextAsItIs() {
+		ResultClass a = ResultClass.of(changedClasses().get(1), ResultClass.Kind.CHANGED);
+		assertEquals("http://x.org/o#A", a.getIRI());
+		//nothing is unescaped or cut at what looks like a tag
+		assertEquals(Arrays.asList("Zeta &amp; <z>"), a.getLabels());
+		assertEquals(1, a.getRows().size());
+		assertEquals("deletedAnnotation", a.getRows().get(0).type);
+		assertEquals("label 'alpha'", a.getRows().get(0).text);
+		assertEquals("{\"iri\":\"http:\\/\\/x.org\\/o#A\",\"labels\":[\"Zeta &amp; <z>\"],\"rows\":["
+				+ "{\"type\":\"deletedAnnotation\",\"text\":\"label 'alpha'\"}]}", json(a));
+	}
+
+
+	@Test
+	public void testAxiomsOfNewAndDeletedClassesAreShown() {
+		OWLClassAxiomsInfo info = withAxioms("http://x.org/o#N", "nu", "N SubClassOf A");
+		assertEquals("newAxiom", ResultClass.of(info, ResultClass.Kind.CHANGED).getRows().get(0).type);
+		assertEquals("newAxiom", ResultClass.of(info, ResultClass.Kind.NEW).getRows().get(0).type);
+		//the axioms of a deleted class are those it had
+		ResultClass deleted = ResultClass.of(info, ResultClass.Kind.DELETED);
+		assertEquals("deletedAxiom", deleted.getRows().get(0).type);
+		assertEquals("N SubClassOf A", deleted.getRows().get(0).text);
+	}
+
+
+	@Test
+	public void testClassIsReadAsItWasWritten() throws Exception {
+		//characters of every UTF-8 length, and a surrogate pair
+		ResultClass written = ResultClass.of(withAxioms("http://x.org/o#E", "caf\u00e9 \u2192 \ud83d\ude00", "E SubClassOf \u00e9"),
+				ResultClass.Kind.NEW);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			written.write(out);
+		}
+		assertEquals(written.length(), bytes.size());
+		ResultClass read = ResultClass.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(json(written), json(read));
+	}
+
+
+	@Test
+	public void testClassesAreSorted() {
+		List<ResultClass> classes = new ArrayList<ResultClass>();
+		for (OWLClassAxiomsInfo info : changedClasses()) {
+			classes.add(ResultClass.of(info, ResultClass.Kind.CHANGED));
+		}
+		assertNull(ResultClass.comparator(ResultClass.Sort.NONE));
+
+		classes.sort(ResultClass.comparator(ResultClass.Sort.IRI));
+		assertEquals(Arrays.asList("http://x.org/o#A", "http://x.org/o#C", "http://x.org/o#D", "http://x.org/other#B"), iris(classes));
+		//by label ignoring case, classes without a label last
+		classes.sort(ResultClass.comparator(ResultClass.Sort.LABEL));
+		assertEquals(Arrays.asList("http://x.org/o#D", "http://x.org/o#C", "http://x.org/o#A", "http://x.org/other#B"), iris(classes));
+	}
+
+}
@@ -0,0 +1,196 @@
+package bubastiswebcode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+/**
+ * Stand-ins for the servlet container in the tests of the servlets, holding what the servlets
+ * set and answering only the calls they make.
+ */
+class ServletMocks {
+
+	/**
+	 * a servlet context with attributes and init parameters; forwards to a page are not
+	 * followed, only the path of the last one is kept
+	 */
+	static class Context {
+		final Map<String, Object> attributes = new HashMap<String, Object>();
+		final Map<String, String> initParameters = new HashMap<String, String>();
+		volatile String forwardedTo;
+
+		ServletContext proxy() {
+			return mock(ServletContext.class, (proxy, method, args) -> {
+				switch (method.getName()) {
+				case "getAttribute":
+					return attributes.get(args[0]);
+				case "setAttribute":
+					attributes.put((String) args[0], args[1]);
+					return null;
+				case "getInitParameter":
+					return initParameters.get(args[0]);
+				case "getRequestDispatcher":
+					String path = (String) args[0];
+					return mock(RequestDispatcher.class, (dispatcher, forward, forwardArgs) -> {
+						forwardedTo = path;
+						return null;
+					});
+				case "log":
+					return null;
+				default:
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * @return the config of a servlet in the given context
+	 */
+	static ServletConfig config(Context context, Map<String, String> initParameters) {
+		ServletContext servletContext = context.proxy();
+		return mock(ServletConfig.class, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "getServletContext":
+				return servletContext;
+			case "getInitParameter":
+				return initParameters.get(args[0]);
+			case "getInitParameterNames":
+				return Collections.enumeration(initParameters.keySet());
+			case "getServletName":
+				return "test";
+			default:
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+
+	/**
+	 * a request with a content type, parameters or a body
+	 */
+	static class Request {
+		String contentType;
+		String pathInfo;
+		byte[] body = new byte[0];
+		//whether the servlet has read from the body
+		volatile boolean bodyRead;
+		final Map<String, String> parameters = new HashMap<String, String>();
+		final Map<String, String> headers = new HashMap<String, String>();
+		final Map<String, Object> attributes = new HashMap<String, Object>();
+
+		HttpServletRequest proxy() {
+			ByteArrayInputStream in = new ByteArrayInputStream(body);
+			return mock(HttpServletRequest.class, (proxy, method, args) -> {
+				switch (method.getName()) {
+				case "getContentType":
+					return contentType;
+				case "getContentLength":
+					return body.length;
+				case "getPathInfo":
+					return pathInfo;
+				case "getParameter":
+					return parameters.get(args[0]);
+				case "getHeader":
+					return headers.get(args[0]);
+				case "getAttribute":
+					return attributes.get(args[0]);
+				case "setAttribute":
+					attributes.put((String) args[0], args[1]);
+					return null;
+				case "getInputStream":
+					return new ServletInputStream() {
+						@Override
+						public int read() throws IOException {
+							bodyRead = true;
+							return in.read();
+						}
+
+						@Override
+						public int read(byte[] b, int off, int len) throws IOException {
+							bodyRead = true;
+							return in.read(b, off, len);
+						}
+					};
+				case "getRequestURL":
+					return new StringBuffer("http://localhost/bubastis/jobs");
+				case "getScheme":
+					return "http";
+				case "getServerName":
+					return "localhost";
+				case "getServerPort":
+					return 80;
+				case "getContextPath":
+					return "/bubastis";
+				case "getServletPath":
+					return "/jobs";
+				default:
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * a response keeping its status, headers and what is written to it, as text or as bytes
+	 */
+	static class Response {
+		volatile int status = HttpServletResponse.SC_OK;
+		final Map<String, String> headers = new HashMap<String, String>();
+		final StringWriter body = new StringWriter();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		HttpServletResponse proxy() {
+			PrintWriter writer = new PrintWriter(body);
+			return mock(HttpServletResponse.class, (proxy, method, args) -> {
+				switch (method.getName()) {
+				case "setStatus":
+					status = (Integer) args[0];
+					return null;
+				case "setHeader":
+					headers.put((String) args[0], (String) args[1]);
+					return null;
+				case "getWriter":
+					return writer;
+				case "getOutputStream":
+					return new ServletOutputStream() {
+						@Override
+						public void write(int b) {
+							bytes.write(b);
+						}
+					};
+				case "setContentType":
+				case "setCharacterEncoding":
+				case "setContentLength":
+					return null;
+				default:
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+	}
+
+
+	private static <T> T mock(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(ServletMocks.class.getClassLoader(), new Class<?>[] {type}, handler));
+	}
+
+}
@@ -0,0 +1,118 @@
+package bubastiswebcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+import uk.ac.ebi.efo.bubastis.ContentHash;
+import uk.ac.ebi.efo.bubastis.FetchedDocument;
+import uk.ac.ebi.efo.bubastis.exceptions.DocumentTooLargeException;
+
+
+/**
+ * Reads multipart forms with plain, gzip and zip compressed ontologies.
+ */
+public class StreamingUploadTest {
+
+	private static final String BOUNDARY = "----bubastisboundary";
+	private static final byte[] ONTOLOGY = "Prefix(:=<http://x.org/o#>)\nOntology(<http://x.org/o>\nDeclaration(Class(:A))\n)\n"
+			.getBytes(StandardCharsets.UTF_8);
+
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+
+	private void addParameter(String name, String value) throws Exception {
+		body.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n")
+				.getBytes(StandardCharsets.UTF_8));
+	}
+
+
+	private void addFile(String name, String fileName, byte[] content) throws Exception {
+		body.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName
+				+ "\"\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+		body.write(content);
+		body.write("\r\n".getBytes(StandardCharsets.UTF_8));
+	}
+
+
+	private StreamingUpload read(long maxDocumentSize, StreamingUpload.DocumentListener listener) throws Exception {
+		body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+		ServletMocks.Request request = new ServletMocks.Request();
+		request.contentType = "multipart/form-data; boundary=" + BOUNDARY;
+		request.body = body.toByteArray();
+		return StreamingUpload.read(request.proxy(), 1024 * 1024, maxDocumentSize, listener);
+	}
+
+
+	private static byte[] gzip(byte[] content) throws Exception {
+		ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+			out.write(content);
+		}
+		return gzip.toByteArray();
+	}
+
+
+	private static byte[] zip(byte[] content) throws Exception {
+		ByteArrayOutputStream zip = new ByteArrayOutputStream();
+		try (ZipOutputStream out = new ZipOutputStream(zip)) {
+			out.putNextEntry(new ZipEntry("ontology.owl"));
+			out.write(content);
+		}
+		return zip.toByteArray();
+	}
+
+
+	@Test
+	public void testCompressedUploadsAreDecompressed() throws Exception {
+		addParameter("annotationPropertyIRIs", "http://www.w3.org/2000/01/rdf-schema#label");
+		addFile("ontology1file", "v1.owl.gz", gzip(ONTOLOGY));
+		addFile("ontology2file", "v2.zip", zip(ONTOLOGY));
+		addFile("ontology3file", "v3.owl", ONTOLOGY);
+		addFile("emptyfile", "", new byte[0]);
+		List<String> read = new ArrayList<String>();
+		try (StreamingUpload upload = read(ONTOLOGY.length, (name, document) -> read.add(name))) {
+			assertEquals("http://www.w3.org/2000/01/rdf-schema#label", upload.getParameter("annotationPropertyIRIs"));
+			//each document is handed on as soon as it has arrived, in the order of the form
+			assertEquals(3, read.size());
+			assertEquals("ontology1file", read.get(0));
+			assertNull(upload.getDocument("emptyfile"));
+			for (String name : read) {
+				FetchedDocument document = upload.getDocument(name);
+				assertEquals(ONTOLOGY.length, document.length());
+				assertEquals(ContentHash.of(new ByteArrayInputStream(ONTOLOGY)), document.getContentHash());
+			}
+		}
+	}
+
+
+	@Test
+	public void testUploadLargerThanLimitIsRefused() throws Exception {
+		addFile("ontology1file", "v1.owl", ONTOLOGY);
+		addFile("ontology2file", "v2.owl.gz", gzip(new byte[4096]));
+		List<FetchedDocument> read = new ArrayList<FetchedDocument>();
+		try {
+			read(ONTOLOGY.length + 1, (name, document) -> read.add(document)).close();
+			fail("an upload larger than the limit once decompressed was read");
+		} catch (DocumentTooLargeException e) {
+			assertEquals(ONTOLOGY.length + 1, e.getMaxLength());
+		}
+		//the document read before the refused one is deleted with the upload
+		assertEquals(1, read.size());
+		assertFalse(new File(read.get(0).getDocumentSource().getDocumentIRI().toURI()).exists());
+	}
+
+}
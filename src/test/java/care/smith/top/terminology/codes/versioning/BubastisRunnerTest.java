@@ -0,0 +1,138 @@
+package care.smith.top.terminology.codes.versioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.util.Models;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs over a directory of three releases of a small code system, built from the two versions in the test resources.
+ */
+public class BubastisRunnerTest {
+  
+  private static final String[] PAIRS = {"r1.owl-r2.owl.trig", "r2.owl-r3.owl.trig"};
+  
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  
+  private File releases;
+  
+  @Before
+  public void setUp() throws Exception {
+    releases = temporaryFolder.newFolder("releases");
+    Files.copy(resource("codesystem_v1.ofn").toPath(), new File(releases, "r1.owl").toPath());
+    Files.copy(resource("codesystem_v2.ofn").toPath(), new File(releases, "r2.owl").toPath());
+    String v2 = new String(Files.readAllBytes(resource("codesystem_v2.ofn").toPath()), StandardCharsets.UTF_8);
+    String v3 = v2.replace("<http://x.org/cs/v2>", "<http://x.org/cs/v3>")
+            .replace("Declaration(Class(:New))", "Declaration(Class(:New))\nDeclaration(Class(:Newer))\nSubClassOf(:Newer :A)")
+            .replace("\"beta two\"", "\"beta three\"");
+    Files.write(new File(releases, "r3.owl").toPath(), v3.getBytes(StandardCharsets.UTF_8));
+  }
+  
+  private File resource(String name) throws Exception {
+    return new File(getClass().getResource("/" + name).toURI());
+  }
+  
+  private static Model read(File file) throws Exception {
+    try (InputStream in = Files.newInputStream(file.toPath())) {
+      return Rio.parse(in, "", RDFFormat.TRIG);
+    }
+  }
+  
+  private File copyReleases() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    for (File release : releases.listFiles()) {
+      Files.copy(release.toPath(), new File(directory, release.getName()).toPath());
+    }
+    return directory;
+  }
+  
+  /**
+   * run over a copy of the releases and return the directory with the diffs
+   */
+  private File run(String... options) throws Exception {
+    return run(copyReleases(), options);
+  }
+  
+  private static File run(File directory, String... options) {
+    String[] args = new String[options.length + 1];
+    System.arraycopy(options, 0, args, 0, options.length);
+    args[options.length] = directory.getPath();
+    BubastisRunner.main(args);
+    return directory;
+  }
+  
+  private static void assertSameDiffs(File expected, File actual) throws Exception {
+    for (String pair : PAIRS) {
+      Model expectedModel = read(new File(expected, pair));
+      assertTrue(pair, expectedModel.size() > 1);
+      assertTrue(pair, Models.isomorphic(expectedModel, read(new File(actual, pair))));
+    }
+  }
+  
+  @Test
+  public void testChainGivesSameDiffs() throws Exception {
+    File expected = run();
+    assertSameDiffs(expected, run("-chain"));
+    
+    // with r1-r2 up to date, the chain starts again at r2-r3, whose older release is not the newer one of r0-r1
+    File resumed = run("-chain");
+    assertTrue(new File(resumed, PAIRS[1]).delete());
+    Files.copy(new File(resumed, "r3.owl").toPath(), new File(resumed, "r0.owl").toPath());
+    run(resumed, "-chain");
+    assertSameDiffs(expected, resumed);
+    assertTrue(read(new File(resumed, "r0.owl-r1.owl.trig")).size() > 1);
+    
+    // a release the same as the one before is written as an empty diff without loading either
+    Files.copy(new File(resumed, "r3.owl").toPath(), new File(resumed, "r4.owl").toPath());
+    run(resumed, "-chain");
+    assertEquals(0, read(new File(resumed, "r3.owl-r4.owl.trig")).size());
+    assertSameDiffs(expected, resumed);
+  }
+  
+  @Test
+  public void testParallelGivesSameDiffs() throws Exception {
+    File expected = run();
+    assertSameDiffs(expected, run("-parallel", "-threads", "2"));
+    // estimated above the heap, each pair still runs once it has the heap to itself
+    assertSameDiffs(expected, run("-parallel", "-threads", "2", "-heap_factor", "1e12"));
+  }
+  
+  @Test
+  public void testRunResumesWithPendingPairs() throws Exception {
+    File directory = run();
+    File done = new File(directory, PAIRS[0]);
+    File redone = new File(directory, PAIRS[1]);
+    assertTrue(done.setLastModified(1000000000000L));
+    assertTrue(redone.delete());
+    
+    // the pair that is up to date is skipped, the one whose output is missing is diffed again
+    run(directory);
+    assertEquals(1000000000000L, done.lastModified());
+    assertSameDiffs(run(), directory);
+    
+    // a changed release makes its pairs pending again, here an empty diff as r3 now is the same as r2
+    Files.copy(new File(directory, "r2.owl").toPath(), new File(directory, "r3.owl").toPath(), StandardCopyOption.REPLACE_EXISTING);
+    run(directory);
+    assertEquals(1000000000000L, done.lastModified());
+    assertEquals(0, read(redone).size());
+    
+    // -force diffs every pair again
+    run(directory, "-force");
+    assertTrue(done.lastModified() != 1000000000000L);
+  }
+  
+}
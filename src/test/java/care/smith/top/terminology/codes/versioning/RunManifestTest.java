@@ -0,0 +1,67 @@
+package care.smith.top.terminology.codes.versioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.ebi.efo.bubastis.ContentHash;
+
+/**
+ * Records releases and pairs of a history run in a manifest in a temporary directory.
+ */
+public class RunManifestTest {
+  
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  
+  private File write(File file, String content, long modified) throws Exception {
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    file.setLastModified(modified);
+    return file;
+  }
+  
+  @Test
+  public void testUnchangedReleaseIsNotHashedAgain() throws Exception {
+    File manifestFile = new File(temporaryFolder.getRoot(), "manifest.properties");
+    File release = write(temporaryFolder.newFile("a.owl"), "first", 1000000000000L);
+    String hash = RunManifest.load(manifestFile).hashOf(release, false);
+    assertEquals(ContentHash.of(release), hash);
+    
+    // same size and modification time: the recorded hash is taken without reading the file
+    write(release, "other", 1000000000000L);
+    RunManifest manifest = RunManifest.load(manifestFile);
+    assertEquals(hash, manifest.hashOf(release, false));
+    
+    // -force, or a new modification time, hashes the file again
+    assertEquals(ContentHash.of(release), manifest.hashOf(release, true));
+    write(release, "first", 1000000001000L);
+    assertEquals(hash, manifest.hashOf(release, false));
+    write(release, "third", 1000000002000L);
+    assertNotEquals(hash, RunManifest.load(manifestFile).hashOf(release, false));
+  }
+  
+  @Test
+  public void testRecordedPairIsUpToDateAfterReload() throws Exception {
+    File manifestFile = new File(temporaryFolder.getRoot(), "manifest.properties");
+    File output = temporaryFolder.newFile("a-b.trig");
+    RunManifest.load(manifestFile).record("a-b", "h1", "h2", "trig", output);
+    
+    RunManifest manifest = RunManifest.load(manifestFile);
+    assertTrue(manifest.isUpToDate("a-b", "h1", "h2", "trig", output));
+    assertFalse(manifest.isUpToDate("a-b", "h1", "h3", "trig", output));
+    assertFalse(manifest.isUpToDate("a-b", "h1", "h2", "xml", output));
+    assertFalse(manifest.isUpToDate("b-c", "h1", "h2", "trig", output));
+    assertTrue(output.delete());
+    assertFalse(manifest.isUpToDate("a-b", "h1", "h2", "trig", output));
+  }
+  
+}
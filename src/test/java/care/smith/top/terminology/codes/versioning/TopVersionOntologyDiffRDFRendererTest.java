@@ -0,0 +1,112 @@
+package care.smith.top.terminology.codes.versioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.util.Models;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.vocab.OWLRDFVocabulary;
+
+import uk.ac.ebi.efo.bubastis.CompareOntologies;
+import uk.ac.ebi.efo.bubastis.DiffListener;
+import uk.ac.ebi.efo.bubastis.OWLClassAxiomsInfo;
+import uk.ac.ebi.efo.bubastis.OntologyChangesBean;
+
+/**
+ * Renders the diff of two versions of a small code system in the test resources as RDF, from a model and streamed.
+ */
+public class TopVersionOntologyDiffRDFRendererTest {
+  
+  private static final List<IRI> ANNOTATION_PROPERTIES = Arrays.asList(
+          OWLRDFVocabulary.RDFS_LABEL.getIRI(), CompareOntologies.CODE_IRI);
+  
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  
+  private File resource(String name) throws Exception {
+    return new File(getClass().getResource("/" + name).toURI());
+  }
+  
+  private CompareOntologies diff(CompareOntologies comparer) throws Exception {
+    comparer.doFindAllChanges(resource("codesystem_v1.ofn"), resource("codesystem_v2.ofn"), ANNOTATION_PROPERTIES);
+    return comparer;
+  }
+  
+  private Model read(File file) throws Exception {
+    try (InputStream in = Files.newInputStream(file.toPath())) {
+      return Rio.parse(in, "", RDFFormat.TRIG);
+    }
+  }
+  
+  @Test
+  public void testStreamedGraphMatchesModel() throws Exception {
+    OntologyChangesBean changes = diff(new CompareOntologies()).getOntologyChangesBean();
+    File modelFile = temporaryFolder.newFile("model.trig");
+    new TopVersionOntologyDiffRDFRenderer().writeDiffToFile(modelFile.getPath(), changes, RDFFormat.TRIG);
+    File streamedFile = temporaryFolder.newFile("streamed.trig");
+    new TopVersionOntologyDiffRDFRenderer().streamDiffToFile(streamedFile.getPath(), changes, RDFFormat.TRIG);
+    
+    // streamed from the diff as a listener, without keeping the changes
+    File listenerFile = new File(temporaryFolder.getRoot(), "listener.trig");
+    CompareOntologies streamed = new CompareOntologies();
+    streamed.setRetainResults(false);
+    streamed.addDiffListener(new TopVersionOntologyDiffRDFRenderer(listenerFile.getPath(), RDFFormat.TRIG, true));
+    diff(streamed);
+    
+    Model model = read(modelFile);
+    assertTrue(model.size() > 1);
+    assertTrue(Models.isomorphic(model, read(streamedFile)));
+    assertTrue(Models.isomorphic(model, read(listenerFile)));
+  }
+  
+  @Test
+  public void testFailedDiffDeletesStreamedFile() throws Exception {
+    File file = new File(temporaryFolder.getRoot(), "failed.trig");
+    CompareOntologies comparer = new CompareOntologies();
+    comparer.addDiffListener(new TopVersionOntologyDiffRDFRenderer(file.getPath(), RDFFormat.TRIG, true));
+    comparer.addDiffListener(new DiffListener() {
+      @Override
+      public void onStart(OntologyChangesBean changeBean) {
+      }
+      
+      @Override
+      public void onChangedClass(OWLClassAxiomsInfo changedClass) {
+      }
+      
+      @Override
+      public void onNewClass(OWLClassAxiomsInfo newClass) {
+        throw new IllegalStateException("disk full");
+      }
+      
+      @Override
+      public void onDeletedClass(OWLClassAxiomsInfo deletedClass) {
+      }
+      
+      @Override
+      public void onComplete(OntologyChangesBean changeBean) {
+      }
+    });
+    try {
+      diff(comparer);
+      fail("the diff should fail");
+    } catch (IllegalStateException e) {
+      assertEquals("disk full", e.getMessage());
+    }
+    assertFalse(file.exists());
+  }
+  
+}
@@ -0,0 +1,111 @@
+package uk.ac.ebi.efo.bubastis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.vocab.OWLRDFVocabulary;
+
+/**
+ * Renders axioms of a small in-memory ontology with the labels of its classes.
+ */
+public class AxiomLabelRendererTest {
+
+    private static final IRI LABEL = OWLRDFVocabulary.RDFS_LABEL.getIRI();
+
+    private OWLDataFactory df;
+    private OWLOntology ontology;
+    private OWLClass a;
+    private OWLClass ab;
+    private OWLClass unlabelled;
+
+
+    @Before
+    public void setUp() throws Exception {
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        df = manager.getOWLDataFactory();
+        ontology = manager.createOntology(IRI.create("http://x.org/r"));
+        //one IRI is a prefix of the other
+        a = df.getOWLClass(IRI.create("http://x.org/r#A"));
+        ab = df.getOWLClass(IRI.create("http://x.org/r#AB"));
+        unlabelled = df.getOWLClass(IRI.create("http://x.org/r#U"));
+        manager.addAxiom(ontology, df.getOWLAnnotationAssertionAxiom(df.getOWLAnnotationProperty(LABEL), a.getIRI(), df.getOWLLiteral("zeta")));
+        manager.addAxiom(ontology, df.getOWLAnnotationAssertionAxiom(df.getOWLAnnotationProperty(LABEL), a.getIRI(), df.getOWLLiteral("alpha")));
+        manager.addAxiom(ontology, df.getOWLAnnotationAssertionAxiom(df.getOWLAnnotationProperty(LABEL), ab.getIRI(), df.getOWLLiteral("a b")));
+    }
+
+
+    private String render(LabelShortFormProvider.MultipleLabelPolicy policy, OWLClassAxiom axiom) {
+        LabelShortFormProvider labels = new LabelShortFormProvider(new AnnotationIndex(ontology), LABEL, policy, true);
+        return new AxiomLabelRenderer(labels, 10).render(axiom);
+    }
+
+
+    @Test
+    public void testLabelsReplaceIRIs() throws Exception {
+        OWLClassAxiom axiom = df.getOWLSubClassOfAxiom(ab, df.getOWLObjectIntersectionOf(a, unlabelled));
+
+        assertEquals("'a b' SubClassOf 'alpha' and http://x.org/r#U",
+                render(LabelShortFormProvider.MultipleLabelPolicy.FIRST, axiom));
+    }
+
+
+    @Test
+    public void testMultipleLabelPolicy() throws Exception {
+        OWLClassAxiom axiom = df.getOWLSubClassOfAxiom(ab, a);
+
+        assertEquals("'a b' SubClassOf 'alpha' / 'zeta'", render(LabelShortFormProvider.MultipleLabelPolicy.ALL, axiom));
+        assertEquals(Collections.singleton("'a b' SubClassOf 'alpha'"),
+                new AxiomLabelRenderer(new AnnotationIndex(ontology), LABEL).render(Collections.singleton(axiom)));
+    }
+
+
+    @Test
+    public void testAxiomLabelsAreRenderedOnFirstUse() throws Exception {
+        AxiomLabelRenderer renderer = new AxiomLabelRenderer(new AnnotationIndex(ontology), LABEL);
+        OWLClassAxiomsInfo info = new OWLClassAxiomsInfo(ab.getIRI(),
+                Collections.<OWLClassAxiom>singleton(df.getOWLSubClassOfAxiom(ab, a)), renderer);
+        assertEquals(0, renderer.getCacheMisses());
+
+        OWLClassAxiomsInfo.renderAxiomLabels(Collections.singletonList(info));
+        assertEquals(2, renderer.getCacheMisses());
+        assertEquals(Collections.singleton("'a b' SubClassOf 'alpha'"), info.getNewClassAxiomsAsLabels());
+        assertEquals(2, renderer.getCacheMisses());
+        assertNull(info.getDeletedClassAxiomsAsLabels());
+    }
+
+
+    @Test
+    public void testRendererIsFreedAfterUse() throws Exception {
+        final OWLClassAxiom axiom = df.getOWLSubClassOfAxiom(ab, a);
+        WeakReference<AxiomLabelRenderer> freed = renderOnThisAndPoolThread(axiom);
+
+        //this thread and the pool threads live on, as the servlet and pool threads of a diff do
+        for (int i = 0; i < 50 && freed.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertTrue("the renderer is kept alive by the threads that used it", freed.get() == null);
+    }
+
+
+    private WeakReference<AxiomLabelRenderer> renderOnThisAndPoolThread(final OWLClassAxiom axiom) throws Exception {
+        final AxiomLabelRenderer renderer = new AxiomLabelRenderer(new AnnotationIndex(ontology), LABEL);
+        assertEquals("'a b' SubClassOf 'alpha'", renderer.render(axiom));
+        assertEquals("'a b' SubClassOf 'alpha'", ForkJoinPool.commonPool().submit(() -> renderer.render(axiom)).get());
+        return new WeakReference<AxiomLabelRenderer>(renderer);
+    }
+}
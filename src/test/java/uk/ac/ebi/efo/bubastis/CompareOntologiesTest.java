@@ -0,0 +1,737 @@
+package uk.ac.ebi.efo.bubastis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.vocab.OWLRDFVocabulary;
+import org.w3c.dom.Document;
+import org.w3c.dom.ProcessingInstruction;
+
+import uk.ac.ebi.efo.bubastis.exceptions.Ontology1LoadException;
+
+/**
+ * Diffs two small versions of the same ontology kept in the test resources.
+ */
+public class CompareOntologiesTest {
+
+    private static final List<IRI> ANNOTATION_PROPERTIES = Arrays.asList(
+            OWLRDFVocabulary.RDFS_LABEL.getIRI(), CompareOntologies.CODE_IRI);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+
+    private File resource(String name) throws Exception {
+        return new File(getClass().getResource("/" + name).toURI());
+    }
+
+
+    private CompareOntologies diff(CompareOntologies comparer) throws Exception {
+        comparer.doFindAllChanges(resource("ontology_v1.ofn"), resource("ontology_v2.ofn"), ANNOTATION_PROPERTIES);
+        return comparer;
+    }
+
+
+    private List<String> describe(List<OWLClassAxiomsInfo> classes) {
+        List<String> descriptions = new ArrayList<String>();
+        for (OWLClassAxiomsInfo info : classes) {
+            descriptions.add(info.getIRIAsString() + " " + info.getNewAxioms() + " " + info.getDeletedAxioms()
+                    + " " + info.getNewRawAnnotations() + " " + info.getDeletedRawAnnotations());
+        }
+        return descriptions;
+    }
+
+
+    private void assertSameDiff(CompareOntologies expected, CompareOntologies actual) {
+        assertEquals(describe(expected.getClassesWithDifferences()), describe(actual.getClassesWithDifferences()));
+        assertEquals(describe(expected.getNewClasses()), describe(actual.getNewClasses()));
+        assertEquals(describe(expected.getDeletedClasses()), describe(actual.getDeletedClasses()));
+    }
+
+
+    private List<String> describeLabels(List<OWLClassAxiomsInfo> classes) {
+        List<String> descriptions = new ArrayList<String>();
+        for (OWLClassAxiomsInfo info : classes) {
+            descriptions.add(info.getIRIAsString() + " " + info.getNewClassAxiomsAsLabels() + " " + info.getDeletedClassAxiomsAsLabels());
+        }
+        return descriptions;
+    }
+
+
+    @Test
+    public void testChangeCounts() throws Exception {
+        CompareOntologies comparer = diff(new CompareOntologies());
+
+        assertEquals(4, comparer.getSizeChangedClasses());
+        assertEquals(1, comparer.getSizeNewClasses());
+        assertEquals(1, comparer.getSizeDeletedClasses());
+        assertEquals(IRI.create("http://x.org/o#New"), comparer.getNewClasses().get(0).getIRI());
+        assertEquals(IRI.create("http://x.org/o#Gone"), comparer.getDeletedClasses().get(0).getIRI());
+    }
+
+
+    @Test
+    public void testParallelDiffMatchesSequentialDiff() throws Exception {
+        CompareOntologies sequential = diff(new CompareOntologies());
+
+        final Set<Thread> comparingThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        final AtomicInteger comparedInPool = new AtomicInteger();
+        CompareOntologies parallel = new CompareOntologies();
+        parallel.setParallelDiff(true);
+        parallel.setDiffParallelism(4);
+        parallel.setProgress(new DiffProgress() {
+            void classCompared() {
+                if (Thread.currentThread() instanceof ForkJoinWorkerThread) {
+                    comparingThreads.add(Thread.currentThread());
+                    comparedInPool.incrementAndGet();
+                }
+                super.classCompared();
+            }
+        });
+        diff(parallel);
+
+        //every class of ontology 1 was compared on the workers of the diff pool, the new classes
+        //are only reported afterwards by the calling thread
+        assertTrue(!comparingThreads.isEmpty());
+        assertEquals(parallel.getOntologyChangesBean().getOntology1().getClassesInSignature().size(), comparedInPool.get());
+        assertEquals(sequential.getProgress().getPercentage(), parallel.getProgress().getPercentage());
+        assertSameDiff(sequential, parallel);
+    }
+
+
+    @Test
+    public void testConcurrentLoadingMatchesSequentialLoading() throws Exception {
+        CompareOntologies sequential = diff(new CompareOntologies());
+
+        CompareOntologies concurrent = new CompareOntologies();
+        final AtomicInteger loaderThreads = new AtomicInteger();
+        ExecutorService loadExecutor = Executors.newFixedThreadPool(2, runnable -> {
+            loaderThreads.incrementAndGet();
+            return new Thread(runnable);
+        });
+        try {
+            concurrent.setLoadExecutor(loadExecutor);
+            diff(concurrent);
+        } finally {
+            loadExecutor.shutdownNow();
+        }
+
+        //each ontology was submitted to the executor on its own, so the pool started both threads
+        assertEquals(2, loaderThreads.get());
+        assertEquals(describe(sequential.getClassesWithDifferences()), describe(concurrent.getClassesWithDifferences()));
+        assertEquals(concurrent.getOntologyChangesBean().getOntology1Location(), resource("ontology_v1.ofn").toString());
+    }
+
+
+    @Test
+    public void testAxiomHashJoinMatchesPerClassDiff() throws Exception {
+        CompareOntologies perClass = diff(new CompareOntologies());
+
+        CompareOntologies hashJoin = new CompareOntologies();
+        hashJoin.setDiffStrategy(DiffStrategy.AXIOM_HASH_JOIN);
+        diff(hashJoin);
+
+        assertSameDiff(perClass, hashJoin);
+        //the join counts every class of ontology 1 as compared
+        assertEquals(perClass.getProgress().getPercentage(), hashJoin.getProgress().getPercentage());
+    }
+
+
+    @Test
+    public void testFingerprintDiffMatchesPerClassDiff() throws Exception {
+        CompareOntologies perClass = diff(new CompareOntologies());
+
+        CompareOntologies fingerprinted = new CompareOntologies();
+        fingerprinted.setUseFingerprints(true);
+        diff(fingerprinted);
+
+        assertSameDiff(perClass, fingerprinted);
+        //the classes reported as changed are those whose fingerprints differ, the others were skipped
+        Set<IRI> changed = new HashSet<IRI>();
+        for (OWLClassAxiomsInfo info : fingerprinted.getClassesWithDifferences()) {
+            changed.add(info.getIRI());
+        }
+        OntologyFingerprints fingerprints1 = fingerprinted.getFingerprints1();
+        OntologyFingerprints fingerprints2 = fingerprinted.getFingerprints2();
+        assertTrue(!fingerprints1.rootMatches(fingerprints2));
+        for (OWLClass ont1Class : fingerprinted.getOntologyChangesBean().getOntology1().getClassesInSignature()) {
+            IRI iri = ont1Class.getIRI();
+            if (fingerprinted.getOntologyChangesBean().getOntology2().containsClassInSignature(iri)) {
+                assertEquals(iri.toString(), !changed.contains(iri),
+                        fingerprints1.axiomsMatch(iri, fingerprints2) && fingerprints1.annotationsMatch(iri, fingerprints2));
+            }
+        }
+    }
+
+
+    @Test
+    public void testIdenticalOntologiesHaveMatchingFingerprints() throws Exception {
+        CompareOntologies comparer = new CompareOntologies();
+        comparer.setUseFingerprints(true);
+        //load the document twice instead of finding it identical before parsing
+        comparer.setSkipIdenticalDocuments(false);
+        comparer.doFindAllChanges(resource("ontology_v2.ofn"), resource("ontology_v2.ofn"), ANNOTATION_PROPERTIES);
+
+        assertEquals(comparer.getFingerprints1().getRootHash(), comparer.getFingerprints2().getRootHash());
+        assertEquals(0, comparer.getSizeChangedClasses());
+        assertEquals(0, comparer.getSizeNewClasses());
+        assertEquals(0, comparer.getSizeDeletedClasses());
+    }
+
+
+    @Test
+    public void testPublicComparisonIgnoresFingerprintsOfTheLastDiff() throws Exception {
+        CompareOntologies perClass = diff(new CompareOntologies());
+
+        //fingerprints of a diff of ontology 2 with itself, where every class matches
+        CompareOntologies comparer = new CompareOntologies();
+        comparer.setUseFingerprints(true);
+        comparer.setSkipIdenticalDocuments(false);
+        comparer.doFindAllChanges(resource("ontology_v2.ofn"), resource("ontology_v2.ofn"), ANNOTATION_PROPERTIES);
+        OWLOntologyManager manager1 = OWLManager.createOWLOntologyManager();
+        OWLOntologyManager manager2 = OWLManager.createOWLOntologyManager();
+        OWLOntology ont1 = manager1.loadOntologyFromOntologyDocument(resource("ontology_v1.ofn"));
+        OWLOntology ont2 = manager2.loadOntologyFromOntologyDocument(resource("ontology_v2.ofn"));
+
+        assertEquals(describe(perClass.getClassesWithDifferences()),
+                describe(comparer.compareAllClassAxioms(manager1, ont1, manager2, ont2)));
+    }
+
+
+    @Test
+    public void testSavedFingerprintsAreReused() throws Exception {
+        CompareOntologies first = new CompareOntologies();
+        first.setUseFingerprints(true);
+        diff(first);
+        File fingerprintFile = temporaryFolder.newFile("v1.fingerprints");
+        first.getFingerprints1().save(fingerprintFile);
+
+        OntologyFingerprints saved = OntologyFingerprints.load(fingerprintFile);
+        assertEquals(first.getFingerprints1().getRootHash(), saved.getRootHash());
+
+        CompareOntologies second = new CompareOntologies();
+        second.setFingerprints1(saved);
+        diff(second);
+
+        assertSame(saved, second.getFingerprints1());
+        assertEquals(describe(first.getClassesWithDifferences()), describe(second.getClassesWithDifferences()));
+    }
+
+
+    @Test
+    public void testSavedFingerprintsOfAnEditedReleaseAreNotReused() throws Exception {
+        File release = temporaryFolder.newFile("release.ofn");
+        Files.copy(resource("ontology_v1.ofn").toPath(), release.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        CompareOntologies first = new CompareOntologies();
+        first.setUseFingerprints(true);
+        first.doFindAllChanges(release, resource("ontology_v2.ofn"), ANNOTATION_PROPERTIES);
+        File fingerprintFile = temporaryFolder.newFile("release.fingerprints");
+        first.getFingerprints1().save(fingerprintFile);
+
+        //a label edited in place keeps the size, the IRIs and the number of axioms
+        String edited = new String(Files.readAllBytes(release.toPath()), "UTF-8").replace("\"beta\"", "\"bexa\"");
+        Files.write(release.toPath(), edited.getBytes("UTF-8"));
+        OntologyFingerprints saved = OntologyFingerprints.load(fingerprintFile);
+        CompareOntologies second = new CompareOntologies();
+        second.setFingerprints1(saved);
+        second.doFindAllChanges(release, resource("ontology_v1.ofn"), ANNOTATION_PROPERTIES);
+
+        assertTrue(saved != second.getFingerprints1());
+        assertEquals(1, second.getSizeChangedClasses());
+        assertEquals("http://x.org/o#B", second.getClassesWithDifferences().get(0).getIRIAsString());
+    }
+
+
+    @Test
+    public void testChainedIndexesAreReused() throws Exception {
+        OWLOntologyManager manager1 = OWLManager.createOWLOntologyManager();
+        OWLOntologyManager manager2 = OWLManager.createOWLOntologyManager();
+        OWLOntology ont1 = manager1.loadOntologyFromOntologyDocument(resource("ontology_v1.ofn"));
+        OWLOntology ont2 = manager2.loadOntologyFromOntologyDocument(resource("ontology_v2.ofn"));
+
+        CompareOntologies chained = new CompareOntologies();
+        chained.setChainIndexes(true);
+        chained.setUseFingerprints(true);
+        chained.doFindAllChanges(manager1, manager2, ont1, ont2, ANNOTATION_PROPERTIES);
+        OntologyFingerprints fingerprints2 = chained.getFingerprints2();
+        //the newer ontology becomes the older one of the next pair
+        chained.doFindAllChanges(manager2, manager1, ont2, ont1, ANNOTATION_PROPERTIES);
+        assertSame(fingerprints2, chained.getFingerprints1());
+
+        CompareOntologies fresh = new CompareOntologies();
+        fresh.doFindAllChanges(manager2, manager1, ont2, ont1, ANNOTATION_PROPERTIES);
+        assertEquals(describeLabels(fresh.getClassesWithDifferences()), describeLabels(chained.getClassesWithDifferences()));
+        assertEquals(describeLabels(fresh.getDeletedClasses()), describeLabels(chained.getDeletedClasses()));
+    }
+
+
+    @Test
+    public void testIdenticalDocumentsAreNotLoaded() throws Exception {
+        File copy = temporaryFolder.newFile("copy.ofn");
+        Files.copy(resource("ontology_v1.ofn").toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        CompareOntologies comparer = new CompareOntologies();
+        comparer.doFindAllChanges(resource("ontology_v1.ofn"), copy, ANNOTATION_PROPERTIES);
+        OntologyChangesBean changeBean = comparer.getOntologyChangesBean();
+        assertEquals(0, changeBean.getNumChangedClasses());
+        assertEquals(0, changeBean.getNumNewClasses());
+        assertEquals(0, changeBean.getNumDeletedClasses());
+        assertEquals(copy.toString(), changeBean.getOntology2Location());
+        assertNull(changeBean.getOntology1());
+
+        comparer.doFindAllChanges(resource("ontology_v1.ofn").toURI().toString(), copy, ANNOTATION_PROPERTIES);
+        assertEquals(0, comparer.getOntologyChangesBean().getNumChangedClasses());
+        assertNull(comparer.getOntologyChangesBean().getOntology1());
+    }
+
+
+    @Test
+    public void testFetchedDocumentIsClosedWhenTheOtherFetchFails() throws Exception {
+        byte[] ontology2 = Files.readAllBytes(resource("ontology_v2.ofn").toPath());
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ontology_v2.ofn", exchange -> {
+            exchange.sendResponseHeaders(200, ontology2.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(ontology2);
+            }
+        });
+        server.start();
+        //runs each fetch on submission, so the second document is fetched before the first one fails
+        ExecutorService direct = new AbstractExecutorService() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+            public void shutdown() {
+            }
+            public List<Runnable> shutdownNow() {
+                return Collections.emptyList();
+            }
+            public boolean isShutdown() {
+                return false;
+            }
+            public boolean isTerminated() {
+                return false;
+            }
+            public boolean awaitTermination(long timeout, TimeUnit unit) {
+                return true;
+            }
+        };
+        List<String> fetchedBefore = fetchedFiles();
+        try {
+            CompareOntologies comparer = new CompareOntologies();
+            comparer.setLoadExecutor(direct);
+            comparer.fetchDocuments(new File(temporaryFolder.getRoot(), "missing.owl").toURI().toString(),
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/ontology_v2.ofn");
+            fail("the first document does not exist");
+        } catch (Ontology1LoadException e) {
+            assertEquals(fetchedBefore, fetchedFiles());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+
+    @Test
+    public void testLocalURLsAreReadInPlace() throws Exception {
+        List<String> fetchedBefore = fetchedFiles();
+        File local = resource("ontology_v1.ofn");
+        try (FetchedDocument document = FetchedDocument.fetch(local.toURI().toString())) {
+            assertEquals(fetchedBefore, fetchedFiles());
+            assertEquals(ContentHash.of(local), document.getContentHash());
+        }
+        assertTrue(local.isFile());
+
+        //a compressed local document is still decompressed into a copy
+        File compressed = temporaryFolder.newFile("ontology_v1.ofn.gz");
+        try (GZIPOutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed.toPath()))) {
+            out.write(Files.readAllBytes(local.toPath()));
+        }
+        try (FetchedDocument document = FetchedDocument.fetch(compressed.toURI().toString())) {
+            assertEquals(fetchedBefore.size() + 1, fetchedFiles().size());
+            assertEquals(ContentHash.of(local), document.getContentHash());
+        }
+        assertEquals(fetchedBefore, fetchedFiles());
+    }
+
+
+    private static List<String> fetchedFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list((directory, name) -> name.startsWith("bubastis") && name.endsWith(".owl"));
+        List<String> files = names == null ? new ArrayList<String>() : new ArrayList<String>(Arrays.asList(names));
+        Collections.sort(files);
+        return files;
+    }
+
+
+    @Test
+    public void testFetchedDocumentsGiveSameDiff() throws Exception {
+        CompareOntologies fromFiles = diff(new CompareOntologies());
+        CompareOntologies fromURLs = new CompareOntologies();
+        fromURLs.doFindAllChanges(resource("ontology_v1.ofn").toURI().toString(),
+                resource("ontology_v2.ofn").toURI().toString(), ANNOTATION_PROPERTIES);
+
+        assertSameDiff(fromFiles, fromURLs);
+        assertEquals(IRI.create(resource("ontology_v2.ofn").toURI()),
+                fromURLs.getOntologyChangesBean().getOntology2().getOWLOntologyManager()
+                        .getOntologyDocumentIRI(fromURLs.getOntologyChangesBean().getOntology2()));
+    }
+
+
+    @Test
+    public void testSnapshotsGiveSameDiff() throws Exception {
+        CompareOntologies parsed = diff(new CompareOntologies());
+        OntologySnapshotCache cache = new OntologySnapshotCache(temporaryFolder.newFolder("snapshots"),
+                OntologySnapshotCache.DEFAULT_MAX_BYTES);
+        CompareOntologies first = new CompareOntologies();
+        first.setSnapshotCache(cache);
+        diff(first);
+        assertEquals(2, cache.getMisses());
+        CompareOntologies fromSnapshots = new CompareOntologies();
+        fromSnapshots.setSnapshotCache(cache);
+        diff(fromSnapshots);
+        assertEquals(2, cache.getHits());
+
+        assertSameDiff(parsed, fromSnapshots);
+        assertEquals(parsed.getOntologyChangesBean().getOntology2().getOntologyID(),
+                fromSnapshots.getOntologyChangesBean().getOntology2().getOntologyID());
+    }
+
+
+    @Test
+    public void testSnapshotCacheTakesAKnownContentHash() throws Exception {
+        File directory = temporaryFolder.newFolder("snapshots");
+        OntologySnapshotCache cache = new OntologySnapshotCache(directory, OntologySnapshotCache.DEFAULT_MAX_BYTES);
+        //the hash given, e.g. by the manifest of a history run, is used instead of reading the file again
+        String contentHash = ContentHash.of(resource("ontology_v1.ofn"));
+        cache.load(OWLManager.createOWLOntologyManager(), resource("ontology_v1.ofn"), contentHash);
+        assertEquals(Arrays.asList(contentHash + ".snapshot"), Arrays.asList(directory.list()));
+        cache.load(OWLManager.createOWLOntologyManager(), FetchedDocument.of(resource("ontology_v1.ofn"), contentHash));
+        assertEquals(1, cache.getHits());
+    }
+
+
+    @Test
+    public void testSnapshotsHoldFunctionalSyntaxAndDamagedOnesAreParsedAgain() throws Exception {
+        File directory = temporaryFolder.newFolder("snapshots");
+        OntologySnapshotCache cache = new OntologySnapshotCache(directory, OntologySnapshotCache.DEFAULT_MAX_BYTES);
+        OWLOntology parsed = cache.load(OWLManager.createOWLOntologyManager(), resource("ontology_v1.ofn"));
+        File snapshot = new File(directory, ContentHash.of(resource("ontology_v1.ofn")) + ".snapshot");
+        String content = new String(Files.readAllBytes(snapshot.toPath()), "UTF-8");
+        assertTrue(content.contains("SubClassOf(<http://x.org/o#C> <http://x.org/o#A>)"));
+
+        //rebuilt from the snapshot by the shared factory, so interned with the other release
+        OWLDataFactory dataFactory = InterningDataFactory.create();
+        OWLOntology fromSnapshot = cache.load(InterningDataFactory.createOWLOntologyManager(dataFactory), resource("ontology_v1.ofn"));
+        OWLOntology other = InterningDataFactory.createOWLOntologyManager(dataFactory)
+                .loadOntologyFromOntologyDocument(resource("ontology_v1.ofn"));
+        assertEquals(1, cache.getHits());
+        assertEquals(parsed.getOntologyID(), fromSnapshot.getOntologyID());
+        assertEquals(parsed.getAxioms(AxiomType.SUBCLASS_OF), fromSnapshot.getAxioms(AxiomType.SUBCLASS_OF));
+        for (OWLAxiom axiom : fromSnapshot.getAxioms(AxiomType.SUBCLASS_OF)) {
+            for (OWLAxiom otherAxiom : other.getAxioms(AxiomType.SUBCLASS_OF)) {
+                if (axiom.equals(otherAxiom)) {
+                    assertSame(axiom, otherAxiom);
+                }
+            }
+        }
+
+        //a damaged snapshot is replaced by parsing the document
+        byte[] damaged = Arrays.copyOf(Files.readAllBytes(snapshot.toPath()), 40);
+        Files.write(snapshot.toPath(), damaged);
+        OWLOntology reparsed = cache.load(OWLManager.createOWLOntologyManager(), resource("ontology_v1.ofn"));
+        assertEquals(2, cache.getMisses());
+        assertEquals(parsed.getAxioms(AxiomType.SUBCLASS_OF), reparsed.getAxioms(AxiomType.SUBCLASS_OF));
+    }
+
+
+    @Test
+    public void testSnapshotCacheEvictsLeastRecentlyUsed() throws Exception {
+        File directory = temporaryFolder.newFolder("snapshots");
+        //room for one snapshot only
+        OntologySnapshotCache cache = new OntologySnapshotCache(directory, 1);
+        cache.load(OWLManager.createOWLOntologyManager(), resource("ontology_v1.ofn"));
+        cache.load(OWLManager.createOWLOntologyManager(), resource("ontology_v2.ofn"));
+        assertEquals(Arrays.asList(ContentHash.of(resource("ontology_v2.ofn")) + ".snapshot"),
+                Arrays.asList(directory.list()));
+    }
+
+
+    @Test
+    public void testSharedDataFactoryGivesSameDiff() throws Exception {
+        CompareOntologies separate = diff(new CompareOntologies());
+        CompareOntologies comparer = new CompareOntologies();
+        comparer.setShareDataFactory(true);
+        CompareOntologies shared = diff(comparer);
+
+        assertSameDiff(separate, shared);
+        //an axiom in both releases is one instance
+        OWLOntology ontology1 = shared.getOntologyChangesBean().getOntology1();
+        OWLOntology ontology2 = shared.getOntologyChangesBean().getOntology2();
+        int sharedAxioms = 0;
+        for (OWLAxiom axiom2 : ontology2.getAxioms()) {
+            for (OWLAxiom axiom1 : ontology1.getAxioms()) {
+                if (axiom1.equals(axiom2)) {
+                    assertSame(axiom1, axiom2);
+                    sharedAxioms++;
+                }
+            }
+        }
+        assertTrue(sharedAxioms > 0);
+    }
+
+
+    @Test
+    public void testHashedDocumentsGiveSameDiff() throws Exception {
+        CompareOntologies files = diff(new CompareOntologies());
+        CompareOntologies documents = new CompareOntologies();
+        try (FetchedDocument document1 = FetchedDocument.of(resource("ontology_v1.ofn"));
+             FetchedDocument document2 = FetchedDocument.of(resource("ontology_v2.ofn"))) {
+            assertEquals(ContentHash.of(resource("ontology_v1.ofn")), document1.getContentHash());
+            documents.doFindAllChanges(document1, document2, ANNOTATION_PROPERTIES);
+        }
+
+        assertSameDiff(files, documents);
+        assertEquals(resource("ontology_v1.ofn").toString(), documents.getOntologyChangesBean().getOntology1Location());
+        //the files are read in place and not deleted with the documents
+        assertTrue(resource("ontology_v1.ofn").isFile() && resource("ontology_v2.ofn").isFile());
+    }
+
+
+    @Test
+    public void testCompressedDocumentsGiveSameDiff() throws Exception {
+        CompareOntologies files = diff(new CompareOntologies());
+        byte[] ontology1 = Files.readAllBytes(resource("ontology_v1.ofn").toPath());
+        byte[] ontology2 = Files.readAllBytes(resource("ontology_v2.ofn").toPath());
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(ontology1);
+        }
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            out.putNextEntry(new ZipEntry("ontology_v2.ofn"));
+            out.write(ontology2);
+        }
+
+        CompareOntologies documents = new CompareOntologies();
+        try (FetchedDocument document1 = FetchedDocument.read(new ByteArrayInputStream(gzip.toByteArray()), "ontology_v1.ofn.gz");
+             FetchedDocument document2 = FetchedDocument.read(new ByteArrayInputStream(zip.toByteArray()), "ontology_v2.zip")) {
+            //the hash is the hash of the decompressed document
+            assertEquals(ContentHash.of(resource("ontology_v1.ofn")), document1.getContentHash());
+            assertEquals(ContentHash.of(resource("ontology_v2.ofn")), document2.getContentHash());
+            documents.doFindAllChanges(document1, document2, ANNOTATION_PROPERTIES);
+        }
+
+        assertSameDiff(files, documents);
+    }
+
+
+    @Test
+    public void testDetachedResultsKeepOnlyMetadata() throws Exception {
+        CompareOntologies attached = diff(new CompareOntologies());
+        CompareOntologies comparer = new CompareOntologies();
+        comparer.setDetachResults(true);
+        OntologyChangesBean detached = diff(comparer).getOntologyChangesBean();
+
+        assertNull(detached.getOntology1());
+        assertNull(detached.getOntology2());
+        assertEquals(attached.getOntologyChangesBean().getOntology1().getOntologyID(), detached.getOntology1ID());
+        assertEquals(attached.getOntologyChangesBean().getOntology2().getOntologyID(), detached.getOntology2ID());
+        assertEquals(attached.getOntologyChangesBean().getClassesWithDifferencesAsXML(), detached.getClassesWithDifferencesAsXML());
+        assertEquals(attached.getOntologyChangesBean().getNewClassesAsXML(), detached.getNewClassesAsXML());
+        assertEquals(attached.getOntologyChangesBean().getDeletedClassesAsXML(), detached.getDeletedClassesAsXML());
+    }
+
+
+    @Test
+    public void testReleaseIndexesGiveSameDiff() throws Exception {
+        CompareOntologies parsed = diff(new CompareOntologies());
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        File index1 = temporaryFolder.newFile("v1.idx");
+        File index2 = temporaryFolder.newFile("v2.idx");
+        ReleaseIndex.write(manager.loadOntologyFromOntologyDocument(resource("ontology_v1.ofn")), ANNOTATION_PROPERTIES,
+                CompareOntologies.CODE_IRI, index1);
+        ReleaseIndex.write(manager.loadOntologyFromOntologyDocument(resource("ontology_v2.ofn")), ANNOTATION_PROPERTIES,
+                CompareOntologies.CODE_IRI, index2);
+        CompareOntologies fromIndexes = new CompareOntologies();
+        fromIndexes.doFindAllChangesFromIndexes(index1, index2);
+
+        assertEquals(describeLabels(parsed.getClassesWithDifferences()), describeLabels(fromIndexes.getClassesWithDifferences()));
+        assertEquals(describeLabels(parsed.getNewClasses()), describeLabels(fromIndexes.getNewClasses()));
+        assertEquals(describeLabels(parsed.getDeletedClasses()), describeLabels(fromIndexes.getDeletedClasses()));
+        for (int i = 0; i < parsed.getClassesWithDifferences().size(); i++) {
+            OWLClassAxiomsInfo expected = parsed.getClassesWithDifferences().get(i);
+            OWLClassAxiomsInfo actual = fromIndexes.getClassesWithDifferences().get(i);
+            assertEquals(expected.getNewRawAnnotations(), actual.getNewRawAnnotations());
+            assertEquals(expected.getDeletedRawAnnotations(), actual.getDeletedRawAnnotations());
+            assertEquals(expected.getNumNewAxioms(), actual.getNumNewAxioms());
+            assertEquals(expected.getNumDeletedAxioms(), actual.getNumDeletedAxioms());
+        }
+    }
+
+
+    @Test
+    public void testListenerReceivesChangesWithoutRetainingThem() throws Exception {
+        CompareOntologies retained = diff(new CompareOntologies());
+
+        final List<String> events = new ArrayList<String>();
+        CompareOntologies streamed = new CompareOntologies();
+        streamed.setRetainResults(false);
+        streamed.addDiffListener(new DiffListener() {
+            public void onStart(OntologyChangesBean changeBean) {
+                events.add("start");
+            }
+
+            public void onChangedClass(OWLClassAxiomsInfo changedClass) {
+                events.add("changed " + describe(Arrays.asList(changedClass)).get(0));
+            }
+
+            public void onNewClass(OWLClassAxiomsInfo newClass) {
+                events.add("new " + describe(Arrays.asList(newClass)).get(0));
+            }
+
+            public void onDeletedClass(OWLClassAxiomsInfo deletedClass) {
+                events.add("deleted " + describe(Arrays.asList(deletedClass)).get(0));
+            }
+
+            public void onComplete(OntologyChangesBean changeBean) {
+                events.add("complete " + changeBean.getNumChangedClasses() + " " + changeBean.getNumNewClasses()
+                        + " " + changeBean.getNumDeletedClasses());
+            }
+        });
+        diff(streamed);
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("start");
+        for (String description : describe(retained.getClassesWithDifferences())) {
+            expected.add("changed " + description);
+        }
+        for (String description : describe(retained.getNewClasses())) {
+            expected.add("new " + description);
+        }
+        for (String description : describe(retained.getDeletedClasses())) {
+            expected.add("deleted " + description);
+        }
+        expected.add("complete 4 1 1");
+        assertEquals(expected, events);
+
+        assertEquals(0, streamed.getClassesWithDifferences().size());
+        assertEquals(4, streamed.getSizeChangedClasses());
+    }
+
+
+    @Test
+    public void testChangedClassesAreReportedInIRIOrder() throws Exception {
+        CompareOntologies comparer = diff(new CompareOntologies());
+
+        List<String> iris = new ArrayList<String>();
+        for (OWLClassAxiomsInfo info : comparer.getClassesWithDifferences()) {
+            iris.add(info.getIRIAsString());
+        }
+        List<String> sorted = new ArrayList<String>(iris);
+        Collections.sort(sorted);
+        assertEquals(sorted, iris);
+    }
+
+
+    @Test
+    public void testLabelPropertyIsConfigurable() throws Exception {
+        CompareOntologies comparer = new CompareOntologies();
+        comparer.setLabelPropertyIRI(OWLRDFVocabulary.RDFS_LABEL.getIRI());
+        diff(comparer);
+
+        OWLClassAxiomsInfo deleted = comparer.getDeletedClasses().get(0);
+        assertEquals(Collections.singleton("http://x.org/o#Gone SubClassOf 'alpha'"), deleted.getNewClassAxiomsAsLabels());
+        //B is the first changed class, labelled "beta" in ontology 1
+        assertEquals(Collections.singleton("beta"), comparer.getClassesWithDifferences().get(0).getLabelsAsString());
+    }
+
+
+    @Test
+    public void testLabelCacheCountsHitsAndMisses() throws Exception {
+        CompareOntologies comparer = diff(new CompareOntologies());
+        describeLabels(comparer.getClassesWithDifferences());
+        describeLabels(comparer.getNewClasses());
+        assertTrue(comparer.getLabelCacheMisses() > 0);
+        assertTrue(comparer.getLabelCacheHits() > 0);
+
+        //a cache too small to hold the labels gives the same result
+        CompareOntologies smallCache = new CompareOntologies();
+        smallCache.setLabelCacheSize(1);
+        diff(smallCache);
+        assertEquals(describeLabels(comparer.getClassesWithDifferences()), describeLabels(smallCache.getClassesWithDifferences()));
+        assertEquals(describeLabels(comparer.getNewClasses()), describeLabels(smallCache.getNewClasses()));
+    }
+
+
+    @Test
+    public void testRetainedResultsRenderLabelsWhenAccessed() throws Exception {
+        CompareOntologies comparer = new CompareOntologies();
+        comparer.setPrintChanges(false);
+        diff(comparer);
+        assertEquals(0, comparer.getLabelCacheMisses());
+        assertTrue(comparer.getSizeChangedClasses() > 0);
+
+        describeLabels(comparer.getClassesWithDifferences());
+        describeLabels(comparer.getNewClasses());
+        assertTrue(comparer.getLabelCacheMisses() > 0);
+    }
+
+
+    @Test
+    public void testStreamedXMLMatchesXMLRenderer() throws Exception {
+        CompareOntologies comparer = diff(new CompareOntologies());
+        File streamed = temporaryFolder.newFile("streamed.xml");
+        File rendered = temporaryFolder.newFile("rendered.xml");
+        new XMLStreamRenderer().writeDiffAsXMLFile(streamed.getPath(), comparer.getOntologyChangesBean(), "style.xslt");
+        new XMLRenderer().writeDiffAsXMLFile(rendered.getPath(), comparer.getOntologyChangesBean(), "style.xslt");
+
+        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        Document streamedDocument = builder.parse(streamed);
+        Document renderedDocument = builder.parse(rendered);
+        assertTrue(streamedDocument.getDocumentElement().isEqualNode(renderedDocument.getDocumentElement()));
+        assertEquals("type=\"text/xsl\" href=\"style.xslt\"",
+                ((ProcessingInstruction) streamedDocument.getFirstChild()).getData());
+    }
+}
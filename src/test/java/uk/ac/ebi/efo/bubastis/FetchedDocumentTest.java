@@ -0,0 +1,83 @@
+package uk.ac.ebi.efo.bubastis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+import uk.ac.ebi.efo.bubastis.exceptions.DocumentTooLargeException;
+
+/**
+ * Reads compressed documents, as uploaded to the web application, within a size limit.
+ */
+public class FetchedDocumentTest {
+
+    private static final int MB = 1024 * 1024;
+
+
+    private static byte[] gzip(byte[] content) throws Exception {
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(content);
+        }
+        return gzip.toByteArray();
+    }
+
+
+    private static byte[] zip(byte[] content) throws Exception {
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            out.putNextEntry(new ZipEntry("bomb.owl"));
+            out.write(content);
+        }
+        return zip.toByteArray();
+    }
+
+
+    private static int temporaryDocuments() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list((dir, name) -> name.startsWith("bubastis") && name.endsWith(".owl"));
+        return names == null ? 0 : names.length;
+    }
+
+
+    private static void assertTooLarge(byte[] compressed, long maxLength) throws Exception {
+        int before = temporaryDocuments();
+        try {
+            FetchedDocument.read(new ByteArrayInputStream(compressed), "bomb", maxLength).close();
+            fail("a document larger than " + maxLength + " bytes was read");
+        } catch (DocumentTooLargeException e) {
+            assertEquals(maxLength, e.getMaxLength());
+        }
+        //nothing is kept of the document
+        assertEquals(before, temporaryDocuments());
+    }
+
+
+    @Test
+    public void testCompressionBombIsStopped() throws Exception {
+        //64 MB of zeros compress to well under 100 KB
+        byte[] zeros = new byte[64 * MB];
+        byte[] gzip = gzip(zeros);
+        byte[] zip = zip(zeros);
+
+        assertTooLarge(gzip, MB);
+        assertTooLarge(zip, MB);
+    }
+
+
+    @Test
+    public void testDocumentWithinLimitIsRead() throws Exception {
+        byte[] content = new byte[MB];
+        try (FetchedDocument document = FetchedDocument.read(new ByteArrayInputStream(gzip(content)), "document.gz", MB)) {
+            assertEquals(MB, document.length());
+            assertEquals(ContentHash.of(new ByteArrayInputStream(content)), document.getContentHash());
+        }
+    }
+}